@@ -0,0 +1,129 @@
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * 【基准测试的被测代码】
+ * 编译器的类都在默认包中，而JMH的基准测试类必须在具名包中，不能直接引用它们；
+ * pl0bench中的基准测试通过方法句柄调用这里的静态方法，参数与返回值只用基本类型、数组和Object
+ */
+public class BenchKernels {
+
+    /**
+     * 生成约size个字符的PL0程序
+     */
+    public static char[] generate(long size, long seed, int depth, int expressionDepth, int identifiers) {
+        ProgramGenerator generator = new ProgramGenerator(seed);
+        generator.setMaxDepth(depth);
+        generator.setExpressionDepth(expressionDepth);
+        generator.setIdentifiers(identifiers);
+        StringBuilder sb = new StringBuilder((int) Math.min(size + 256, Integer.MAX_VALUE - 8));
+        try {
+            generator.generate(size, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        char[] source = new char[sb.length()];
+        sb.getChars(0, source.length, source, 0);
+        return source;
+    }
+
+    /**
+     * 只做词法分析，返回符号个数
+     *
+     * @param fast 使用BufferLexer，否则使用逐行读入的Lexer
+     */
+    public static long lex(char[] source, boolean fast) {
+        Lexer lexer = fast ? new BufferLexer(source, source.length)
+                : new Lexer(new BufferedReader(new CharArrayReader(source)));
+        long tokens = 0;
+        do {
+            lexer.getsym();
+            tokens++;
+        } while (lexer.getSym().getSymtype() != Symbol.eof);
+        return tokens;
+    }
+
+    /**
+     * 用threads个线程的ParallelLexer做词法分析（包括切分、并行识别、拼接与逐个取出），返回符号个数
+     */
+    public static long lexParallel(char[] source, int threads) {
+        Lexer lexer = new ParallelLexer(source, source.length, threads);
+        long tokens = 0;
+        do {
+            lexer.getsym();
+            tokens++;
+        } while (lexer.getSym().getSymtype() != Symbol.eof);
+        return tokens;
+    }
+
+    /**
+     * 完整编译（词法分析、语法分析、中间代码生成，optimize时再做局部优化），返回中间代码条数
+     */
+    public static int compile(char[] source, boolean fast, boolean optimize) throws IOException {
+        Lexer lexer = fast ? new BufferLexer(source, source.length)
+                : new Lexer(new BufferedReader(new CharArrayReader(source)));
+        try (Compiler compiler = new Compiler(lexer)) {
+            compiler.setOptimize(optimize);
+            if (!compiler.compile())
+                throw new IllegalStateException(compiler.getErr().getMessages().get(0));
+            return compiler.getIntermediater().size();
+        }
+    }
+
+    /**
+     * 生成jumps条待回填的跳转，每fanIn条合并成一条链后一次回填；
+     * 新的跳转接在链尾（与语法分析器合并出口链的方式相同），merge沿链走到链尾的开销随fanIn增长
+     *
+     * @return 生成的代码条数
+     */
+    public static int backpatch(int jumps, int fanIn) {
+        Intermediater ir = new Intermediater(new Table(new IdentifierPool()));
+        for (int done = 0; done < jumps; done += fanIn) {
+            int list = ir.makeList();
+            for (int i = 0; i < fanIn; i++) {
+                int jump = ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY);
+                list = ir.merge(list, ir.makeList(jump));
+            }
+            ir.BackPatch(list, ir.nextStat);
+        }
+        return ir.size();
+    }
+
+    /**
+     * 建立含有identifiers个变量的符号表
+     */
+    public static Object newTable(int identifiers) {
+        IdentifierPool names = new IdentifierPool();
+        Table table = new Table(names);
+        for (int i = 0; i < identifiers; i++)
+            table.addItem(names.intern("v" + i), Table.Kind.VARIABLE);
+        return table;
+    }
+
+    /**
+     * 随机的待查标识符编号，约一半不在符号表中
+     */
+    public static int[] lookupIds(int identifiers, int count, long seed) {
+        Random random = new Random(seed);
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = random.nextInt(identifiers * 2);
+        return ids;
+    }
+
+    /**
+     * 依次查找ids中的每个标识符，返回找到的个数
+     */
+    public static int lookups(Object table, int[] ids) {
+        Table t = (Table) table;
+        int found = 0;
+        for (int id : ids) {
+            if (t.lookup(id))
+                found++;
+        }
+        return found;
+    }
+}
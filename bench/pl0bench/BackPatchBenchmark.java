@@ -0,0 +1,38 @@
+package pl0bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intermediater.BackPatch与merge：每次调用生成JUMPS条跳转，按fanIn条一组合并后回填，
+ * 结果是每条跳转的平均时间
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackPatchBenchmark {
+    private static final int JUMPS = 1 << 16;
+
+    @Param({"1", "8", "64", "512"})
+    public int fanIn;
+
+    @Benchmark
+    @OperationsPerInvocation(JUMPS)
+    public int backpatch() throws Throwable {
+        return (int) Kernels.BACKPATCH.invokeExact(JUMPS, fanIn);
+    }
+}
@@ -0,0 +1,49 @@
+package pl0bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * 默认包中BenchKernels的方法句柄；句柄是static final字段，JIT把调用内联成直接调用
+ */
+final class Kernels {
+    static final MethodHandle GENERATE;
+    static final MethodHandle LEX;
+    static final MethodHandle LEX_PARALLEL;
+    static final MethodHandle COMPILE;
+    static final MethodHandle BACKPATCH;
+    static final MethodHandle NEW_TABLE;
+    static final MethodHandle LOOKUP_IDS;
+    static final MethodHandle LOOKUPS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> kernels = Class.forName("BenchKernels");
+            GENERATE = lookup.findStatic(kernels, "generate",
+                    MethodType.methodType(char[].class, long.class, long.class, int.class, int.class, int.class));
+            LEX = lookup.findStatic(kernels, "lex", MethodType.methodType(long.class, char[].class, boolean.class));
+            LEX_PARALLEL = lookup.findStatic(kernels, "lexParallel",
+                    MethodType.methodType(long.class, char[].class, int.class));
+            COMPILE = lookup.findStatic(kernels, "compile",
+                    MethodType.methodType(int.class, char[].class, boolean.class, boolean.class));
+            BACKPATCH = lookup.findStatic(kernels, "backpatch", MethodType.methodType(int.class, int.class, int.class));
+            NEW_TABLE = lookup.findStatic(kernels, "newTable", MethodType.methodType(Object.class, int.class));
+            LOOKUP_IDS = lookup.findStatic(kernels, "lookupIds",
+                    MethodType.methodType(int[].class, int.class, int.class, long.class));
+            LOOKUPS = lookup.findStatic(kernels, "lookups",
+                    MethodType.methodType(int.class, Object.class, int[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Kernels() {
+    }
+
+    // 生成基准测试的输入程序：默认的嵌套深度、表达式复杂度与标识符个数，种子固定
+    static char[] program(long size) throws Throwable {
+        return (char[]) GENERATE.invokeExact(size, 42L, 3, 3, 50);
+    }
+}
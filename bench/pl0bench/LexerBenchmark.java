@@ -0,0 +1,56 @@
+package pl0bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer.getsym的吞吐量：对整个源程序做词法分析，tokens计数器给出每秒的符号数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class LexerBenchmark {
+    @Param({"1024", "32768", "1048576", "33554432", "104857600"})
+    public long size;
+
+    @Param({"false", "true"})
+    public boolean fast; // true为BufferLexer
+
+    private char[] source;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        source = Kernels.program(size);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long tokens;
+        public long bytes;
+    }
+
+    @Benchmark
+    public long lex(Counters counters) throws Throwable {
+        long tokens = (long) Kernels.LEX.invokeExact(source, fast);
+        counters.tokens += tokens;
+        counters.bytes += source.length;
+        return tokens;
+    }
+}
@@ -0,0 +1,57 @@
+package pl0bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelLexer的吞吐量随线程数的变化：与LexerBenchmark中fast=true（BufferLexer）的结果相比即为加速比；
+ * 线程数超过机器的核数时结果没有意义
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ParallelLexerBenchmark {
+    @Param({"1048576", "33554432", "104857600"})
+    public long size;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private char[] source;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        source = Kernels.program(size);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long tokens;
+        public long bytes;
+    }
+
+    @Benchmark
+    public long lex(Counters counters) throws Throwable {
+        long tokens = (long) Kernels.LEX_PARALLEL.invokeExact(source, threads);
+        counters.tokens += tokens;
+        counters.bytes += source.length;
+        return tokens;
+    }
+}
@@ -0,0 +1,60 @@
+package pl0bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser.parse端到端：词法分析、语法分析与中间代码生成（optimize时再做局部优化），
+ * bytes计数器给出每秒编译的源程序字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ParserBenchmark {
+    @Param({"1024", "32768", "1048576", "33554432", "104857600"})
+    public long size;
+
+    @Param({"true"})
+    public boolean fast;
+
+    @Param({"false", "true"})
+    public boolean optimize;
+
+    private char[] source;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        source = Kernels.program(size);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long bytes;
+        public long instructions;
+    }
+
+    @Benchmark
+    public int compile(Counters counters) throws Throwable {
+        int instructions = (int) Kernels.COMPILE.invokeExact(source, fast, optimize);
+        counters.bytes += source.length;
+        counters.instructions += instructions;
+        return instructions;
+    }
+}
@@ -0,0 +1,49 @@
+package pl0bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table.lookup：在含有identifiers个变量的符号表中查找随机的标识符（约一半不存在），
+ * 结果是每次查找的平均时间
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+    private static final int LOOKUPS = 4096;
+
+    @Param({"16", "256", "4096", "65536", "262144"})
+    public int identifiers;
+
+    private Object table;
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        table = (Object) Kernels.NEW_TABLE.invokeExact(identifiers);
+        ids = (int[]) Kernels.LOOKUP_IDS.invokeExact(identifiers, LOOKUPS, 7L);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int lookup() throws Throwable {
+        return (int) Kernels.LOOKUPS.invokeExact(table, ids);
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * 【扁平的抽象语法树】
+ * 所有结点存放在一组平行的int数组（结点池）中，结点就是数组下标，不为结点创建对象；
+ * 每个结点有种类、值、左右两个子结点、同一列表中的下一个结点以及源程序行号，-1表示没有；
+ * 标识符在分析时已按作用域解析为槽位（过程调用解析为过程结点），之后的处理不再需要符号表；
+ * reset()只清空结点个数而保留数组，同一个结点池可以反复用于多次编译
+ */
+public class Ast {
+    // 结点种类，各字段的含义：
+    public static final int BLOCK = 0; // 分程序：left为说明（CONST_INIT与PROC）的列表，right为语句
+    public static final int PROC = 1; // 过程：value与right为其槽位范围[value, right)，left为分程序
+    public static final int CONST_INIT = 2; // 不做常量折叠时常量的运行时赋值：value为槽位，right为值
+    public static final int ASSIGN = 3; // 赋值语句：value为左部的槽位，left为表达式
+    public static final int IF = 4; // 条件语句：left为条件，right为语句
+    public static final int WHILE = 5; // 循环语句：left为条件，right为语句
+    public static final int COMPOUND = 6; // 复合语句：left为语句的列表
+    public static final int CALL = 7; // 过程调用语句：value为过程结点
+    public static final int COND = 8; // 条件：value为条件跳转的操作码，left与right为两个表达式
+    public static final int UNARY = 9; // 一元运算：value为操作码，left为操作数
+    public static final int BINARY = 10; // 二元运算：value为操作码，left与right为操作数
+    public static final int VAR = 11; // 变量（以及不折叠的常量）：value为槽位
+    public static final int NUM = 12; // 常数（以及折叠的常量）：value为值
+
+    public static final int NONE = -1;
+
+    private int[] kinds;
+    private int[] values;
+    private int[] lefts;
+    private int[] rights;
+    private int[] nexts;
+    private int[] lines;
+    private int size = 0;
+
+    public Ast() {
+        this(256);
+    }
+
+    public Ast(int capacity) {
+        capacity = Math.max(16, capacity);
+        kinds = new int[capacity];
+        values = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        nexts = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    /**
+     * 清空结点池，保留已分配的数组
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /*
+     * 新建一个结点，返回其下标
+     */
+    public int add(int kind, int value, int left, int right, int line) {
+        if (size == kinds.length)
+            grow();
+        kinds[size] = kind;
+        values[size] = value;
+        lefts[size] = left;
+        rights[size] = right;
+        nexts[size] = NONE;
+        lines[size] = line;
+        return size++;
+    }
+
+    private void grow() {
+        int capacity = size * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        values = Arrays.copyOf(values, capacity);
+        lefts = Arrays.copyOf(lefts, capacity);
+        rights = Arrays.copyOf(rights, capacity);
+        nexts = Arrays.copyOf(nexts, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+    }
+
+    /*
+     * 把node接在列表的末尾tail之后（tail为NONE时node是列表的第一个结点），返回新的末尾
+     */
+    public int append(int tail, int node) {
+        if (tail != NONE)
+            nexts[tail] = node;
+        return node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 结点池的容量（已分配的结点个数）
+    public int capacity() {
+        return kinds.length;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int value(int node) {
+        return values[node];
+    }
+
+    public int left(int node) {
+        return lefts[node];
+    }
+
+    public int right(int node) {
+        return rights[node];
+    }
+
+    public int next(int node) {
+        return nexts[node];
+    }
+
+    public int line(int node) {
+        return lines[node];
+    }
+
+    public void setValue(int node, int value) {
+        values[node] = value;
+    }
+
+    public void setLeft(int node, int left) {
+        lefts[node] = left;
+    }
+
+    public void setRight(int node, int right) {
+        rights[node] = right;
+    }
+}
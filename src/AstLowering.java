@@ -0,0 +1,177 @@
+import java.util.Arrays;
+
+/**
+ * 【由抽象语法树生成中间代码】
+ * 按与Parser直接生成时相同的次序调用Intermediater（常数、临时变量、跳转与回填的次序都相同），
+ * 因此生成的中间代码与直接生成的完全一致，流式输出同样适用；
+ * 表达式结点返回保存其值的操作数，语句结点返回Intermediater.NONE；
+ * 过程的代码生成与Procedures相同：过程代码放在跳过它们的跳转之后，递归调用保存该过程的全部槽位
+ */
+public class AstLowering extends AstVisitor {
+    private final Intermediater ir;
+
+    // 过程结点的入口地址与保存集合的编号（0表示还没有递归调用），下标为结点
+    private int[] entries;
+    private int[] saveSets;
+    // 正在生成的过程结点，栈顶为最内层
+    private int[] open = new int[8];
+    private int depth = 0;
+
+    // 最近一次生成的<条件>的真链与假链
+    private int condTrueList, condFalseList;
+
+    public AstLowering(Ast ast, Intermediater ir) {
+        super(ast);
+        this.ir = ir;
+    }
+
+    /**
+     * 生成以root为<程序>的分程序的全部中间代码
+     */
+    public void lower(int root) {
+        entries = new int[ast.size()];
+        saveSets = new int[ast.size()];
+        depth = 0;
+        visit(root);
+    }
+
+    @Override
+    protected int visitBlock(int node) {
+        // 跳过过程代码的跳转
+        int skipList = ir.makeList();
+        for (int item = ast.left(node); item != Ast.NONE; item = ast.next(item)) {
+            if (ast.kind(item) == Ast.PROC && skipList == Intermediater.EMPTY)
+                skipList = ir.makeList(
+                        ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+            visit(item);
+        }
+        if (skipList != Intermediater.EMPTY)
+            ir.BackPatch(skipList, ir.nextStat);
+        if (ast.right(node) != Ast.NONE)
+            visit(ast.right(node));
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitProc(int node) {
+        if (depth == open.length)
+            open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = node;
+        entries[node] = ir.nextStat;
+        visit(ast.left(node));
+        ir.emit(OpCode.ret, Intermediater.NONE, Intermediater.NONE, Intermediater.NONE);
+        depth--;
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitConstInit(int node) {
+        // 开启常量折叠时常量在编译期直接替换，不生成运行时赋值
+        if (!ir.foldConstants)
+            ir.emit(OpCode.assign, ir.constant(ast.right(node)), Intermediater.NONE, ir.var(ast.value(node)));
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitAssign(int node) {
+        int right = visit(ast.left(node));
+        ir.emit(OpCode.assign, right, Intermediater.NONE, ir.var(ast.value(node)));
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitIf(int node) {
+        visit(ast.left(node));
+        int falseList = condFalseList;
+        ir.BackPatch(condTrueList, ir.nextStat);
+        if (ast.right(node) != Ast.NONE)
+            visit(ast.right(node));
+        ir.BackPatch(falseList, ir.nextStat);
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitWhile(int node) {
+        int start = ir.nextStat;
+        visit(ast.left(node));
+        int falseList = condFalseList;
+        ir.BackPatch(condTrueList, ir.nextStat); // 真出口在生成循环体之前即可回填
+        if (ast.right(node) != Ast.NONE)
+            visit(ast.right(node));
+        ir.BackPatch(falseList, ir.nextStat + 1);
+        ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, start);
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitCompound(int node) {
+        visitList(ast.left(node));
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitCall(int node) {
+        int proc = ast.value(node);
+        int set = 0;
+        for (int k = depth - 1; k >= 0; k--) {
+            if (open[k] == proc) {
+                // 递归调用：保存该过程及其内层过程的全部槽位
+                if (saveSets[proc] == 0) {
+                    saveSets[proc] = ir.newSaveSet();
+                    int[] slots = new int[ast.right(proc) - ast.value(proc)];
+                    for (int j = 0; j < slots.length; j++)
+                        slots[j] = ast.value(proc) + j;
+                    ir.setSaveSet(saveSets[proc], slots);
+                }
+                set = saveSets[proc];
+                break;
+            }
+        }
+        ir.emit(OpCode.call, set, Intermediater.NONE, entries[proc]);
+        return Intermediater.NONE;
+    }
+
+    /*
+     * 生成条件跳转（真出口）和无条件跳转（假出口），真链和假链记录在condTrueList和condFalseList中
+     */
+    @Override
+    protected int visitCond(int node) {
+        int op = ast.value(node);
+        int left = visit(ast.left(node));
+        int right = visit(ast.right(node));
+        int known = ir.foldCondition(op, left, right);
+        if (known < 0) {
+            condTrueList = ir.makeList(ir.emit(op, left, right, Intermediater.EMPTY));
+            condFalseList = ir.makeList(
+                    ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+        } else {
+            // 条件在编译期即可确定：只生成一条无条件跳转，另一个出口的链为空
+            int exit = ir.makeList(
+                    ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+            condTrueList = known == 1 ? exit : ir.makeList();
+            condFalseList = known == 1 ? ir.makeList() : exit;
+        }
+        return Intermediater.NONE;
+    }
+
+    @Override
+    protected int visitUnary(int node) {
+        return ir.emitUnary(ast.value(node), visit(ast.left(node)));
+    }
+
+    @Override
+    protected int visitBinary(int node) {
+        int left = visit(ast.left(node));
+        return ir.emitBinary(ast.value(node), left, visit(ast.right(node)));
+    }
+
+    @Override
+    protected int visitVar(int node) {
+        return ir.var(ast.value(node));
+    }
+
+    @Override
+    protected int visitNum(int node) {
+        return ir.constant(ast.value(node));
+    }
+}
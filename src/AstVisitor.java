@@ -0,0 +1,77 @@
+/**
+ * 【抽象语法树的访问者】
+ * 按结点种类分派到对应的visit方法；结点是Ast中的下标，访问方法的参数与返回值都是int，
+ * 返回值的含义由子类决定（如AstLowering中表达式返回保存其值的操作数）
+ */
+public abstract class AstVisitor {
+    protected final Ast ast;
+
+    protected AstVisitor(Ast ast) {
+        this.ast = ast;
+    }
+
+    public int visit(int node) {
+        switch (ast.kind(node)) {
+            case Ast.BLOCK:
+                return visitBlock(node);
+            case Ast.PROC:
+                return visitProc(node);
+            case Ast.CONST_INIT:
+                return visitConstInit(node);
+            case Ast.ASSIGN:
+                return visitAssign(node);
+            case Ast.IF:
+                return visitIf(node);
+            case Ast.WHILE:
+                return visitWhile(node);
+            case Ast.COMPOUND:
+                return visitCompound(node);
+            case Ast.CALL:
+                return visitCall(node);
+            case Ast.COND:
+                return visitCond(node);
+            case Ast.UNARY:
+                return visitUnary(node);
+            case Ast.BINARY:
+                return visitBinary(node);
+            case Ast.VAR:
+                return visitVar(node);
+            case Ast.NUM:
+                return visitNum(node);
+            default:
+                throw new IllegalStateException("Unknown AST node kind " + ast.kind(node));
+        }
+    }
+
+    // 依次访问从first开始的列表中的结点
+    protected void visitList(int first) {
+        for (int node = first; node != Ast.NONE; node = ast.next(node))
+            visit(node);
+    }
+
+    protected abstract int visitBlock(int node);
+
+    protected abstract int visitProc(int node);
+
+    protected abstract int visitConstInit(int node);
+
+    protected abstract int visitAssign(int node);
+
+    protected abstract int visitIf(int node);
+
+    protected abstract int visitWhile(int node);
+
+    protected abstract int visitCompound(int node);
+
+    protected abstract int visitCall(int node);
+
+    protected abstract int visitCond(int node);
+
+    protected abstract int visitUnary(int node);
+
+    protected abstract int visitBinary(int node);
+
+    protected abstract int visitVar(int node);
+
+    protected abstract int visitNum(int node);
+}
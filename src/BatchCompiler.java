@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 【批量编译驱动】
+ * 在ForkJoinPool上并行编译一个目录树中的所有.pl0文件，每个源文件使用独立的Compiler实例；
+ * 输出目录中保持与源目录相同的结构：编译成功写出同名的.txt中间代码，出错则写出包含全部错误信息的.err
+ */
+public class BatchCompiler {
+    private final Path srcDir;
+    private final Path outDir;
+    private final boolean optimize;
+    private final boolean fastLexer;
+    private final int threads;
+
+    // 统计
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong instructions = new AtomicLong();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+
+    // 编译缓存，为null时不使用
+    private CompileCache cache;
+    // 是否使用表驱动的LLParser
+    private boolean tableDriven = false;
+    // 是否复用临时变量的槽位
+    private boolean reuseTemps = false;
+    private boolean peephole = false;
+    // 每个源文件的词法分析线程数，0为不并行
+    private int lexThreads = 0;
+    // 建立抽象语法树时每个线程复用一个结点池，为null时不建立
+    private ThreadLocal<Ast> arenas;
+
+    // 读写文件出错的信息，编译结束后输出
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+    public BatchCompiler(Path srcDir, Path outDir, boolean optimize, boolean fastLexer, int threads) {
+        this.srcDir = srcDir;
+        this.outDir = outDir;
+        this.optimize = optimize;
+        this.fastLexer = fastLexer;
+        this.threads = threads;
+    }
+
+    public void setCache(CompileCache cache) {
+        this.cache = cache;
+    }
+
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    public void setReuseTemps(boolean reuseTemps) {
+        this.reuseTemps = reuseTemps;
+    }
+
+    public void setPeephole(boolean peephole) {
+        this.peephole = peephole;
+    }
+
+    public void setLexThreads(int lexThreads) {
+        this.lexThreads = lexThreads;
+    }
+
+    public void setAst(boolean ast) {
+        arenas = ast ? ThreadLocal.withInitial(Ast::new) : null;
+    }
+
+    /**
+     * 编译所有源文件并输出汇总信息
+     *
+     * @return 是否所有源文件都编译成功
+     */
+    public boolean run() throws IOException {
+        return run(System.out);
+    }
+
+    public boolean run(PrintStream out) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(srcDir)) {
+            files = walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".pl0"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            tasks.add(() -> {
+                compileOne(file);
+                return null;
+            });
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<Void>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    // 编译器内部错误：该文件记为失败，其他文件照常编译
+                    errors.add(files.get(i) + ": " + e.getCause());
+                    failed.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("batch compilation interrupted");
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        for (String error : errors)
+            out.println(error);
+        out.printf("Compiled %d files (%d ok, %d with errors) on %d threads in %.1f ms%n",
+                files.size(), succeeded.get(), failed.get(), threads, elapsed / 1e6);
+        out.printf("  %.1f files/s, %.2f MB/s of source, %d instructions generated%n",
+                files.size() / seconds, bytes.get() / seconds / 1e6, instructions.get());
+        if (cache != null)
+            out.printf("  cache: %d hits, %d misses%n", cacheHits.get(), cacheMisses.get());
+        return failed.get() == 0;
+    }
+
+    // 已读入的源程序字节数
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private void compileOne(Path file) {
+        Path relative = srcDir.relativize(file);
+        String name = relative.getFileName().toString();
+        String base = name.substring(0, name.length() - ".pl0".length());
+        try {
+            Path parent = outDir.resolve(relative).getParent();
+            Files.createDirectories(parent);
+            bytes.addAndGet(Files.size(file));
+            String key = null;
+            if (cache != null) {
+                // 源程序未改变时直接取出上次的结果
+                key = CompileCache.key(Files.readAllBytes(file),
+                        Compiler.optionsKey(optimize, tableDriven, reuseTemps, peephole));
+                CompileCache.Entry entry = cache.get(key);
+                if (entry != null) {
+                    cacheHits.incrementAndGet();
+                    Files.write(parent.resolve(base + (entry.ok ? ".txt" : ".err")),
+                            entry.text.getBytes(StandardCharsets.UTF_8));
+                    if (entry.ok) {
+                        instructions.addAndGet(entry.text.chars().filter(c -> c == '\n').count());
+                        succeeded.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    return;
+                }
+                cacheMisses.incrementAndGet();
+            }
+            try (Compiler compiler = Compiler.open(file, fastLexer, lexThreads)) {
+                compiler.setOptimize(optimize);
+                compiler.setTableDriven(tableDriven);
+                compiler.setReuseTemps(reuseTemps);
+                compiler.setPeephole(peephole);
+                compiler.setAst(arenas == null ? null : arenas.get());
+                if (!compiler.compile()) {
+                    List<String> messages = compiler.getErr().getMessages();
+                    Files.write(parent.resolve(base + ".err"), messages);
+                    if (cache != null)
+                        cache.put(key, new CompileCache.Entry(false, "", String.join("\n", messages) + "\n"));
+                    failed.incrementAndGet();
+                    return;
+                }
+                if (cache != null) {
+                    StringWriter code = new StringWriter();
+                    compiler.writeCode(code);
+                    Files.write(parent.resolve(base + ".txt"), code.toString().getBytes(StandardCharsets.UTF_8));
+                    cache.put(key, new CompileCache.Entry(true, compiler.report(), code.toString()));
+                } else {
+                    try (Writer out = Files.newBufferedWriter(parent.resolve(base + ".txt"))) {
+                        compiler.writeCode(out);
+                    }
+                }
+                instructions.addAndGet(compiler.getIntermediater().size());
+                succeeded.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errors.add(file + ": " + e.getMessage());
+            failed.incrementAndGet();
+        }
+    }
+}
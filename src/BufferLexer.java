@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 【基于单个字符缓冲区的词法分析器】
+ * 把整个源程序读入一个char[]（大文件通过内存映射读入），用下标扫描：
+ * 关键字和单字符算符用switch识别，不装箱；
+ * 每次识别出的符号都写入同一个可复用的Symbol，只记录起止位置而不创建字符串
+ */
+public class BufferLexer extends Lexer {
+    // 超过该大小的源文件使用内存映射读入
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    private final char[] buf;
+    private final int length;
+    private int pos = 0;
+    private int line = 1;
+    private int lineStart = 0; // 当前行第一个字符的下标
+    private int column = 0; // 当前符号的起始列
+    private boolean atEnd = false;
+
+    // 复用的符号
+    private final Symbol token = new Symbol();
+
+    public BufferLexer(char[] source, int length) {
+        this.buf = source;
+        this.length = length;
+    }
+
+    /**
+     * 读入整个源文件
+     */
+    public static BufferLexer open(Path path) throws IOException {
+        CharBuffer chars = read(path);
+        return new BufferLexer(chars.array(), chars.limit());
+    }
+
+    /**
+     * 把源文件解码到一个字符缓冲区中，其中的数组从下标0开始
+     */
+    static CharBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) ;
+                bytes.flip();
+            }
+            return StandardCharsets.UTF_8.newDecoder().decode(bytes);
+        }
+    }
+
+    @Override
+    public Symbol getSym() {
+        return token;
+    }
+
+    @Override
+    public int getCurrentLineNumber() {
+        return line;
+    }
+
+    @Override
+    public int getCurrentColumn() {
+        return column;
+    }
+
+    /**
+     * 词法分析，获取一个词法符号
+     */
+    @Override
+    public void getsym() {
+        final char[] b = buf;
+        int p = pos;
+        // 跳过空白字符
+        while (p < length && b[p] <= ' ') {
+            if (b[p] == '\n') {
+                line++;
+                lineStart = p + 1;
+            }
+            p++;
+        }
+        if (p >= length) {
+            // 与Lexer一致：行号为读到的行数，文件末尾的换行不产生新行，列号为最后一行的长度加1
+            if (!atEnd) {
+                atEnd = true;
+                if (length == 0 || b[length - 1] == '\n')
+                    line--;
+                int last = length > 0 && b[length - 1] == '\n' ? length - 1 : length; // 最后一行的末尾
+                lineStart = last;
+                while (lineStart > 0 && b[lineStart - 1] != '\n')
+                    lineStart--;
+                column = length == 0 ? 0 : last - lineStart + 1;
+            }
+            pos = p;
+            token.reset(Symbol.eof, 0, b, p, p);
+            return;
+        }
+        char c = b[p];
+        int start = p;
+        column = start - lineStart + 1;
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+            // 关键字或者一般标识符
+            do {
+                p++;
+            } while (p < length && ((c = b[p]) >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'));
+            int type = keyword(b, start, p - start);
+            token.reset(type, 0, b, start, p);
+            if (type == Symbol.ident)
+                token.setId(names.intern(b, start, p - start));
+        } else if (c >= '0' && c <= '9') {
+            // 数字
+            int num = 0;
+            do {
+                num = 10 * num + (c - '0');
+                p++;
+            } while (p < length && (c = b[p]) >= '0' && c <= '9');
+            token.reset(Symbol.number, num, b, start, p);
+            if (p - start > PL0.num_max) {
+                pos = p;
+                err.handleError("数字长度过长！", line, column);
+            }
+        } else {
+            // 操作符
+            int type;
+            if (c == '#') {
+                type = Symbol.eof; // 文本结束符，停留在此处，之后总是返回eof
+            } else {
+                type = operator(c, p + 1 < length ? b[p + 1] : '\0');
+                p += operatorLength(type);
+            }
+            token.reset(type, 0, b, start, p);
+        }
+        pos = p;
+    }
+
+    /**
+     * 以c开头的操作符的类型（不包括文本结束符#），next为c之后的字符，不能识别时返回nul
+     */
+    static int operator(char c, char next) {
+        switch (c) {
+            case '+':
+                return Symbol.plus;
+            case '-':
+                return Symbol.minus;
+            case '*':
+                return Symbol.times;
+            case '/':
+                return Symbol.slash;
+            case '(':
+                return Symbol.lparen;
+            case ')':
+                return Symbol.rparen;
+            case '=':
+                return Symbol.eql;
+            case ',':
+                return Symbol.comma;
+            case ';':
+                return Symbol.semicolon;
+            case ':': // 赋值符号
+                return next == '=' ? Symbol.assign : Symbol.nul;
+            case '<': // 小于、小于等于或者不等于
+                return next == '=' ? Symbol.leq : next == '>' ? Symbol.neq : Symbol.lss;
+            case '>': // 大于或者大于等于
+                return next == '=' ? Symbol.geq : Symbol.gtr;
+            default: // 不能识别的符号
+                return Symbol.nul;
+        }
+    }
+
+    // 操作符的字符数
+    static int operatorLength(int type) {
+        return type == Symbol.assign || type == Symbol.leq || type == Symbol.neq || type == Symbol.geq ? 2 : 1;
+    }
+
+    /**
+     * 判断[start, start+len)是否为保留字，按长度和首字母分派，不创建字符串
+     */
+    static int keyword(char[] b, int start, int len) {
+        switch (len) {
+            case 2:
+                if (matches(b, start, "DO"))
+                    return Symbol.dosym;
+                if (matches(b, start, "IF"))
+                    return Symbol.ifsym;
+                break;
+            case 3:
+                if (matches(b, start, "END"))
+                    return Symbol.endsym;
+                if (matches(b, start, "VAR"))
+                    return Symbol.varsym;
+                break;
+            case 4:
+                if (matches(b, start, "THEN"))
+                    return Symbol.thensym;
+                if (matches(b, start, "CALL"))
+                    return Symbol.callsym;
+                break;
+            case 5:
+                switch (b[start]) {
+                    case 'B':
+                        return matches(b, start, "BEGIN") ? Symbol.beginsym : Symbol.ident;
+                    case 'C':
+                        return matches(b, start, "CONST") ? Symbol.constsym : Symbol.ident;
+                    case 'W':
+                        return matches(b, start, "WHILE") ? Symbol.whilesym : Symbol.ident;
+                    default:
+                        break;
+                }
+                break;
+            case 7:
+                if (matches(b, start, "PROGRAM"))
+                    return Symbol.progsym;
+                break;
+            case 9:
+                if (matches(b, start, "PROCEDURE"))
+                    return Symbol.procsym;
+                break;
+            default:
+                break;
+        }
+        return Symbol.ident;
+    }
+
+    private static boolean matches(char[] b, int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (b[start + i] != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
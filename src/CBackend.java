@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 【C源程序后端】
+ * 把Intermediater生成的四元式翻译为一个自包含的C源程序，交给本地的cc -O2做寄存器分配与优化：
+ * 变量与临时变量都是main中的int32_t局部变量（初值为0），每条代码的地址是一个标号，跳转为goto / if ... goto；
+ * 加、减、乘与取反按uint32_t计算后转回int32_t，避免有符号溢出的未定义行为，与虚拟机的回绕一致；
+ * 除数为0时报告运行时错误，除数为-1时取反；
+ * 过程调用把调用点的编号压入返回栈，return时经由一个switch回到调用点，递归调用保存的槽位放在保存栈中；
+ * 向后跳转（包括返回到更前面的代码）扣减循环次数；
+ * 结束时按虚拟机的格式输出变量的最终值，退出状态与X86Backend相同：0正常结束，1运行时错误，2循环次数用尽
+ */
+public class CBackend {
+    // 关系运算符，顺序与OpCode中jeq~jge一致
+    private static final String[] RELATION = {"==", "!=", "<", "<=", ">", ">="};
+
+    private final Intermediater ir;
+    private final int length;
+    private final int varCount;
+    private final long maxIterations;
+
+    private final StringBuilder out = new StringBuilder();
+    private int lastRet = -1; // 最后一条return的下标
+    private boolean procedures = false; // 是否有过程调用或返回
+    private int calls = 0; // 调用点的个数
+
+    public CBackend(Intermediater ir, long maxIterations) {
+        this.ir = ir;
+        this.length = ir.size();
+        this.varCount = ir.varCount();
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * 生成C源程序
+     */
+    public String generate() {
+        boolean[] labeled = ir.leaders();
+        int maxSave = 0;
+        for (int i = 0; i < length; i++) {
+            if (ir.op[i] == OpCode.ret)
+                lastRet = i;
+            else if (ir.op[i] == OpCode.call)
+                maxSave = Math.max(maxSave, ir.saveSet(ir.arg1[i]).length);
+            procedures |= ir.op[i] == OpCode.call || ir.op[i] == OpCode.ret;
+        }
+
+        line("/* PL/0 program: " + length + " instructions, " + varCount + " variables */");
+        line("#include <stdint.h>");
+        line("#include <stdio.h>");
+        line("");
+        line("#define MAX_CALL_DEPTH " + VirtualMachine.MAX_CALL_DEPTH);
+        line("");
+        line("static const char *const names[] = {");
+        for (int v = 0; v < varCount; v++)
+            line("    \"" + ir.varName(v) + "\",");
+        if (varCount == 0)
+            line("    0");
+        line("};");
+        if (procedures) {
+            line("static int32_t returns[MAX_CALL_DEPTH]; /* 调用点的编号 */");
+            if (maxSave > 0)
+                line("static int32_t saved[(long) MAX_CALL_DEPTH * " + maxSave + "];");
+        }
+        line("");
+        line("int main(void) {");
+        for (int v = 0; v < varCount; v++)
+            line("    int32_t v" + v + " = 0; /* " + ir.varName(v) + " */");
+        for (int t = 0; t < ir.tempVarCounter; t++)
+            line("    int32_t T" + t + " = 0;");
+        line("    int64_t fuel = " + maxIterations + "LL;");
+        line("    int status = 0, error_addr = 0;");
+        if (procedures) {
+            line("    int depth = 0, ret_from = 0;");
+            line("    long save_top = 0;");
+        }
+        for (int i = 0; i < length; i++) {
+            if (labeled[i])
+                line("L" + i + ":;");
+            generate(i);
+        }
+        line("L" + length + ":");
+        line("    goto finish;");
+        if (procedures) {
+            // return：回到调用点
+            line("dispatch:");
+            line("    switch (returns[--depth]) {");
+            for (int k = 0; k < calls; k++)
+                line("    case " + k + ": goto R" + k + ";");
+            line("    }");
+        }
+        line("stopped:");
+        line("    status = 3;");
+        line("finish:");
+        line("    if (status == 1 || status == 2)");
+        line("        printf(\"Runtime error at %d: %s\\n\", error_addr, "
+                + "status == 1 ? \"division by zero.\" : \"call stack overflow.\");");
+        line("    else if (status == 3)");
+        line("        printf(\"Stopped: loop iteration limit reached.\\n\");");
+        for (int v = 0; v < varCount; v++)
+            line("    printf(\"%s = %d\\n\", names[" + v + "], v" + v + ");");
+        line("    return status == 3 ? 2 : status != 0;");
+        line("}");
+        return out.toString();
+    }
+
+    /**
+     * 生成C源程序并写入文件
+     */
+    public void write(Path target) throws IOException {
+        String text = generate();
+        try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * 用本地的cc -O2把C源程序编译为可执行文件
+     */
+    public static void compile(Path source, Path executable) throws IOException {
+        X86Backend.exec("cc", "-O2", "-o", executable.toString(), source.toString());
+    }
+
+    private void line(String s) {
+        out.append(s).append('\n');
+    }
+
+    private String operand(int operand) {
+        int index = Intermediater.index(operand);
+        switch (Intermediater.kind(operand)) {
+            case Intermediater.VAR:
+                return "v" + index;
+            case Intermediater.TEMP:
+                return "T" + index;
+            default:
+                int value = ir.constPool[index];
+                // -2147483648不是int常量（2147483648的取反），写成表达式
+                return value == Integer.MIN_VALUE ? "(-2147483647 - 1)" : Integer.toString(value);
+        }
+    }
+
+    // 按uint32_t回绕计算的表达式
+    private static String wrap(String expression) {
+        return "(int32_t) (" + expression + ")";
+    }
+
+    private String unsigned(int operand) {
+        return "(uint32_t) " + operand(operand);
+    }
+
+    private void jump(int i, int target) {
+        if (target <= i)
+            line("    if (--fuel < 0) goto stopped;");
+        line("    goto L" + target + ";");
+    }
+
+    private void generate(int i) {
+        int op = ir.op[i];
+        StringBuilder text = new StringBuilder();
+        ir.render(i, text);
+        line("    /* " + text.toString().replace('\t', ' ') + " */");
+        String r = OpCode.isJump(op) || op == OpCode.ret ? null : operand(ir.result[i]);
+        switch (op) {
+            case OpCode.assign:
+            case OpCode.pos:
+                line("    " + r + " = " + operand(ir.arg1[i]) + ";");
+                break;
+            case OpCode.neg:
+                line("    " + r + " = " + wrap("0u - " + unsigned(ir.arg1[i])) + ";");
+                break;
+            case OpCode.add:
+            case OpCode.sub:
+            case OpCode.mul:
+                line("    " + r + " = " + wrap(unsigned(ir.arg1[i]) + " " + OpCode.text[op] + " "
+                        + unsigned(ir.arg2[i])) + ";");
+                break;
+            case OpCode.shl:
+                line("    " + r + " = " + wrap(unsigned(ir.arg1[i]) + " << (" + operand(ir.arg2[i]) + " & 31)") + ";");
+                break;
+            case OpCode.div: {
+                String a = operand(ir.arg1[i]);
+                String b = operand(ir.arg2[i]);
+                line("    if (" + b + " == 0) { status = 1; error_addr = " + (i + ir.initStat)
+                        + "; goto finish; }");
+                line("    " + r + " = " + b + " == -1 ? " + wrap("0u - " + unsigned(ir.arg1[i])) + " : "
+                        + a + " / " + b + ";");
+                break;
+            }
+            case OpCode.jmp:
+                jump(i, ir.targetIndex(i));
+                break;
+            case OpCode.call:
+                call(i);
+                break;
+            case OpCode.ret:
+                line("    if (depth == 0) goto finish;");
+                line("    ret_from = " + i + ";");
+                line("    goto dispatch;");
+                break;
+            default: // 条件跳转
+                line("    if (" + operand(ir.arg1[i]) + " " + RELATION[op - OpCode.jeq] + " "
+                        + operand(ir.arg2[i]) + ") {");
+                jump(i, ir.targetIndex(i));
+                line("    }");
+                break;
+        }
+    }
+
+    /*
+     * 过程调用：检查调用深度，把保存集合中的槽位压入保存栈，记下调用点后跳到过程入口；
+     * 回到调用点后恢复保存的槽位，被调用者的return是向后跳转时扣减循环次数
+     */
+    private void call(int i) {
+        int site = calls++;
+        int[] slots = ir.saveSet(ir.arg1[i]);
+        line("    if (depth == MAX_CALL_DEPTH) { status = 2; error_addr = " + (i + ir.initStat)
+                + "; goto finish; }");
+        for (int slot : slots)
+            line("    saved[save_top++] = v" + slot + ";");
+        line("    returns[depth++] = " + site + ";");
+        jump(i, ir.targetIndex(i));
+        line("R" + site + ":");
+        for (int k = slots.length - 1; k >= 0; k--)
+            line("    v" + slots[k] + " = saved[--save_top];");
+        if (lastRet > i)
+            line("    if (ret_from >= " + (i + 1) + " && --fuel < 0) goto stopped;");
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 【按内容散列的编译缓存】
+ * 以 SHA-256(编译器版本, 编译选项, 源程序字节) 为键，在缓存目录中保存编译结果：
+ * 成功时为优化步骤的报告与中间代码（键.ir），出错时为错误信息（键.err）；
+ * 命中时直接取出结果，跳过词法分析、语法分析与代码生成。
+ * 缓存目录的总大小有上限，超出时按最近使用时间（文件的修改时间）淘汰最久未用的项
+ */
+public class CompileCache {
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    // 编译器版本：编译器所在jar文件或类目录中所有类文件的散列，重新编译编译器后缓存自动失效
+    private static byte[] version;
+
+    private final Path dir;
+    private long maxBytes;
+    // 缓存项的文件名 -> 大小，按访问顺序排列，最久未用的在前
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // 缓存中的一项编译结果
+    public static class Entry {
+        public final boolean ok; // true为中间代码，false为错误信息
+        public final String report; // 优化步骤的报告，每行以'['开头；出错时为空串
+        public final String text;
+
+        public Entry(boolean ok, String report, String text) {
+            this.ok = ok;
+            this.report = report;
+            this.text = text;
+        }
+
+        // 从缓存文件的内容还原：中间代码的每行以地址开头，报告在它之前
+        static Entry parse(boolean ok, String content) {
+            int split = 0;
+            while (ok && content.startsWith("[", split) && content.indexOf('\n', split) >= 0)
+                split = content.indexOf('\n', split) + 1;
+            return new Entry(ok, content.substring(0, split), content.substring(split));
+        }
+    }
+
+    // 同一进程（如编译服务）中按目录共享的缓存实例
+    private static final ConcurrentHashMap<Path, CompileCache> opened = new ConcurrentHashMap<>();
+
+    /**
+     * 打开缓存目录，同一目录只扫描一次；已经打开时改用这次给出的大小上限
+     */
+    public static CompileCache open(Path dir, long maxBytes) throws IOException {
+        Path key = dir.toAbsolutePath().normalize();
+        CompileCache cache = opened.get(key);
+        if (cache == null) {
+            CompileCache created = new CompileCache(key, maxBytes);
+            cache = opened.putIfAbsent(key, created);
+            if (cache == null)
+                return created;
+        }
+        cache.setMaxBytes(maxBytes);
+        return cache;
+    }
+
+    public CompileCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        // 按修改时间从旧到新登记已有的缓存项
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.{ir,err}")) {
+            for (Path file : stream)
+                files.add(file);
+        }
+        files.sort(Comparator.comparing(CompileCache::modifiedTime));
+        for (Path file : files) {
+            long size = Files.size(file);
+            entries.put(file.getFileName().toString(), size);
+            totalBytes += size;
+        }
+    }
+
+    private static FileTime modifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * 计算源程序的缓存键
+     *
+     * @param options 影响编译结果的选项
+     */
+    public static String key(byte[] source, String options) {
+        MessageDigest sha = sha256();
+        sha.update(compilerVersion());
+        sha.update(options.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(source);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : sha.digest())
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    // 编译器的类来自jar文件时取整个文件的散列，来自类目录时取其中各个类文件（按文件名排序）的散列
+    private static synchronized byte[] compilerVersion() {
+        if (version == null) {
+            CodeSource codeSource = CompileCache.class.getProtectionDomain().getCodeSource();
+            if (codeSource == null)
+                throw new IllegalStateException("Cannot locate the compiler classes");
+            MessageDigest sha = sha256();
+            try {
+                Path location = Paths.get(codeSource.getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    List<Path> classes = new ArrayList<>();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(location, "*.class")) {
+                        for (Path file : stream)
+                            classes.add(file);
+                    }
+                    classes.sort(Comparator.comparing(Path::toString));
+                    for (Path file : classes) {
+                        sha.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                        sha.update(Files.readAllBytes(file));
+                    }
+                } else {
+                    sha.update(Files.readAllBytes(location));
+                }
+            } catch (IOException | URISyntaxException e) {
+                throw new IllegalStateException("Cannot read the compiler classes", e);
+            }
+            version = sha.digest();
+        }
+        return version;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 查找缓存，未命中时返回null
+     */
+    public Entry get(String key) {
+        for (boolean ok : new boolean[]{true, false}) {
+            String name = key + (ok ? ".ir" : ".err");
+            Path file = dir.resolve(name);
+            byte[] bytes;
+            try {
+                // 直接读文件而不只查内存中的索引，其他进程写入的缓存项也能命中
+                bytes = Files.readAllBytes(file);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // 记录最近使用
+            } catch (IOException e) {
+                forget(name); // 不存在或者已被其他进程淘汰
+                continue;
+            }
+            synchronized (this) {
+                Long old = entries.put(name, (long) bytes.length);
+                totalBytes += bytes.length - (old == null ? 0 : old);
+            }
+            hits.increment();
+            return Entry.parse(ok, new String(bytes, StandardCharsets.UTF_8));
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 保存一项编译结果，必要时淘汰最久未用的项
+     */
+    public void put(String key, Entry entry) throws IOException {
+        String name = key + (entry.ok ? ".ir" : ".err");
+        byte[] bytes = (entry.report + entry.text).getBytes(StandardCharsets.UTF_8);
+        // 先写临时文件再改名，并发的读者不会看到写了一半的缓存项
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        Files.write(temp, bytes);
+        Files.move(temp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<String> evicted;
+        synchronized (this) {
+            Long old = entries.put(name, (long) bytes.length);
+            totalBytes += bytes.length - (old == null ? 0 : old);
+            evicted = evict(name);
+        }
+        for (String file : evicted)
+            Files.deleteIfExists(dir.resolve(file));
+    }
+
+    /**
+     * 修改大小上限，超出新上限时立即淘汰最久未用的项
+     */
+    public void setMaxBytes(long maxBytes) throws IOException {
+        List<String> evicted;
+        synchronized (this) {
+            if (maxBytes == this.maxBytes)
+                return;
+            this.maxBytes = maxBytes;
+            evicted = evict(null);
+        }
+        for (String file : evicted)
+            Files.deleteIfExists(dir.resolve(file));
+    }
+
+    // 从索引中去掉最久未用的项直到不超过上限（keep除外），返回要删除的文件名
+    private List<String> evict(String keep) {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep))
+                continue;
+            totalBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private synchronized void forget(String name) {
+        Long size = entries.remove(name);
+        if (size != null)
+            totalBytes -= size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * 【编译服务的客户端】
+ * 把命令行参数转发给正在运行的CompileServer，并把服务的输出原样写出；
+ * 请求带有从服务的令牌文件中读出的令牌
+ */
+public class CompileClient {
+    // 连接服务的超时时间，服务不在运行时应尽快退回本地编译
+    private static final int CONNECT_TIMEOUT_MS = 200;
+
+    /**
+     * 转发一次编译
+     *
+     * @return 服务返回的退出状态；没有服务在运行时返回-1
+     */
+    public static int forward(int port, String[] args, Path workDir, PrintStream out) throws IOException {
+        String token = readToken(port);
+        Socket socket = token == null ? null : connect(port);
+        if (socket == null)
+            return -1;
+        try (Socket s = socket; DataOutputStream request = new DataOutputStream(s.getOutputStream())) {
+            request.writeUTF(token);
+            request.writeUTF(CompileServer.COMPILE);
+            request.writeUTF(workDir.toString());
+            request.writeInt(args.length);
+            for (String arg : args)
+                request.writeUTF(arg);
+            request.flush();
+            return readResponse(s, out);
+        }
+    }
+
+    /**
+     * 发送不带参数的命令（stats、stop）
+     *
+     * @return 服务返回的退出状态；没有服务在运行时返回-1
+     */
+    public static int send(int port, String command, PrintStream out) throws IOException {
+        String token = readToken(port);
+        Socket socket = token == null ? null : connect(port);
+        if (socket == null)
+            return -1;
+        try (Socket s = socket; DataOutputStream request = new DataOutputStream(s.getOutputStream())) {
+            request.writeUTF(token);
+            request.writeUTF(command);
+            request.flush();
+            return readResponse(s, out);
+        }
+    }
+
+    // 服务的令牌，令牌文件不存在时（服务不在运行）为null
+    private static String readToken(int port) throws IOException {
+        try {
+            return new String(Files.readAllBytes(CompileServer.tokenFile(port)), StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MS);
+            return socket;
+        } catch (ConnectException | SocketTimeoutException e) {
+            socket.close();
+            return null;
+        }
+    }
+
+    private static int readResponse(Socket socket, PrintStream out) throws IOException {
+        DataInputStream response = new DataInputStream(socket.getInputStream());
+        byte[] chunk = new byte[0];
+        for (int length = response.readInt(); length >= 0; length = response.readInt()) {
+            if (length > chunk.length)
+                chunk = new byte[length];
+            response.readFully(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+        out.flush();
+        return response.readInt();
+    }
+}
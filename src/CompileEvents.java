@@ -0,0 +1,143 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 【编译各阶段的JFR事件】
+ * 用JDK Flight Recorder记录，例如 java -XX:StartFlightRecording=filename=pl0.jfr PL0 ...，
+ * 再用 jfr print --events pl0.Parse pl0.jfr 或JDK Mission Control查看；
+ * JFR尚未初始化（没有用-XX:StartFlightRecording启动，也没有用jcmd开始过记录）时各begin方法返回null，
+ * 不创建事件对象，也不加载事件类：加载事件类会初始化JFR，耗时数百毫秒
+ */
+public class CompileEvents {
+
+    private static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // 开始各阶段的事件，JFR未初始化时返回null
+    public static Lex beginLex() {
+        if (!recording())
+            return null;
+        Lex event = new Lex();
+        event.begin();
+        return event;
+    }
+
+    public static Parse beginParse() {
+        if (!recording())
+            return null;
+        Parse event = new Parse();
+        event.begin();
+        return event;
+    }
+
+    public static Optimize beginOptimize() {
+        if (!recording())
+            return null;
+        Optimize event = new Optimize();
+        event.begin();
+        return event;
+    }
+
+    public static Output beginOutput() {
+        if (!recording())
+            return null;
+        Output event = new Output();
+        event.begin();
+        return event;
+    }
+
+    // 结束事件，返回是否需要提交（事件已开启且超过阈值）
+    public static boolean end(Event event) {
+        if (event == null)
+            return false;
+        event.end();
+        return event.shouldCommit();
+    }
+
+    @Name("pl0.Lex")
+    @Label("PL0 Lex")
+    @Category("PL0 Compiler")
+    @Description("Lexical analysis. Lexing is interleaved with parsing, so the event spans the parse; "
+            + "the time spent inside the lexer is in lexTime")
+    @StackTrace(false)
+    public static class Lex extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Tokens")
+        public long tokens;
+
+        @Label("Lex Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long lexTime;
+    }
+
+    @Name("pl0.Parse")
+    @Label("PL0 Parse")
+    @Category("PL0 Compiler")
+    @Description("Parsing and intermediate code generation, including lexing")
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Parser")
+        public String parser;
+
+        @Label("Tokens")
+        public long tokens;
+
+        @Label("Instructions")
+        public int instructions;
+
+        @Label("Temporaries")
+        public int temps;
+
+        @Label("BackPatch Calls")
+        public long backpatches;
+
+        @Label("Errors")
+        public int errors;
+    }
+
+    @Name("pl0.Optimize")
+    @Label("PL0 Optimize")
+    @Category("PL0 Compiler")
+    @Description("One optimization step")
+    @StackTrace(false)
+    public static class Optimize extends Event {
+        @Label("Pass")
+        public String pass;
+
+        @Label("Instructions Before")
+        public int before;
+
+        @Label("Instructions After")
+        public int after;
+    }
+
+    @Name("pl0.Output")
+    @Label("PL0 Output")
+    @Category("PL0 Compiler")
+    @Description("Writing the intermediate code")
+    @StackTrace(false)
+    public static class Output extends Event {
+        @Label("Format")
+        public String format;
+
+        @Label("Instructions")
+        public int instructions;
+
+        @Label("Bytes Written")
+        @DataAmount
+        public long bytes;
+    }
+}
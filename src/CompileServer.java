@@ -0,0 +1,297 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 【常驻的编译服务】
+ * 在本机回环地址的TCP端口上监听，每个请求在独立的线程（JDK提供时为虚拟线程）上
+ * 用独立的Compiler实例处理，返回中间代码或错误信息；
+ * 服务进程只启动一次JVM，词法分析与语法分析的代码在多次请求之后一直保持已编译的状态
+ * 启动时生成随机令牌写入只有本用户能读的令牌文件，请求必须带有该令牌；
+ * 只接受编译选项，执行程序或调用as、ld、cc的选项由客户端在本进程中处理；
+ * 读入请求有时间限制，连接后不发送请求的客户端不会一直占用处理线程
+ *
+ * 请求：令牌(UTF) 命令(UTF) [工作目录(UTF) 参数个数(int) 参数(UTF)...]
+ * 响应：若干段输出，每段为长度(int)与UTF-8字节，边生成边发送；长度-1之后是退出状态(int)
+ */
+public class CompileServer {
+    public static final int DEFAULT_PORT = 7420;
+    // 读入请求的时间限制（秒）
+    public static final int DEFAULT_READ_TIMEOUT = 10;
+
+    // 请求的命令
+    public static final String COMPILE = "compile";
+    public static final String STATS = "stats";
+    public static final String STOP = "stop";
+
+    // 统计延迟分位数时保留的最近请求个数
+    private static final int LATENCY_SAMPLES = 4096;
+    // 输出分段发送时每段的最大字节数
+    private static final int CHUNK = 8192;
+
+    // 可以转发给服务的选项及其参数个数
+    private static final Map<String, Integer> FORWARDED = Map.ofEntries(
+            Map.entry("-O", 0), Map.entry("--jump-stats", 0), Map.entry("--reuse-temps", 0),
+            Map.entry("--peephole", 0), Map.entry("--fast-lex", 0), Map.entry("--lex-threads", 1),
+            Map.entry("--ll", 0), Map.entry("--ast", 0), Map.entry("--stats", 0), Map.entry("--max-iterations", 1),
+            Map.entry("--batch", 2), Map.entry("--threads", 1), Map.entry("--cache", 1),
+            Map.entry("--cache-size", 1), Map.entry("--stream", 0), Map.entry("--emit-ir", 1),
+            Map.entry("--convert-ir", 2));
+
+    private final int port;
+    private int readTimeout = DEFAULT_READ_TIMEOUT * 1000; // 毫秒
+    private ServerSocket server;
+    private byte[] token; // 请求必须带有的令牌
+
+    // 统计
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final long[] latencies = new long[LATENCY_SAMPLES]; // 环形缓冲区，单位纳秒
+    private long latencyCount = 0;
+
+    public CompileServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * 读入一个请求的时间限制（秒），超时后关闭连接；0表示不限制
+     */
+    public void setReadTimeout(int seconds) {
+        if (seconds < 0)
+            throw new IllegalArgumentException("The read timeout must not be negative: " + seconds);
+        readTimeout = seconds * 1000;
+    }
+
+    // 端口：环境变量PL0_SERVER_PORT，默认DEFAULT_PORT
+    public static int defaultPort() {
+        String value = System.getenv("PL0_SERVER_PORT");
+        return value == null ? DEFAULT_PORT : Integer.parseInt(value);
+    }
+
+    // 令牌文件：~/.pl0/server-端口.token
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".pl0", "server-" + port + ".token");
+    }
+
+    /**
+     * 可以转发给服务的参数：只含编译选项（不含--run、--jvm、--asm、--native、--c、--cc、--native-bench、--generate）
+     */
+    public static boolean forwardable(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("-"))
+                continue; // 源文件
+            Integer count = FORWARDED.get(args[i]);
+            if (count == null)
+                return false;
+            i += count;
+        }
+        return true;
+    }
+
+    // 生成随机令牌，写入目录权限为0700、文件权限为0600的令牌文件
+    private static byte[] writeToken(Path file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        byte[] token = HexFormat.of().formatHex(random).getBytes(StandardCharsets.US_ASCII);
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+        try {
+            Files.setPosixFilePermissions(file.getParent(), PosixFilePermissions.fromString("rwx------"));
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file); // 文件系统不支持POSIX权限
+        }
+        Files.write(file, token);
+        return token;
+    }
+
+    /**
+     * 接受并处理请求，直到收到stop命令
+     */
+    public void serve() throws IOException {
+        ExecutorService executor = newExecutor();
+        server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        Path tokenFile = tokenFile(port);
+        token = writeToken(tokenFile);
+        System.out.println("PL0 compile server listening on " + server.getLocalSocketAddress()
+                + ", token in " + tokenFile);
+        try {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    if (server.isClosed())
+                        break; // stop命令关闭了监听套接字
+                    throw e;
+                }
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdown();
+            server.close();
+            Files.deleteIfExists(tokenFile);
+        }
+        System.out.println("PL0 compile server stopped.");
+    }
+
+    // 每个请求一个虚拟线程；JDK不提供虚拟线程时（JDK 21之前）退回按需创建的平台线程池
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "pl0-compile");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(s.getInputStream());
+             DataOutputStream out = new DataOutputStream(s.getOutputStream())) {
+            s.setSoTimeout(readTimeout); // 请求读入之后不再读，编译本身不受限制
+            // 先检查令牌，未通过时不再读入请求的其他部分
+            boolean authorized = MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.US_ASCII), token);
+            String command = authorized ? in.readUTF() : "";
+            PrintStream print = new PrintStream(new BufferedOutputStream(new ChunkedOutputStream(out), CHUNK),
+                    false, StandardCharsets.UTF_8);
+            int status = 0;
+            switch (command) {
+                case "":
+                    print.println("Unauthorized request: the token does not match " + tokenFile(port) + ".");
+                    status = 2;
+                    break;
+                case COMPILE:
+                    Path workDir = Paths.get(in.readUTF());
+                    String[] args = new String[in.readInt()];
+                    for (int i = 0; i < args.length; i++)
+                        args[i] = in.readUTF();
+                    if (forwardable(args)) {
+                        status = compile(args, workDir, print);
+                    } else {
+                        print.println("The compile server only accepts compile options.");
+                        status = 2;
+                    }
+                    break;
+                case STATS:
+                    printStats(print);
+                    break;
+                case STOP:
+                    print.println("PL0 compile server stopping.");
+                    break;
+                default:
+                    print.println("Unknown command: " + command);
+                    status = 2;
+                    break;
+            }
+            print.flush();
+            out.writeInt(-1);
+            out.writeInt(status);
+            out.flush();
+            if (command.equals(STOP))
+                server.close();
+        } catch (SocketTimeoutException e) {
+            System.err.println("Request timed out: no complete request within " + readTimeout + " ms.");
+        } catch (IOException e) {
+            System.err.println("Request failed: " + e.getMessage());
+        }
+    }
+
+    // 处理一次编译请求并记录统计
+    private int compile(String[] args, Path workDir, PrintStream out) {
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = PL0.execute(args, workDir, out, bytes);
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            // 一个请求的失败不影响服务和其他请求
+            out.println("Internal error: " + e);
+            status = 2;
+        }
+        long elapsed = System.nanoTime() - start;
+        requests.increment();
+        if (status != 0)
+            errors.increment();
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = elapsed;
+        }
+        return status;
+    }
+
+    /**
+     * 输出统计：请求数、出错的请求数、编译的源程序字节数，以及最近请求的延迟分位数
+     */
+    public void printStats(PrintStream out) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sorted);
+        out.printf("requests: %d, errors: %d, bytes compiled: %d%n", requests.sum(), errors.sum(), bytes.sum());
+        if (sorted.length == 0)
+            return;
+        out.printf("latency (last %d requests): p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                sorted.length, percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6,
+                percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    // 最近秩法求百分位数
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    // 把写入的字节作为一段输出发送：长度(int)与字节
+    private static class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.writeInt(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
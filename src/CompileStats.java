@@ -0,0 +1,85 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 【编译各阶段的统计（--stats）】
+ * 记录每个阶段的耗时、本线程分配的字节数（ThreadMXBean）与处理的数量，编译结束后输出汇总；
+ * 不统计时编译器持有的实例为null，各阶段只多一次判断
+ */
+public class CompileStats {
+    // 一个阶段的统计
+    private static class Phase {
+        final String name;
+        final long nanos;
+        final long allocated; // 分配的字节数，-1表示无法得知
+        final long units;
+        final String unit;
+
+        Phase(String name, long nanos, long allocated, long units, String unit) {
+            this.name = name;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.units = units;
+            this.unit = unit;
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+    private long start; // 当前阶段开始的时间
+    private long startAllocated; // 当前阶段开始时本线程已分配的字节数
+
+    // 本线程已分配的字节数，JVM不支持时返回-1
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled())
+                return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * 开始一个阶段
+     */
+    public void begin() {
+        startAllocated = allocatedBytes();
+        start = System.nanoTime();
+    }
+
+    /**
+     * 结束当前阶段
+     *
+     * @param units 该阶段处理的数量，用于计算吞吐量
+     * @param unit  数量的单位，如tokens
+     */
+    public void end(String name, long units, String unit) {
+        long nanos = System.nanoTime() - start;
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        phases.add(new Phase(name, nanos, allocated, units, unit));
+    }
+
+    /**
+     * 记录一个不单独计量分配的阶段（如与语法分析交织进行的词法分析）
+     */
+    public void add(String name, long nanos, long units, String unit) {
+        phases.add(new Phase(name, nanos, -1, units, unit));
+    }
+
+    /**
+     * 输出各阶段的耗时、分配的内存与吞吐量
+     */
+    public void print(PrintStream out) {
+        out.printf("%-44s %10s %12s  %s%n", "phase", "time (ms)", "alloc (KB)", "throughput");
+        for (Phase phase : phases) {
+            double seconds = phase.nanos / 1e9;
+            out.printf("%-44s %10.3f %12s  %s%n", phase.name, phase.nanos / 1e6,
+                    phase.allocated < 0 ? "-" : String.format("%.1f", phase.allocated / 1024.0),
+                    seconds > 0 ? String.format("%.2f M %s/s (%d %s)", phase.units / seconds / 1e6, phase.unit,
+                            phase.units, phase.unit) : phase.units + " " + phase.unit);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 【可重入的编译器】
+ * 每个实例拥有自己的Lexer、Table、Intermediater和Parser，没有任何静态状态，
+ * 因此不同的实例可以在不同线程中同时编译不同的源程序
+ */
+public class Compiler implements AutoCloseable {
+    private final Lexer lex; // 词法分析器
+    private final Table table; // 符号表
+    private final Intermediater intermediater; // 中间代码生成工具
+    private final Parser parser; // 语法分析器
+    private final Err err = new Err(); // 词法、语法与语义错误的收集者
+
+    private boolean optimize = false; // 是否开启优化
+    private boolean reuseTemps = false; // 不开启优化时是否也复用临时变量的槽位
+    private boolean peephole = false; // 不开启优化时是否也做窥孔优化
+    private boolean streaming = false; // 是否流式输出中间代码
+    private boolean tableDriven = false; // 是否使用表驱动的LLParser
+    private Ast ast; // 抽象语法树的结点池，为null时在语法分析的同时直接生成中间代码
+    private int localBefore, localAfter; // 基本块内优化前后的代码条数
+    private int inlined; // 内联的调用个数
+    private SsaOptimizer ssa; // 全局优化，开启优化时才有
+    private Peephole peepholeOptimizer; // 窥孔优化，开启优化或setPeephole(true)时才有
+    private LayoutOptimizer layout; // 控制流的布局优化，开启优化时才有
+    private long jumpProfile = -1; // 统计动态跳转次数时的循环次数限制，-1为不统计
+    private TempSlots tempSlots; // 临时变量的槽位复用，开启优化时才有
+    private String source = ""; // 源文件名，记录在JFR事件中
+    private CompileStats stats; // 各阶段的统计，为null时不统计
+
+    public Compiler(Lexer lexer) {
+        lex = lexer;
+        lex.setErr(err);
+        table = new Table(lexer.getNames());
+        intermediater = new Intermediater(table);
+        parser = new Parser(lex, table, intermediater, err);
+    }
+
+    /**
+     * 为源文件创建编译器
+     *
+     * @param fastLexer 是否使用BufferLexer
+     */
+    public static Compiler open(Path path, boolean fastLexer) throws IOException {
+        return open(path, fastLexer, 0);
+    }
+
+    /**
+     * 为源文件创建编译器
+     *
+     * @param lexThreads 大于0时使用该线程数的ParallelLexer
+     */
+    public static Compiler open(Path path, boolean fastLexer, int lexThreads) throws IOException {
+        Lexer lexer;
+        if (lexThreads > 0)
+            lexer = ParallelLexer.open(path, lexThreads);
+        else
+            lexer = fastLexer ? BufferLexer.open(path) : new Lexer(Files.newBufferedReader(path));
+        Compiler compiler = new Compiler(lexer);
+        compiler.source = path.toString();
+        return compiler;
+    }
+
+    /**
+     * 影响编译结果的选项，作为编译缓存键的一部分；增加这样的选项时需要同时加在这里
+     */
+    public static String optionsKey(boolean optimize, boolean tableDriven, boolean reuseTemps, boolean peephole) {
+        return (optimize ? "-O" : "") + (tableDriven ? " --ll" : "") + (reuseTemps ? " --reuse-temps" : "")
+                + (peephole ? " --peephole" : "");
+    }
+
+    /**
+     * 统计各阶段的耗时与内存分配，由调用者在编译（及输出）结束后输出
+     */
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * 编译后按活跃区间复用临时变量的槽位（TempSlots）；开启优化时总是复用
+     */
+    public void setReuseTemps(boolean reuseTemps) {
+        this.reuseTemps = reuseTemps;
+    }
+
+    /**
+     * 编译后做窥孔优化（Peephole）；开启优化时总是做
+     */
+    public void setPeephole(boolean peephole) {
+        this.peephole = peephole;
+    }
+
+    /**
+     * 布局优化前后各在虚拟机上执行一次程序（循环次数限制为maxIterations），统计执行的跳转条数；只在开启优化时有效
+     */
+    public void setJumpProfile(long maxIterations) {
+        this.jumpProfile = maxIterations;
+    }
+
+    /**
+     * 使用表驱动的LLParser代替递归下降的Parser：生成的中间代码相同，嵌套层数不受调用栈的限制，
+     * 出错时的恢复方式不同，报告的错误可能不同
+     */
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    /**
+     * 先建立抽象语法树，语法分析结束后再由AstLowering生成中间代码，生成的中间代码与直接生成的相同；
+     * 结点池在每次编译开始时清空，可以在多次编译之间复用；只有递归下降的Parser能建立抽象语法树
+     */
+    public void setAst(Ast ast) {
+        this.ast = ast;
+    }
+
+    /**
+     * 流式输出：代码在不会再被回填时即写入out，内存占用与程序长度无关；
+     * 局部优化需要整个程序，因此不能与setOptimize(true)同时使用
+     */
+    public void setOutput(Writer out) {
+        intermediater.setSink(out);
+        streaming = true;
+    }
+
+    /**
+     * 编译：语法分析（连同词法分析、语法检查、中间代码生成），开启优化时再做局部优化
+     * 源程序有错误时分析仍会进行到底，以便一次报告全部错误，但生成的中间代码不可使用
+     *
+     * @return 源程序是否没有错误，错误信息由getErr()取得
+     */
+    public boolean compile() throws IOException {
+        if (streaming && (optimize || reuseTemps || peephole))
+            throw new IllegalStateException("Streaming output cannot be combined with local optimization");
+        if (ast != null && tableDriven)
+            throw new IllegalStateException("The AST is only built by the recursive descent parser");
+        if (ast != null)
+            ast.reset();
+        parser.setAst(ast);
+        intermediater.foldConstants = optimize;
+        LLParser llParser = tableDriven ? new LLParser(lex, table, intermediater, err) : null;
+        CompileEvents.Lex lexEvent = CompileEvents.beginLex();
+        CompileEvents.Parse parseEvent = CompileEvents.beginParse();
+        // 词法分析与语法分析交织进行，只在需要时逐个符号计量词法分析的时间
+        boolean lexTiming = stats != null || lexEvent != null && lexEvent.isEnabled();
+        if (tableDriven)
+            llParser.setLexTiming(lexTiming);
+        else
+            parser.setLexTiming(lexTiming);
+        if (stats != null)
+            stats.begin();
+        try {
+            if (tableDriven)
+                llParser.parse();
+            else
+                parser.parse();
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // 流式输出写入失败
+        }
+        boolean commitLex = CompileEvents.end(lexEvent);
+        boolean commitParse = CompileEvents.end(parseEvent);
+        int tokens = tableDriven ? llParser.getTokenCount() : parser.getTokenCount();
+        long lexNanos = tableDriven ? llParser.getLexNanos() : parser.getLexNanos();
+        if (commitLex) {
+            lexEvent.source = source;
+            lexEvent.tokens = tokens;
+            lexEvent.lexTime = lexNanos;
+            lexEvent.commit();
+        }
+        if (commitParse) {
+            parseEvent.source = source;
+            parseEvent.parser = tableDriven ? "LL(1)" : "recursive descent";
+            parseEvent.tokens = tokens;
+            parseEvent.instructions = intermediater.size();
+            parseEvent.temps = intermediater.tempVarCounter;
+            parseEvent.backpatches = intermediater.getBackPatchCount();
+            parseEvent.errors = err.getErrorCount();
+            parseEvent.commit();
+        }
+        if (stats != null) {
+            stats.add("lex", lexNanos, tokens, "tokens");
+            stats.end("parse (including lex)", tokens, "tokens");
+        }
+        if (err.hasErrors())
+            return false;
+        if (ast != null) {
+            if (stats != null)
+                stats.begin();
+            try {
+                new AstLowering(ast, intermediater).lower(parser.getAstRoot());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (stats != null)
+                stats.end("lower AST", ast.size(), "nodes");
+        }
+        if (streaming) {
+            CompileEvents.Output outputEvent = CompileEvents.beginOutput();
+            if (stats != null)
+                stats.begin();
+            long streamed = intermediater.getBytesWritten();
+            intermediater.finish();
+            if (CompileEvents.end(outputEvent)) {
+                outputEvent.format = "stream";
+                outputEvent.instructions = intermediater.size();
+                outputEvent.bytes = intermediater.getBytesWritten();
+                outputEvent.commit();
+            }
+            if (stats != null) // 流式输出的大部分在语法分析中进行，这里只是最后一段
+                stats.end("output (stream tail)", intermediater.getBytesWritten() - streamed, "bytes");
+        }
+        if (optimize) {
+            Inliner inliner = new Inliner(intermediater);
+            inliner.setStats(stats);
+            inliner.inline();
+            inlined = inliner.getInlined();
+            ssa = new SsaOptimizer(intermediater);
+            ssa.setStats(stats);
+            ssa.optimize();
+            LocalOptimizer local = new LocalOptimizer(intermediater);
+            local.setStats(stats);
+            local.optimize();
+            localBefore = local.getBefore();
+            localAfter = local.getAfter();
+        }
+        if (optimize || peephole) {
+            peepholeOptimizer = new Peephole(intermediater);
+            peepholeOptimizer.setStats(stats);
+            peepholeOptimizer.optimize();
+        }
+        if (optimize) {
+            layout = new LayoutOptimizer(intermediater);
+            layout.setStats(stats);
+            if (jumpProfile >= 0)
+                layout.setProfile(jumpProfile);
+            layout.optimize();
+        }
+        if (optimize || reuseTemps) {
+            tempSlots = new TempSlots(intermediater);
+            tempSlots.setStats(stats);
+            tempSlots.renumber();
+        }
+        return true;
+    }
+
+    // 把中间代码写入out
+    public void writeCode(Writer out) throws IOException {
+        intermediater.writeCode(out);
+    }
+
+    /**
+     * 各优化步骤的报告，每行形如"[ssa] instructions: ..."；没有做优化时为空串
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        if (optimize && inlined > 0)
+            sb.append("[inline] calls inlined: ").append(inlined).append('\n');
+        if (ssa != null) {
+            sb.append("[ssa] instructions: ").append(ssa.getBefore()).append(" -> ").append(ssa.getAfter())
+                    .append(" (folded ").append(ssa.getFolded()).append(", redundant ").append(ssa.getRedundant())
+                    .append(", removed ").append(ssa.getRemoved()).append(")\n");
+            sb.append("[local value numbering] instructions: ").append(localBefore).append(" -> ")
+                    .append(localAfter).append('\n');
+        }
+        if (peepholeOptimizer != null)
+            sb.append("[peephole] instructions: ").append(peepholeOptimizer.getBefore()).append(" -> ")
+                    .append(peepholeOptimizer.getAfter()).append(" (rewrites ").append(peepholeOptimizer.getRewrites())
+                    .append(")\n");
+        if (layout != null) {
+            sb.append("[layout] jumps: ").append(layout.getStaticBefore()).append(" -> ")
+                    .append(layout.getStaticAfter());
+            if (layout.getDynamicBefore() >= 0)
+                sb.append(", executed ").append(layout.getDynamicBefore()).append(" -> ")
+                        .append(layout.getDynamicAfter());
+            sb.append(" (threaded ").append(layout.getThreaded()).append(", inverted ").append(layout.getInverted())
+                    .append(", removed ").append(layout.getRemoved()).append(", rotated ").append(layout.getRotated())
+                    .append(")\n");
+        }
+        if (tempSlots != null)
+            sb.append("[temp slots] temps: ").append(tempSlots.getBefore()).append(" -> ").append(tempSlots.getAfter())
+                    .append(" (peak live ").append(tempSlots.getPeak()).append(")\n");
+        return sb.toString();
+    }
+
+    public Err getErr() {
+        return err;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public Intermediater getIntermediater() {
+        return intermediater;
+    }
+
+    public int getLocalBefore() {
+        return localBefore;
+    }
+
+    public int getLocalAfter() {
+        return localAfter;
+    }
+
+    public int getInlined() {
+        return inlined;
+    }
+
+    // 全局优化（SCCP、GVN与死代码删除），没有开启优化时为null
+    public SsaOptimizer getSsa() {
+        return ssa;
+    }
+
+    // 窥孔优化，没有开启优化也没有setPeephole(true)时为null
+    public Peephole getPeephole() {
+        return peepholeOptimizer;
+    }
+
+    // 控制流的布局优化，没有开启优化时为null
+    public LayoutOptimizer getLayout() {
+        return layout;
+    }
+
+    // 临时变量的槽位复用，没有开启优化也没有setReuseTemps(true)时为null
+    public TempSlots getTempSlots() {
+        return tempSlots;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lex.close();
+    }
+}
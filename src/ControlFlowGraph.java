@@ -0,0 +1,383 @@
+import java.util.Arrays;
+
+/**
+ * 【控制流图】
+ * 由回填后的中间代码构造：按Intermediater.leaders()划分基本块，边为跳转与顺序执行；
+ * 过程调用不是边，调用之后的代码是调用所在基本块的后继；return与跳到代码末尾的跳转没有后继（出口）；
+ * 主程序与每个过程各是一个区域（region），从区域入口可达的基本块属于该区域，不可达的基本块不属于任何区域；
+ * 每个区域的入口有一条来自区域之外的虚拟边（前驱为ENTRY）；
+ * 在每个区域内计算逆后序、直接支配者（Cooper-Harvey-Kennedy的迭代算法）、支配树与支配边界
+ */
+public class ControlFlowGraph {
+    public static final int NONE = -2; // 没有后继
+    public static final int EXIT = -1; // 后继为出口
+    public static final int ENTRY = -1; // 区域入口的虚拟前驱
+
+    private final int n; // 代码条数
+    private final int blockCount;
+    private final int[] start; // 基本块b为代码[start[b], start[b+1])
+    private final int[] blockOf; // 代码所在的基本块
+    // 每个基本块两个后继：[2b]为顺序执行或无条件跳转的后继，[2b+1]为条件跳转的目标；succEdge为该边在前驱表中的位置
+    private final int[] succ;
+    private final int[] succEdge;
+    // 前驱表：基本块b的前驱为preds[predStart[b] .. predStart[b+1])，edgeTarget[k]为第k条边指向的基本块
+    private int[] predStart;
+    private int[] preds;
+    private int[] edgeTarget;
+
+    // 区域
+    private int regionCount = 0;
+    private int[] regionEntry; // 区域的入口基本块
+    private final int[] regionOf; // 基本块所在的区域，不可达时为-1
+    private boolean wellFormed = true; // 区域之间是否互不相交
+    // 逆后序：区域r的基本块为rpo[rpoStart[r] .. rpoStart[r+1])
+    private int[] rpo;
+    private int[] rpoStart;
+    private final int[] rpoNumber; // 基本块在rpo中的位置
+
+    // 支配关系
+    private final int[] idom; // 直接支配者，区域入口为其自身，不可达的基本块为-1
+    private int[] childStart; // 支配树：基本块b的孩子为children[childStart[b] .. childStart[b+1])
+    private int[] children;
+    private int[] frontierStart; // 支配边界：frontier[frontierStart[b] .. frontierStart[b+1])
+    private int[] frontier;
+
+    public ControlFlowGraph(Intermediater ir) {
+        n = ir.size();
+        boolean[] leader = ir.leaders();
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            if (leader[i])
+                count++;
+        blockCount = count;
+        start = new int[count + 1];
+        blockOf = new int[n + 1];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            if (leader[i])
+                start[count++] = i;
+            blockOf[i] = count - 1;
+        }
+        start[count] = n;
+        blockOf[n] = count;
+
+        succ = new int[count * 2];
+        succEdge = new int[count * 2];
+        Arrays.fill(succ, NONE);
+        Arrays.fill(succEdge, -1);
+        boolean[] callTarget = new boolean[count + 1];
+        for (int b = 0; b < count; b++) {
+            int last = start[b + 1] - 1;
+            int op = ir.op[last];
+            if (op == OpCode.call)
+                callTarget[blockOf[ir.targetIndex(last)]] = true;
+            if (op == OpCode.ret)
+                continue;
+            if (op == OpCode.jmp) {
+                succ[2 * b] = block(ir.targetIndex(last));
+                continue;
+            }
+            succ[2 * b] = block(last + 1);
+            if (OpCode.isCondJump(op))
+                succ[2 * b + 1] = block(ir.targetIndex(last));
+        }
+
+        regionOf = new int[count];
+        rpoNumber = new int[count];
+        idom = new int[count];
+        Arrays.fill(regionOf, -1);
+        Arrays.fill(idom, -1);
+        regionEntry = new int[4];
+        if (count == 0) {
+            rpo = new int[0];
+            rpoStart = new int[1];
+            buildPreds();
+            return;
+        }
+        addRegion(0);
+        for (int b = 1; b < count; b++)
+            if (callTarget[b])
+                addRegion(b);
+        buildPreds();
+        buildRpo();
+        if (!wellFormed)
+            return;
+        buildDominators();
+        buildTree();
+        buildFrontiers();
+    }
+
+    // 代码下标对应的基本块，代码末尾为出口
+    private int block(int index) {
+        return index >= n ? EXIT : blockOf[index];
+    }
+
+    private void addRegion(int entry) {
+        if (regionCount == regionEntry.length)
+            regionEntry = Arrays.copyOf(regionEntry, regionCount * 2);
+        regionEntry[regionCount++] = entry;
+    }
+
+    // 前驱表：区域入口多一条来自ENTRY的边
+    private void buildPreds() {
+        predStart = new int[blockCount + 1];
+        for (int r = 0; r < regionCount; r++)
+            predStart[regionEntry[r] + 1]++;
+        for (int s : succ)
+            if (s >= 0)
+                predStart[s + 1]++;
+        for (int b = 0; b < blockCount; b++)
+            predStart[b + 1] += predStart[b];
+        preds = new int[predStart[blockCount]];
+        edgeTarget = new int[preds.length];
+        int[] fill = Arrays.copyOf(predStart, blockCount);
+        for (int r = 0; r < regionCount; r++) {
+            int e = regionEntry[r];
+            edgeTarget[fill[e]] = e;
+            preds[fill[e]++] = ENTRY;
+        }
+        for (int k = 0; k < succ.length; k++) {
+            int s = succ[k];
+            if (s < 0)
+                continue;
+            succEdge[k] = fill[s];
+            edgeTarget[fill[s]] = s;
+            preds[fill[s]++] = k / 2;
+        }
+    }
+
+    // 对每个区域做深度优先遍历，得到逆后序；一个基本块属于两个区域时wellFormed为false
+    private void buildRpo() {
+        rpo = new int[blockCount];
+        rpoStart = new int[regionCount + 1];
+        int[] stack = new int[blockCount];
+        int[] next = new int[blockCount]; // 下一个要访问的后继
+        int[] post = new int[blockCount];
+        int total = 0;
+        for (int r = 0; r < regionCount; r++) {
+            int entry = regionEntry[r];
+            rpoStart[r] = total;
+            if (regionOf[entry] >= 0) {
+                wellFormed = false;
+                continue;
+            }
+            int postCount = 0;
+            int sp = 0;
+            stack[sp++] = entry;
+            regionOf[entry] = r;
+            next[entry] = 0;
+            while (sp > 0) {
+                int b = stack[sp - 1];
+                if (next[b] < 2) {
+                    int s = succ[2 * b + next[b]++];
+                    if (s < 0)
+                        continue;
+                    if (regionOf[s] < 0) {
+                        regionOf[s] = r;
+                        next[s] = 0;
+                        stack[sp++] = s;
+                    } else if (regionOf[s] != r) {
+                        wellFormed = false;
+                    }
+                } else {
+                    post[postCount++] = b;
+                    sp--;
+                }
+            }
+            for (int k = postCount - 1; k >= 0; k--) {
+                rpoNumber[post[k]] = total;
+                rpo[total++] = post[k];
+            }
+        }
+        rpoStart[regionCount] = total;
+        rpo = Arrays.copyOf(rpo, total);
+    }
+
+    private void buildDominators() {
+        for (int r = 0; r < regionCount; r++) {
+            int entry = regionEntry[r];
+            idom[entry] = entry;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int k = rpoStart[r] + 1; k < rpoStart[r + 1]; k++) {
+                    int b = rpo[k];
+                    int d = -1;
+                    for (int e = predStart[b]; e < predStart[b + 1]; e++) {
+                        int p = preds[e];
+                        if (p == ENTRY || idom[p] < 0)
+                            continue;
+                        d = d < 0 ? p : intersect(p, d);
+                    }
+                    if (d != idom[b]) {
+                        idom[b] = d;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpoNumber[a] > rpoNumber[b])
+                a = idom[a];
+            while (rpoNumber[b] > rpoNumber[a])
+                b = idom[b];
+        }
+        return a;
+    }
+
+    // 支配树，孩子按逆后序排列
+    private void buildTree() {
+        childStart = new int[blockCount + 1];
+        for (int b : rpo)
+            if (idom[b] != b)
+                childStart[idom[b] + 1]++;
+        for (int b = 0; b < blockCount; b++)
+            childStart[b + 1] += childStart[b];
+        children = new int[childStart[blockCount]];
+        int[] fill = Arrays.copyOf(childStart, blockCount);
+        for (int b : rpo)
+            if (idom[b] != b)
+                children[fill[idom[b]]++] = b;
+    }
+
+    /*
+     * 支配边界：对每个有多个前驱的基本块b，从各前驱沿支配树向上直到b的直接支配者；
+     * 区域入口的直接支配者视为区域之外的ENTRY，因此循环回到入口时入口在自身的支配边界中
+     */
+    private void buildFrontiers() {
+        int[] from = new int[16], to = new int[16];
+        int count = 0;
+        int[] stamp = new int[blockCount];
+        Arrays.fill(stamp, -1);
+        for (int b : rpo) {
+            if (predStart[b + 1] - predStart[b] < 2)
+                continue;
+            int stop = idom[b] == b ? ENTRY : idom[b];
+            for (int e = predStart[b]; e < predStart[b + 1]; e++) {
+                int runner = preds[e];
+                if (runner == ENTRY || idom[runner] < 0)
+                    continue;
+                while (runner != stop) {
+                    if (stamp[runner] != b) {
+                        stamp[runner] = b;
+                        if (count == from.length) {
+                            from = Arrays.copyOf(from, count * 2);
+                            to = Arrays.copyOf(to, count * 2);
+                        }
+                        from[count] = runner;
+                        to[count++] = b;
+                    }
+                    if (runner == idom[runner])
+                        break;
+                    runner = idom[runner];
+                }
+            }
+        }
+        frontierStart = new int[blockCount + 1];
+        for (int k = 0; k < count; k++)
+            frontierStart[from[k] + 1]++;
+        for (int b = 0; b < blockCount; b++)
+            frontierStart[b + 1] += frontierStart[b];
+        frontier = new int[count];
+        int[] fill = Arrays.copyOf(frontierStart, blockCount);
+        for (int k = 0; k < count; k++)
+            frontier[fill[from[k]]++] = to[k];
+    }
+
+    public boolean isWellFormed() {
+        return wellFormed;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public int start(int b) {
+        return start[b];
+    }
+
+    public int end(int b) {
+        return start[b + 1];
+    }
+
+    public int blockOf(int index) {
+        return blockOf[index];
+    }
+
+    /*
+     * 基本块b的第k个后继（k为0或1）：基本块、EXIT或NONE
+     */
+    public int succ(int b, int k) {
+        return succ[2 * b + k];
+    }
+
+    // 基本块b到第k个后继的边在前驱表中的位置，没有时为-1
+    public int succEdge(int b, int k) {
+        return succEdge[2 * b + k];
+    }
+
+    public int predStart(int b) {
+        return predStart[b];
+    }
+
+    public int predEnd(int b) {
+        return predStart[b + 1];
+    }
+
+    // 前驱表中第e条边的起点（ENTRY为区域入口的虚拟边）
+    public int pred(int e) {
+        return preds[e];
+    }
+
+    // 前驱表中第e条边的终点
+    public int edgeTarget(int e) {
+        return edgeTarget[e];
+    }
+
+    public int edgeCount() {
+        return preds.length;
+    }
+
+    public int regionCount() {
+        return regionCount;
+    }
+
+    public int regionEntry(int r) {
+        return regionEntry[r];
+    }
+
+    public int regionOf(int b) {
+        return regionOf[b];
+    }
+
+    public int idom(int b) {
+        return idom[b];
+    }
+
+    public int childStart(int b) {
+        return childStart[b];
+    }
+
+    public int childEnd(int b) {
+        return childStart[b + 1];
+    }
+
+    public int child(int k) {
+        return children[k];
+    }
+
+    public int frontierStart(int b) {
+        return frontierStart[b];
+    }
+
+    public int frontierEnd(int b) {
+        return frontierStart[b + 1];
+    }
+
+    public int frontier(int k) {
+        return frontier[k];
+    }
+}
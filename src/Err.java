@@ -1,16 +1,47 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- * @Description 错误处理类，输出错误信息并终止程序
+ * @Description 错误处理类：收集一次编译中的全部诊断信息（行号与列号），不终止编译
  * @Author fjy
  * @Date 2024-01-02
  **/
 public class Err {
+    private final ArrayList<String> messages = new ArrayList<>();
+
     /**
-     * 报错函数
+     * 报错函数：记录一条错误信息，由编译器的调用者在编译结束后统一输出
      * @param errorMsg 错误信息
      * @param line     所在行数
+     * @param column   所在列数
      */
-    public static void handleError(String errorMsg, int line) {
-        System.out.println("Error at line " + line + ": " + errorMsg);
-        System.exit(0);
+    public void handleError(String errorMsg, int line, int column) {
+        messages.add("Error at line " + line + ", column " + column + ": " + errorMsg);
+    }
+
+    public boolean hasErrors() {
+        return !messages.isEmpty();
+    }
+
+    public int getErrorCount() {
+        return messages.size();
+    }
+
+    public List<String> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    // 按报告顺序输出全部错误信息
+    public void print(PrintStream out) {
+        print(messages, out);
+    }
+
+    // 输出错误信息及其个数
+    public static void print(List<String> messages, PrintStream out) {
+        for (String message : messages)
+            out.println(message);
+        out.println(messages.size() + (messages.size() == 1 ? " error" : " errors"));
     }
 }
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * 【标识符驻留池】
+ * 词法分析时把每个标识符映射为一个稠密的整数编号，之后的各个阶段都只使用编号；
+ * 采用开放地址法的散列表，直接对字符缓冲区中的一段字符做散列和比较，不创建字符串
+ */
+public class IdentifierPool {
+    // 所有标识符的字符依次存放在chars中
+    private char[] chars = new char[1024];
+    private int charCount = 0;
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int[] hashes = new int[64];
+    private String[] strings = new String[64]; // 按需创建的字符串
+    private int count = 0;
+
+    // 散列表，存放编号+1，0表示空位
+    private int[] slots = new int[128];
+
+    /**
+     * 返回b[start, start+len)对应的编号，第一次出现时分配新编号
+     */
+    public int intern(char[] b, int start, int len) {
+        int h = hash(b, start, len);
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && equals(id, b, start, len))
+                return id;
+            i = (i + 1) & mask;
+        }
+        return add(b, start, len, h, i);
+    }
+
+    /**
+     * 返回另一个池中编号为id的标识符在本池中的编号（用于合并并行词法分析各段的标识符）
+     */
+    public int intern(IdentifierPool from, int id) {
+        return intern(from.chars, from.offsets[id], from.lengths[id]);
+    }
+
+    public int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    // 编号对应的标识符名称
+    public String name(int id) {
+        if (strings[id] == null)
+            strings[id] = new String(chars, offsets[id], lengths[id]);
+        return strings[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int add(char[] b, int start, int len, int h, int slot) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+            strings = Arrays.copyOf(strings, count * 2);
+        }
+        if (charCount + len > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + len));
+        System.arraycopy(b, start, chars, charCount, len);
+        int id = count++;
+        offsets[id] = charCount;
+        lengths[id] = len;
+        hashes[id] = h;
+        charCount += len;
+        slots[slot] = id + 1;
+        if (count * 2 > slots.length)
+            rehash();
+        return id;
+    }
+
+    // 装填因子超过1/2时扩容
+    private void rehash() {
+        int[] bigger = new int[slots.length * 2];
+        int mask = bigger.length - 1;
+        for (int id = 0; id < count; id++) {
+            int i = hashes[id] & mask;
+            while (bigger[i] != 0)
+                i = (i + 1) & mask;
+            bigger[i] = id + 1;
+        }
+        slots = bigger;
+    }
+
+    private boolean equals(int id, char[] b, int start, int len) {
+        if (lengths[id] != len)
+            return false;
+        int off = offsets[id];
+        for (int k = 0; k < len; k++) {
+            if (chars[off + k] != b[start + k])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(char[] b, int start, int len) {
+        int h = 0;
+        for (int k = 0; k < len; k++)
+            h = 31 * h + b[start + k];
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,292 @@
+import java.util.Arrays;
+
+/**
+ * 【过程调用的内联】
+ * 在局部优化之前进行：把对小的、不递归的过程的调用替换为过程体的副本，使过程体与调用者处于同一个基本块，
+ * 之后的局部值编号与复写传播可以跨越原来的调用边界；
+ * 过程体为入口到之后第一条return之间的代码，其中不能再有其他过程（即没有内层过程）：
+ * 有内层过程的过程以跳过内层过程代码的跳转开始，入口之后的第一条return属于内层过程，
+ * 因此过程体中的跳转都必须跳到过程体之内，
+ * 其中的调用都必须指向更早的、同样可以内联的过程（调用尚未结束的外层过程的就是递归调用）；
+ * 优先内联循环中的调用，代码的总增长受预算限制；内联之后不再被调用的过程被删除
+ */
+public class Inliner {
+    // 可以内联的过程体的最大条数
+    private static final int MAX_BODY = 32;
+    // 内联使代码增长的上限：原来条数的百分比，至少MIN_GROWTH条
+    private static final int GROWTH_PERCENT = 100;
+    private static final int MIN_GROWTH = 256;
+
+    private final Intermediater ir;
+    private CompileStats stats; // 统计，为null时不统计
+
+    private boolean[] entry; // 过程的入口
+    private int inlined = 0; // 内联的调用个数
+    private int before, after;
+
+    // 临时变量的重命名：tempStamp[t]为当前调用点的编号时tempMap[t]有效
+    private int[] tempMap = new int[0];
+    private int[] tempStamp = new int[0];
+    private int stamp = 0;
+
+    public Inliner(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void inline() {
+        before = ir.size();
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        int n = ir.size();
+        entry = new boolean[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (ir.op[i] == OpCode.call)
+                entry[ir.targetIndex(i)] = true;
+        }
+        int budget = Math.max(MIN_GROWTH, n / 100 * GROWTH_PERCENT);
+        int growth;
+        while ((growth = round(budget)) >= 0)
+            budget -= growth;
+        removeDeadProcedures();
+        after = ir.size();
+        if (CompileEvents.end(event)) {
+            event.pass = "inline";
+            event.before = before;
+            event.after = after;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end("inline (" + before + " -> " + after + ")", before, "instructions");
+    }
+
+    public int getInlined() {
+        return inlined;
+    }
+
+    public int getBefore() {
+        return before;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    // 从入口e开始的第一条return的下标，没有时返回-1
+    private int returnOf(int e, int n) {
+        for (int i = e; i < n; i++) {
+            if (ir.op[i] == OpCode.ret)
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+     * [e, r]中除了已删除的代码，跳转（不包括调用）是否都跳到[e, r]之内；
+     * 不是时其中有跳过内层过程代码的跳转，[e, r]不是一个完整的过程
+     */
+    private boolean closed(int e, int r, boolean[] removed) {
+        for (int i = e; i < r; i++) {
+            if (removed != null && removed[i] || !OpCode.isJump(ir.op[i]) || ir.op[i] == OpCode.call)
+                continue;
+            int t = ir.targetIndex(i);
+            if (t < e || t > r)
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * 内联一轮：选出的调用点同时展开，过程体中的调用留到下一轮；返回代码增长的条数，没有可内联的调用时返回-1
+     */
+    private int round(int budget) {
+        int n = ir.size();
+        // 可以内联的过程及其return的下标；入口按地址递增处理，过程体中的调用指向的过程已经判断过
+        int[] ret = new int[n + 1];
+        Arrays.fill(ret, -1);
+        for (int e = 0; e < n; e++) {
+            if (!entry[e])
+                continue;
+            int r = returnOf(e, n);
+            if (r < 0 || r - e > MAX_BODY)
+                continue;
+            boolean ok = closed(e, r, null);
+            for (int i = e; i <= r && ok; i++) {
+                if (i > e && entry[i])
+                    ok = false; // 有内层过程
+                else if (ir.op[i] == OpCode.call) {
+                    int t = ir.targetIndex(i);
+                    ok = t < e && ret[t] >= 0; // 递归调用或者调用不能内联的过程
+                }
+            }
+            if (ok)
+                ret[e] = r;
+        }
+
+        // 循环嵌套深度：被向后跳转（不包括过程调用）覆盖的次数
+        int[] depth = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (OpCode.isJump(ir.op[i]) && ir.op[i] != OpCode.call && ir.targetIndex(i) <= i) {
+                depth[ir.targetIndex(i)]++;
+                depth[i + 1]--;
+            }
+        }
+        for (int i = 1; i <= n; i++)
+            depth[i] += depth[i - 1];
+
+        // 选出调用点：循环嵌套深的优先，同样深的按地址顺序
+        int count = 0;
+        long[] sites = new long[16];
+        for (int i = 0; i < n; i++) {
+            if (ir.op[i] == OpCode.call && ret[ir.targetIndex(i)] >= 0) {
+                if (count == sites.length)
+                    sites = Arrays.copyOf(sites, count * 2);
+                sites[count++] = (long) (Integer.MAX_VALUE - depth[i]) << 32 | i;
+            }
+        }
+        Arrays.sort(sites, 0, count);
+        boolean[] site = new boolean[n];
+        int growth = 0;
+        int selected = 0;
+        for (int k = 0; k < count; k++) {
+            int i = (int) sites[k];
+            int e = ir.targetIndex(i);
+            int cost = ret[e] - e - 1;
+            if (growth + cost > budget)
+                continue;
+            site[i] = true;
+            growth += cost;
+            selected++;
+        }
+        if (selected == 0)
+            return -1;
+        inlined += selected;
+        expand(site, ret, n + growth);
+        return growth;
+    }
+
+    // 展开选出的调用点，生成新的代码
+    private void expand(boolean[] site, int[] ret, int size) {
+        int n = ir.size();
+        int[] newAddr = new int[n + 1];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            newAddr[i] = ir.initStat + k;
+            k += site[i] ? ret[ir.targetIndex(i)] - ir.targetIndex(i) : 1;
+        }
+        newAddr[n] = ir.initStat + k;
+
+        int[] op = new int[Math.max(size, 1)], arg1 = new int[op.length], arg2 = new int[op.length],
+                result = new int[op.length];
+        if (tempMap.length < ir.tempVarCounter) {
+            tempMap = new int[ir.tempVarCounter];
+            tempStamp = new int[ir.tempVarCounter];
+        }
+        boolean[] newEntry = new boolean[size + 1];
+        k = 0;
+        for (int i = 0; i < n; i++) {
+            if (entry[i])
+                newEntry[newAddr[i] - ir.initStat] = true;
+            if (!site[i]) {
+                op[k] = ir.op[i];
+                arg1[k] = ir.arg1[i];
+                arg2[k] = ir.arg2[i];
+                result[k] = target(i, newAddr);
+                k++;
+                continue;
+            }
+            // 过程体[e, r)的副本：临时变量换成新的，过程体内的跳转按偏移量重定位，跳到return即跳到调用之后
+            int e = ir.targetIndex(i), r = ret[e];
+            int base = newAddr[i];
+            stamp++;
+            for (int j = e; j < r; j++) {
+                int opcode = ir.op[j];
+                op[k] = opcode;
+                if (OpCode.isJump(opcode)) {
+                    arg1[k] = opcode == OpCode.call ? ir.arg1[j] : rename(ir.arg1[j]);
+                    arg2[k] = rename(ir.arg2[j]);
+                    int t = ir.targetIndex(j);
+                    result[k] = t >= e && t <= r && ir.result[j] != Intermediater.EMPTY ? base + (t - e)
+                            : target(j, newAddr);
+                } else {
+                    arg1[k] = rename(ir.arg1[j]);
+                    arg2[k] = rename(ir.arg2[j]);
+                    result[k] = rename(ir.result[j]);
+                }
+                k++;
+            }
+        }
+        ir.setCode(op, arg1, arg2, result, k);
+        entry = newEntry;
+    }
+
+    // 第i条代码在新代码中的result
+    private int target(int i, int[] newAddr) {
+        int res = ir.result[i];
+        if (!OpCode.isJump(ir.op[i]) || res == Intermediater.EMPTY)
+            return res;
+        return newAddr[res - ir.initStat];
+    }
+
+    // 把过程体中的临时变量换成当前调用点专用的新临时变量
+    private int rename(int operand) {
+        if (Intermediater.kind(operand) != Intermediater.TEMP)
+            return operand;
+        int t = Intermediater.index(operand);
+        if (tempStamp[t] != stamp) {
+            tempStamp[t] = stamp;
+            tempMap[t] = ir.newTempVar();
+        }
+        return tempMap[t];
+    }
+
+    /*
+     * 删除不再被调用的、没有内层过程的过程，反复进行直到不再变化（删除一个过程可能使其中调用的过程也不再被调用）；
+     * 之后跳过过程代码的跳转若跳过的代码都已删除，也一并删除
+     */
+    private void removeDeadProcedures() {
+        int n = ir.size();
+        boolean[] removed = new boolean[n];
+        int[] calls = new int[n + 1];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Arrays.fill(calls, 0);
+            for (int i = 0; i < n; i++) {
+                if (!removed[i] && ir.op[i] == OpCode.call)
+                    calls[ir.targetIndex(i)]++;
+            }
+            for (int e = 0; e < n; e++) {
+                if (!entry[e] || removed[e] || calls[e] > 0)
+                    continue;
+                int r = e;
+                boolean flat = true;
+                while (r < n && (removed[r] || ir.op[r] != OpCode.ret)) {
+                    if (r > e && entry[r] && !removed[r])
+                        flat = false;
+                    r++;
+                }
+                if (!flat || r == n || !closed(e, r, removed))
+                    continue;
+                for (int i = e; i <= r; i++)
+                    removed[i] = true;
+                changed = true;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (removed[i] || ir.op[i] != OpCode.jmp || ir.result[i] == Intermediater.EMPTY)
+                continue;
+            int t = ir.targetIndex(i);
+            int j = i + 1;
+            while (j < t && removed[j])
+                j++;
+            if (t > i + 1 && j == t)
+                removed[i] = true;
+        }
+        ir.compact(removed);
+    }
+}
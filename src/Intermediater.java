@@ -1,73 +1,600 @@
-import java.io.FileWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  *
  * 生成易读的三地址代码
+ * 中间代码以四元式 (op, arg1, arg2, result) 的形式保存在基本类型数组中，
+ * 只有在输出时才渲染为文本
  */
 public class Intermediater {
-    public ArrayList<String> IntermediateCode = new ArrayList<>();
+    // 操作数编码：高3位为操作数种类，低29位为下标
+    public static final int KIND_SHIFT = 29;
+    public static final int NONE = 0; // 无操作数
+    public static final int VAR = 1; // 变量，下标为变量编号
+    public static final int TEMP = 2; // 临时变量，下标为Tn中的n
+    public static final int CONST = 3; // 常数，下标为常数池中的位置
+
+    // 空链（尚未回填的跳转链表）
+    public static final int EMPTY = -1;
+
+    // 四元式的四个字段，下标为 地址-base
+    public int[] op = new int[64];
+    public int[] arg1 = new int[64];
+    public int[] arg2 = new int[64];
+    public int[] result = new int[64];
+    // 待回填跳转指令构成的环形链表，chain[i]为链中下一条指令的地址，链中最后一条指向第一条；
+    // 链以其中任意一条指令的地址表示，两个链交换各自一条指令的后继即合并为一个链
+    private int[] chain = new int[64];
+
+    // 常数池
+    public int[] constPool = new int[16];
+    public int constCount = 0;
+
+    // 符号表，变量操作数的下标就是符号表分配的槽位
+    private final Table table;
+
+    // 递归调用时保存的槽位集合，编号从1开始（0表示不需要保存）
+    private int[][] saveSets = new int[4][];
+    private int saveSetCount = 0;
+    private static final int[] NO_SLOTS = new int[0];
 
     public final int initStat = 100; // 初始地址
     public int nextStat = initStat; // 下一条代码地址
     public int tempVarCounter = 0;// 中间代码临时变量
+    public boolean foldConstants = false; // 是否在生成代码时进行常量折叠与传播
+    private long backpatchCount = 0; // BackPatch的调用次数
+    private long bytesWritten = 0; // 流式输出已写出的字符数
+
+    // 流式输出：内存中的代码达到FLUSH_THRESHOLD条时全部写出；其中尚未回填的跳转先不写目标，
+    // 记录在spill中，回填时只改记录，最后由patchSpilled()在第二遍复制时补上目标
+    private Writer sink;
+    private int base = initStat; // 内存中第一条代码的地址，之前的代码都已写出
+    private int peakWindow = 0; // 内存中同时保留的代码条数的最大值
+    private final StringBuilder line = new StringBuilder();
+    // 流式输出时值相同的常数共用常数池中的一项，常数池的大小只与不同常数的个数有关；散列表中存放常数池下标+1
+    private int[] constSlots;
+    private static final int FLUSH_THRESHOLD = 4096; // 内存中的代码达到该条数时写出
+    // 写出时尚未回填的跳转：地址（递增）、链中下一条指令的地址、回填的目标
+    private int[] spillAddr = new int[16];
+    private int[] spillNext = new int[16];
+    private int[] spillTarget = new int[16];
+    private int spillCount = 0;
+
+    public Intermediater(Table table) {
+        this.table = table;
+    }
+
+    public static int kind(int operand) {
+        return operand >>> KIND_SHIFT;
+    }
+
+    public static int index(int operand) {
+        return operand & ((1 << KIND_SHIFT) - 1);
+    }
+
+    public static int operand(int kind, int index) {
+        return (kind << KIND_SHIFT) | index;
+    }
+
+    public int makeList() {
+        return EMPTY;
+    }
+
+    // 创建只含有地址addr的链
+    public int makeList(int addr) {
+        chain[addr - base] = addr;
+        return addr;
+    }
+
+    public int newTempVar() {
+        return operand(TEMP, tempVarCounter++);
+    }
+
+    // 槽位为slot的变量对应的操作数
+    public int var(int slot) {
+        return operand(VAR, slot);
+    }
+
+    // 常数对应的操作数
+    public int constant(int value) {
+        int slot = 0;
+        if (constSlots != null) {
+            int mask = constSlots.length - 1;
+            slot = constHash(value) & mask;
+            for (; constSlots[slot] != 0; slot = (slot + 1) & mask) {
+                if (constPool[constSlots[slot] - 1] == value)
+                    return operand(CONST, constSlots[slot] - 1);
+            }
+        }
+        if (constCount == constPool.length)
+            constPool = grow(constPool);
+        constPool[constCount] = value;
+        if (constSlots != null) {
+            constSlots[slot] = constCount + 1;
+            if ((constCount + 1) * 2 > constSlots.length)
+                rehashConstants();
+        }
+        return operand(CONST, constCount++);
+    }
+
+    private static int constHash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private void rehashConstants() {
+        constSlots = new int[constSlots.length * 2];
+        int mask = constSlots.length - 1;
+        for (int k = 0; k < constCount; k++) {
+            int slot = constHash(constPool[k]) & mask;
+            while (constSlots[slot] != 0)
+                slot = (slot + 1) & mask;
+            constSlots[slot] = k + 1;
+        }
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public String varName(int slot) {
+        return table.slotName(slot);
+    }
+
+    // 变量个数
+    public int varCount() {
+        return table.slotCount();
+    }
+
+    /*
+     * 新建一个空的保存槽位集合，返回其编号；调用时集合的内容可能还不完整，之后用setSaveSet填写
+     */
+    public int newSaveSet() {
+        if (saveSetCount == saveSets.length)
+            saveSets = Arrays.copyOf(saveSets, saveSetCount * 2);
+        saveSets[saveSetCount++] = NO_SLOTS;
+        return saveSetCount;
+    }
+
+    public void setSaveSet(int id, int[] slots) {
+        saveSets[id - 1] = slots;
+    }
+
+    // 编号为id的保存槽位集合，id为0时为空集合
+    public int[] saveSet(int id) {
+        return id == 0 ? NO_SLOTS : saveSets[id - 1];
+    }
+
+    public int saveSetCount() {
+        return saveSetCount;
+    }
+
+    // 已生成的中间代码条数
+    public int size() {
+        return nextStat - initStat;
+    }
+
+    /*
+     * 保存一条中间代码，返回其地址
+     */
+    public int emit(int opcode, int a1, int a2, int res) {
+        if (sink != null && nextStat - base >= FLUSH_THRESHOLD)
+            flushWindow();
+        int index = nextStat - base;
+        if (index == op.length) {
+            op = grow(op);
+            arg1 = grow(arg1);
+            arg2 = grow(arg2);
+            result = grow(result);
+            chain = grow(chain);
+        }
+        op[index] = opcode;
+        arg1[index] = a1;
+        arg2[index] = a2;
+        result[index] = res;
+        chain[index] = EMPTY;
+        return nextStat++;
+    }
+
+    /*
+     * 生成一元运算 T:=op a，返回保存结果的操作数；操作数为常数时直接折叠
+     */
+    public int emitUnary(int opcode, int a) {
+        if (foldConstants && kind(a) == CONST)
+            return opcode == OpCode.neg ? constant(-constPool[index(a)]) : a;
+        int temp = newTempVar();
+        emit(opcode, a, NONE, temp);
+        return temp;
+    }
+
+    /*
+     * 生成二元运算 T:=a op b，返回保存结果的操作数；两个操作数都是常数时直接折叠
+     */
+    public int emitBinary(int opcode, int a, int b) {
+        if (foldConstants && kind(a) == CONST && kind(b) == CONST) {
+            int x = constPool[index(a)], y = constPool[index(b)];
+            switch (opcode) {
+                case OpCode.add:
+                    return constant(x + y);
+                case OpCode.sub:
+                    return constant(x - y);
+                case OpCode.mul:
+                    return constant(x * y);
+                default:
+                    if (y != 0) // 除数为零留到运行时报错
+                        return constant(x / y);
+                    break;
+            }
+        }
+        int temp = newTempVar();
+        emit(opcode, a, b, temp);
+        return temp;
+    }
+
+    /*
+     * 尝试在编译期计算条件 a relop b：不能确定时返回-1，否则返回0(假)或1(真)
+     */
+    public int foldCondition(int opcode, int a, int b) {
+        if (foldConstants && kind(a) == CONST && kind(b) == CONST)
+            return evaluate(opcode, constPool[index(a)], constPool[index(b)]) ? 1 : 0;
+        return -1;
+    }
+
+    // 计算关系运算的值
+    public static boolean evaluate(int opcode, int x, int y) {
+        switch (opcode) {
+            case OpCode.jeq:
+                return x == y;
+            case OpCode.jne:
+                return x != y;
+            case OpCode.jlt:
+                return x < y;
+            case OpCode.jle:
+                return x <= y;
+            case OpCode.jgt:
+                return x > y;
+            default:
+                return x >= y;
+        }
+    }
+
+    // 跳转目标的下标（未回填的跳转视为跳到代码末尾）
+    public int targetIndex(int index) {
+        return result[index] == EMPTY ? size() : result[index] - initStat;
+    }
 
-    public ArrayList<Integer> makeList() {
-        return new ArrayList<>();
+    /*
+     * 划分基本块：返回每条代码是否为基本块的入口
+     * 入口包括第一条代码、跳转的目标以及跳转之后的代码；leader[size()]恒为true，作为最后一个基本块的结束
+     */
+    public boolean[] leaders() {
+        int n = size();
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        leader[n] = true;
+        for (int i = 0; i < n; i++) {
+            if (OpCode.endsBlock(op[i])) {
+                if (OpCode.isJump(op[i]))
+                    leader[targetIndex(i)] = true;
+                leader[i + 1] = true;
+            }
+        }
+        return leader;
+    }
+
+    /*
+     * 删除被标记的代码，重新计算地址，并把跳转目标改为原目标之后第一条保留的代码
+     */
+    public void compact(boolean[] removed) {
+        int n = size();
+        int[] newAddr = new int[n + 1];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            newAddr[i] = initStat + k;
+            if (!removed[i])
+                k++;
+        }
+        newAddr[n] = initStat + k;
+        k = 0;
+        for (int i = 0; i < n; i++) {
+            if (removed[i])
+                continue;
+            op[k] = op[i];
+            arg1[k] = arg1[i];
+            arg2[k] = arg2[i];
+            result[k] = OpCode.isJump(op[i]) && result[i] != EMPTY ? newAddr[result[i] - initStat] : result[i];
+            k++;
+        }
+        nextStat = initStat + k;
+    }
+
+    /*
+     * 以新生成的n条代码代替全部代码（用于需要插入代码的变换，如内联），跳转目标已是新的地址
+     */
+    public void setCode(int[] op, int[] arg1, int[] arg2, int[] result, int n) {
+        this.op = op;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.result = result;
+        chain = new int[op.length];
+        nextStat = initStat + n;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] bigger = new int[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /*
+     * 将第index条中间代码渲染为文本，格式与原先的字符串形式一致
+     */
+    public void render(int index, StringBuilder sb) {
+        int opcode = op[index];
+        sb.append(index + base);
+        if (opcode == OpCode.call || opcode == OpCode.ret) {
+            sb.append(":    ").append(OpCode.text[opcode]);
+            if (opcode == OpCode.call) {
+                sb.append(' ').append(result[index]);
+                int[] slots = saveSet(arg1[index]);
+                for (int k = 0; k < slots.length; k++)
+                    sb.append(k == 0 ? " save " : ", ").append(table.slotName(slots[k]));
+            }
+        } else if (OpCode.isJump(opcode)) {
+            sb.append(":    ");
+            if (opcode != OpCode.jmp) {
+                sb.append("if ");
+                appendOperand(sb, arg1[index]);
+                sb.append(OpCode.text[opcode]);
+                appendOperand(sb, arg2[index]);
+                sb.append(' ');
+            }
+            sb.append("goto ");
+            if (result[index] != EMPTY)
+                sb.append(result[index]);
+        } else {
+            sb.append(":\t");
+            appendOperand(sb, result[index]);
+            sb.append(":=");
+            if (opcode == OpCode.pos || opcode == OpCode.neg) {
+                sb.append(OpCode.text[opcode]);
+                appendOperand(sb, arg1[index]);
+            } else if (OpCode.isBinary(opcode)) {
+                appendOperand(sb, arg1[index]);
+                sb.append(OpCode.text[opcode]);
+                appendOperand(sb, arg2[index]);
+            } else {
+                appendOperand(sb, arg1[index]);
+            }
+        }
+    }
+
+    private void appendOperand(StringBuilder sb, int operand) {
+        switch (kind(operand)) {
+            case VAR:
+                sb.append(table.slotName(index(operand)));
+                break;
+            case TEMP:
+                sb.append('T').append(index(operand));
+                break;
+            case CONST:
+                sb.append(constPool[index(operand)]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /*
+     * 开启流式输出：之后生成的代码在不会再被回填时即写入out，必须在生成第一条代码之前调用
+     * 流式输出时不能再做需要整个程序的处理（局部优化、虚拟机执行等）
+     */
+    public void setSink(Writer out) {
+        sink = out;
+        constSlots = new int[64];
+    }
+
+    /*
+     * 写出内存中的全部代码：尚未回填的跳转都在某个打开的链（trueList/falseList/nextList）中，
+     * 先记入spill，链中的后继也一并记下，之后的回填与合并改为修改记录
+     */
+    private void flushWindow() {
+        int n = nextStat - base;
+        peakWindow = Math.max(peakWindow, n);
+        for (int i = 0; i < n; i++) {
+            if (OpCode.isJump(op[i]) && result[i] == EMPTY)
+                spill(i + base, chain[i]);
+        }
+        write(n);
+        base += n;
     }
 
-    public String newTempVar() {
-        return "T" + tempVarCounter++;
+    private void spill(int addr, int next) {
+        if (spillCount == spillAddr.length) {
+            spillAddr = grow(spillAddr);
+            spillNext = grow(spillNext);
+            spillTarget = grow(spillTarget);
+        }
+        spillAddr[spillCount] = addr;
+        spillNext[spillCount] = next;
+        spillTarget[spillCount] = EMPTY;
+        spillCount++;
+    }
+
+    // 已写出的跳转addr在spill中的下标，不是记录过的跳转时为负数
+    private int spilled(int addr) {
+        return addr < base ? Arrays.binarySearch(spillAddr, 0, spillCount, addr) : -1;
+    }
+
+    // 链中addr之后的指令的地址
+    private int next(int addr) {
+        return addr >= base ? chain[addr - base] : spillNext[spilled(addr)];
+    }
+
+    private void setNext(int addr, int next) {
+        if (addr >= base)
+            chain[addr - base] = next;
+        else
+            spillNext[spilled(addr)] = next;
+    }
+
+    // 把内存中的前count条代码写入sink
+    private void write(int count) {
+        try {
+            for (int i = 0; i < count; i++) {
+                line.setLength(0);
+                render(i, line);
+                line.append('\n');
+                sink.append(line);
+                bytesWritten += line.length();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /*
-     * 保存中间代码
+     * 流式输出结束：写出内存中剩下的代码
      */
-    public void emit(String code) {
-        IntermediateCode.add(code);
+    public void finish() throws IOException {
+        int n = nextStat - base;
+        peakWindow = Math.max(peakWindow, n);
+        try {
+            write(n);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        base = nextStat;
+        sink.flush();
+    }
+
+    // 是否有写出时尚未回填的跳转，有则要用patchSpilled()补上它们的目标
+    public boolean hasSpilledJumps() {
+        return spillCount > 0;
+    }
+
+    public int getSpilledJumps() {
+        return spillCount;
+    }
+
+    /*
+     * 流式输出的第二遍：把finish()之后的输出从in复制到out，在写出时尚未回填的跳转之后补上回填的目标
+     */
+    public void patchSpilled(BufferedReader in, Writer out) throws IOException {
+        int s = 0;
+        String text;
+        for (int addr = initStat; (text = in.readLine()) != null; addr++) {
+            out.write(text);
+            if (s < spillCount && spillAddr[s] == addr) {
+                if (spillTarget[s] != EMPTY) {
+                    String target = Integer.toString(spillTarget[s]);
+                    out.write(target);
+                    bytesWritten += target.length();
+                }
+                s++;
+            }
+            out.write('\n');
+        }
+    }
+
+    public long getBackPatchCount() {
+        return backpatchCount;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // 流式输出时内存中同时保留的代码条数的最大值
+    public int getPeakWindow() {
+        return peakWindow;
+    }
+
+    /*
+     * 把所有中间代码写入out
+     */
+    public void writeCode(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size(); i++) {
+            sb.setLength(0);
+            render(i, sb);
+            sb.append('\n');
+            out.append(sb);
+        }
     }
 
     /*
      * 遍历并输出所有中间代码
      */
     public void ouputCode() {
-        String fileName = "IntermediateCode.txt";
+        ouputCode(Paths.get("IntermediateCode.txt"), System.out);
+    }
 
-        try (FileWriter writer = new FileWriter(fileName)) {
-            for (String code : IntermediateCode) {
-                System.out.println(code);
-                writer.write(code + "\n"); // 写入文件
+    /*
+     * 把所有中间代码写入文件file，并同时输出到out
+     */
+    public void ouputCode(Path file, PrintStream out) {
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < size(); i++) {
+                sb.setLength(0);
+                render(i, sb);
+                sb.append('\n');
+                out.print(sb);
+                writer.append(sb); // 写入文件
             }
         } catch (IOException e) {
-            System.out.println("中间代码写入文件失败！");
+            out.println("中间代码写入文件失败！");
         }
     }
 
     /*
-     * 回填地址
+     * 回填地址：沿链表把每条跳转指令的目标地址设为addr
      */
-    public void BackPatch(ArrayList<Integer> list, Integer addr) {
-        for (Integer value : list) {
-            int index = value - initStat; // 计算数组下标
+    public void BackPatch(int list, int addr) {
+        backpatchCount++;
+        int p = list;
+        while (p != EMPTY) {
+            int index = p - base; // 计算数组下标
+            int s;
             // 检查数组下标是否合法
-            if (index >= 0 && index < IntermediateCode.size()) {
-                String ic = IntermediateCode.get(index); // 获取对应下标的数据
-                ic += (addr.toString()); // 在尾部添加地址 addr
-                IntermediateCode.set(index, ic);
+            if (index >= 0 && index < nextStat - base) {
+                p = chain[index];
+                chain[index] = EMPTY;
+                result[index] = addr;
+            } else if ((s = spilled(p)) >= 0) { // 已写出的跳转只修改记录
+                p = spillNext[s];
+                spillNext[s] = EMPTY;
+                spillTarget[s] = addr;
             } else {
                 System.out.println("回填地址出错！");
+                return;
             }
+            if (p == list)
+                break; // 回到第一条，整个环已回填
         }
     }
 
     /*
-     * 合并两个链表，并返回合并后的链首
+     * 合并两个链表并返回合并后的链：交换两个环中各一条指令的后继，不遍历链
      */
-    public ArrayList<Integer> merge(ArrayList<Integer> list1, ArrayList<Integer> list2) {
-        ArrayList<Integer> mergedList = new ArrayList<>(list1);
-        mergedList.addAll(list2);
-        return mergedList;
+    public int merge(int list1, int list2) {
+        if (list1 == EMPTY)
+            return list2;
+        if (list2 == EMPTY)
+            return list1;
+        int next1 = next(list1);
+        setNext(list1, next(list2));
+        setNext(list2, next1);
+        return list1;
     }
 
 }
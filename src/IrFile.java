@@ -0,0 +1,549 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 【二进制中间代码文件】
+ * 格式（版本3，多字节整数为大端序；版本3增加了操作码shl，仍可读入版本1与版本2的文件）：
+ *   文件头：   "PL0I" 版本(u16) 保留(u16) initStat(i32) 指令数(i32) 常数个数(i32)
+ *             符号表项数(i32) 槽位数(i32) 临时变量数(i32)
+ *   符号表：   每项为 种类(u8，0常量1变量) 名称长度(varint) 名称(UTF-8，过程中的说明为限定名) 槽位+1(varint，0为无槽位)，
+ *             常量再加上 值(zigzag varint)；按加入符号表的顺序排列，过程名不写出
+ *   常数池：   每个常数为 zigzag varint
+ *   保存集合： 个数(varint)，每个集合为 槽位数(varint) 各槽位(varint)（版本1没有这一部分）
+ *   指令：     操作码(u8)，之后按操作码依次为 arg1 arg2 result（没有的字段不写），
+ *             操作数为 varint(下标<<2 | 种类)，跳转目标为 varint(地址-initStat+1)，0表示未回填；
+ *             call为 保存集合编号(varint) 目标，return没有字段
+ * 写文件经过FileChannel，读文件通过MappedByteBuffer直接在映射的内存上译码，
+ * 译码时检查每个操作数与跳转目标不超出文件头给出的个数
+ * 同时提供与文本格式（IntermediateCode.txt）之间的转换：文本→二进制→文本得到相同的文本；
+ * 二进制→文本→二进制一般不逐字节相同，因为文本中没有符号表（未使用的变量与命名常量丢失，槽位按首次出现重新编号），
+ * 常数池只剩用到的常数，neg与负常数的赋值也写成同样的文本
+ */
+public class IrFile {
+    public static final int MAGIC = 0x504C3049; // "PL0I"
+    public static final int VERSION = 3;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 判断文件是否为二进制中间代码
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) ;
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * 写出二进制中间代码
+     */
+    public static void write(Intermediater ir, Path path) throws IOException {
+        Table table = ir.getTable();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0)
+                    .putInt(ir.initStat).putInt(ir.size()).putInt(ir.constCount)
+                    .putInt(entries(table)).putInt(table.slotCount()).putInt(ir.tempVarCounter);
+
+            for (int k = 0; k < table.size(); k++) {
+                Table.Kind kind = table.kindAt(k);
+                if (kind == Table.Kind.PROCEDURE)
+                    continue;
+                boolean constant = kind == Table.Kind.CONSTANT;
+                byte[] name = table.nameAt(k).getBytes(StandardCharsets.UTF_8);
+                out.ensure(1 + 5 + name.length + 5 + 5);
+                out.buffer.put((byte) (constant ? 0 : 1));
+                out.putVarint(name.length);
+                out.buffer.put(name);
+                out.putVarint(table.slotAt(k) + 1);
+                if (constant)
+                    out.putVarint(zigzag(table.valueAt(k)));
+            }
+
+            for (int k = 0; k < ir.constCount; k++) {
+                out.ensure(5);
+                out.putVarint(zigzag(ir.constPool[k]));
+            }
+
+            out.ensure(5);
+            out.putVarint(ir.saveSetCount());
+            for (int k = 1; k <= ir.saveSetCount(); k++) {
+                int[] slots = ir.saveSet(k);
+                out.ensure(5);
+                out.putVarint(slots.length);
+                for (int slot : slots) {
+                    out.ensure(5);
+                    out.putVarint(slot);
+                }
+            }
+
+            for (int i = 0; i < ir.size(); i++) {
+                int op = ir.op[i];
+                out.ensure(1 + 3 * 5);
+                out.buffer.put((byte) op);
+                if (op == OpCode.jmp) {
+                    out.putVarint(target(ir, ir.result[i]));
+                } else if (op == OpCode.call) {
+                    out.putVarint(ir.arg1[i]);
+                    out.putVarint(target(ir, ir.result[i]));
+                } else if (op == OpCode.ret) {
+                    // 没有字段
+                } else if (OpCode.isCondJump(op)) {
+                    out.putVarint(operand(ir.arg1[i]));
+                    out.putVarint(operand(ir.arg2[i]));
+                    out.putVarint(target(ir, ir.result[i]));
+                } else if (OpCode.isBinary(op)) {
+                    out.putVarint(operand(ir.arg1[i]));
+                    out.putVarint(operand(ir.arg2[i]));
+                    out.putVarint(operand(ir.result[i]));
+                } else {
+                    out.putVarint(operand(ir.arg1[i]));
+                    out.putVarint(operand(ir.result[i]));
+                }
+            }
+            out.flush();
+        }
+    }
+
+    // 写出的符号表项数：过程名不写出
+    private static int entries(Table table) {
+        int count = 0;
+        for (int k = 0; k < table.size(); k++) {
+            if (table.kindAt(k) != Table.Kind.PROCEDURE)
+                count++;
+        }
+        return count;
+    }
+
+    private static int operand(int operand) {
+        return Intermediater.index(operand) << 2 | Intermediater.kind(operand);
+    }
+
+    private static int target(Intermediater ir, int target) {
+        return target == Intermediater.EMPTY ? 0 : target - ir.initStat + 1;
+    }
+
+    private static int zigzag(int value) {
+        return value << 1 ^ value >> 31;
+    }
+
+    // 经过固定大小的缓冲区写入FileChannel
+    private static class Output {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // 保证缓冲区中还有n个字节的空间
+        void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+                if (buffer.remaining() < n)
+                    throw new IOException("Identifier too long for the IR buffer");
+            }
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 通过内存映射读入二进制中间代码
+     */
+    public static Intermediater read(Path path) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return decode(in);
+        } catch (RuntimeException e) {
+            throw new IOException(path + ": corrupt IR file", e);
+        }
+    }
+
+    private static Intermediater decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC)
+            throw new IOException("Not a PL/0 IR file");
+        int version = in.getShort() & 0xFFFF;
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported IR version " + version);
+        in.getShort();
+        int initStat = in.getInt();
+        int instructions = in.getInt();
+        int constants = in.getInt();
+        int entries = in.getInt();
+        int slots = in.getInt();
+        int temps = in.getInt();
+        if (instructions < 0 || constants < 0 || entries < 0 || slots < 0 || temps < 0)
+            throw new IOException("Invalid counts in the IR header");
+
+        IdentifierPool names = new IdentifierPool();
+        Table table = new Table(names);
+        Intermediater ir = new Intermediater(table);
+        if (initStat != ir.initStat)
+            throw new IOException("Unsupported initial address " + initStat);
+
+        byte[] name = new byte[64];
+        for (int k = 0; k < entries; k++) {
+            boolean constant = in.get() == 0;
+            int length = getVarint(in);
+            if (length < 0 || length > in.remaining())
+                throw new IOException("Invalid name length " + length);
+            if (length > name.length)
+                name = new byte[length];
+            in.get(name, 0, length);
+            int id = names.intern(new String(name, 0, length, StandardCharsets.UTF_8));
+            int slot = getVarint(in) - 1;
+            table.addItem(id, constant ? Table.Kind.CONSTANT : Table.Kind.VARIABLE);
+            if (constant) {
+                table.setValue(id, unzigzag(getVarint(in)));
+                if (slot >= 0)
+                    table.allocateSlot(id);
+            }
+            if (table.getSlot(id) != slot)
+                throw new IOException("Inconsistent slot for " + table.name(id));
+        }
+        if (table.slotCount() != slots)
+            throw new IOException("Inconsistent slot count");
+
+        for (int k = 0; k < constants; k++)
+            ir.constant(unzigzag(getVarint(in)));
+        if (ir.constCount != constants)
+            throw new IOException("Duplicate constants in the constant pool");
+        // 各种操作数的下标上限，下标为种类
+        int[] limits = new int[4];
+        limits[Intermediater.VAR] = slots;
+        limits[Intermediater.TEMP] = temps;
+        limits[Intermediater.CONST] = constants;
+
+        int saveSets = version == 1 ? 0 : getVarint(in);
+        for (int k = 1; k <= saveSets; k++) {
+            int[] set = new int[getVarint(in)];
+            for (int j = 0; j < set.length; j++) {
+                set[j] = getVarint(in);
+                if (set[j] >= slots)
+                    throw new IOException("Invalid slot " + set[j] + " in save set " + k);
+            }
+            ir.setSaveSet(ir.newSaveSet(), set);
+        }
+
+        for (int i = 0; i < instructions; i++) {
+            int addr = initStat + i;
+            int op = in.get();
+            if (op < 0 || op >= OpCode.opnum || op == OpCode.shl && version < 3)
+                throw new IOException("Invalid opcode " + op + " at " + addr);
+            int a1 = Intermediater.NONE, a2 = Intermediater.NONE, res;
+            if (op == OpCode.jmp) {
+                res = getTarget(in, initStat, instructions, addr);
+            } else if (op == OpCode.call) {
+                a1 = getVarint(in);
+                if (a1 < 0 || a1 > saveSets)
+                    throw new IOException("Invalid save set " + a1 + " at " + addr);
+                res = getTarget(in, initStat, instructions, addr);
+            } else if (op == OpCode.ret) {
+                res = Intermediater.NONE;
+            } else if (OpCode.isCondJump(op)) {
+                a1 = getOperand(in, limits, false, addr);
+                a2 = getOperand(in, limits, false, addr);
+                res = getTarget(in, initStat, instructions, addr);
+            } else if (OpCode.isBinary(op)) {
+                a1 = getOperand(in, limits, false, addr);
+                a2 = getOperand(in, limits, false, addr);
+                res = getOperand(in, limits, true, addr);
+            } else {
+                a1 = getOperand(in, limits, false, addr);
+                res = getOperand(in, limits, true, addr);
+            }
+            ir.emit(op, a1, a2, res);
+            // 文件头中的临时变量数只作为上限，帧的大小按实际用到的临时变量计算
+            ir.tempVarCounter = Math.max(ir.tempVarCounter,
+                    Math.max(tempsUsed(a1), Math.max(tempsUsed(a2), tempsUsed(res))));
+        }
+        return ir;
+    }
+
+    // 操作数是临时变量Tn时为n+1，否则为0
+    private static int tempsUsed(int operand) {
+        return Intermediater.kind(operand) == Intermediater.TEMP ? Intermediater.index(operand) + 1 : 0;
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    // 读入操作数，其下标必须小于limits中对应种类的个数；结果只能是变量或临时变量
+    private static int getOperand(ByteBuffer in, int[] limits, boolean result, int addr) throws IOException {
+        int v = getVarint(in);
+        int kind = v & 3, index = v >>> 2;
+        if (kind == Intermediater.NONE || result && kind == Intermediater.CONST || index >= limits[kind])
+            throw new IOException("Invalid operand " + v + " at " + addr);
+        return Intermediater.operand(kind, index);
+    }
+
+    // 读入跳转目标：未回填，或者从第一条指令到程序末尾（地址initStat+instructions）
+    private static int getTarget(ByteBuffer in, int initStat, int instructions, int addr) throws IOException {
+        int v = getVarint(in);
+        if (v < 0 || v > instructions + 1)
+            throw new IOException("Invalid jump target " + v + " at " + addr);
+        return v == 0 ? Intermediater.EMPTY : v - 1 + initStat;
+    }
+
+    private static int unzigzag(int value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * 读入文本格式的中间代码（IntermediateCode.txt）
+     * 文本中没有符号表，变量按首次出现的顺序分配槽位；形如T后跟数字的名称视为临时变量，
+     * 紧跟在:=之后的负号与数字视为负常数（x:=-3与x:=-(3)含义相同），只有-0仍是一元运算（0的负常数写作0）；
+     * call的save之后列出的变量组成一个保存集合，相同的列表共用一个集合
+     */
+    public static Intermediater readText(Path path) throws IOException {
+        IdentifierPool names = new IdentifierPool();
+        Table table = new Table(names);
+        Intermediater ir = new Intermediater(table);
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            TextParser parser = new TextParser(ir, table, names);
+            int lineNumber = 0;
+            for (String line; (line = reader.readLine()) != null; ) {
+                lineNumber++;
+                if (line.isBlank())
+                    continue;
+                try {
+                    parser.parseLine(line);
+                } catch (RuntimeException e) {
+                    throw new IOException(path + ":" + lineNumber + ": cannot parse \"" + line + "\"", e);
+                }
+            }
+        }
+        return ir;
+    }
+
+    // 文本格式的一行中间代码的分析器
+    private static class TextParser {
+        final Intermediater ir;
+        final Table table;
+        final IdentifierPool names;
+        final Map<String, Integer> saveSets = new HashMap<>(); // 变量列表 -> 保存集合编号
+        String s;
+        int p;
+
+        TextParser(Intermediater ir, Table table, IdentifierPool names) {
+            this.ir = ir;
+            this.table = table;
+            this.names = names;
+        }
+
+        void parseLine(String line) {
+            s = line;
+            p = 0;
+            int addr = number();
+            if (addr != ir.nextStat)
+                throw new IllegalArgumentException("expected address " + ir.nextStat);
+            expect(':');
+            skipSpaces();
+            if (s.startsWith("goto", p)) {
+                p += 4;
+                ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, target());
+            } else if (s.startsWith("call ", p)) {
+                p += 5;
+                int target = number();
+                skipSpaces();
+                int set = 0;
+                if (s.startsWith("save ", p)) {
+                    p += 5;
+                    set = saveSet();
+                }
+                ir.emit(OpCode.call, set, Intermediater.NONE, target);
+            } else if (s.startsWith("return", p) && p + 6 == s.length()) {
+                p += 6;
+                ir.emit(OpCode.ret, Intermediater.NONE, Intermediater.NONE, Intermediater.NONE);
+            } else if (s.startsWith("if ", p)) {
+                p += 3;
+                int a = operand();
+                int op = relation();
+                int b = operand();
+                skipSpaces();
+                if (!s.startsWith("goto", p))
+                    throw new IllegalArgumentException("goto expected");
+                p += 4;
+                ir.emit(op, a, b, target());
+            } else {
+                int res = operand();
+                expect(':');
+                expect('=');
+                if (p < s.length() && (s.charAt(p) == '+' || s.charAt(p) == '-' && !negativeConstant(p + 1))) {
+                    // 一元运算：+a 或 -a
+                    int op = s.charAt(p++) == '+' ? OpCode.pos : OpCode.neg;
+                    ir.emit(op, operand(), Intermediater.NONE, res);
+                } else {
+                    int a = operand();
+                    if (p == s.length()) {
+                        ir.emit(OpCode.assign, a, Intermediater.NONE, res);
+                    } else {
+                        int op;
+                        switch (s.charAt(p++)) {
+                            case '+':
+                                op = OpCode.add;
+                                break;
+                            case '-':
+                                op = OpCode.sub;
+                                break;
+                            case '*':
+                                op = OpCode.mul;
+                                break;
+                            case '/':
+                                op = OpCode.div;
+                                break;
+                            case '<':
+                                expect('<');
+                                op = OpCode.shl;
+                                break;
+                            default:
+                                throw new IllegalArgumentException("operator expected");
+                        }
+                        ir.emit(op, a, operand(), res);
+                    }
+                }
+            }
+            if (p != s.length())
+                throw new IllegalArgumentException("unexpected text at column " + (p + 1));
+        }
+
+        // 逗号分隔的变量列表，返回对应的保存集合编号
+        int saveSet() {
+            int start = p;
+            List<Integer> slots = new ArrayList<>();
+            while (true) {
+                int v = operand();
+                if (Intermediater.kind(v) != Intermediater.VAR)
+                    throw new IllegalArgumentException("variable expected");
+                slots.add(Intermediater.index(v));
+                if (p < s.length() && s.charAt(p) == ',') {
+                    p++;
+                    skipSpaces();
+                } else {
+                    break;
+                }
+            }
+            return saveSets.computeIfAbsent(s.substring(start, p), k -> {
+                int id = ir.newSaveSet();
+                ir.setSaveSet(id, slots.stream().mapToInt(Integer::intValue).toArray());
+                return id;
+            });
+        }
+
+        int relation() {
+            String[] ops = {"<=", ">=", "<>", "=", "<", ">"};
+            int[] codes = {OpCode.jle, OpCode.jge, OpCode.jne, OpCode.jeq, OpCode.jlt, OpCode.jgt};
+            for (int k = 0; k < ops.length; k++) {
+                if (s.startsWith(ops[k], p)) {
+                    p += ops[k].length();
+                    return codes[k];
+                }
+            }
+            throw new IllegalArgumentException("relational operator expected");
+        }
+
+        int target() {
+            skipSpaces();
+            return p == s.length() ? Intermediater.EMPTY : number();
+        }
+
+        // 常数（可带负号）、临时变量Tn或者变量名
+        int operand() {
+            char c = s.charAt(p);
+            if (c == '-' || Character.isDigit(c)) {
+                boolean negative = c == '-';
+                if (negative)
+                    p++;
+                long value = number();
+                return ir.constant((int) (negative ? -value : value));
+            }
+            int start = p;
+            while (p < s.length() && (Character.isLetterOrDigit(s.charAt(p)) || s.charAt(p) == '.'))
+                p++;
+            if (p == start)
+                throw new IllegalArgumentException("operand expected");
+            if (s.charAt(start) == 'T' && p - start > 1 && allDigits(start + 1, p)) {
+                int index = Integer.parseInt(s.substring(start + 1, p));
+                ir.tempVarCounter = Math.max(ir.tempVarCounter, index + 1);
+                return Intermediater.operand(Intermediater.TEMP, index);
+            }
+            int id = names.intern(s.substring(start, p));
+            table.addItem(id, Table.Kind.VARIABLE); // 已存在时不变
+            return ir.var(table.getSlot(id));
+        }
+
+        // 位置from起是非零的数字（负号之后）
+        boolean negativeConstant(int from) {
+            int end = from;
+            while (end < s.length() && Character.isDigit(s.charAt(end)))
+                end++;
+            return end > from && !(end == from + 1 && s.charAt(from) == '0');
+        }
+
+        boolean allDigits(int from, int to) {
+            for (int k = from; k < to; k++) {
+                if (!Character.isDigit(s.charAt(k)))
+                    return false;
+            }
+            return true;
+        }
+
+        int number() {
+            int start = p;
+            while (p < s.length() && Character.isDigit(s.charAt(p)))
+                p++;
+            if (p == start)
+                throw new IllegalArgumentException("number expected");
+            return (int) Long.parseLong(s.substring(start, p));
+        }
+
+        void expect(char c) {
+            if (p >= s.length() || s.charAt(p) != c)
+                throw new IllegalArgumentException("'" + c + "' expected");
+            p++;
+        }
+
+        void skipSpaces() {
+            while (p < s.length() && (s.charAt(p) == ' ' || s.charAt(p) == '\t'))
+                p++;
+        }
+    }
+}
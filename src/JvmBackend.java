@@ -0,0 +1,424 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * 【JVM字节码后端】
+ * 把Intermediater生成的四元式翻译为一个类的静态方法 long run(int[] frame, long fuel)，
+ * 变量和临时变量都成为方法的局部变量，goto / if ... goto 成为真正的跳转指令；
+ * 该类通过 MethodHandles.Lookup.defineHiddenClass 加载，循环可以被C2编译为本地代码
+ * 只依赖JDK自带的功能，类文件由本类直接按照JVM规范写出
+ * 除零时把fuel置为-2-地址后跳到END，与虚拟机一样报告出错的地址
+ */
+public class JvmBackend {
+    // 局部变量布局：0=frame数组，1~2=剩余循环次数fuel，之后是变量和临时变量
+    private static final int LOCAL_BASE = 3;
+
+    private final Intermediater intermediater;
+    private final int length;
+    private final int varCount;
+    private final int slotCount;
+
+    // 常量池
+    private final Bytes pool = new Bytes();
+    private int poolCount = 1;
+    private int cpObject, cpThis, cpIntArray, cpName, cpDesc, cpCode, cpStackMap;
+
+    // 方法体
+    private final Bytes code = new Bytes();
+    private int[] insnOffset; // 每条四元式对应的字节码偏移，最后一项为END
+    private int[] fixups = new int[16]; // 待回填的跳转：[跳转指令偏移, 目标四元式下标]
+    private int fixupCount = 0;
+    private int[] frames = new int[16]; // 需要栈映射帧的字节码偏移
+    private int frameCount = 0;
+
+    private long elapsedNanos = 0;
+    private int errorAddr = -1; // 除零的地址
+
+    public JvmBackend(Intermediater ir) {
+        intermediater = ir;
+        length = ir.size();
+        varCount = ir.varCount();
+        slotCount = varCount + ir.tempVarCounter;
+    }
+
+    /**
+     * 生成类文件
+     */
+    public byte[] generate() {
+        if (LOCAL_BASE + slotCount > 0xFFFF)
+            throw new UnsupportedOperationException("Too many variables for the JVM backend.");
+        for (int i = 0; i < length; i++) {
+            if (intermediater.op[i] == OpCode.call || intermediater.op[i] == OpCode.ret)
+                throw new UnsupportedOperationException("Procedures are not supported by the JVM backend.");
+        }
+        cpThis = classRef("PL0Program");
+        cpObject = classRef("java/lang/Object");
+        cpIntArray = classRef("[I");
+        cpName = utf8("run");
+        cpDesc = utf8("([IJ)J");
+        cpCode = utf8("Code");
+        cpStackMap = utf8("StackMapTable");
+
+        generateCode();
+        if (code.size > 0x7FFF)
+            throw new UnsupportedOperationException("Program too large for the JVM backend.");
+        byte[] stackMap = stackMapTable();
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(52); // Java 8 类文件格式
+        out.u2(poolCount);
+        out.append(pool.data, pool.size);
+        out.u2(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        out.u2(cpThis);
+        out.u2(cpObject);
+        out.u2(0); // interfaces
+        out.u2(0); // fields
+        out.u2(1); // methods
+        out.u2(0x0009); // ACC_PUBLIC | ACC_STATIC
+        out.u2(cpName);
+        out.u2(cpDesc);
+        out.u2(1); // Code属性
+        out.u2(cpCode);
+        out.u4(2 + 2 + 4 + code.size + 2 + 2 + 6 + stackMap.length);
+        out.u2(4); // max_stack
+        out.u2(LOCAL_BASE + slotCount); // max_locals
+        out.u4(code.size);
+        out.append(code.data, code.size);
+        out.u2(0); // 异常表
+        out.u2(1); // StackMapTable属性
+        out.u2(cpStackMap);
+        out.u4(stackMap.length);
+        out.append(stackMap, stackMap.length);
+        out.u2(0); // class attributes
+        return Arrays.copyOf(out.data, out.size);
+    }
+
+    private void generateCode() {
+        // 序言：从frame载入变量，临时变量清零
+        for (int v = 0; v < varCount; v++) {
+            code.u1(0x2a); // aload_0
+            pushInt(v);
+            code.u1(0x2e); // iaload
+            storeSlot(v);
+        }
+        for (int t = varCount; t < slotCount; t++) {
+            code.u1(0x03); // iconst_0
+            storeSlot(t);
+        }
+
+        insnOffset = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            insnOffset[i] = code.size;
+            if (i > 0 && intermediater.op[i - 1] == OpCode.jmp)
+                addFrame(code.size);
+            generate(i);
+        }
+
+        // END：把变量写回frame并返回剩余的循环次数（除零时为-2-地址）
+        insnOffset[length] = code.size;
+        addFrame(code.size);
+        storeBack();
+        code.u1(0x1f); // lload_1
+        code.u1(0xad); // lreturn
+
+        for (int k = 0; k < fixupCount; k++) {
+            int at = fixups[k * 2];
+            int target = insnOffset[fixups[k * 2 + 1]];
+            addFrame(target);
+            code.patch2(at + 1, target - at);
+        }
+    }
+
+    private void storeBack() {
+        for (int v = 0; v < varCount; v++) {
+            code.u1(0x2a); // aload_0
+            pushInt(v);
+            loadSlot(v);
+            code.u1(0x4f); // iastore
+        }
+    }
+
+    // 翻译第i条四元式
+    private void generate(int i) {
+        int op = intermediater.op[i];
+        switch (op) {
+            case OpCode.assign:
+            case OpCode.pos:
+                loadOperand(intermediater.arg1[i]);
+                storeOperand(intermediater.result[i]);
+                break;
+            case OpCode.neg:
+                loadOperand(intermediater.arg1[i]);
+                code.u1(0x74); // ineg
+                storeOperand(intermediater.result[i]);
+                break;
+            case OpCode.add:
+            case OpCode.sub:
+            case OpCode.mul:
+            case OpCode.div:
+            case OpCode.shl:
+                if (op == OpCode.div)
+                    divisorCheck(i);
+                loadOperand(intermediater.arg1[i]);
+                loadOperand(intermediater.arg2[i]);
+                code.u1(op == OpCode.add ? 0x60 : op == OpCode.sub ? 0x64 : op == OpCode.mul ? 0x68
+                        : op == OpCode.div ? 0x6c : 0x78); // ishl只取低5位，与虚拟机一致
+                storeOperand(intermediater.result[i]);
+                break;
+            case OpCode.jmp:
+                jump(i, target(i));
+                break;
+            default: // 条件跳转
+                loadOperand(intermediater.arg1[i]);
+                loadOperand(intermediater.arg2[i]);
+                int target = target(i);
+                // if_icmpeq, if_icmpne, if_icmplt, if_icmpge, if_icmpgt, if_icmple
+                int[] opcodes = {0x9f, 0xa0, 0xa1, 0xa4, 0xa3, 0xa2};
+                int[] inverted = {0xa0, 0x9f, 0xa2, 0xa3, 0xa4, 0xa1};
+                int rel = op - OpCode.jeq;
+                if (target > i) {
+                    branch(opcodes[rel], target);
+                } else {
+                    // 向后跳转需要先扣减循环次数：条件不成立时跳过
+                    int skip = code.size;
+                    code.u1(inverted[rel]);
+                    code.u2(0);
+                    jump(i, target);
+                    code.patch2(skip + 1, code.size - skip);
+                    addFrame(code.size);
+                }
+                break;
+        }
+    }
+
+    // 除数为0时把fuel置为-2-地址并跳到END；除数是非零常数时不检查
+    private void divisorCheck(int i) {
+        int divisor = intermediater.arg2[i];
+        if (Intermediater.kind(divisor) == Intermediater.CONST
+                && intermediater.constPool[Intermediater.index(divisor)] != 0)
+            return;
+        loadOperand(divisor);
+        int skip = code.size;
+        code.u1(0x9a); // ifne
+        code.u2(0);
+        pushInt(-2 - (i + intermediater.initStat));
+        code.u1(0x85); // i2l
+        code.u1(0x40); // lstore_1
+        branch(0xa7, length); // goto END
+        code.patch2(skip + 1, code.size - skip);
+        addFrame(code.size);
+    }
+
+    // 跳转目标的四元式下标，未回填的跳转视为跳到程序末尾
+    private int target(int i) {
+        int target = intermediater.result[i];
+        return target == Intermediater.EMPTY ? length : target - intermediater.initStat;
+    }
+
+    // 无条件跳转，向后跳转时扣减fuel，用尽则跳到END
+    private void jump(int from, int target) {
+        if (target <= from) {
+            code.u1(0x1f); // lload_1
+            code.u1(0x0a); // lconst_1
+            code.u1(0x65); // lsub
+            code.u1(0x5c); // dup2
+            code.u1(0x40); // lstore_1
+            code.u1(0x09); // lconst_0
+            code.u1(0x94); // lcmp
+            branch(0x9b, length); // iflt END
+        }
+        branch(0xa7, target); // goto
+    }
+
+    private void branch(int opcode, int target) {
+        if (fixupCount * 2 == fixups.length)
+            fixups = Arrays.copyOf(fixups, fixups.length * 2);
+        fixups[fixupCount * 2] = code.size;
+        fixups[fixupCount * 2 + 1] = target;
+        fixupCount++;
+        code.u1(opcode);
+        code.u2(0);
+    }
+
+    private void addFrame(int offset) {
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        frames[frameCount++] = offset;
+    }
+
+    // 局部变量下标
+    private int local(int operand) {
+        int index = Intermediater.index(operand);
+        return LOCAL_BASE + (Intermediater.kind(operand) == Intermediater.TEMP ? varCount + index : index);
+    }
+
+    private void loadOperand(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.CONST) {
+            pushInt(intermediater.constPool[Intermediater.index(operand)]);
+        } else {
+            localInsn(0x15, 0x1a, local(operand)); // iload
+        }
+    }
+
+    private void storeOperand(int operand) {
+        localInsn(0x36, 0x3b, local(operand)); // istore
+    }
+
+    private void loadSlot(int slot) {
+        localInsn(0x15, 0x1a, LOCAL_BASE + slot);
+    }
+
+    private void storeSlot(int slot) {
+        localInsn(0x36, 0x3b, LOCAL_BASE + slot);
+    }
+
+    private void localInsn(int opcode, int shortForm, int local) {
+        if (local <= 3) {
+            code.u1(shortForm + local);
+        } else if (local <= 0xFF) {
+            code.u1(opcode);
+            code.u1(local);
+        } else {
+            code.u1(0xc4); // wide
+            code.u1(opcode);
+            code.u2(local);
+        }
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(0x03 + value); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.u1(0x10); // bipush
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.u1(0x11); // sipush
+            code.u2(value);
+        } else {
+            pool.u1(3); // CONSTANT_Integer
+            pool.u4(value);
+            int index = poolCount++;
+            code.u1(0x13); // ldc_w
+            code.u2(index);
+        }
+    }
+
+    /**
+     * 栈映射帧：所有跳转目标处的局部变量类型都相同（int[], long, int...），操作数栈为空
+     */
+    private byte[] stackMapTable() {
+        int[] offsets = Arrays.copyOf(frames, frameCount);
+        Arrays.sort(offsets);
+        Bytes out = new Bytes();
+        int entries = 0;
+        int last = -1;
+        for (int offset : offsets) {
+            if (offset == last)
+                continue;
+            int delta = last < 0 ? offset : offset - last - 1;
+            if (last < 0) {
+                out.u1(255); // full_frame
+                out.u2(delta);
+                out.u2(2 + slotCount);
+                out.u1(7); // Object
+                out.u2(cpIntArray);
+                out.u1(4); // Long
+                for (int s = 0; s < slotCount; s++)
+                    out.u1(1); // Integer
+                out.u2(0);
+            } else if (delta < 64) {
+                out.u1(delta); // same_frame
+            } else {
+                out.u1(251); // same_frame_extended
+                out.u2(delta);
+            }
+            last = offset;
+            entries++;
+        }
+
+        Bytes table = new Bytes();
+        table.u2(entries);
+        table.append(out.data, out.size);
+        return Arrays.copyOf(table.data, table.size);
+    }
+
+    private int utf8(String s) {
+        pool.u1(1);
+        pool.u2(s.length());
+        for (int i = 0; i < s.length(); i++)
+            pool.u1(s.charAt(i));
+        return poolCount++;
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        pool.u1(7);
+        pool.u2(nameIndex);
+        return poolCount++;
+    }
+
+    /**
+     * 生成并加载隐藏类，执行程序
+     *
+     * @return 正常结束返回true，循环次数用尽或除零时返回false；除零时frame中是出错时变量的值
+     */
+    public boolean run(int[] frame, long maxIterations) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(generate(), true);
+        MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run",
+                MethodType.methodType(long.class, int[].class, long.class));
+        long start = System.nanoTime();
+        try {
+            long fuel = (long) run.invokeExact(frame, maxIterations);
+            if (fuel < -1)
+                errorAddr = (int) (-2 - fuel);
+            return fuel >= 0;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // 除零的地址，没有除零时为-1
+    public int getErrorAddr() {
+        return errorAddr;
+    }
+
+    // 可增长的字节缓冲
+    private static class Bytes {
+        byte[] data = new byte[256];
+        int size = 0;
+
+        void u1(int b) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = (byte) b;
+        }
+
+        void u2(int v) {
+            u1(v >>> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void append(byte[] bytes, int n) {
+            for (int i = 0; i < n; i++)
+                u1(bytes[i]);
+        }
+
+        void patch2(int at, int v) {
+            data[at] = (byte) (v >>> 8);
+            data[at + 1] = (byte) v;
+        }
+    }
+}
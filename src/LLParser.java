@@ -0,0 +1,673 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 【表驱动的LL(1)语法分析器】
+ * 与Parser分析同一文法、生成完全相同的中间代码，但不使用递归：
+ * 由文法的产生式计算FIRST集合与FOLLOW集合并构造分析表，用堆上的显式栈驱动分析，
+ * 语义动作作为特殊的文法符号放在产生式右部，执行时读写另一个值栈；
+ * 嵌套的括号、BEGIN、IF与WHILE的层数只受内存限制，不会StackOverflowError
+ *
+ * 出错处理：
+ * 终结符不匹配时报错并当作已经读到（把'='当作':='的笔误时读过它）；
+ * 非终结符在分析表中没有对应的产生式时，可空的非终结符取空产生式，其余报错后跳过符号直到
+ * 其FIRST集合或FOLLOW集合中的符号，在FIRST集合中时继续展开，否则放弃该非终结符并在值栈中放入占位值；
+ * 说明的次序错误、语句中的说明、语句之间缺少分号由分析表中的出错产生式处理
+ */
+public class LLParser {
+    // 文法符号的编码：终结符即Symbol中的符号类型，非终结符从NT开始，语义动作从ACT开始
+    private static final int NT = Symbol.symnum;
+    private static final int ACT = NT + 32;
+
+    // 非终结符
+    private static final int program = NT;
+    private static final int subprogram = NT + 1;
+    private static final int constPart = NT + 2;
+    private static final int constDecl = NT + 3;
+    private static final int constDef = NT + 4;
+    private static final int constRest = NT + 5;
+    private static final int varPart = NT + 6;
+    private static final int varDecl = NT + 7;
+    private static final int varIdent = NT + 8;
+    private static final int varRest = NT + 9;
+    private static final int extraDecls = NT + 10;
+    private static final int statement = NT + 11;
+    private static final int assignStatement = NT + 12;
+    private static final int ifStatement = NT + 13;
+    private static final int whileStatement = NT + 14;
+    private static final int compoundStatement = NT + 15;
+    private static final int statementRest = NT + 16;
+    private static final int condition = NT + 17;
+    private static final int relop = NT + 18;
+    private static final int expression = NT + 19;
+    private static final int sign = NT + 20;
+    private static final int expressionRest = NT + 21;
+    private static final int term = NT + 22;
+    private static final int termRest = NT + 23;
+    private static final int factor = NT + 24;
+    private static final int block = NT + 25;
+    private static final int procPart = NT + 26;
+    private static final int procDecl = NT + 27;
+    private static final int procHeader = NT + 28;
+    private static final int callStatement = NT + 29;
+    private static final int ntnum = 30; // 非终结符的个数
+
+    // 语义动作
+    private static final int act_noHeader = ACT; // 缺少程序首部
+    private static final int act_constName = ACT + 1; // 登记常量
+    private static final int act_constValue = ACT + 2; // 常量的值
+    private static final int act_var = ACT + 3; // 登记变量
+    private static final int act_declOrder = ACT + 4; // 次序错误的说明
+    private static final int act_declInStatement = ACT + 5; // 语句中的说明
+    private static final int act_declared = ACT + 6; // 语句中的说明结束
+    private static final int act_missingSemicolon = ACT + 7; // 语句之间缺少分号
+    private static final int act_lvalue = ACT + 8; // 赋值语句的左部
+    private static final int act_assign = ACT + 9; // 赋值
+    private static final int act_trueExit = ACT + 10; // 回填条件的真出口
+    private static final int act_endIf = ACT + 11; // 回填条件语句的假出口
+    private static final int act_whileStart = ACT + 12; // 记录循环的入口
+    private static final int act_endWhile = ACT + 13; // 回填循环的假出口并跳回入口
+    private static final int act_relop = ACT + 14; // 关系运算符
+    private static final int act_condition = ACT + 15; // 生成条件跳转
+    private static final int act_prefix = ACT + 16; // 表达式的正负号
+    private static final int act_noPrefix = ACT + 17;
+    private static final int act_unary = ACT + 18; // 应用正负号
+    private static final int act_addop = ACT + 19; // 加法运算符
+    private static final int act_mulop = ACT + 20; // 乘法运算符
+    private static final int act_binary = ACT + 21; // 生成二元运算
+    private static final int act_ident = ACT + 22; // 因子：标识符
+    private static final int act_number = ACT + 23; // 因子：数字
+    private static final int act_block = ACT + 24; // 分程序开始：跳过过程代码的链
+    private static final int act_skip = ACT + 25; // 第一个过程说明之前生成跳转
+    private static final int act_procName = ACT + 26; // 登记过程
+    private static final int act_enterProc = ACT + 27; // 进入过程的分程序
+    private static final int act_endProc = ACT + 28; // 过程结束
+    private static final int act_body = ACT + 29; // 说明部分结束：回填跳过过程代码的跳转
+    private static final int act_call = ACT + 30; // 过程调用
+
+    // 产生式
+    private static final List<int[]> rules = new ArrayList<>();
+    private static final int[] LHS;
+    private static final int[][] RHS;
+    // 展开时压栈的序列：产生式右部的逆序，终结符的高位附带产生式左部，用于给出与位置相符的错误信息
+    private static final int[][] EXPANSION;
+
+    // 各非终结符的FIRST集合、FOLLOW集合与是否可空
+    private static final BitSet[] FIRST = new BitSet[ntnum];
+    private static final BitSet[] FOLLOW = new BitSet[ntnum];
+    private static final boolean[] NULLABLE = new boolean[ntnum];
+
+    // 分析表：[非终结符][终结符] -> 产生式的编号，-1表示出错
+    private static final int[] TABLE = new int[ntnum * Symbol.symnum];
+
+    // 非终结符无法展开时的错误信息；为null的可空非终结符直接取空产生式
+    private static final String[] MESSAGE = new String[ntnum];
+    // 同步集合：出错后跳过符号直到其中的符号，一般为FIRST集合与FOLLOW集合的并集
+    private static final BitSet[] SYNC = new BitSet[ntnum];
+    // 放弃一个非终结符时代替其值放入值栈的占位值
+    private static final int[][] PLACEHOLDER = new int[ntnum][];
+    // 终结符不匹配时的错误信息：[所在产生式的左部][终结符]
+    private static final String[][] EXPECTED = new String[ntnum][Symbol.symnum];
+
+    static {
+        // <程序>→PROGRAM<标识符><分程序>
+        rule(program, Symbol.progsym, Symbol.ident, subprogram);
+        rule(program, act_noHeader, subprogram);
+        // <分程序>→[<常量说明>][<变量说明>]{<过程说明>}<语句>
+        // 主程序的分程序之后只能是文件结束符，过程的分程序之后是分号，分成两个非终结符使主程序的FOLLOW集合不变
+        rule(subprogram, block);
+        rule(block, act_block, constPart, varPart, procPart, extraDecls, act_body, statement);
+        rule(constPart, constDecl);
+        rule(constPart);
+        rule(constDecl, Symbol.constsym, constDef, constRest, Symbol.semicolon);
+        rule(constDef, act_constName, Symbol.ident, Symbol.assign, act_constValue, Symbol.number);
+        rule(constRest, Symbol.comma, constDef, constRest);
+        rule(constRest);
+        rule(varPart, varDecl);
+        rule(varPart);
+        rule(varDecl, Symbol.varsym, varIdent, varRest, Symbol.semicolon);
+        rule(varIdent, act_var, Symbol.ident);
+        rule(varRest, Symbol.comma, varIdent, varRest);
+        rule(varRest);
+        // <过程说明>→PROCEDURE<标识符>;<分程序>;
+        rule(procPart, act_skip, procDecl, procPart);
+        rule(procPart);
+        rule(procDecl, procHeader, act_enterProc, block, act_endProc, Symbol.semicolon);
+        rule(procHeader, Symbol.procsym, act_procName, Symbol.ident, Symbol.semicolon);
+        // 出错产生式：次序错误的说明
+        rule(extraDecls, act_declOrder, constDecl, extraDecls);
+        rule(extraDecls, act_declOrder, varDecl, extraDecls);
+        rule(extraDecls, act_declOrder, act_skip, procDecl, extraDecls);
+        rule(extraDecls);
+        // <语句>
+        rule(statement, assignStatement);
+        rule(statement, ifStatement);
+        rule(statement, whileStatement);
+        rule(statement, compoundStatement);
+        rule(statement, callStatement);
+        rule(statement, act_declInStatement, constDecl, act_declared); // 出错产生式：语句中的说明
+        rule(statement, act_declInStatement, varDecl, act_declared);
+        rule(statement, act_declInStatement, procDecl, act_declared);
+        rule(statement);
+        rule(assignStatement, act_lvalue, Symbol.ident, Symbol.assign, expression, act_assign);
+        // IF <条件> THEN (M1) <语句> (M2)
+        rule(ifStatement, Symbol.ifsym, condition, act_trueExit, Symbol.thensym, statement, act_endIf);
+        // WHILE (M1) <条件> DO (M2) <语句> (M3)
+        rule(whileStatement, Symbol.whilesym, act_whileStart, condition, Symbol.dosym, act_trueExit, statement,
+                act_endWhile);
+        rule(compoundStatement, Symbol.beginsym, statement, statementRest, Symbol.endsym);
+        rule(callStatement, Symbol.callsym, act_call, Symbol.ident);
+        rule(statementRest, Symbol.semicolon, statement, statementRest);
+        // 出错产生式：语句之间缺少分号，当作有分号继续分析
+        for (int s : new int[]{assignStatement, ifStatement, whileStatement, compoundStatement, callStatement})
+            rule(statementRest, act_missingSemicolon, s, statementRest);
+        rule(statementRest);
+        // <条件>→<表达式><关系运算符><表达式>
+        rule(condition, expression, relop, expression, act_condition);
+        for (int r = Symbol.eql; r <= Symbol.geq; r++)
+            rule(relop, act_relop, r);
+        // <表达式>→[+|-]<项>{<加法运算符><项>}
+        rule(expression, sign, term, act_unary, expressionRest);
+        rule(sign, act_prefix, Symbol.plus);
+        rule(sign, act_prefix, Symbol.minus);
+        rule(sign, act_noPrefix);
+        rule(expressionRest, act_addop, Symbol.plus, term, act_binary, expressionRest);
+        rule(expressionRest, act_addop, Symbol.minus, term, act_binary, expressionRest);
+        rule(expressionRest);
+        // <项>→<因子>{<乘法运算符><因子>}
+        rule(term, factor, termRest);
+        rule(termRest, act_mulop, Symbol.times, factor, act_binary, termRest);
+        rule(termRest, act_mulop, Symbol.slash, factor, act_binary, termRest);
+        rule(termRest);
+        // <因子>→<标识符>|<无符号整数>|(<表达式>)
+        rule(factor, act_ident, Symbol.ident);
+        rule(factor, act_number, Symbol.number);
+        rule(factor, Symbol.lparen, expression, Symbol.rparen);
+
+        LHS = new int[rules.size()];
+        RHS = new int[rules.size()][];
+        for (int p = 0; p < rules.size(); p++) {
+            int[] rule = rules.get(p);
+            LHS[p] = rule[0];
+            RHS[p] = Arrays.copyOfRange(rule, 1, rule.length);
+        }
+        computeFirst();
+        computeFollow();
+
+        MESSAGE[subprogram - NT] = "Exist subprogram error.";
+        MESSAGE[block - NT] = "Exist subprogram error.";
+        MESSAGE[constDef - NT] = "Expected identifier after CONST.";
+        MESSAGE[varIdent - NT] = "Invalid identifier in the variable definition.";
+        MESSAGE[statement - NT] = "Error in statement.";
+        MESSAGE[condition - NT] = "Error in condition: expression expected.";
+        MESSAGE[relop - NT] = "Error in condition: relational operator expected.";
+        MESSAGE[expression - NT] = "Error in term: Factor expected.";
+        MESSAGE[term - NT] = "Error in term: Factor expected.";
+        MESSAGE[factor - NT] = "Error in factor.";
+        MESSAGE[statementRest - NT] = "Error in compoundStatement: ';' expected."; // 语句之后多余的符号
+        buildTable();
+
+        for (int a = 0; a < ntnum; a++) {
+            SYNC[a] = (BitSet) FIRST[a].clone();
+            SYNC[a].or(FOLLOW[a]);
+            SYNC[a].set(Symbol.eof);
+        }
+        // 说明中的非法单词（如2x）：不在其中的标识符处停下，以免把剩余部分当作下一个常量或变量
+        SYNC[constDef - NT] = (BitSet) FOLLOW[constDef - NT].clone();
+        SYNC[varIdent - NT] = (BitSet) FOLLOW[varIdent - NT].clone();
+        SYNC[constDef - NT].set(Symbol.eof);
+        SYNC[varIdent - NT].set(Symbol.eof);
+        // 语句之后多余的符号：与Parser相同，跳到分号、END或者不以标识符开始的语句
+        SYNC[statementRest - NT] = (BitSet) FIRST[statementRest - NT].clone();
+        SYNC[statementRest - NT].or(FOLLOW[statementRest - NT]);
+        SYNC[statementRest - NT].clear(Symbol.ident);
+        SYNC[statementRest - NT].set(Symbol.eof);
+
+        for (int a = 0; a < ntnum; a++)
+            PLACEHOLDER[a] = new int[0];
+        PLACEHOLDER[condition - NT] = new int[]{Intermediater.EMPTY, Intermediater.EMPTY}; // 真链、假链
+        PLACEHOLDER[relop - NT] = new int[]{OpCode.jeq};
+        PLACEHOLDER[expression - NT] = new int[]{Intermediater.NONE};
+        PLACEHOLDER[term - NT] = new int[]{Intermediater.NONE};
+        PLACEHOLDER[factor - NT] = new int[]{Intermediater.NONE};
+
+        EXPECTED[program - NT][Symbol.ident] = "Invalid program_header(identifier).";
+        EXPECTED[constDecl - NT][Symbol.semicolon] = "Expected semicolon ';' after constant definition.";
+        EXPECTED[constDef - NT][Symbol.assign] = "Expected assign ':=' in the constant definition.";
+        EXPECTED[constDef - NT][Symbol.number] = "Expected an unsigned_int in the constant definition.";
+        EXPECTED[varDecl - NT][Symbol.semicolon] = "Expected semicolon ';' in the variable definition.";
+        EXPECTED[procHeader - NT][Symbol.ident] = "Expected identifier after PROCEDURE.";
+        EXPECTED[procHeader - NT][Symbol.semicolon] = "Expected semicolon ';' after the procedure name.";
+        EXPECTED[procDecl - NT][Symbol.semicolon] = "Expected semicolon ';' after the procedure body.";
+        EXPECTED[callStatement - NT][Symbol.ident] = "Error in callStatement: Identifier expected.";
+        EXPECTED[assignStatement - NT][Symbol.assign] = "Error in assignStatement: ':=' expected.";
+        EXPECTED[ifStatement - NT][Symbol.thensym] = "Error in ifStatement: 'THEN' keyword expected.";
+        EXPECTED[whileStatement - NT][Symbol.dosym] = "Error in whileStatement: 'DO' keyword expected.";
+        EXPECTED[compoundStatement - NT][Symbol.endsym] = "Error in compoundStatement: 'END' keyword expected.";
+        EXPECTED[factor - NT][Symbol.rparen] = "Error in factor: right-paren expected.";
+
+        EXPANSION = new int[LHS.length][];
+        for (int p = 0; p < LHS.length; p++) {
+            int[] rhs = RHS[p];
+            EXPANSION[p] = new int[rhs.length];
+            for (int i = 0; i < rhs.length; i++) {
+                int x = rhs[rhs.length - 1 - i];
+                EXPANSION[p][i] = x < NT ? (LHS[p] - NT) << 8 | x : x;
+            }
+        }
+    }
+
+    private static void rule(int lhs, int... rhs) {
+        int[] rule = new int[rhs.length + 1];
+        rule[0] = lhs;
+        System.arraycopy(rhs, 0, rule, 1, rhs.length);
+        rules.add(rule);
+    }
+
+    // 求各非终结符的FIRST集合与是否可空，反复扫描全部产生式直到不再变化
+    private static void computeFirst() {
+        for (int a = 0; a < ntnum; a++)
+            FIRST[a] = new BitSet(Symbol.symnum);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < LHS.length; p++) {
+                int a = LHS[p] - NT;
+                int before = FIRST[a].cardinality();
+                boolean nullable = first(RHS[p], 0, FIRST[a]);
+                if (nullable && !NULLABLE[a]) {
+                    NULLABLE[a] = true;
+                    changed = true;
+                }
+                changed |= FIRST[a].cardinality() != before;
+            }
+        }
+    }
+
+    // 把符号串rhs[from..]的FIRST集合并入first，返回该符号串是否可空；语义动作不影响FIRST集合
+    private static boolean first(int[] rhs, int from, BitSet first) {
+        for (int i = from; i < rhs.length; i++) {
+            int x = rhs[i];
+            if (x < NT) {
+                first.set(x);
+                return false;
+            }
+            if (x < ACT) {
+                first.or(FIRST[x - NT]);
+                if (!NULLABLE[x - NT])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // 求各非终结符的FOLLOW集合；<程序>之后是文件结束符
+    private static void computeFollow() {
+        for (int a = 0; a < ntnum; a++)
+            FOLLOW[a] = new BitSet(Symbol.symnum);
+        FOLLOW[program - NT].set(Symbol.eof);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < LHS.length; p++) {
+                int[] rhs = RHS[p];
+                for (int i = 0; i < rhs.length; i++) {
+                    if (rhs[i] < NT || rhs[i] >= ACT)
+                        continue;
+                    BitSet follow = FOLLOW[rhs[i] - NT];
+                    int before = follow.cardinality();
+                    if (first(rhs, i + 1, follow))
+                        follow.or(FOLLOW[LHS[p] - NT]);
+                    changed |= follow.cardinality() != before;
+                }
+            }
+        }
+    }
+
+    // 构造分析表：A→α填入FIRST(α)中的每个终结符，α可空时再填入FOLLOW(A)中尚未填入的终结符；
+    // 没有错误信息的可空非终结符在其余位置都取空产生式，与递归下降分析中遇到其他符号即结束循环的做法相同
+    private static void buildTable() {
+        Arrays.fill(TABLE, -1);
+        for (int p = 0; p < LHS.length; p++) {
+            BitSet first = new BitSet(Symbol.symnum);
+            first(RHS[p], 0, first);
+            int row = (LHS[p] - NT) * Symbol.symnum;
+            for (int t = first.nextSetBit(0); t >= 0; t = first.nextSetBit(t + 1)) {
+                if (TABLE[row + t] >= 0)
+                    throw new IllegalStateException("The grammar is not LL(1): conflict at production " + p);
+                TABLE[row + t] = p;
+            }
+        }
+        for (int p = 0; p < LHS.length; p++) {
+            int a = LHS[p] - NT;
+            if (!first(RHS[p], 0, new BitSet(Symbol.symnum)))
+                continue;
+            int row = a * Symbol.symnum;
+            for (int t = 0; t < Symbol.symnum; t++) {
+                // 出错产生式的FIRST集合与空产生式的FOLLOW集合重叠时（如语句中的说明），优先展开非空的产生式
+                // 文件结束时也按空产生式展开，由之后的终结符报告缺少的部分
+                if (TABLE[row + t] < 0 && (FOLLOW[a].get(t) || t == Symbol.eof || MESSAGE[a] == null))
+                    TABLE[row + t] = p;
+            }
+        }
+    }
+
+    private final Lexer lex; // 对词法分析器的引用
+    private final Table table; // 对符号表的引用
+    private final Intermediater intermediater; // 对中间代码生成器的引用
+    private final Procedures procedures; // 过程说明与过程调用
+    private final Err err; // 错误信息的收集者
+
+    // 当前识别到的文法符号，由nextsym()读入
+    private Symbol sym;
+    // 已读入的符号个数，用于避免在同一个符号处重复报错
+    private int symCount = 0;
+    private int lastErrorSym = -1;
+    // 是否单独计量词法分析的时间（--stats或JFR的Lex事件开启时）
+    private boolean lexTiming = false;
+    private long lexNanos = 0;
+    // 语句中的说明结束时的符号位置，该处缺少的分号已被说明部分读入，不再报错
+    private int declarationEnd = -1;
+
+    // 分析栈：待匹配的文法符号
+    private int[] stack = new int[256];
+    private int top = 0;
+    // 值栈：语义动作之间传递的操作数、链首、地址与运算符
+    private int[] values = new int[256];
+    private int valueTop = 0;
+
+    public LLParser(Lexer l, Table t, Intermediater i, Err e) {
+        lex = l;
+        table = t;
+        intermediater = i;
+        procedures = new Procedures(t, i);
+        err = e;
+    }
+
+    // 获得下一个语法符号
+    private void nextsym() {
+        if (lexTiming) {
+            long start = System.nanoTime();
+            lex.getsym();
+            lexNanos += System.nanoTime() - start;
+        } else {
+            lex.getsym();
+        }
+        sym = lex.getSym();
+        symCount++;
+    }
+
+    public void setLexTiming(boolean lexTiming) {
+        this.lexTiming = lexTiming;
+    }
+
+    // 词法分析所用的时间，只在setLexTiming(true)时计量
+    public long getLexNanos() {
+        return lexNanos;
+    }
+
+    // 已读入的符号个数
+    public int getTokenCount() {
+        return symCount;
+    }
+
+    // 在当前符号处报告错误；同一个符号处只报告第一个错误，避免恢复过程中产生连锁的错误信息
+    private void error(String errorMsg) {
+        if (symCount == lastErrorSym)
+            return;
+        lastErrorSym = symCount;
+        err.handleError(errorMsg, lex.getCurrentLineNumber(), lex.getCurrentColumn());
+    }
+
+    private void push(int x) {
+        if (top == stack.length)
+            stack = Arrays.copyOf(stack, top * 2);
+        stack[top++] = x;
+    }
+
+    private void pushValue(int v) {
+        if (valueTop == values.length)
+            values = Arrays.copyOf(values, valueTop * 2);
+        values[valueTop++] = v;
+    }
+
+    private int popValue() {
+        return values[--valueTop];
+    }
+
+    /**
+     * 启动语法分析过程：分析栈为空时结束，与Parser相同，<程序>之后的符号不再分析
+     */
+    public void parse() {
+        nextsym(); // 前瞻分析需要预先读入一个符号
+        push(program);
+        while (top > 0) {
+            int x = stack[--top];
+            int t = sym.getSymtype();
+            if ((x & 0xFF) < NT) {
+                // 终结符，高位为所在产生式的左部
+                int context = x >>> 8;
+                x &= 0xFF;
+                if (x == t) {
+                    nextsym();
+                } else {
+                    String message = EXPECTED[context][x];
+                    error(message != null ? message : "Unexpected symbol.");
+                    if (x == Symbol.assign && t == Symbol.eql)
+                        nextsym(); // 把'='当作':='的笔误
+                }
+            } else if (x < ACT) {
+                // 非终结符：按分析表展开，产生式右部逆序压栈
+                int p = TABLE[(x - NT) * Symbol.symnum + t];
+                if (p < 0 && (p = recover(x)) < 0)
+                    continue;
+                for (int y : EXPANSION[p])
+                    push(y);
+            } else {
+                action(x);
+            }
+        }
+    }
+
+    // 非终结符a无法展开：报错后跳过符号直到同步集合中的符号，返回可以继续展开的产生式，放弃a时返回-1
+    private int recover(int a) {
+        error(MESSAGE[a - NT]);
+        int row = (a - NT) * Symbol.symnum;
+        while (!SYNC[a - NT].get(sym.getSymtype()))
+            nextsym();
+        int p = TABLE[row + sym.getSymtype()];
+        if (p >= 0)
+            return p;
+        for (int v : PLACEHOLDER[a - NT])
+            pushValue(v);
+        return -1;
+    }
+
+    // 执行语义动作，生成的中间代码与Parser中对应位置生成的相同
+    private void action(int x) {
+        int left, right, op;
+        switch (x) {
+            case act_noHeader:
+                error("Expected 'PROGRAM' keyword.");
+                break;
+            case act_constName: {
+                int id = sym.getId();
+                if (!table.addItem(id, Table.Kind.CONSTANT))
+                    error("Constant identifier repeat.");
+                if (!intermediater.foldConstants)
+                    table.allocateSlot(id); // 不做常量折叠时常量在运行时也占一个槽位
+                pushValue(id);
+                break;
+            }
+            case act_constValue: {
+                int num = sym.getSymtype() == Symbol.number ? sym.getNum() : 0;
+                int id = popValue();
+                table.setValue(id, num); // 符号表记录常量的值
+                if (!intermediater.foldConstants)
+                    intermediater.emit(OpCode.assign, intermediater.constant(num), Intermediater.NONE,
+                            intermediater.var(table.getSlot(id)));
+                break;
+            }
+            case act_var:
+                if (!table.addItem(sym.getId(), Table.Kind.VARIABLE)) // 按声明顺序分配槽位
+                    error("Variable identifier repeat.");
+                break;
+            case act_declOrder:
+                error("Exist subprogram error.");
+                break;
+            case act_declInStatement:
+                error("Error in statement.");
+                break;
+            case act_declared:
+                declarationEnd = symCount;
+                break;
+            case act_missingSemicolon:
+                if (symCount != declarationEnd)
+                    error("Error in compoundStatement: ';' expected.");
+                break;
+            case act_lvalue: {
+                int id = sym.getId();
+                // 错误处理1：标识符未定义
+                if (!table.lookup(id))
+                    error("Error in assignStatement: Identifier [" + sym.getValue() + "] undefined!");
+                // 错误处理2：常量不能修改
+                else if (table.getKind(id) == Table.Kind.CONSTANT)
+                    error("Constant identifier [" + table.name(id) + "] can't be modified.");
+                // 错误处理3：过程名不能赋值
+                else if (table.getKind(id) == Table.Kind.PROCEDURE)
+                    error("Procedure identifier [" + table.name(id) + "] can't be assigned.");
+                pushValue(id);
+                break;
+            }
+            case act_assign:
+                right = popValue();
+                left = popValue();
+                intermediater.emit(OpCode.assign, right, Intermediater.NONE, intermediater.var(table.getSlot(left)));
+                break;
+            case act_trueExit: {
+                // 值栈：真链 假链 -> 假链
+                int falseList = popValue();
+                intermediater.BackPatch(popValue(), intermediater.nextStat);
+                pushValue(falseList);
+                break;
+            }
+            case act_endIf:
+                intermediater.BackPatch(popValue(), intermediater.nextStat);
+                break;
+            case act_whileStart:
+                pushValue(intermediater.nextStat);
+                break;
+            case act_endWhile: {
+                // 值栈：M1 假链
+                int falseList = popValue();
+                int m1 = popValue();
+                intermediater.BackPatch(falseList, intermediater.nextStat + 1);
+                intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, m1);
+                break;
+            }
+            case act_relop:
+                pushValue(OpCode.fromRelation(sym.getSymtype())); // 获取关系运算符对应的条件跳转
+                break;
+            case act_condition: {
+                right = popValue();
+                op = popValue();
+                left = popValue();
+                int known = intermediater.foldCondition(op, left, right);
+                if (known < 0) {
+                    pushValue(intermediater.makeList(intermediater.emit(op, left, right, Intermediater.EMPTY)));
+                    pushValue(intermediater.makeList(
+                            intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY)));
+                } else {
+                    // 条件在编译期即可确定：只生成一条无条件跳转，另一个出口的链为空
+                    int exit = intermediater.makeList(
+                            intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+                    pushValue(known == 1 ? exit : intermediater.makeList());
+                    pushValue(known == 1 ? intermediater.makeList() : exit);
+                }
+                break;
+            }
+            case act_prefix:
+                pushValue(sym.getSymtype());
+                break;
+            case act_noPrefix:
+                pushValue(Symbol.nul);
+                break;
+            case act_unary: {
+                int value = popValue();
+                int prefix = popValue();
+                pushValue(prefix == Symbol.nul ? value
+                        : intermediater.emitUnary(prefix == Symbol.plus ? OpCode.pos : OpCode.neg, value));
+                break;
+            }
+            case act_addop:
+                pushValue(sym.getSymtype() == Symbol.plus ? OpCode.add : OpCode.sub);
+                break;
+            case act_mulop:
+                pushValue(sym.getSymtype() == Symbol.times ? OpCode.mul : OpCode.div);
+                break;
+            case act_binary:
+                right = popValue();
+                op = popValue();
+                left = popValue();
+                pushValue(intermediater.emitBinary(op, left, right));
+                break;
+            case act_ident: {
+                int id = sym.getId();
+                if (!table.lookup(id))
+                    error("Identifier [" + sym.getValue() + "] undefined!");
+                else if (table.getKind(id) == Table.Kind.PROCEDURE)
+                    error("Procedure identifier [" + table.name(id) + "] can't be used in an expression.");
+                if (intermediater.foldConstants && table.getKind(id) == Table.Kind.CONSTANT)
+                    pushValue(intermediater.constant(table.getValue(id))); // 常量传播
+                else
+                    pushValue(intermediater.var(table.getSlot(id)));
+                break;
+            }
+            case act_number:
+                pushValue(intermediater.constant(sym.getNum()));
+                break;
+            case act_block:
+                pushValue(intermediater.makeList());
+                break;
+            case act_skip:
+                pushValue(procedures.skip(popValue()));
+                break;
+            case act_procName: {
+                // 值栈：过程名的标识符编号，过程名缺少或重复时为-1
+                int id = -1;
+                if (sym.getSymtype() == Symbol.ident) {
+                    if (procedures.declare(sym.getId()))
+                        id = sym.getId();
+                    else
+                        error("Procedure identifier repeat.");
+                }
+                pushValue(id);
+                break;
+            }
+            case act_enterProc:
+                procedures.enter(popValue());
+                break;
+            case act_endProc:
+                procedures.exit();
+                break;
+            case act_body:
+                procedures.body(popValue());
+                break;
+            case act_call:
+                if (sym.getSymtype() == Symbol.ident) {
+                    int id = sym.getId();
+                    if (!table.lookup(id))
+                        error("Error in callStatement: Procedure [" + sym.getValue() + "] undefined!");
+                    else if (table.getKind(id) != Table.Kind.PROCEDURE)
+                        error("Error in callStatement: [" + table.name(id) + "] is not a procedure.");
+                    else
+                        procedures.call(id);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown semantic action " + (x - ACT));
+        }
+    }
+}
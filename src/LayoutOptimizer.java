@@ -0,0 +1,334 @@
+/**
+ * 【控制流的布局优化】
+ * condition()总是生成"if cond goto 真出口; goto 假出口"，whileStatement的每一轮都以"goto 循环开始"结束；
+ * 在其他优化之后依次进行：
+ * 1. 跳转穿越：目标是无条件跳转的跳转直接改为跳到最终目标
+ * 2. 条件取反："if c goto L; goto Y; L:"改为"if !c goto Y"，常见的情况顺序执行下去
+ * 3. 删除不可达的代码与跳到下一条的跳转，地址从initStat起重新计算；删除后可能又出现跳到下一条或跳到
+ *    无条件跳转的跳转，于是再做跳转穿越与删除，直到没有代码可删
+ * 4. 循环旋转："M: 条件; if !c goto E; 循环体; goto M; E:"把回边上的goto M换成条件的副本与
+ *    "if c goto 循环体"，循环入口的条件只在第一轮之前执行一次
+ * 向后跳转的次数（循环次数的限制）在前三步中不变；旋转后的每一轮仍有一次向后跳转，
+ * 只是离开循环时不再经过回边，因此恰好在离开循环时用尽次数的程序会多执行一段
+ */
+public class LayoutOptimizer {
+    // 复制到回边上的条件最多包含的计算条数
+    private static final int MAX_HEADER = 8;
+
+    private final Intermediater ir;
+    private long profileIterations = -1; // 在虚拟机上执行以统计动态跳转次数时的循环次数限制，-1为不统计
+    private CompileStats stats; // 统计，为null时不统计
+
+    private int staticBefore, staticAfter;
+    private long dynamicBefore = -1, dynamicAfter = -1;
+    private int threaded, inverted, removed, rotated;
+
+    public LayoutOptimizer(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * 优化前后各在虚拟机上执行一次程序，统计执行的跳转条数
+     */
+    public void setProfile(long maxIterations) {
+        profileIterations = maxIterations;
+    }
+
+    public void optimize() {
+        staticBefore = countJumps();
+        if (profileIterations >= 0)
+            dynamicBefore = profile();
+
+        CompileEvents.Optimize event = beginStep();
+        thread();
+        endStep(event, "jump threading");
+
+        event = beginStep();
+        invert();
+        endStep(event, "branch inversion");
+
+        event = beginStep();
+        while (removeUnreachable() > 0)
+            thread();
+        endStep(event, "unreachable code elimination");
+
+        event = beginStep();
+        rotate();
+        endStep(event, "loop rotation");
+
+        staticAfter = countJumps();
+        if (profileIterations >= 0)
+            dynamicAfter = profile();
+    }
+
+    private CompileEvents.Optimize beginStep() {
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        return event;
+    }
+
+    private void endStep(CompileEvents.Optimize event, String pass) {
+        int n = ir.size();
+        if (CompileEvents.end(event)) {
+            event.pass = pass;
+            event.before = n;
+            event.after = n;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end(pass, n, "instructions");
+    }
+
+    // 条件跳转与无条件跳转的条数
+    private int countJumps() {
+        int count = 0;
+        for (int i = 0, n = ir.size(); i < n; i++) {
+            if (OpCode.isCondJump(ir.op[i]) || ir.op[i] == OpCode.jmp)
+                count++;
+        }
+        return count;
+    }
+
+    private long profile() {
+        VirtualMachine vm = new VirtualMachine(ir);
+        vm.run(profileIterations);
+        return vm.getJumps();
+    }
+
+    // 把跳转i的目标改为下标target（下标n为程序末尾）
+    private void setTarget(int i, int target) {
+        ir.result[i] = target + ir.initStat;
+    }
+
+    /*
+     * 跳转穿越：沿着无条件跳转的链前进，只有经过的向后跳转次数与直接跳过去相同时才改写，循环次数的限制不变
+     */
+    private void thread() {
+        int n = ir.size();
+        for (int i = 0; i < n; i++) {
+            int op = ir.op[i];
+            if (!OpCode.isCondJump(op) && op != OpCode.jmp)
+                continue;
+            int target = ir.targetIndex(i);
+            int t = target;
+            int backward = t <= i ? 1 : 0;
+            int best = t;
+            for (int steps = 0; t < n && ir.op[t] == OpCode.jmp && steps < n; steps++) {
+                int next = ir.targetIndex(t);
+                if (next <= t)
+                    backward++;
+                t = next;
+                if (backward == (t <= i ? 1 : 0))
+                    best = t;
+            }
+            if (best != target) {
+                setTarget(i, best);
+                threaded++;
+            }
+        }
+    }
+
+    // 取反的条件跳转：jeq/jne、jlt/jge、jle/jgt
+    private static int inverse(int op) {
+        switch (op) {
+            case OpCode.jeq:
+                return OpCode.jne;
+            case OpCode.jne:
+                return OpCode.jeq;
+            case OpCode.jlt:
+                return OpCode.jge;
+            case OpCode.jge:
+                return OpCode.jlt;
+            case OpCode.jle:
+                return OpCode.jgt;
+            default:
+                return OpCode.jle;
+        }
+    }
+
+    // 各条代码是否为某个跳转或调用的目标
+    private boolean[] targeted() {
+        int n = ir.size();
+        boolean[] targeted = new boolean[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (OpCode.isJump(ir.op[i]))
+                targeted[ir.targetIndex(i)] = true;
+        }
+        return targeted;
+    }
+
+    /*
+     * 条件取反：被删除的goto不能是其他跳转的目标；goto Y在i+1处，Y不是i+1时它与取反后i处的跳转方向相同
+     */
+    private void invert() {
+        int n = ir.size();
+        boolean[] targeted = targeted();
+        boolean[] dead = new boolean[n];
+        for (int i = 0; i + 1 < n; i++) {
+            if (!OpCode.isCondJump(ir.op[i]) || ir.op[i + 1] != OpCode.jmp || targeted[i + 1])
+                continue;
+            int y = ir.targetIndex(i + 1);
+            if (ir.targetIndex(i) != i + 2 || y == i + 1)
+                continue;
+            ir.op[i] = inverse(ir.op[i]);
+            ir.result[i] = ir.result[i + 1];
+            dead[i + 1] = true;
+            inverted++;
+            i++;
+        }
+        if (inverted > 0)
+            ir.compact(dead);
+    }
+
+    /*
+     * 从程序入口出发标记可达的代码（调用的目标与返回地址都可达），
+     * 删除不可达的代码与跳到下一条的跳转；跳向被删除的代码的跳转改为跳到其后的第一条代码，返回删除的条数
+     */
+    private int removeUnreachable() {
+        int n = ir.size();
+        boolean[] reached = new boolean[n + 1];
+        int[] work = new int[n + 1];
+        int top = 0;
+        work[top++] = 0;
+        reached[0] = true;
+        while (top > 0) {
+            int i = work[--top];
+            if (i == n)
+                continue;
+            int op = ir.op[i];
+            if (OpCode.isJump(op)) {
+                int target = ir.targetIndex(i);
+                if (!reached[target]) {
+                    reached[target] = true;
+                    work[top++] = target;
+                }
+            }
+            if (op != OpCode.jmp && op != OpCode.ret && !reached[i + 1]) {
+                reached[i + 1] = true;
+                work[top++] = i + 1;
+            }
+        }
+        boolean[] dead = new boolean[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int op = ir.op[i];
+            dead[i] = !reached[i]
+                    || (OpCode.isCondJump(op) || op == OpCode.jmp) && ir.targetIndex(i) == i + 1;
+            if (dead[i])
+                count++;
+        }
+        if (count > 0)
+            ir.compact(dead);
+        removed += count;
+        return count;
+    }
+
+    // 循环条件中的计算：只写临时变量，不跳转
+    private boolean isHeaderStep(int i) {
+        int op = ir.op[i];
+        return OpCode.isCompute(op) && Intermediater.kind(ir.result[i]) == Intermediater.TEMP;
+    }
+
+    // 以回边j结尾的可以旋转的循环的条件跳转下标，不能旋转时为-1
+    private int rotatable(int j) {
+        if (ir.op[j] != OpCode.jmp)
+            return -1;
+        int head = ir.targetIndex(j);
+        if (head >= j)
+            return -1;
+        int h = head;
+        while (h < j && h - head < MAX_HEADER && isHeaderStep(h))
+            h++;
+        if (h >= j || !OpCode.isCondJump(ir.op[h]) || ir.targetIndex(h) != j + 1)
+            return -1;
+        return h;
+    }
+
+    /*
+     * 循环旋转：回边j换成条件的副本（head~h-1）与取反的条件跳转，跳回条件之后的循环体（h+1）；
+     * 原有代码的先后次序不变，所以其他跳转的方向都不变
+     */
+    private void rotate() {
+        int n = ir.size();
+        int[] cond = new int[n];
+        int size = n;
+        for (int j = 0; j < n; j++) {
+            cond[j] = rotatable(j);
+            if (cond[j] >= 0) {
+                size += cond[j] - ir.targetIndex(j);
+                rotated++;
+            }
+        }
+        if (rotated == 0)
+            return;
+        int[] newAddr = new int[n + 1];
+        for (int i = 0, k = 0; i <= n; i++) {
+            newAddr[i] = k;
+            if (i < n)
+                k += cond[i] >= 0 ? cond[i] - ir.targetIndex(i) + 1 : 1;
+        }
+        int[] op = new int[size];
+        int[] arg1 = new int[size];
+        int[] arg2 = new int[size];
+        int[] result = new int[size];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int from = i, to = i;
+            if (cond[i] >= 0) {
+                from = ir.targetIndex(i);
+                to = cond[i];
+            }
+            for (int s = from; s <= to; s++, k++) {
+                op[k] = ir.op[s];
+                arg1[k] = ir.arg1[s];
+                arg2[k] = ir.arg2[s];
+                result[k] = ir.result[s];
+                if (OpCode.isJump(op[k]) && result[k] != Intermediater.EMPTY)
+                    result[k] = newAddr[ir.targetIndex(s)] + ir.initStat;
+            }
+            if (cond[i] >= 0) {
+                op[k - 1] = inverse(op[k - 1]);
+                result[k - 1] = newAddr[cond[i] + 1] + ir.initStat;
+            }
+        }
+        ir.setCode(op, arg1, arg2, result, size);
+    }
+
+    public int getStaticBefore() {
+        return staticBefore;
+    }
+
+    public int getStaticAfter() {
+        return staticAfter;
+    }
+
+    // 执行的跳转条数，没有setProfile时为-1
+    public long getDynamicBefore() {
+        return dynamicBefore;
+    }
+
+    public long getDynamicAfter() {
+        return dynamicAfter;
+    }
+
+    public int getThreaded() {
+        return threaded;
+    }
+
+    public int getInverted() {
+        return inverted;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getRotated() {
+        return rotated;
+    }
+}
@@ -20,10 +20,18 @@ public class Lexer {
     private int charPosition = 0;
     // 当前行数
     private int currentLineNumber = 0;
+    // 当前符号的起始列
+    private int tokenColumn = 0;
 
     // 当前识别出的符号
     private Symbol sym = new Symbol();
 
+    // 标识符驻留池：每个标识符只在词法分析时散列一次，之后以编号表示
+    protected final IdentifierPool names = new IdentifierPool();
+
+    // 词法错误的收集者，由Compiler设置为与语法分析器共用的同一个
+    protected Err err = new Err();
+
     // getters:
     public Symbol getSym() {
         return sym;
@@ -33,6 +41,19 @@ public class Lexer {
         return currentLineNumber;
     }
 
+    // 当前符号的起始列（从1开始）
+    public int getCurrentColumn() {
+        return tokenColumn;
+    }
+
+    public IdentifierPool getNames() {
+        return names;
+    }
+
+    public void setErr(Err err) {
+        this.err = err;
+    }
+
     // 单字符的符号
     private final HashMap<Character, Integer> singleSymbol;
     // 关键字
@@ -62,16 +83,33 @@ public class Lexer {
         // 设置保留字（关键字）按照字母顺序，便于折半查找
         keywordMap = new HashMap<>();
         keywordMap.put("BEGIN", Symbol.beginsym);
+        keywordMap.put("CALL", Symbol.callsym);
         keywordMap.put("CONST", Symbol.constsym);
         keywordMap.put("DO", Symbol.dosym);
         keywordMap.put("END", Symbol.endsym);
         keywordMap.put("IF", Symbol.ifsym);
+        keywordMap.put("PROCEDURE", Symbol.procsym);
         keywordMap.put("PROGRAM", Symbol.progsym);
         keywordMap.put("THEN", Symbol.thensym);
         keywordMap.put("VAR", Symbol.varsym);
         keywordMap.put("WHILE", Symbol.whilesym);
     }
 
+    /**
+     * 供不从BufferedReader读入的词法分析器（如BufferLexer）使用
+     */
+    protected Lexer() {
+        this(null);
+    }
+
+    /**
+     * 关闭输入流
+     */
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
     /**
      * 读取一个字符，为减少磁盘I/O次数，每次读取一行
      */
@@ -103,6 +141,7 @@ public class Lexer {
         // 空白字符的定义包括空格（' '）、制表符（'\t'）、换行符（'\n'）、回车符（'\r'）、换页符（'\f'）和垂直制表符（'\v'）。
         while (Character.isWhitespace(ch)) // 跳过所有空白字符
             getch();
+        tokenColumn = charPosition; // ch已经读入，charPosition恰为它的列号
         if (ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z') {
             // 关键字或者一般标识符
             matchKeywordOrIdentifier();
@@ -135,7 +174,7 @@ public class Lexer {
             sym = new Symbol(keywordMap.get(id), id);
         } else {
             // 一般标识符
-            sym = new Symbol(Symbol.ident, id);
+            sym = new Symbol(Symbol.ident, id, names.intern(id));
         }
     }
 
@@ -153,7 +192,7 @@ public class Lexer {
         }
         sym = new Symbol(Symbol.number, num);
         if (count > PL0.num_max)
-            Err.handleError("数字长度过长！", currentLineNumber);
+            err.handleError("数字长度过长！", currentLineNumber, tokenColumn);
     }
 
     /**
@@ -193,7 +232,7 @@ public class Lexer {
                 }
                 break;
             default: // 其他为单字符操作符（如果符号非法则返回nul）
-                sym = new Symbol(singleSymbol.get(ch), Character.toString(ch));
+                sym = new Symbol(singleSymbol.getOrDefault(ch, Symbol.nul), Character.toString(ch));
                 getch();
                 break;
         }
@@ -0,0 +1,376 @@
+import java.util.Arrays;
+
+/**
+ * 【线性扫描寄存器分配】
+ * 值的编号：变量v为v，临时变量Tn为varCount+n；每个值的活跃区间为其活跃位置的包络[begin, end]（不区分区间中的空洞），
+ * 按区间起点依次分配（Poletto与Sarkar的算法），寄存器不够时溢出权重最小的区间，溢出的值在整个程序中都放在溢出槽中；
+ * 活跃区间：
+ * 变量在程序结束、运行时错误和循环次数用尽时都要输出，其区间为整个程序；
+ * 临时变量的活跃性在控制流图上按基本块做数据流分析，只在一个基本块内使用的临时变量不参加数据流分析；
+ * 在过程调用之后或过程入口处活跃的临时变量也扩展到整个程序，因为被调用的过程的代码不在调用点附近；
+ * 权重为出现的次数，每层循环（向后跳转所跨的代码）乘以8；
+ * 寄存器个数为UNBOUNDED时不会溢出，需要多少寄存器就用多少，用于给临时变量重新编号（见TempSlots）
+ */
+public class LinearScan {
+    public static final int UNUSED = -1; // 值没有出现在代码中
+    public static final int UNBOUNDED = -1; // 寄存器个数不限
+
+    private final Intermediater ir;
+    private final int n;
+    private final int varCount;
+    private final int valueCount;
+    private final int registers;
+    private final boolean tempsOnly; // 只分配临时变量
+
+    // 活跃区间，没有出现的值begin为UNUSED
+    private final int[] begin;
+    private final int[] end;
+    private final long[] weight;
+    // 分配结果：寄存器编号，或者-(溢出槽编号+2)
+    private final int[] location;
+    private int spillCount = 0;
+    private int registerCount = 0; // 用到的寄存器个数
+    private int maxPressure = 0; // 同时活跃的值的最大个数
+
+    /**
+     * @param registers 可以分配的寄存器个数
+     */
+    public LinearScan(Intermediater ir, int registers) {
+        this(ir, registers, false);
+    }
+
+    /**
+     * @param registers 可以分配的寄存器个数，UNBOUNDED为不限
+     * @param tempsOnly 只给临时变量分配寄存器，变量不参加分配，也不计入同时活跃的个数
+     */
+    public LinearScan(Intermediater ir, int registers, boolean tempsOnly) {
+        this.ir = ir;
+        this.tempsOnly = tempsOnly;
+        this.n = ir.size();
+        this.varCount = ir.varCount();
+        this.valueCount = varCount + ir.tempVarCounter;
+        this.registers = registers;
+        begin = new int[valueCount];
+        end = new int[valueCount];
+        weight = new long[valueCount];
+        location = new int[valueCount];
+        Arrays.fill(begin, UNUSED);
+        Arrays.fill(location, UNUSED);
+    }
+
+    public void allocate() {
+        buildIntervals();
+        scan();
+    }
+
+    // 操作数对应的值，常数与空操作数为-1
+    private int value(int operand) {
+        switch (Intermediater.kind(operand)) {
+            case Intermediater.VAR:
+                return Intermediater.index(operand);
+            case Intermediater.TEMP:
+                return varCount + Intermediater.index(operand);
+            default:
+                return -1;
+        }
+    }
+
+    private void cover(int v, int position) {
+        if (begin[v] == UNUSED) {
+            begin[v] = end[v] = position;
+        } else {
+            begin[v] = Math.min(begin[v], position);
+            end[v] = Math.max(end[v], position);
+        }
+    }
+
+    private void buildIntervals() {
+        // 循环深度：每条向后跳转使[目标, 跳转]的深度加一
+        int[] depth = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (OpCode.isJump(ir.op[i]) && ir.op[i] != OpCode.call && ir.targetIndex(i) <= i) {
+                depth[ir.targetIndex(i)]++;
+                depth[i + 1]--;
+            }
+        }
+        for (int i = 0, d = 0; i < n; i++) {
+            d += depth[i];
+            long w = 1L << (3 * Math.min(d, 10));
+            int a = value(ir.arg1[i]);
+            int b = value(ir.arg2[i]);
+            int r = OpCode.isJump(ir.op[i]) ? -1 : value(ir.result[i]);
+            if (ir.op[i] != OpCode.call && a >= 0) {
+                cover(a, i);
+                weight[a] += w;
+            }
+            if (b >= 0) {
+                cover(b, i);
+                weight[b] += w;
+            }
+            if (r >= 0) {
+                cover(r, i);
+                weight[r] += w;
+            }
+        }
+        // 变量在整个程序中活跃，包括只出现在保存集合中的变量
+        for (int v = 0; v < varCount; v++) {
+            if (begin[v] != UNUSED) {
+                begin[v] = 0;
+                end[v] = n;
+            }
+        }
+        for (int s = 1; s <= ir.saveSetCount(); s++) {
+            for (int slot : ir.saveSet(s)) {
+                weight[slot]++;
+                begin[slot] = 0;
+                end[slot] = n;
+            }
+        }
+        if (ir.tempVarCounter > 0 && n > 0)
+            globalTemps();
+    }
+
+    /*
+     * 跨基本块的临时变量：在基本块中先使用后定义（或者只使用）的临时变量参加活跃性分析，
+     * 区间扩展到其活跃的基本块的入口与出口
+     */
+    private void globalTemps() {
+        ControlFlowGraph cfg = new ControlFlowGraph(ir);
+        int blocks = cfg.blockCount();
+        int temps = ir.tempVarCounter;
+        int[] defined = new int[temps]; // 在哪个基本块中已被定义（基本块编号+1）
+        int[] dense = new int[temps]; // 参加数据流分析的临时变量的编号+1
+        int globals = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                for (int k = 0; k < 2; k++) {
+                    int operand = k == 0 ? ir.arg1[i] : ir.arg2[i];
+                    if (ir.op[i] == OpCode.call || Intermediater.kind(operand) != Intermediater.TEMP)
+                        continue;
+                    int t = Intermediater.index(operand);
+                    if (defined[t] != b + 1 && dense[t] == 0)
+                        dense[t] = ++globals;
+                }
+                if (!OpCode.isJump(ir.op[i]) && Intermediater.kind(ir.result[i]) == Intermediater.TEMP)
+                    defined[Intermediater.index(ir.result[i])] = b + 1;
+            }
+        }
+        if (globals == 0)
+            return;
+        int[] global = new int[globals];
+        for (int t = 0; t < temps; t++)
+            if (dense[t] > 0)
+                global[dense[t] - 1] = t;
+
+        int words = (globals + 63) >>> 6;
+        long[] gen = new long[blocks * words];
+        long[] kill = new long[blocks * words];
+        long[] in = new long[blocks * words];
+        long[] out = new long[blocks * words];
+        for (int b = 0; b < blocks; b++) {
+            int base = b * words;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                for (int k = 0; k < 2; k++) {
+                    int operand = k == 0 ? ir.arg1[i] : ir.arg2[i];
+                    if (ir.op[i] == OpCode.call || Intermediater.kind(operand) != Intermediater.TEMP)
+                        continue;
+                    int g = dense[Intermediater.index(operand)] - 1;
+                    if (g >= 0 && (kill[base + (g >>> 6)] & 1L << g) == 0)
+                        gen[base + (g >>> 6)] |= 1L << g;
+                }
+                if (!OpCode.isJump(ir.op[i]) && Intermediater.kind(ir.result[i]) == Intermediater.TEMP) {
+                    int g = dense[Intermediater.index(ir.result[i])] - 1;
+                    if (g >= 0)
+                        kill[base + (g >>> 6)] |= 1L << g;
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                int base = b * words;
+                for (int k = 0; k < 2; k++) {
+                    int s = cfg.succ(b, k);
+                    if (s < 0)
+                        continue;
+                    for (int w = 0; w < words; w++)
+                        out[base + w] |= in[s * words + w];
+                }
+                for (int w = 0; w < words; w++) {
+                    long live = gen[base + w] | out[base + w] & ~kill[base + w];
+                    if (live != in[base + w]) {
+                        in[base + w] = live;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        boolean[] procEntry = new boolean[blocks];
+        for (int r = 1; r < cfg.regionCount(); r++)
+            procEntry[cfg.regionEntry(r)] = true;
+        for (int b = 0; b < blocks; b++) {
+            int base = b * words;
+            boolean call = ir.op[cfg.end(b) - 1] == OpCode.call;
+            for (int w = 0; w < words; w++) {
+                for (long bits = in[base + w] | out[base + w]; bits != 0; bits &= bits - 1) {
+                    int g = w << 6 | Long.numberOfTrailingZeros(bits);
+                    int v = varCount + global[g];
+                    boolean liveIn = (in[base + w] & 1L << g) != 0;
+                    boolean liveOut = (out[base + w] & 1L << g) != 0;
+                    if (liveIn && procEntry[b] || liveOut && call) {
+                        begin[v] = 0;
+                        end[v] = n;
+                    } else {
+                        if (liveIn)
+                            cover(v, cfg.start(b));
+                        if (liveOut)
+                            cover(v, cfg.end(b) - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private void scan() {
+        // 按区间起点排序（计数排序）
+        int first = tempsOnly ? varCount : 0;
+        int[] count = new int[n + 2];
+        for (int v = first; v < valueCount; v++)
+            if (begin[v] != UNUSED)
+                count[begin[v] + 1]++;
+        for (int p = 0; p <= n; p++)
+            count[p + 1] += count[p];
+        int used = count[n + 1];
+        int[] order = new int[used];
+        for (int v = first; v < valueCount; v++)
+            if (begin[v] != UNUSED)
+                order[count[begin[v]]++] = v;
+
+        // 正在占用寄存器的值按区间终点组成的小顶堆；被溢出的值留在堆中，取出时跳过
+        int[] heap = new int[Math.max(16, Math.min(used, 1024))];
+        int heapSize = 0;
+        int[] free = new int[registers == UNBOUNDED ? 16 : registers];
+        int freeCount = 0;
+        for (int r = registers - 1; r >= 0; r--)
+            free[freeCount++] = r;
+        // 同时活跃的值（包括已溢出的）：按终点计数
+        int[] ends = new int[n + 2];
+        int live = 0;
+        int last = 0;
+        for (int v : order) {
+            int at = begin[v];
+            for (; last < at; last++)
+                live -= ends[last];
+            live++;
+            ends[end[v]]++;
+            maxPressure = Math.max(maxPressure, live);
+
+            while (heapSize > 0 && end[heap[0]] < at) {
+                int u = heap[0];
+                heap[0] = heap[--heapSize];
+                siftDown(heap, heapSize, 0);
+                if (location[u] >= 0) {
+                    if (freeCount == free.length)
+                        free = Arrays.copyOf(free, freeCount * 2);
+                    free[freeCount++] = location[u];
+                }
+            }
+            if (freeCount > 0) {
+                location[v] = free[--freeCount];
+            } else if (registers == UNBOUNDED) {
+                location[v] = registerCount;
+            } else {
+                int victim = v;
+                for (int k = 0; k < heapSize; k++) {
+                    int u = heap[k];
+                    if (location[u] >= 0 && weight[u] < weight[victim])
+                        victim = u;
+                }
+                if (victim != v)
+                    location[v] = location[victim];
+                location[victim] = -2 - spillCount++;
+                if (victim == v)
+                    continue;
+            }
+            registerCount = Math.max(registerCount, location[v] + 1);
+            if (heapSize == heap.length)
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            heap[heapSize] = v;
+            siftUp(heap, heapSize++);
+        }
+    }
+
+    private void siftUp(int[] heap, int k) {
+        int v = heap[k];
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (end[heap[parent]] <= end[v])
+                break;
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = v;
+    }
+
+    private void siftDown(int[] heap, int size, int k) {
+        if (size == 0)
+            return;
+        int v = heap[k];
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && end[heap[child + 1]] < end[heap[child]])
+                child++;
+            if (end[heap[child]] >= end[v])
+                break;
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = v;
+    }
+
+    public int valueCount() {
+        return valueCount;
+    }
+
+    // 操作数对应的值，常数与空操作数为-1
+    public int valueOf(int operand) {
+        return value(operand);
+    }
+
+    public int begin(int v) {
+        return begin[v];
+    }
+
+    public int end(int v) {
+        return end[v];
+    }
+
+    public boolean isUsed(int v) {
+        return begin[v] != UNUSED;
+    }
+
+    // 分配到的寄存器，溢出或没有出现时为-1
+    public int register(int v) {
+        return location[v] >= 0 ? location[v] : -1;
+    }
+
+    // 溢出槽编号，没有溢出时为-1
+    public int spillSlot(int v) {
+        return location[v] < UNUSED ? -2 - location[v] : -1;
+    }
+
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    public int getMaxPressure() {
+        return maxPressure;
+    }
+}
@@ -0,0 +1,369 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 【基本块内的局部优化】
+ * 按回填后的跳转目标把中间代码划分为基本块，在每个基本块内：
+ * 1. 局部值编号：消除公共子表达式，并顺带折叠常数运算
+ * 2. 复写传播：用值的保存位置替换副本，并把"T:=a op b; x:=T"合并为"x:=a op b"
+ * 最后删除不再被使用的临时变量
+ */
+public class LocalOptimizer {
+    private static final int NO_HOME = -1;
+
+    private final Intermediater ir;
+    private boolean[] removed;
+
+    // 值编号的状态，每个基本块开始时清空
+    private final HashMap<Integer, Integer> valueOf = new HashMap<>(); // 变量/临时变量 -> 当前值编号
+    private final HashMap<Integer, Integer> constValue = new HashMap<>(); // 常数值 -> 值编号
+    private final HashMap<Long, Integer> exprValue = new HashMap<>(); // (op, 值编号1, 值编号2) -> 值编号
+    private int[] home = new int[64]; // 值编号 -> 当前保存该值的操作数
+    private int valueCount = 0;
+    // 反向索引：值编号 -> 曾被赋予该值的操作数的链表，已被重新定值的项在查找时才删除
+    private int[] holderHead = new int[64];
+    private int[] holder = new int[64];
+    private int[] holderNext = new int[64];
+    private int holderCount = 0;
+
+    private int before, after;
+    private CompileStats stats; // 各步骤的统计，为null时不统计
+
+    public LocalOptimizer(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void optimize() {
+        int n = ir.size();
+        before = n;
+        removed = new boolean[n];
+        CompileEvents.Optimize event = beginStep();
+        boolean[] leader = ir.leaders();
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (leader[i]) {
+                numberValues(start, i);
+                start = i;
+            }
+        }
+        int count = endStep(event, "local value numbering", n);
+
+        event = beginStep();
+        int[] uses = countTempUses();
+        start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (leader[i]) {
+                forwardStores(start, i, uses);
+                start = i;
+            }
+        }
+        count = endStep(event, "copy propagation", count);
+
+        event = beginStep();
+        removeDeadTemps();
+        ir.compact(removed);
+        after = ir.size();
+        endStep(event, "dead temporary elimination", count);
+    }
+
+    // 开始一个优化步骤
+    private CompileEvents.Optimize beginStep() {
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        return event;
+    }
+
+    // 结束一个优化步骤并记录其前后的代码条数；只有需要记录时才清点剩下的代码，返回剩下的条数，不清点时返回count
+    private int endStep(CompileEvents.Optimize event, String pass, int count) {
+        boolean commit = CompileEvents.end(event);
+        if (!commit && stats == null)
+            return count;
+        int remaining = 0;
+        if (removed.length == ir.size()) {
+            for (boolean r : removed)
+                if (!r)
+                    remaining++;
+        } else {
+            remaining = ir.size(); // 已经删除
+        }
+        if (commit) {
+            event.pass = pass;
+            event.before = count;
+            event.after = remaining;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end(pass + " (" + count + " -> " + remaining + ")", count, "instructions");
+        return remaining;
+    }
+
+    public int getBefore() {
+        return before;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    /*
+     * 对基本块[start, end)做局部值编号
+     */
+    private void numberValues(int start, int end) {
+        valueOf.clear();
+        constValue.clear();
+        exprValue.clear();
+        valueCount = 0;
+        holderCount = 0;
+        for (int i = start; i < end; i++) {
+            int op = ir.op[i];
+            if (op == OpCode.jmp || op == OpCode.call || op == OpCode.ret)
+                continue;
+            int a = ir.arg1[i], b = ir.arg2[i];
+            int va = valueNumber(a);
+            ir.arg1[i] = home[va];
+            int vb = -1;
+            if (OpCode.isBinary(op) || OpCode.isCondJump(op)) {
+                vb = valueNumber(b);
+                ir.arg2[i] = home[vb];
+            }
+            if (OpCode.isCondJump(op)) {
+                foldJump(i);
+                continue;
+            }
+
+            int value;
+            if (op == OpCode.assign || op == OpCode.pos) {
+                ir.op[i] = OpCode.assign;
+                value = va;
+            } else {
+                value = fold(op, ir.arg1[i], ir.arg2[i]);
+                if (value < 0) {
+                    if (op == OpCode.add || op == OpCode.mul) {
+                        // 可交换的运算，规范操作数顺序
+                        int lo = Math.min(va, vb), hi = Math.max(va, vb);
+                        va = lo;
+                        vb = hi;
+                    }
+                    long key = ((long) op << 56) | ((long) va << 28) | (vb & 0x0FFFFFFFL);
+                    Integer known = exprValue.get(key);
+                    if (known != null && home[known] != NO_HOME) {
+                        value = known; // 公共子表达式
+                    } else {
+                        value = newValue(NO_HOME);
+                        exprValue.put(key, value);
+                    }
+                }
+                if (home[value] != NO_HOME) {
+                    // 值已经保存在别处，运算改为复写
+                    ir.op[i] = OpCode.assign;
+                    ir.arg1[i] = home[value];
+                    ir.arg2[i] = Intermediater.NONE;
+                }
+            }
+
+            int target = ir.result[i];
+            if (ir.op[i] == OpCode.assign && ir.arg1[i] == target) {
+                removed[i] = true; // x:=x
+                continue;
+            }
+            define(target, value);
+        }
+    }
+
+    // 常数运算折叠，返回结果的值编号；不能折叠时返回-1
+    private int fold(int op, int a, int b) {
+        if (Intermediater.kind(a) != Intermediater.CONST)
+            return -1;
+        int x = ir.constPool[Intermediater.index(a)];
+        if (op == OpCode.neg)
+            return constNumber(-x);
+        if (Intermediater.kind(b) != Intermediater.CONST)
+            return -1;
+        int y = ir.constPool[Intermediater.index(b)];
+        switch (op) {
+            case OpCode.add:
+                return constNumber(x + y);
+            case OpCode.sub:
+                return constNumber(x - y);
+            case OpCode.mul:
+                return constNumber(x * y);
+            case OpCode.shl:
+                return constNumber(x << y);
+            default:
+                return y == 0 ? -1 : constNumber(x / y);
+        }
+    }
+
+    // 两个操作数都是常数的条件跳转改为无条件跳转或删除
+    private void foldJump(int i) {
+        int a = ir.arg1[i], b = ir.arg2[i];
+        if (Intermediater.kind(a) != Intermediater.CONST || Intermediater.kind(b) != Intermediater.CONST)
+            return;
+        if (Intermediater.evaluate(ir.op[i], ir.constPool[Intermediater.index(a)], ir.constPool[Intermediater.index(b)])) {
+            ir.op[i] = OpCode.jmp;
+            ir.arg1[i] = ir.arg2[i] = Intermediater.NONE;
+        } else {
+            removed[i] = true;
+        }
+    }
+
+    private int valueNumber(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.CONST)
+            return constNumber(ir.constPool[Intermediater.index(operand)]);
+        Integer value = valueOf.get(operand);
+        if (value == null) {
+            value = newValue(operand);
+            valueOf.put(operand, value);
+            addHolder(value, operand);
+        }
+        return value;
+    }
+
+    private int constNumber(int c) {
+        Integer value = constValue.get(c);
+        if (value == null) {
+            value = newValue(ir.constant(c));
+            constValue.put(c, value);
+        }
+        return value;
+    }
+
+    private int newValue(int holder) {
+        if (valueCount == home.length) {
+            home = Arrays.copyOf(home, home.length * 2);
+            holderHead = Arrays.copyOf(holderHead, home.length);
+        }
+        home[valueCount] = holder;
+        holderHead[valueCount] = -1;
+        return valueCount++;
+    }
+
+    private void addHolder(int value, int x) {
+        if (holderCount == holder.length) {
+            holder = Arrays.copyOf(holder, holderCount * 2);
+            holderNext = Arrays.copyOf(holderNext, holderCount * 2);
+        }
+        holder[holderCount] = x;
+        holderNext[holderCount] = holderHead[value];
+        holderHead[value] = holderCount++;
+    }
+
+    // 当前保存value的某个操作数，没有时为NO_HOME；链表头部已被重新定值的项顺带删除，每项至多删除一次
+    private int findHolder(int value) {
+        int h = holderHead[value];
+        while (h >= 0 && valueOf.get(holder[h]) != value)
+            h = holderNext[h];
+        holderHead[value] = h;
+        return h >= 0 ? holder[h] : NO_HOME;
+    }
+
+    // 操作数x被赋予值编号value
+    private void define(int x, int value) {
+        Integer old = valueOf.put(x, value);
+        addHolder(value, x);
+        if (old != null && old != value && home[old] == x)
+            home[old] = findHolder(old); // x原来保存的值需要另找保存位置
+        if (home[value] == NO_HOME)
+            home[value] = x;
+    }
+
+    private int[] countTempUses() {
+        int[] uses = new int[ir.tempVarCounter];
+        for (int i = 0; i < ir.size(); i++) {
+            if (removed[i])
+                continue;
+            if (Intermediater.kind(ir.arg1[i]) == Intermediater.TEMP)
+                uses[Intermediater.index(ir.arg1[i])]++;
+            if (Intermediater.kind(ir.arg2[i]) == Intermediater.TEMP)
+                uses[Intermediater.index(ir.arg2[i])]++;
+        }
+        return uses;
+    }
+
+    /*
+     * "T:=a op b; ...; x:=T" 且T只在此处使用、中间没有读写x时，合并为"x:=a op b"
+     */
+    private void forwardStores(int start, int end, int[] uses) {
+        for (int j = start; j < end; j++) {
+            if (removed[j] || ir.op[j] != OpCode.assign || Intermediater.kind(ir.arg1[j]) != Intermediater.TEMP)
+                continue;
+            int temp = ir.arg1[j], x = ir.result[j];
+            if (uses[Intermediater.index(temp)] != 1)
+                continue;
+            for (int i = j - 1; i >= start; i--) {
+                if (removed[i])
+                    continue;
+                if (ir.result[i] == temp && !OpCode.isJump(ir.op[i])) {
+                    ir.result[i] = x;
+                    removed[j] = true;
+                    uses[Intermediater.index(temp)] = 0;
+                    break;
+                }
+                if (ir.arg1[i] == x || ir.arg2[i] == x || (ir.result[i] == x && !OpCode.isJump(ir.op[i])))
+                    break;
+            }
+        }
+    }
+
+    /*
+     * 删除结果不再被使用的临时变量的定值（可能除零的除法保留，以免改变运行结果）；
+     * 删除一条代码时减少其操作数的使用次数，次数降为0的临时变量的定值加入工作表
+     */
+    private void removeDeadTemps() {
+        int n = ir.size();
+        int[] uses = countTempUses();
+        // 各临时变量的定值下标，按临时变量编号分段存放
+        int[] defStart = new int[ir.tempVarCounter + 1];
+        for (int i = 0; i < n; i++) {
+            if (isTempDef(i))
+                defStart[Intermediater.index(ir.result[i]) + 1]++;
+        }
+        for (int t = 0; t < ir.tempVarCounter; t++)
+            defStart[t + 1] += defStart[t];
+        int[] defs = new int[defStart[ir.tempVarCounter]];
+        int[] fill = Arrays.copyOf(defStart, ir.tempVarCounter);
+        int[] work = new int[defs.length];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            if (!isTempDef(i))
+                continue;
+            int t = Intermediater.index(ir.result[i]);
+            defs[fill[t]++] = i;
+            if (uses[t] == 0)
+                work[top++] = i;
+        }
+        while (top > 0) {
+            int i = work[--top];
+            if (removed[i] || !removable(i))
+                continue;
+            removed[i] = true;
+            for (int k = 0; k < 2; k++) {
+                int operand = k == 0 ? ir.arg1[i] : ir.arg2[i];
+                if (Intermediater.kind(operand) != Intermediater.TEMP)
+                    continue;
+                int t = Intermediater.index(operand);
+                if (--uses[t] > 0)
+                    continue;
+                for (int d = defStart[t]; d < defStart[t + 1]; d++) {
+                    if (!removed[defs[d]])
+                        work[top++] = defs[d];
+                }
+            }
+        }
+    }
+
+    // 第i条代码是尚未删除的临时变量的定值
+    private boolean isTempDef(int i) {
+        return !removed[i] && !OpCode.isJump(ir.op[i]) && Intermediater.kind(ir.result[i]) == Intermediater.TEMP;
+    }
+
+    private boolean removable(int i) {
+        return ir.op[i] != OpCode.div || Intermediater.kind(ir.arg2[i]) == Intermediater.CONST
+                && ir.constPool[Intermediater.index(ir.arg2[i])] != 0;
+    }
+}
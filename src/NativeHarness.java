@@ -0,0 +1,147 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 【本地代码的对比测试】
+ * 把一个目录中的每个源程序编译一次，分别在虚拟机、JVM字节码后端、x86-64后端（as/ld）与C后端（cc -O2）上执行，
+ * 以虚拟机的输出为准比较各条路径的最终状态，并列出各自的运行时间；
+ * 本地可执行文件的运行时间包括进程的启动，JVM字节码后端不支持过程时不参加比较；
+ * 比较时去掉运行统计，运行时错误只比较种类（JVM字节码后端不报告地址）
+ */
+public class NativeHarness {
+    private final boolean optimize;
+    private final long maxIterations;
+
+    public NativeHarness(boolean optimize, long maxIterations) {
+        this.optimize = optimize;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * 对比dir中的全部.pl0源程序，结果写入out
+     *
+     * @return 各条路径的最终状态是否都与虚拟机一致
+     */
+    public boolean run(Path dir, PrintStream out) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.pl0")) {
+            for (Path source : stream)
+                sources.add(source);
+        }
+        Collections.sort(sources);
+        Path work = Files.createTempDirectory("pl0-native");
+        boolean ok = true;
+        try {
+            out.printf("%-20s %12s %12s %12s %12s  %s%n", "program", "VM ms", "JVM ms", "x86-64 ms", "C -O2 ms",
+                    "final state");
+            for (Path source : sources)
+                ok &= compare(source, work, out);
+        } finally {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(work)) {
+                for (Path file : stream)
+                    Files.delete(file);
+            }
+            Files.delete(work);
+        }
+        return ok;
+    }
+
+    private boolean compare(Path source, Path work, PrintStream out) throws IOException {
+        String name = source.getFileName().toString();
+        Intermediater ir;
+        try (Compiler compiler = Compiler.open(source, false, 0)) {
+            compiler.setOptimize(optimize);
+            if (!compiler.compile()) {
+                out.printf("%-20s %s%n", name, "does not compile, skipped");
+                return true;
+            }
+            ir = compiler.getIntermediater();
+        }
+
+        // 虚拟机
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        VirtualMachine vm = new VirtualMachine(ir);
+        vm.run(maxIterations);
+        vm.printState(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        String expected = normalize(buffer.toString(StandardCharsets.UTF_8));
+        double vmMillis = vm.getElapsedNanos() / 1e6;
+
+        List<String> mismatches = new ArrayList<>();
+        String jvmMillis = jvm(ir, expected, mismatches);
+
+        String base = name.substring(0, name.length() - ".pl0".length());
+        Path asm = work.resolve(base + ".s");
+        Path asmExe = work.resolve(base + "-x86");
+        new X86Backend(ir, maxIterations).write(asm);
+        X86Backend.link(asm, asmExe);
+        String x86Millis = execute(asmExe, expected, "x86-64", mismatches);
+
+        Path c = work.resolve(base + ".c");
+        Path cExe = work.resolve(base + "-c");
+        new CBackend(ir, maxIterations).write(c);
+        CBackend.compile(c, cExe);
+        String cMillis = execute(cExe, expected, "C", mismatches);
+
+        out.printf("%-20s %12.3f %12s %12s %12s  %s%n", name, vmMillis, jvmMillis, x86Millis, cMillis,
+                mismatches.isEmpty() ? "same" : "DIFFERENT: " + String.join(", ", mismatches));
+        return mismatches.isEmpty();
+    }
+
+    // JVM字节码后端，不支持时为"-"
+    private String jvm(Intermediater ir, String expected, List<String> mismatches) {
+        JvmBackend backend = new JvmBackend(ir);
+        int[] frame = new int[ir.varCount()];
+        StringBuilder state = new StringBuilder();
+        try {
+            if (!backend.run(frame, maxIterations))
+                state.append(backend.getErrorAddr() >= 0 ? VirtualMachine.runtimeError(backend.getErrorAddr(), false)
+                        : "Stopped: loop iteration limit reached.").append('\n');
+        } catch (UnsupportedOperationException e) {
+            return "-";
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        for (int v = 0; v < frame.length; v++)
+            state.append(ir.varName(v)).append(" = ").append(frame[v]).append('\n');
+        if (!normalize(state.toString()).equals(expected))
+            mismatches.add("JVM");
+        return String.format("%.3f", backend.getElapsedNanos() / 1e6);
+    }
+
+    // 执行本地可执行文件，运行时间包括进程的启动
+    private static String execute(Path executable, String expected, String label, List<String> mismatches)
+            throws IOException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(executable.toString()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(executable + " interrupted");
+        }
+        long elapsed = System.nanoTime() - start;
+        if (!normalize(output).equals(expected))
+            mismatches.add(label);
+        return String.format("%.3f", elapsed / 1e6);
+    }
+
+    // 去掉运行统计
+    private static String normalize(String output) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : output.split("\n")) {
+            if (line.isEmpty() || line.startsWith("executed"))
+                continue;
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
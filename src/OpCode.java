@@ -0,0 +1,69 @@
+/**
+ * @Description 四元式中间代码的操作码
+ * 四元式形如 (op, arg1, arg2, result)，跳转指令的result存放跳转目标地址
+ **/
+public class OpCode {
+
+    // 赋值 result:=arg1
+    public static final int assign = 0;
+    // 一元运算 result:=+arg1 / result:=-arg1
+    public static final int pos = 1;
+    public static final int neg = 2;
+    // 二元运算 result:=arg1 op arg2
+    public static final int add = 3;
+    public static final int sub = 4;
+    public static final int mul = 5;
+    public static final int div = 6;
+    // 条件跳转 if arg1 relop arg2 goto result（顺序与Symbol中eql~geq一致）
+    public static final int jeq = 7;
+    public static final int jne = 8;
+    public static final int jlt = 9;
+    public static final int jle = 10;
+    public static final int jgt = 11;
+    public static final int jge = 12;
+    // 无条件跳转 goto result
+    public static final int jmp = 13;
+    // 过程调用 call result：arg1为调用前保存、返回后恢复的槽位集合的编号（0表示不需要保存），见Intermediater.newSaveSet
+    public static final int call = 14;
+    // 过程返回：返回到最近一次调用的下一条代码，没有调用时结束程序
+    public static final int ret = 15;
+    // 左移 result:=arg1<<arg2（位数取arg2的低5位）：只由窥孔优化的强度削弱生成，编号排在最后，已有的二进制中间代码不变
+    public static final int shl = 16;
+
+    // 操作码的个数
+    public static final int opnum = 17;
+
+    // 操作码在三地址代码中的书写形式
+    public static final String[] text = {
+            ":=", "+", "-", "+", "-", "*", "/",
+            "=", "<>", "<", "<=", ">", ">=", "goto", "call", "return", "<<"
+    };
+
+    // 由关系运算符的词法符号得到对应的条件跳转操作码
+    public static int fromRelation(int symtype) {
+        return jeq + (symtype - Symbol.eql);
+    }
+
+    public static boolean isBinary(int op) {
+        return op >= add && op <= div || op == shl;
+    }
+
+    // 计算并写入result的代码：赋值、一元与二元运算
+    public static boolean isCompute(int op) {
+        return op <= div || op == shl;
+    }
+
+    public static boolean isCondJump(int op) {
+        return op >= jeq && op <= jge;
+    }
+
+    // 跳转与过程调用：result为目标地址
+    public static boolean isJump(int op) {
+        return op >= jeq && op <= call;
+    }
+
+    // 之后的代码是否为新的基本块的入口
+    public static boolean endsBlock(int op) {
+        return isJump(op) || op == ret;
+    }
+}
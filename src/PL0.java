@@ -1,7 +1,19 @@
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import java.io.BufferedReader;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @Description PL0编译器 主函数入口
@@ -9,24 +21,20 @@ import java.io.BufferedReader;
  * @Date 2024-01-02
  **/
 public class PL0 {
-    // 一个典型的编译器的组成部分
-    public static Lexer lex; // 词法分析器
-    public static Parser parser; // 语法分析器
-    public static Intermediater intermediater; // 中间代码生成工具
-    public static Table table; // 符号表
+    // 编译器的各组成部分（词法分析器、语法分析器、中间代码生成工具、符号表）由Compiler的实例持有
 
     public static final int id_max = 15; // 标识符的最大长度
     public static final int num_max = 8; // number的最大位数
 
-    public PL0(BufferedReader input) {
-        lex = new Lexer(input);
-        table = new Table();
-        intermediater = new Intermediater();
-        parser = new Parser(lex, table, intermediater);
-    }
-
     public static void main(String[] args) {
+        if (args.length > 0) {
+            int status = commandLine(args);
+            if (status != 0)
+                System.exit(status);
+            return;
+        }
         boolean tableDisplay = false; // 显示符号表与否
+        boolean failed = false; // 是否有源程序存在错误
 
         System.out.println("=============================== PL0 Compiler Start ===============================");
         Scanner scanner = new Scanner(System.in);
@@ -43,8 +51,14 @@ public class PL0 {
                 BufferedReader input = new BufferedReader(new FileReader(filePath));
 
                 // 构造编译器并初始化
-                PL0 pl0 = new PL0(input);
-                parser.parse(); // 开始语法分析过程（连同词法分析、语法检查、目标代码生成）
+                Compiler compiler = new Compiler(new Lexer(input));
+                // 开始语法分析过程（连同词法分析、语法检查、目标代码生成）
+                if (!compiler.compile()) {
+                    // 输出全部错误后继续编译下一个源程序
+                    compiler.getErr().print(System.out);
+                    failed = true;
+                    continue;
+                }
 
                 // 是否输出符号表
                 System.out.print("是否展示符号表呢？(Y/N)");
@@ -57,23 +71,558 @@ public class PL0 {
                 if (tableDisplay) {
                     // 输出符号表的代码
                     System.out.println("\n-----------------Printing symbol table---------------------");
-                    table.printTable();
+                    compiler.getTable().printTable();
                     System.out.println("-----------------------------------------------------------");
                 } else {
                     System.out.println("Symbol table will not be printed.");
                 }
 
                 System.out.println("\n----------------Printing intermediater code----------------");
-                intermediater.ouputCode();// 输出中间代码
+                compiler.getIntermediater().ouputCode();// 输出中间代码
                 System.out.println("-----------------------------------------------------------");
                 System.out.println();
 
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
         scanner.close();
         System.out.println("=============================== PL0 Compiler End ===============================");
+        if (failed)
+            System.exit(1);
+    }
+
+    /**
+     * 命令行模式：java PL0 [-O] [--fast-lex] [--run | --jvm] [--max-iterations N] 源文件
+     * -O    开启优化（常量折叠与传播、基本块内的值编号与复写传播）
+     * --peephole 按规则表做窥孔优化：代数恒等式、乘以2的幂的强度削弱与多余的传送（-O时总是做）
+     * --jump-stats 与-O同时使用，布局优化前后各执行一次程序，报告执行的跳转条数
+     * --reuse-temps 按活跃区间复用临时变量的槽位（-O时总是复用）
+     * --fast-lex 使用基于字符缓冲区的词法分析器BufferLexer
+     * --lex-threads N 使用N个线程的并行词法分析器ParallelLexer（整个源文件读入内存）
+     * --ll  使用表驱动的LL(1)语法分析器LLParser，嵌套层数不受调用栈的限制
+     * --ast 先建立抽象语法树再生成中间代码（结果相同），不能与--ll同时使用
+     * --stats 输出各阶段（词法分析、语法分析、各优化步骤、输出）的耗时、内存分配与吞吐量
+     * --run 编译后直接在虚拟机上执行，并输出变量的最终值
+     * --jvm 编译为JVM字节码（隐藏类）后执行
+     * --asm 文件 输出x86-64的GNU汇编；--native 文件 再用as与ld链接为可执行文件（汇编源程序为“文件.s”）
+     * --c 文件 输出C源程序；--cc 文件 再用cc -O2编译为可执行文件（C源程序为“文件.c”）
+     * --native-bench 目录 [-O] 把目录中的源程序分别在虚拟机、JVM字节码、x86-64与C后端上执行，比较最终状态与运行时间
+     * 批量模式：java PL0 --batch 源目录 输出目录 [-O] [--fast-lex | --lex-threads N] [--threads N]
+     * --stream 流式编译，中间代码边生成边写入IntermediateCode.txt，内存中至多保留4096条代码；
+     * 写出时尚未回填的跳转（打开的IF/WHILE的出口）各记一项，最后复制一遍文件补上它们的目标；
+     * --emit-ir 文件 输出二进制中间代码；源文件为二进制中间代码时跳过编译；
+     * --convert-ir 输入 输出 在文本与二进制中间代码之间转换（只有文本→二进制→文本保证不变）
+     * --cache 目录 [--cache-size MB] 使用按内容散列的编译缓存，源程序未改变时跳过编译
+     * --generate 字节数 输出文件 [--seed N] [--depth N] [--expr-depth N] [--idents N]
+     * 按随机种子生成指定大小的PL0程序，用于基准测试
+     * 编译服务：java PL0 --server [--port N] [--read-timeout 秒] 启动常驻的编译服务，
+     * 读入一个请求超过时间限制（默认10秒，0为不限制）时关闭连接；
+     * 服务运行时，只含编译选项的命令转发给服务执行，带有--run、--jvm、本地代码等选项的命令
+     * 以及--local 在本进程中执行，
+     * --server-stats 输出服务的统计信息，--server-stop 停止服务
+     *
+     * @return 退出状态，0表示成功
+     */
+    private static int commandLine(String[] args) {
+        int port = CompileServer.defaultPort();
+        int readTimeout = CompileServer.DEFAULT_READ_TIMEOUT;
+        boolean local = false;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--read-timeout":
+                    readTimeout = Integer.parseInt(args[++i]);
+                    break;
+                case "--local":
+                    local = true;
+                    break;
+                default:
+                    rest.add(args[i]);
+                    break;
+            }
+        }
+        try {
+            if (rest.contains("--server")) {
+                CompileServer server = new CompileServer(port);
+                server.setReadTimeout(readTimeout);
+                server.serve();
+                return 0;
+            }
+            if (rest.contains("--server-stats") || rest.contains("--server-stop")) {
+                String command = rest.contains("--server-stop") ? CompileServer.STOP : CompileServer.STATS;
+                if (CompileClient.send(port, command, System.out) < 0) {
+                    System.out.println("No compile server is listening on port " + port + ".");
+                    return 1;
+                }
+                return 0;
+            }
+            String[] options = rest.toArray(new String[0]);
+            if (!local && CompileServer.forwardable(options)) {
+                // 服务正在运行时把编译参数转发给它，省去JVM启动与即时编译预热的开销
+                int status = CompileClient.forward(port, options, Paths.get("").toAbsolutePath(), System.out);
+                if (status >= 0)
+                    return status;
+            }
+            return execute(options, Paths.get("").toAbsolutePath(), System.out, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 执行一次命令行编译，所有输出写入out；命令行模式与编译服务共用
+     *
+     * @param workDir     相对路径的基准目录
+     * @param sourceBytes 累加编译的源程序字节数，可以为null
+     * @return 退出状态：0成功，1源程序有错误，2参数或文件错误
+     */
+    static int execute(String[] args, Path workDir, PrintStream out, LongAdder sourceBytes) {
+        boolean run = false;
+        boolean jvm = false;
+        boolean optimize = false;
+        boolean reuseTemps = false;
+        boolean peephole = false;
+        boolean jumpStats = false;
+        boolean fastLexer = false;
+        boolean tableDriven = false;
+        boolean buildAst = false;
+        int lexThreads = 0;
+        CompileStats stats = null;
+        String batchOut = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxIterations = VirtualMachine.DEFAULT_MAX_ITERATIONS;
+        String filePath = null;
+        String cacheDir = null;
+        String irOut = null;
+        String nativeSource = null; // 汇编或C源程序
+        String nativeOut = null; // 可执行文件
+        boolean cSource = false;
+        String benchDir = null;
+        String convertOut = null;
+        boolean stream = false;
+        long cacheSize = CompileCache.DEFAULT_MAX_BYTES;
+        String generateOut = null;
+        long generateSize = 0;
+        long seed = 1;
+        int depth = 3;
+        int expressionDepth = 3;
+        int identifiers = 50;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--generate":
+                    generateSize = Long.parseLong(args[++i]);
+                    generateOut = args[++i];
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "--expr-depth":
+                    expressionDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "--idents":
+                    identifiers = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache":
+                    cacheDir = args[++i];
+                    break;
+                case "--stream":
+                    stream = true;
+                    break;
+                case "--emit-ir":
+                    irOut = args[++i];
+                    break;
+                case "--asm":
+                    nativeSource = args[++i];
+                    break;
+                case "--native":
+                    nativeOut = args[++i];
+                    break;
+                case "--c":
+                    nativeSource = args[++i];
+                    cSource = true;
+                    break;
+                case "--cc":
+                    nativeOut = args[++i];
+                    cSource = true;
+                    break;
+                case "--native-bench":
+                    benchDir = args[++i];
+                    break;
+                case "--convert-ir":
+                    filePath = args[++i];
+                    convertOut = args[++i];
+                    break;
+                case "--cache-size":
+                    cacheSize = Long.parseLong(args[++i]) << 20;
+                    break;
+                case "--run":
+                    run = true;
+                    break;
+                case "--jvm":
+                    run = jvm = true;
+                    break;
+                case "-O":
+                    optimize = true;
+                    break;
+                case "--reuse-temps":
+                    reuseTemps = true;
+                    break;
+                case "--peephole":
+                    peephole = true;
+                    break;
+                case "--jump-stats":
+                    jumpStats = true;
+                    break;
+                case "--fast-lex":
+                    fastLexer = true;
+                    break;
+                case "--ll":
+                    tableDriven = true;
+                    break;
+                case "--ast":
+                    buildAst = true;
+                    break;
+                case "--lex-threads":
+                    lexThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--stats":
+                    stats = new CompileStats();
+                    break;
+                case "--max-iterations":
+                    maxIterations = Long.parseLong(args[++i]);
+                    break;
+                case "--batch":
+                    filePath = args[++i];
+                    batchOut = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    filePath = args[i];
+                    break;
+            }
+        }
+        if (generateOut != null) {
+            ProgramGenerator generator = new ProgramGenerator(seed);
+            generator.setMaxDepth(depth);
+            generator.setExpressionDepth(expressionDepth);
+            generator.setIdentifiers(identifiers);
+            Path target = workDir.resolve(generateOut);
+            try (Writer writer = Files.newBufferedWriter(target)) {
+                out.println("Generated " + generator.generate(generateSize, writer) + " bytes to " + target);
+                return 0;
+            } catch (IOException e) {
+                out.println("Cannot write " + e.getMessage());
+                return 2;
+            }
+        }
+        if (benchDir != null) {
+            try {
+                return new NativeHarness(optimize, maxIterations).run(workDir.resolve(benchDir), out) ? 0 : 1;
+            } catch (IOException e) {
+                out.println(e.getMessage());
+                return 2;
+            }
+        }
+        if (filePath == null) {
+            out.println("Usage: java PL0 [-O [--jump-stats]] [--reuse-temps] [--peephole] "
+                    + "[--fast-lex | --lex-threads N] [--ll | --ast] [--stats] [--run | --jvm] [--max-iterations N] "
+                    + "<file.pl0>");
+            out.println("       java PL0 --batch <srcDir> <outDir> [-O] [--fast-lex | --lex-threads N] [--threads N]");
+            out.println("       [--cache <dir> [--cache-size MB]] caches the result of unchanged sources");
+            out.println("       java PL0 --stream <file.pl0>   writes IntermediateCode.txt holding at most 4096 "
+                    + "instructions in memory");
+            out.println("       java PL0 [-O] --emit-ir <out.pl0ir> <file.pl0>   writes binary IR");
+            out.println("       java PL0 [-O] [--max-iterations N] --asm <out.s> | --native <exe> <file.pl0>   "
+                    + "x86-64 code");
+            out.println("       java PL0 [-O] [--max-iterations N] --c <out.c> | --cc <exe> <file.pl0>   "
+                    + "C code built with cc -O2");
+            out.println("       java PL0 --native-bench <dir> [-O] [--max-iterations N]   compares the backends");
+            out.println("       java PL0 --convert-ir <in> <out>   converts between text and binary IR");
+            out.println("       java PL0 --generate <bytes> <out.pl0> [--seed N] [--depth N] [--expr-depth N] "
+                    + "[--idents N]");
+            out.println("       java PL0 --server [--port N] [--read-timeout S] | --server-stats | --server-stop");
+            return 2;
+        }
+
+        if (buildAst && tableDriven) {
+            out.println("--ast cannot be combined with --ll: only the recursive descent parser builds the AST.");
+            return 2;
+        }
+
+        Path source = workDir.resolve(filePath);
+        try {
+            CompileCache cache = cacheDir == null ? null : CompileCache.open(workDir.resolve(cacheDir), cacheSize);
+            if (batchOut != null) {
+                BatchCompiler batch = new BatchCompiler(source, workDir.resolve(batchOut), optimize, fastLexer,
+                        threads);
+                batch.setCache(cache);
+                batch.setTableDriven(tableDriven);
+                batch.setReuseTemps(reuseTemps);
+                batch.setPeephole(peephole);
+                batch.setLexThreads(lexThreads);
+                batch.setAst(buildAst);
+                boolean ok = batch.run(out);
+                if (sourceBytes != null)
+                    sourceBytes.add(batch.getBytes());
+                return ok ? 0 : 1;
+            }
+            if (convertOut != null) {
+                Path target = workDir.resolve(convertOut);
+                Intermediater ir;
+                if (IrFile.isBinary(source)) {
+                    ir = IrFile.read(source);
+                    try (Writer writer = Files.newBufferedWriter(target)) {
+                        ir.writeCode(writer);
+                    }
+                } else {
+                    ir = IrFile.readText(source);
+                    IrFile.write(ir, target);
+                }
+                out.println("Converted " + ir.size() + " instructions to " + target);
+                return 0;
+            }
+            if (sourceBytes != null)
+                sourceBytes.add(Files.size(source));
+            boolean nativeCode = nativeSource != null || nativeOut != null;
+            if (stream)
+                return compileStreaming(source,
+                        optimize || reuseTemps || peephole || run || irOut != null || cache != null || nativeCode,
+                        tableDriven, buildAst, stats, workDir, out);
+            if (IrFile.isBinary(source)) {
+                // 二进制中间代码：跳过编译，直接执行或输出
+                return output(IrFile.read(source), jvm, run, maxIterations, irOut, nativeSource, nativeOut, cSource,
+                        stats, workDir, out);
+            }
+            if (cache != null && !run && irOut == null && !nativeCode && !jumpStats)
+                return compileCached(source, optimize, reuseTemps, peephole, fastLexer, lexThreads, tableDriven,
+                        buildAst, cache, workDir, out);
+            try (Compiler compiler = Compiler.open(source, fastLexer, lexThreads)) {
+                compiler.setOptimize(optimize);
+                compiler.setReuseTemps(reuseTemps);
+                compiler.setPeephole(peephole);
+                compiler.setTableDriven(tableDriven);
+                compiler.setAst(buildAst ? new Ast() : null);
+                compiler.setStats(stats);
+                if (jumpStats)
+                    compiler.setJumpProfile(maxIterations);
+                if (!compiler.compile()) {
+                    compiler.getErr().print(out);
+                    if (stats != null)
+                        stats.print(out);
+                    return 1;
+                }
+                Intermediater intermediater = compiler.getIntermediater();
+                out.print(compiler.report());
+                return output(intermediater, jvm, run, maxIterations, irOut, nativeSource, nativeOut, cSource, stats,
+                        workDir, out);
+            }
+        } catch (IOException e) {
+            out.println("Cannot read " + e.getMessage());
+            return 2;
+        }
+    }
+
+    // 流式编译：中间代码边生成边写入IntermediateCode.txt，出错时不留下不完整的文件
+    private static int compileStreaming(Path source, boolean unsupported, boolean tableDriven, boolean buildAst,
+                                        CompileStats stats, Path workDir, PrintStream out) throws IOException {
+        if (unsupported) {
+            out.println("--stream only writes IntermediateCode.txt; it cannot be combined with -O, --reuse-temps, "
+                    + "--peephole, --run, --jvm, --emit-ir, --asm, --native, --c, --cc or --cache.");
+            return 2;
+        }
+        Path target = workDir.resolve("IntermediateCode.txt");
+        Path temp = workDir.resolve("IntermediateCode.txt.tmp");
+        // 逐行读入源程序的Lexer：BufferLexer会把整个源文件读入内存
+        try (Compiler compiler = new Compiler(new Lexer(Files.newBufferedReader(source)))) {
+            boolean ok;
+            compiler.setTableDriven(tableDriven);
+            compiler.setAst(buildAst ? new Ast() : null); // 抽象语法树保存整个程序，内存占用不再与程序长度无关
+            compiler.setStats(stats);
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                compiler.setOutput(writer);
+                ok = compiler.compile();
+            }
+            if (!ok) {
+                Files.delete(temp);
+                compiler.getErr().print(out);
+                if (stats != null)
+                    stats.print(out);
+                return 1;
+            }
+            Intermediater ir = compiler.getIntermediater();
+            if (ir.hasSpilledJumps()) {
+                // 第二遍：补上写出时尚未回填的跳转的目标
+                Path patched = workDir.resolve("IntermediateCode.txt.patched");
+                try (BufferedReader reader = Files.newBufferedReader(temp);
+                     Writer writer = Files.newBufferedWriter(patched)) {
+                    ir.patchSpilled(reader, writer);
+                }
+                Files.delete(temp);
+                temp = patched;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            out.println("Streamed " + ir.size() + " instructions to " + target + " (at most "
+                    + ir.getPeakWindow() + " instructions held in memory, " + ir.getSpilledJumps()
+                    + " jumps patched afterwards)");
+            if (stats != null)
+                stats.print(out);
+            return 0;
+        }
+    }
+
+    // 执行中间代码，或者输出其文本（IntermediateCode.txt）、二进制形式（irOut）或本地代码（nativeSource、nativeOut）；
+    // stats不为null时最后输出各阶段的统计
+    private static int output(Intermediater intermediater, boolean jvm, boolean run, long maxIterations,
+                              String irOut, String nativeSource, String nativeOut, boolean cSource,
+                              CompileStats stats, Path workDir, PrintStream out) throws IOException {
+        if (nativeSource != null || nativeOut != null) {
+            int status = writeNative(intermediater, maxIterations, nativeSource, nativeOut, cSource, stats, workDir,
+                    out);
+            if (stats != null)
+                stats.print(out);
+            return status;
+        }
+        if (jvm) {
+            runOnJvm(intermediater, maxIterations, out);
+        } else if (run) {
+            VirtualMachine vm = new VirtualMachine(intermediater);
+            vm.run(maxIterations);
+            vm.printState(out);
+        } else {
+            CompileEvents.Output event = CompileEvents.beginOutput();
+            if (stats != null)
+                stats.begin();
+            Path target = workDir.resolve(irOut != null ? irOut : "IntermediateCode.txt");
+            if (irOut != null)
+                IrFile.write(intermediater, target);
+            else
+                intermediater.ouputCode(target, out);
+            boolean commit = CompileEvents.end(event);
+            long bytes = commit || stats != null || irOut != null ? Files.size(target) : 0;
+            if (commit) {
+                event.format = irOut != null ? "binary" : "text";
+                event.instructions = intermediater.size();
+                event.bytes = bytes;
+                event.commit();
+            }
+            if (stats != null)
+                stats.end(irOut != null ? "output (binary)" : "output (text)", bytes, "bytes");
+            if (irOut != null)
+                out.println("Wrote " + intermediater.size() + " instructions to " + target + " (" + bytes + " bytes)");
+        }
+        if (stats != null)
+            stats.print(out);
+        return 0;
+    }
+
+    // 输出x86-64汇编（cSource为true时为C）源程序；nativeOut不为null时源程序为nativeOut.s（nativeOut.c），
+    // 再用as与ld链接（cc -O2编译）为可执行文件
+    private static int writeNative(Intermediater intermediater, long maxIterations, String nativeSource,
+                                   String nativeOut, boolean cSource, CompileStats stats, Path workDir,
+                                   PrintStream out) throws IOException {
+        String format = cSource ? "C" : "x86-64";
+        CompileEvents.Output event = CompileEvents.beginOutput();
+        if (stats != null)
+            stats.begin();
+        Path source = workDir.resolve(nativeSource != null ? nativeSource : nativeOut + (cSource ? ".c" : ".s"));
+        if (cSource)
+            new CBackend(intermediater, maxIterations).write(source);
+        else
+            new X86Backend(intermediater, maxIterations).write(source);
+        boolean commit = CompileEvents.end(event);
+        long bytes = Files.size(source);
+        if (commit) {
+            event.format = format;
+            event.instructions = intermediater.size();
+            event.bytes = bytes;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end("output (" + format + ")", bytes, "bytes");
+        out.println("Wrote " + intermediater.size() + " instructions to " + source + " (" + bytes + " bytes)");
+        if (nativeOut == null)
+            return 0;
+        Path executable = workDir.resolve(nativeOut);
+        try {
+            if (cSource)
+                CBackend.compile(source, executable);
+            else
+                X86Backend.link(source, executable);
+        } catch (IOException e) {
+            out.println(e.getMessage());
+            return 2;
+        }
+        out.println((cSource ? "Compiled " : "Linked ") + executable);
+        return 0;
+    }
+
+    // 使用编译缓存输出中间代码，命中与否输出都相同（优化步骤的报告与中间代码一起缓存）；
+    // 缓存中只有中间代码的文本，因此--run、--jvm与执行程序统计跳转的--jump-stats不经过缓存；
+    // 是否建立抽象语法树不影响中间代码，因此不是缓存键的一部分
+    private static int compileCached(Path source, boolean optimize, boolean reuseTemps, boolean peephole,
+                                     boolean fastLexer, int lexThreads, boolean tableDriven, boolean buildAst,
+                                     CompileCache cache, Path workDir, PrintStream out) throws IOException {
+        String key = CompileCache.key(Files.readAllBytes(source),
+                Compiler.optionsKey(optimize, tableDriven, reuseTemps, peephole));
+        CompileCache.Entry entry = cache.get(key);
+        if (entry == null) {
+            try (Compiler compiler = Compiler.open(source, fastLexer, lexThreads)) {
+                compiler.setOptimize(optimize);
+                compiler.setReuseTemps(reuseTemps);
+                compiler.setPeephole(peephole);
+                compiler.setTableDriven(tableDriven);
+                compiler.setAst(buildAst ? new Ast() : null);
+                if (compiler.compile()) {
+                    StringWriter code = new StringWriter();
+                    compiler.writeCode(code);
+                    entry = new CompileCache.Entry(true, compiler.report(), code.toString());
+                } else {
+                    entry = new CompileCache.Entry(false, "",
+                            String.join("\n", compiler.getErr().getMessages()) + "\n");
+                }
+                cache.put(key, entry);
+            }
+        }
+        if (!entry.ok) {
+            Err.print(Arrays.asList(entry.text.split("\n")), out);
+            return 1;
+        }
+        Files.write(workDir.resolve("IntermediateCode.txt"), entry.text.getBytes(StandardCharsets.UTF_8));
+        out.print(entry.report);
+        out.print(entry.text);
+        return 0;
+    }
+
+    // 用JVM字节码后端执行，程序过大时退回虚拟机
+    private static void runOnJvm(Intermediater intermediater, long maxIterations, PrintStream out) {
+        JvmBackend backend = new JvmBackend(intermediater);
+        int[] frame = new int[intermediater.varCount()];
+        try {
+            if (!backend.run(frame, maxIterations))
+                out.println(backend.getErrorAddr() >= 0 ? VirtualMachine.runtimeError(backend.getErrorAddr(), false)
+                        : "Stopped: loop iteration limit reached.");
+        } catch (UnsupportedOperationException e) {
+            out.println(e.getMessage() + " Falling back to the virtual machine.");
+            VirtualMachine vm = new VirtualMachine(intermediater);
+            vm.run(maxIterations);
+            vm.printState(out);
+            return;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < frame.length; i++) {
+            out.println(intermediater.varName(i) + " = " + frame[i]);
+        }
+        out.printf("executed in %.3f ms%n", backend.getElapsedNanos() / 1e6);
     }
 }
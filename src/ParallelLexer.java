@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * 【并行词法分析器】
+ * 把整个源程序读入一个char[]，在空白字符处切成若干段：符号中不会出现空白字符（:=、<=、<>、>=也是相邻的两个字符），
+ * 所以这样的切分点总是安全的。各段在ForkJoinPool上分别识别到自己的TokenBuffer中，标识符先进入段内的驻留池；
+ * 之后按顺序拼接：段内编号换成全局编号（仍按首次出现的顺序编号），行号加上之前各段的行数。
+ * getsym依次从缓冲区中取出符号，对语法分析器而言与BufferLexer完全相同；
+ * 数字过长的错误也在取出该符号时才报告，与语法错误的先后顺序不变
+ */
+public class ParallelLexer extends Lexer {
+    // 小于该大小的源程序不切分
+    private static final int MIN_PARALLEL = 1 << 20;
+    // 每段至少的字符数
+    private static final int MIN_CHUNK = 1 << 18;
+    // 段数为线程数的倍数，使各线程的负载均衡
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final char[] buf;
+    private final int length;
+    private final int threads;
+
+    private Chunk[] chunks; // 第一次调用getsym时识别
+    private int chunk = 0; // 当前段
+    private int index = 0; // 当前段中下一个符号的下标
+    private int pendingLong = 0; // 当前段中下一个过长数字在longNumbers中的下标
+    private Chunk current; // 当前符号所在的段，读到文件末尾时为null
+    private int start; // 当前符号的起始位置
+    private int eofLine, eofColumn; // 读到文件末尾时的行号与列号
+    private int line = 1;
+
+    // 复用的符号：终止位置只在取字符串时才计算
+    private final Symbol token = new Symbol() {
+        @Override
+        public String getValue() {
+            return new String(buf, getStart(), getEnd() - getStart());
+        }
+
+        @Override
+        public int getEnd() {
+            return end(getSymtype(), getStart());
+        }
+    };
+
+    // 一段源程序及其识别结果
+    private static class Chunk {
+        final int from, to;
+        final TokenBuffer tokens;
+        final IdentifierPool names = new IdentifierPool(); // 段内的标识符
+        int[] newlines = new int[64]; // 段内换行符的位置
+        int newlineCount = 0;
+        int[] longNumbers = new int[0]; // 过长的数字在tokens中的下标，取出时报告错误
+        int longCount = 0;
+        boolean end = false; // 遇到了文本结束符#
+        int lineOffset; // 段内第一行的行号
+        int lineStart; // 段内第一行的起始位置，可能在之前的段中
+        int[] idMap; // 段内编号到全局编号的映射
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.tokens = new TokenBuffer((to - from) / 2);
+        }
+
+        // 识别[from, to)中的符号，与BufferLexer.getsym的规则相同；行号为段内的换行符个数
+        void scan(char[] b) {
+            int p = from;
+            while (true) {
+                char c = 0;
+                while (p < to && (c = b[p]) <= ' ') {
+                    if (c == '\n')
+                        newline(p);
+                    p++;
+                }
+                if (p >= to)
+                    return;
+                int start = p;
+                if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                    // 关键字或者一般标识符
+                    do {
+                        p++;
+                    } while (p < to && ((c = b[p]) >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'));
+                    int type = BufferLexer.keyword(b, start, p - start);
+                    tokens.add(type, type == Symbol.ident ? names.intern(b, start, p - start) : 0, newlineCount, start);
+                } else if (c >= '0' && c <= '9') {
+                    // 数字
+                    int num = 0;
+                    do {
+                        num = 10 * num + (c - '0');
+                        p++;
+                    } while (p < to && (c = b[p]) >= '0' && c <= '9');
+                    if (p - start > PL0.num_max)
+                        longNumber(tokens.size());
+                    tokens.add(Symbol.number, num, newlineCount, start);
+                } else if (c == '#') {
+                    // 文本结束符，之后的内容都不再识别
+                    tokens.add(Symbol.eof, 0, newlineCount, start);
+                    end = true;
+                    return;
+                } else {
+                    // 操作符：切分点是空白字符，b[to]不会与c组成双字符的操作符
+                    int type = BufferLexer.operator(c, p + 1 < to ? b[p + 1] : '\0');
+                    tokens.add(type, 0, newlineCount, start);
+                    p += BufferLexer.operatorLength(type);
+                }
+            }
+        }
+
+        private void newline(int p) {
+            if (newlineCount == newlines.length)
+                newlines = Arrays.copyOf(newlines, newlineCount * 2);
+            newlines[newlineCount++] = p;
+        }
+
+        private void longNumber(int index) {
+            if (longCount == longNumbers.length)
+                longNumbers = Arrays.copyOf(longNumbers, Math.max(4, longCount * 2));
+            longNumbers[longCount++] = index;
+        }
+
+        // 第line行（全局行号，位于本段中）的起始位置
+        int lineStart(int line) {
+            int local = line - lineOffset;
+            return local == 0 ? lineStart : newlines[local - 1] + 1;
+        }
+    }
+
+    /**
+     * @param threads 词法分析的线程数，不大于1时在调用者的线程中识别
+     */
+    public ParallelLexer(char[] source, int length, int threads) {
+        this.buf = source;
+        this.length = length;
+        this.threads = threads;
+    }
+
+    /**
+     * 读入整个源文件
+     */
+    public static ParallelLexer open(Path path, int threads) throws IOException {
+        CharBuffer chars = BufferLexer.read(path);
+        return new ParallelLexer(chars.array(), chars.limit(), threads);
+    }
+
+    @Override
+    public Symbol getSym() {
+        return token;
+    }
+
+    @Override
+    public int getCurrentLineNumber() {
+        return line;
+    }
+
+    // 列号只在报告错误时才需要，由行的起始位置算出
+    @Override
+    public int getCurrentColumn() {
+        return current == null ? eofColumn : start - current.lineStart(line) + 1;
+    }
+
+    /**
+     * 从缓冲区中取出下一个符号；第一次调用时识别整个源程序
+     */
+    @Override
+    public void getsym() {
+        if (chunks == null)
+            tokenize();
+        while (chunk < chunks.length && index == chunks[chunk].tokens.size()) {
+            chunk++;
+            index = 0;
+            pendingLong = 0;
+        }
+        if (chunk == chunks.length) {
+            current = null;
+            line = eofLine;
+            start = length;
+            token.reset(Symbol.eof, 0, buf, length, length);
+            return;
+        }
+        Chunk c = chunks[chunk];
+        TokenBuffer tokens = c.tokens;
+        int i = index;
+        int type = tokens.type(i);
+        current = c;
+        start = tokens.start(i);
+        line = tokens.line(i);
+        if (type == Symbol.ident) {
+            token.reset(type, 0, buf, start, start);
+            token.setId(tokens.value(i));
+        } else {
+            token.reset(type, tokens.value(i), buf, start, start);
+        }
+        if (type != Symbol.eof) // 停留在文本结束符处，之后总是返回eof
+            index++;
+        if (pendingLong < c.longCount && c.longNumbers[pendingLong] == i) {
+            pendingLong++;
+            err.handleError("数字长度过长！", line, getCurrentColumn());
+        }
+    }
+
+    // 从start开始的type类型的符号的终止位置
+    private int end(int type, int start) {
+        int end = start;
+        char ch;
+        if (type == Symbol.number) {
+            while (end < length && (ch = buf[end]) >= '0' && ch <= '9')
+                end++;
+        } else if (type == Symbol.ident || type >= Symbol.progsym && type <= Symbol.callsym) {
+            while (end < length && ((ch = buf[end]) >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z'
+                    || ch >= '0' && ch <= '9'))
+                end++;
+        } else if (type != Symbol.eof) {
+            end += BufferLexer.operatorLength(type);
+        }
+        return end;
+    }
+
+    // 切分、并行识别并拼接
+    private void tokenize() {
+        List<Chunk> list = new ArrayList<>();
+        int count = threads <= 1 || length < MIN_PARALLEL ? 1
+                : Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, length / MIN_CHUNK));
+        int from = 0;
+        for (int i = 1; i <= count; i++) {
+            // 从均分点向后找到第一个空白字符作为切分点
+            int to = i == count ? length : Math.max(from, (int) ((long) length * i / count));
+            while (to < length && buf[to] > ' ')
+                to++;
+            if (to > from || i == count)
+                list.add(new Chunk(from, to));
+            from = to;
+        }
+        chunks = list.toArray(new Chunk[0]);
+        ForkJoinPool pool = chunks.length > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            forEach(pool, c -> c.scan(buf));
+            stitch(pool);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+    // 按顺序拼接各段：文本结束符之后的段丢弃，标识符换成全局编号，行号加上之前各段的行数
+    private void stitch(ForkJoinPool pool) {
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i].end) {
+                chunks = Arrays.copyOf(chunks, i + 1);
+                break;
+            }
+        }
+        int lineOffset = 1;
+        int lineStart = 0;
+        for (Chunk c : chunks) {
+            // 按段的顺序、段内按编号的顺序驻留，全局编号与顺序识别时相同
+            c.idMap = new int[c.names.size()];
+            for (int id = 0; id < c.idMap.length; id++)
+                c.idMap[id] = names.intern(c.names, id);
+            c.lineOffset = lineOffset;
+            c.lineStart = lineStart;
+            lineOffset += c.newlineCount;
+            if (c.newlineCount > 0)
+                lineStart = c.newlines[c.newlineCount - 1] + 1;
+        }
+        forEach(pool, c -> c.tokens.relocate(c.idMap, c.lineOffset));
+        // 与BufferLexer一致：行号为读到的行数，文件末尾的换行不产生新行，列号为最后一行的长度加1
+        eofLine = lineOffset;
+        if (length == 0 || buf[length - 1] == '\n')
+            eofLine--;
+        int last = length > 0 && buf[length - 1] == '\n' ? length - 1 : length;
+        int start = last;
+        while (start > 0 && buf[start - 1] != '\n')
+            start--;
+        eofColumn = length == 0 ? 0 : last - start + 1;
+    }
+
+    // 对每一段执行action，有线程池时并行执行
+    private void forEach(ForkJoinPool pool, Consumer<Chunk> action) {
+        if (pool == null) {
+            for (Chunk c : chunks)
+                action.accept(c);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Chunk c : chunks)
+            tasks.add(pool.submit(() -> action.accept(c)));
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+    }
+}
@@ -1,27 +1,65 @@
-import java.util.ArrayList;
 import java.util.BitSet;
 
 /**
  * 【PL/0编译器的语法分析器Parser】
  * 采用自上而下的递归子程序法；
  * 并在语法分析的过程中嵌入了语法错误检查和中间代码生成
+ * 出错时采用紧急方式（panic mode）恢复：报告错误后跳过符号直到同步集合中的符号，然后继续分析，
+ * 同步集合由各语法成分的FIRST集合与FOLLOW集合组成
+ * 设置了结点池（setAst）时不直接生成中间代码，而是建立抽象语法树，由AstLowering生成中间代码
  */
 public class Parser {
     private final Lexer lex; // 对词法分析器的引用
     private final Table table; // 对符号表的引用
     private final Intermediater intermediater; // 对中间代码生成器的引用
+    private final Procedures procedures; // 过程说明与过程调用
+    private final Err err; // 错误信息的收集者
 
     // 当前识别到的文法符号，由nextsym()读入
     private Symbol sym;
+    // 已读入的符号个数，用于避免在同一个符号处重复报错
+    private int symCount = 0;
+    private int lastErrorSym = -1;
+    // 是否单独计量词法分析的时间（--stats或JFR的Lex事件开启时）
+    private boolean lexTiming = false;
+    private long lexNanos = 0;
+
+    // 最近一次分析的语句是否为误写在语句中的说明（其结尾的分号已被说明部分读入）
+    private boolean declarationInStatement = false;
+
+    // 最近一次分析的<条件>的真链与假链
+    private int condTrueList, condFalseList;
+
+    // 抽象语法树的结点池，为null时在分析的同时直接生成中间代码
+    private Ast ast;
+    private int astRoot = Ast.NONE; // <程序>的分程序结点
+    private int items = Ast.NONE, itemsTail = Ast.NONE; // 当前分程序说明部分的结点列表
+    private int procNode = Ast.NONE; // 正在分析的过程的结点
+    private int condNode = Ast.NONE; // 最近一次分析的<条件>的结点
 
     // 位图存储语句的first集合
     private final BitSet statement_first;
+    // 说明部分、表达式、因子的first集合
+    private final BitSet declaration_first;
+    private final BitSet expression_first;
+    private final BitSet factor_first;
+    // 各语法成分的follow集合
+    private final BitSet statement_follow;
+    private final BitSet expression_follow;
+    private final BitSet term_follow;
+    private final BitSet factor_follow;
+    // 同步集合：说明部分中的一项出错时跳到下一项或者说明部分之后
+    private final BitSet declaration_sync;
+    // 同步集合：语句出错时跳到语句之后或者下一条以关键字开头的语句
+    private final BitSet statement_sync;
 
     // 构造函数
-    public Parser(Lexer l, Table t, Intermediater i) {
+    public Parser(Lexer l, Table t, Intermediater i, Err e) {
         lex = l;
         table = t;
         intermediater = i;
+        procedures = new Procedures(t, i);
+        err = e;
 
         // statemennt的first集合
         statement_first = new BitSet(Symbol.symnum);
@@ -29,6 +67,36 @@ public class Parser {
         statement_first.set(Symbol.ifsym);
         statement_first.set(Symbol.whilesym);
         statement_first.set(Symbol.beginsym);
+        statement_first.set(Symbol.callsym);
+
+        declaration_first = set(Symbol.constsym, Symbol.varsym, Symbol.procsym);
+        factor_first = set(Symbol.ident, Symbol.number, Symbol.lparen);
+        expression_first = union(factor_first, set(Symbol.plus, Symbol.minus));
+
+        // follow(语句) = {; END #}，if和while的循环体与所在语句有相同的follow
+        statement_follow = set(Symbol.semicolon, Symbol.endsym, Symbol.eof);
+        // follow(表达式) = follow(语句) ∪ {) THEN DO} ∪ 关系运算符
+        expression_follow = union(statement_follow, set(Symbol.rparen, Symbol.thensym, Symbol.dosym));
+        expression_follow.set(Symbol.eql, Symbol.geq + 1);
+        term_follow = union(expression_follow, set(Symbol.plus, Symbol.minus));
+        factor_follow = union(term_follow, set(Symbol.times, Symbol.slash));
+
+        declaration_sync = union(declaration_first, set(Symbol.comma, Symbol.semicolon, Symbol.beginsym,
+                Symbol.ifsym, Symbol.whilesym, Symbol.eof));
+        statement_sync = union(statement_follow, set(Symbol.beginsym, Symbol.ifsym, Symbol.whilesym, Symbol.callsym));
+    }
+
+    private static BitSet set(int... symtypes) {
+        BitSet s = new BitSet(Symbol.symnum);
+        for (int symtype : symtypes)
+            s.set(symtype);
+        return s;
+    }
+
+    private static BitSet union(BitSet a, BitSet b) {
+        BitSet s = (BitSet) a.clone();
+        s.or(b);
+        return s;
     }
 
     // 启动语法分析过程，必须先调用一次nextsym()
@@ -37,10 +105,69 @@ public class Parser {
         program();
     }
 
+    /**
+     * 建立抽象语法树而不直接生成中间代码，结点存放在ast中（调用者负责清空）；为null时恢复直接生成
+     */
+    public void setAst(Ast ast) {
+        this.ast = ast;
+    }
+
+    // 最近一次分析的<程序>的分程序结点
+    public int getAstRoot() {
+        return astRoot;
+    }
+
+    // 新建当前行的结点
+    private int node(int kind, int value, int left, int right) {
+        return ast.add(kind, value, left, right, lex.getCurrentLineNumber());
+    }
+
+    // 把结点加入当前分程序的说明部分
+    private void addItem(int node) {
+        itemsTail = ast.append(itemsTail, node);
+        if (items == Ast.NONE)
+            items = node;
+    }
+
     // 获得下一个语法符号
     public void nextsym() {
-        lex.getsym();
+        if (lexTiming) {
+            long start = System.nanoTime();
+            lex.getsym();
+            lexNanos += System.nanoTime() - start;
+        } else {
+            lex.getsym();
+        }
         sym = lex.getSym();
+        symCount++;
+    }
+
+    public void setLexTiming(boolean lexTiming) {
+        this.lexTiming = lexTiming;
+    }
+
+    // 词法分析所用的时间，只在setLexTiming(true)时计量
+    public long getLexNanos() {
+        return lexNanos;
+    }
+
+    // 已读入的符号个数
+    public int getTokenCount() {
+        return symCount;
+    }
+
+    // 在当前符号处报告错误；同一个符号处只报告第一个错误，避免恢复过程中产生连锁的错误信息
+    private void error(String errorMsg) {
+        if (symCount == lastErrorSym)
+            return;
+        lastErrorSym = symCount;
+        err.handleError(errorMsg, lex.getCurrentLineNumber(), lex.getCurrentColumn());
+    }
+
+    // 跳过符号，直到遇到sync中的符号或者文件结束
+    private void skipTo(BitSet sync) {
+        while (!sync.get(sym.getSymtype()) && sym.getSymtype() != Symbol.eof)
+            nextsym();
     }
 
     /**
@@ -48,12 +175,13 @@ public class Parser {
      */
     public void program() {
 
-        if (sym.getSymtype() == Symbol.progsym) {
-            programHeader();// P (programHeader)
-            subprogram();// P (subprogram)
-        } else {
-            Err.handleError("Expected 'PROGRAM' keyword.", lex.getCurrentLineNumber());
+        if (sym.getSymtype() != Symbol.progsym) {
+            error("Expected 'PROGRAM' keyword.");
+            skipTo(union(declaration_sync, set(Symbol.progsym)));
         }
+        if (sym.getSymtype() == Symbol.progsym)
+            programHeader();// P (programHeader)
+        astRoot = subprogram();// P (subprogram)
     }
 
     /**
@@ -64,24 +192,29 @@ public class Parser {
         if (sym.getSymtype() == Symbol.progsym) {
             nextsym();
         } else {
-            Err.handleError("Expected 'PROGRAM' keyword.", lex.getCurrentLineNumber());
+            error("Expected 'PROGRAM' keyword.");
         }
 
         // P (identifier)
         if (sym.getSymtype() == Symbol.ident) {
             nextsym();
         } else {
-            Err.handleError("Invalid program_header(identifier).", lex.getCurrentLineNumber());
+            error("Invalid program_header(identifier).");
         }
     }
 
     /**
-     * 分析<分程序>
-     * <分程序>→[<常量说明>][<变量说明>]<语句>
+     * 分析<分程序>，建立抽象语法树时返回分程序结点
+     * <分程序>→[<常量说明>][<变量说明>]{<过程说明>}<语句>
      */
-    public void subprogram() {
+    public int subprogram() {
         // 为产生式右部的语句statement创建一个s_nextList
-        ArrayList<Integer> s_nextList = intermediater.makeList();
+        int s_nextList = intermediater.makeList();
+        // 跳过过程代码的跳转
+        int skipList = intermediater.makeList();
+        // 外层分程序的说明部分
+        int outerItems = items, outerItemsTail = itemsTail;
+        items = itemsTail = Ast.NONE;
 
         // P (constdeclaration)
         if (sym.getSymtype() == Symbol.constsym) {
@@ -91,13 +224,107 @@ public class Parser {
         if (sym.getSymtype() == Symbol.varsym) {
             varDeclaration();
         }
-        // P (statement)
+        // P (procedureDeclaration)
+        while (sym.getSymtype() == Symbol.procsym) {
+            if (ast == null)
+                skipList = procedures.skip(skipList);
+            procedureDeclaration();
+        }
+        // 次序错误的说明：报错后仍然分析，使其中的标识符登记到符号表，后面的语句不再连锁报错
+        while (declaration_first.get(sym.getSymtype())) {
+            error("Exist subprogram error.");
+            if (sym.getSymtype() == Symbol.procsym && ast == null)
+                skipList = procedures.skip(skipList);
+            declaration();
+        }
+        if (ast == null)
+            procedures.body(skipList);
+        else if (procNode != Ast.NONE)
+            ast.setRight(procNode, table.slotCount()); // 过程的槽位已经分配完毕
+        // P (statement)，过程体可以为空
+        if (!statement_first.get(sym.getSymtype()) && sym.getSymtype() != Symbol.eof
+                && !(table.level() > 0 && sym.getSymtype() == Symbol.semicolon)) {
+            error("Exist subprogram error.");
+            skipTo(statement_sync);
+        }
+        int body = Ast.NONE;
         if (statement_first.get(sym.getSymtype()))
-            statement(s_nextList);
-        else if (sym.getSymtype() == Symbol.eof)
-            return;
+            body = statement(s_nextList);
+
+        int block = ast == null ? Ast.NONE : node(Ast.BLOCK, 0, items, body);
+        items = outerItems;
+        itemsTail = outerItemsTail;
+        return block;
+    }
+
+    // 分析一个常量说明、变量说明或者过程说明
+    private void declaration() {
+        if (sym.getSymtype() == Symbol.constsym)
+            constDeclaration();
+        else if (sym.getSymtype() == Symbol.varsym)
+            varDeclaration();
         else
-            Err.handleError("Exist subprogram error.", lex.getCurrentLineNumber());
+            procedureDeclaration();
+    }
+
+    /**
+     * 分析<过程说明>
+     * <过程说明>→PROCEDURE<标识符>;<分程序>;
+     */
+    public void procedureDeclaration() {
+        int id = -1;
+        int proc = Ast.NONE;
+        // P (PROCEDURE)
+        nextsym();
+        if (ast != null) {
+            proc = node(Ast.PROC, 0, Ast.NONE, 0);
+            addItem(proc);
+        }
+
+        // P (identifier)
+        if (sym.getSymtype() == Symbol.ident) {
+            boolean declared = ast == null ? procedures.declare(sym.getId())
+                    : table.addItem(sym.getId(), Table.Kind.PROCEDURE);
+            if (declared) {
+                id = sym.getId();
+                if (ast != null)
+                    table.setValue(id, proc); // 建立抽象语法树时过程名的值为过程结点
+            } else {
+                error("Procedure identifier repeat.");
+            }
+            nextsym();
+        } else {
+            error("Expected identifier after PROCEDURE.");
+        }
+
+        // P (semicolon)
+        if (sym.getSymtype() == Symbol.semicolon) {
+            nextsym();
+        } else {
+            error("Expected semicolon ';' after the procedure name.");
+        }
+
+        // P (subprogram)
+        if (ast == null) {
+            procedures.enter(id);
+            subprogram();
+            procedures.exit();
+        } else {
+            int outerProc = procNode;
+            procNode = proc;
+            ast.setValue(proc, table.slotCount());
+            table.enterScope(id);
+            ast.setLeft(proc, subprogram());
+            table.exitScope();
+            procNode = outerProc;
+        }
+
+        // P (semicolon)
+        if (sym.getSymtype() == Symbol.semicolon) {
+            nextsym();
+        } else {
+            error("Expected semicolon ';' after the procedure body.");
+        }
     }
 
     /**
@@ -108,7 +335,7 @@ public class Parser {
         if (sym.getSymtype() == Symbol.constsym) {
             nextsym();
         } else {
-            Err.handleError("Expected 'CONST' keyword.", lex.getCurrentLineNumber());
+            error("Expected 'CONST' keyword.");
         }
 
         // P (constDefinition)
@@ -123,7 +350,10 @@ public class Parser {
         if (sym.getSymtype() == Symbol.semicolon) {
             nextsym();
         } else {
-            Err.handleError("Expected semicolon ';' after constant definition.", lex.getCurrentLineNumber());
+            error("Expected semicolon ';' after constant definition.");
+            skipTo(union(statement_first, declaration_sync));
+            if (sym.getSymtype() == Symbol.semicolon)
+                nextsym();
         }
     }
 
@@ -131,36 +361,47 @@ public class Parser {
      * 分析<常量定义>
      */
     public void constDefinition() {
-        String id = "", op = "", num = "";
+        int id;
+        int num = 0;
 
         // P (identifier)
         if (sym.getSymtype() == Symbol.ident) {
-            id = sym.getValue();
-            if (!table.addItem(id, "Constant"))
-                Err.handleError("Constant identifier repeat.", lex.getCurrentLineNumber());
+            id = sym.getId();
+            if (!table.addItem(id, Table.Kind.CONSTANT))
+                error("Constant identifier repeat.");
+            if (!intermediater.foldConstants)
+                table.allocateSlot(id); // 不做常量折叠时常量在运行时也占一个槽位
             nextsym();
         } else {
-            Err.handleError("Expected identifier after CONST.", lex.getCurrentLineNumber());
+            error("Expected identifier after CONST.");
+            skipTo(declaration_sync);
+            return;
         }
 
-        // P (assign)
-        if (sym.getSymtype() == Symbol.assign) {
-            op = sym.getValue();
+        // P (assign)，把'='当作':='的笔误
+        if (sym.getSymtype() == Symbol.assign || sym.getSymtype() == Symbol.eql) {
+            if (sym.getSymtype() == Symbol.eql)
+                error("Expected assign ':=' in the constant definition.");
             nextsym();
         } else {
-            Err.handleError("Expected assign ':=' in the constant definition.", lex.getCurrentLineNumber());
+            error("Expected assign ':=' in the constant definition.");
         }
 
         // P (number)
         if (sym.getSymtype() == Symbol.number) {
-            num = Integer.toString(sym.getNum());
+            num = sym.getNum();
             nextsym();
         } else {
-            Err.handleError("Expected an unsigned_int in the constant definition.", lex.getCurrentLineNumber());
-        }
-        String code = Integer.toString(intermediater.nextStat) + ":	" + id + op + num;
-        intermediater.emit(code);
-        intermediater.nextStat++;
+            error("Expected an unsigned_int in the constant definition.");
+            skipTo(declaration_sync);
+        }
+        table.setValue(id, num); // 符号表记录常量的值
+        // 开启常量折叠时常量在编译期直接替换，不再生成运行时赋值
+        if (ast != null)
+            addItem(node(Ast.CONST_INIT, intermediater.foldConstants ? -1 : table.getSlot(id), Ast.NONE, num));
+        else if (!intermediater.foldConstants)
+            intermediater.emit(OpCode.assign, intermediater.constant(num), Intermediater.NONE,
+                    intermediater.var(table.getSlot(id)));
     }
 
     /**
@@ -171,233 +412,284 @@ public class Parser {
         if (sym.getSymtype() == Symbol.varsym) {
             nextsym();
         } else {
-            Err.handleError("Expected 'VAR' in the variable definition.", lex.getCurrentLineNumber());
+            error("Expected 'VAR' in the variable definition.");
         }
 
         // P (identifier)
-        if (sym.getSymtype() == Symbol.ident) {
-            if (!table.addItem(sym.getValue(), "Variable"))
-                Err.handleError("Variable identifier repeat.", lex.getCurrentLineNumber());
-            nextsym();
-        } else {
-            Err.handleError("Invalid identifier in the variable definition.", lex.getCurrentLineNumber());
-        }
+        varIdentifier();
 
         while (sym.getSymtype() == Symbol.comma) {
             nextsym();
-            // P (identifier)
-            if (sym.getSymtype() == Symbol.ident) {
-                if (!table.addItem(sym.getValue(), "Variable"))
-                    Err.handleError("Variable identifier repeat.", lex.getCurrentLineNumber());
-                nextsym();
-            } else {
-                Err.handleError("Invalid identifier in the variable definition.", lex.getCurrentLineNumber());
-            }
+            varIdentifier();// P (identifier)
         }
 
         // P (semicolon)
         if (sym.getSymtype() == Symbol.semicolon) {
             nextsym();
         } else {
-            Err.handleError("Expected semicolon ';' in the variable definition.", lex.getCurrentLineNumber());
+            error("Expected semicolon ';' in the variable definition.");
+            skipTo(union(statement_first, declaration_sync));
+            if (sym.getSymtype() == Symbol.semicolon)
+                nextsym();
+        }
+    }
+
+    // 分析变量说明中的一个标识符
+    private void varIdentifier() {
+        if (sym.getSymtype() == Symbol.ident) {
+            if (!table.addItem(sym.getId(), Table.Kind.VARIABLE)) // 按声明顺序分配槽位
+                error("Variable identifier repeat.");
+            nextsym();
+        } else {
+            error("Invalid identifier in the variable definition.");
+            skipTo(declaration_sync); // 不在标识符处停下，以免把非法单词的剩余部分当作下一个变量
         }
     }
 
     /**
      * 分析<复合语句>
      */
-    public void compoundStatement() {
+    public int compoundStatement() {
         // 为产生式右部的语句statement创建一个s_nextList
-        ArrayList<Integer> s_nextList = intermediater.makeList();
+        int s_nextList = intermediater.makeList();
+        int first = Ast.NONE, last = Ast.NONE;
 
         // P(BEGIN)
         if (sym.getSymtype() == Symbol.beginsym) {
             nextsym();
         } else {
-            Err.handleError("Expected 'BEGIN' keyword.", lex.getCurrentLineNumber());
+            error("Expected 'BEGIN' keyword.");
         }
 
         // P(statement)
-        statement(s_nextList);
+        int s = statement(s_nextList);
+        if (s != Ast.NONE)
+            first = last = s;
 
-        while (sym.getSymtype() == Symbol.semicolon) {
-            nextsym();
-            statement(s_nextList);// P (statement)
+        // 语句之间缺少分号时报错，并当作有分号继续分析；其他多余的符号报错后跳到下一个语句继续分析
+        while (sym.getSymtype() != Symbol.endsym && sym.getSymtype() != Symbol.eof) {
+            if (sym.getSymtype() == Symbol.semicolon) {
+                nextsym();
+            } else if (!statement_first.get(sym.getSymtype())) {
+                error("Error in compoundStatement: ';' expected.");
+                skipTo(statement_sync);
+                continue;
+            } else if (!declarationInStatement) {
+                error("Error in compoundStatement: ';' expected.");
+            }
+            s = statement(s_nextList);// P (statement)
+            if (s != Ast.NONE) {
+                last = ast.append(last, s);
+                if (first == Ast.NONE)
+                    first = s;
+            }
         }
 
         // P (END)
         if (sym.getSymtype() == Symbol.endsym) {
             nextsym();
         } else {
-            Err.handleError("Error in compoundStatement: 'END' keyword expected.", lex.getCurrentLineNumber());
+            error("Error in compoundStatement: 'END' keyword expected.");
         }
+        return ast == null ? Ast.NONE : node(Ast.COMPOUND, 0, first, Ast.NONE);
     }
 
     /**
-     * 分析<语句>
+     * 分析<语句>，建立抽象语法树时返回语句结点（空语句为Ast.NONE）
      */
-    public void statement(ArrayList<Integer> nextList) {
-
+    public int statement(int nextList) {
+        declarationInStatement = false;
         switch (sym.getSymtype()) {
             case Symbol.ident:
-                assignStatement();
-                break;
+                return assignStatement();
             case Symbol.ifsym:
-                ifStatement(nextList);
-                break;
+                return ifStatement(nextList);
             case Symbol.beginsym:
-                compoundStatement();
-                break;
+                return compoundStatement();
             case Symbol.whilesym:
-                whileStatement(nextList);
-                break;
+                return whileStatement(nextList);
+            case Symbol.callsym:
+                return callStatement();
             default:
-                if (sym.getSymtype() == Symbol.semicolon || sym.getSymtype() == Symbol.endsym
-                        || sym.getSymtype() == Symbol.eof) {
-                    return;
+                if (statement_follow.get(sym.getSymtype())) {
+                    return Ast.NONE;
+                } else if (declaration_first.get(sym.getSymtype())) {
+                    // 语句中出现的说明：报错后仍然登记其中的标识符
+                    error("Error in statement.");
+                    declaration();
+                    declarationInStatement = true;
                 } else {
-                    Err.handleError("Error in statement.", lex.getCurrentLineNumber());
+                    error("Error in statement.");
+                    skipTo(statement_sync);
                 }
-                break;
+                return Ast.NONE;
         }
     }
 
     /**
      * 分析<赋值语句>
      */
-    public void assignStatement() {
-        String code, left = "", op = "", right = "";
+    public int assignStatement() {
+        int left = 0;
+        int right;
         // P (identifier)
         if (sym.getSymtype() == Symbol.ident) {
+            left = sym.getId();
             // 错误处理1：标识符未定义
-            if (table.lookup(sym.getValue())) {
-                left = sym.getValue();
-                nextsym();
-            } else {
-                Err.handleError("Error in assignStatement: Identifier [" + sym.getValue() + "] undefined!",
-                        lex.getCurrentLineNumber());
+            if (!table.lookup(left)) {
+                error("Error in assignStatement: Identifier [" + sym.getValue() + "] undefined!");
             }
             // 错误处理2：常量不能修改
-            if (table.getType(left) == "Constant") {
-                Err.handleError("Constant identifier [" + left + "] can't be modified.", lex.getCurrentLineNumber());
+            else if (table.getKind(left) == Table.Kind.CONSTANT) {
+                error("Constant identifier [" + table.name(left) + "] can't be modified.");
             }
+            // 错误处理3：过程名不能赋值
+            else if (table.getKind(left) == Table.Kind.PROCEDURE) {
+                error("Procedure identifier [" + table.name(left) + "] can't be assigned.");
+            }
+            nextsym();
         } else {
-            Err.handleError("Error in assignStatement: Identifier expected.", lex.getCurrentLineNumber());
+            error("Error in assignStatement: Identifier expected.");
         }
 
-        // P(assign)
+        // P(assign)，把'='当作':='的笔误
         if (sym.getSymtype() == Symbol.assign) {
-            op = sym.getValue();
             nextsym();
         } else {
-            Err.handleError("Error in assignStatement: ':=' expected.", lex.getCurrentLineNumber());
+            error("Error in assignStatement: ':=' expected.");
+            if (sym.getSymtype() == Symbol.eql)
+                nextsym();
         }
 
         // P(expression)
         right = expression();
 
-        code = Integer.toString(intermediater.nextStat) + ":	" + left + op + right;
-        intermediater.emit(code);
-        intermediater.nextStat++;
+        if (ast != null)
+            return node(Ast.ASSIGN, table.getSlot(left), right, Ast.NONE);
+        intermediater.emit(OpCode.assign, right, Intermediater.NONE, intermediater.var(table.getSlot(left)));
+        return Ast.NONE;
     }
 
     /**
-     * 分析<表达式>
+     * 分析<过程调用语句>
+     * <过程调用语句>→CALL<标识符>
      */
-    public String expression() {
-        String code;
-        String value = "";
-        String temp1 = "", temp2 = "", temp;
-        String op;
-        String prefix = "";
+    public int callStatement() {
+        int call = Ast.NONE;
+        // P (CALL)
+        nextsym();
+
+        // P (identifier)
+        if (sym.getSymtype() == Symbol.ident) {
+            int id = sym.getId();
+            if (!table.lookup(id))
+                error("Error in callStatement: Procedure [" + sym.getValue() + "] undefined!");
+            else if (table.getKind(id) != Table.Kind.PROCEDURE)
+                error("Error in callStatement: [" + table.name(id) + "] is not a procedure.");
+            else if (ast != null)
+                call = node(Ast.CALL, table.getValue(id), Ast.NONE, Ast.NONE);
+            else
+                procedures.call(id);
+            nextsym();
+        } else {
+            error("Error in callStatement: Identifier expected.");
+        }
+        return call;
+    }
+
+    /**
+     * 分析<表达式>，返回保存表达式值的操作数（建立抽象语法树时返回表达式结点）
+     */
+    public int expression() {
+        int value;
+        int temp2;
+        int op;
+        int prefix = Symbol.nul;
 
         // P(zhegnfu)分析[+|-]
         if (sym.getSymtype() == Symbol.plus || sym.getSymtype() == Symbol.minus) {
-            prefix = sym.getValue();
+            prefix = sym.getSymtype();
             nextsym();
         }
 
         // P(term) 分析项
-        if (sym.getSymtype() == Symbol.ident || sym.getSymtype() == Symbol.number
-                || sym.getSymtype() == Symbol.lparen) {
-            value = term();
-        }
-        if (!prefix.isEmpty()) {
-            temp1 = intermediater.newTempVar();
-            code = Integer.toString(intermediater.nextStat) + ":	" + temp1 + ":=" + prefix + value;
-            intermediater.emit(code);
-            intermediater.nextStat++;
-            value = temp1;
+        value = term();
+        if (prefix != Symbol.nul) {
+            int unary = prefix == Symbol.plus ? OpCode.pos : OpCode.neg;
+            value = ast != null ? node(Ast.UNARY, unary, value, Ast.NONE) : intermediater.emitUnary(unary, value);
         }
 
         // 分析{<加法运算符><项>}
         while (sym.getSymtype() == Symbol.plus || sym.getSymtype() == Symbol.minus) {
-            op = sym.getValue();
+            op = sym.getSymtype() == Symbol.plus ? OpCode.add : OpCode.sub;
             nextsym();
 
             // P(term)
             temp2 = term();
 
-            temp = intermediater.newTempVar();
-            code = Integer.toString(intermediater.nextStat) + ":	" + temp + ":=" + value + op + temp2;
-            intermediater.emit(code);
-            intermediater.nextStat++;
-            value = temp;
+            value = ast != null ? node(Ast.BINARY, op, value, temp2) : intermediater.emitBinary(op, value, temp2);
         }
 
         return value;
     }
 
     /**
-     * 分析<项>
+     * 分析<项>，返回保存项的值的操作数
      */
-    public String term() {
-        String op;
-        String temp1 = "", temp2 = "", temp;
-        String code;
+    public int term() {
+        int op;
+        int temp1 = Intermediater.NONE, temp2;
 
         // P(factor)
-        if (sym.getSymtype() == Symbol.ident || sym.getSymtype() == Symbol.number
-                || sym.getSymtype() == Symbol.lparen) {
+        if (!factor_first.get(sym.getSymtype())) {
+            error("Error in term: Factor expected.");
+            skipTo(union(factor_first, term_follow));
+        }
+        if (factor_first.get(sym.getSymtype())) {
             temp1 = factor();
-        } else {
-            Err.handleError("Error in term: Factor expected.", lex.getCurrentLineNumber());
         }
 
         // 分析{<乘除运算符><因子>}
         while (sym.getSymtype() == Symbol.times || sym.getSymtype() == Symbol.slash) {
-            op = sym.getValue();
+            op = sym.getSymtype() == Symbol.times ? OpCode.mul : OpCode.div;
             nextsym();
 
             // P(factor)
             temp2 = factor();
 
-            temp = intermediater.newTempVar();
-            code = Integer.toString(intermediater.nextStat) + ":	" + temp + ":=" + temp1 + op + temp2;
-            intermediater.emit(code);
-            intermediater.nextStat++;
-            temp1 = temp;
+            temp1 = ast != null ? node(Ast.BINARY, op, temp1, temp2) : intermediater.emitBinary(op, temp1, temp2);
         }
         return temp1;
     }
 
     /**
-     * 分析<因子>
+     * 分析<因子>，返回保存因子的值的操作数
      */
-    public String factor() {
-        String result = "";
+    public int factor() {
+        int result = Intermediater.NONE;
         // P(ident)
         if (sym.getSymtype() == Symbol.ident) {
-            result = sym.getValue();
             // 错误处理
-            if (!table.lookup(sym.getValue()))
-                Err.handleError("Identifier [" + result + "] undefined!", lex.getCurrentLineNumber());
+            int id = sym.getId();
+            if (!table.lookup(id))
+                error("Identifier [" + sym.getValue() + "] undefined!");
+            else if (table.getKind(id) == Table.Kind.PROCEDURE)
+                error("Procedure identifier [" + table.name(id) + "] can't be used in an expression.");
+            boolean folded = intermediater.foldConstants && table.getKind(id) == Table.Kind.CONSTANT;
+            if (ast != null)
+                result = folded ? node(Ast.NUM, table.getValue(id), Ast.NONE, Ast.NONE)
+                        : node(Ast.VAR, table.getSlot(id), Ast.NONE, Ast.NONE);
+            else if (folded)
+                result = intermediater.constant(table.getValue(id)); // 常量传播
+            else
+                result = intermediater.var(table.getSlot(id));
             nextsym();
         }
 
         // P(number)
         else if (sym.getSymtype() == Symbol.number) {
-            result = Integer.toString(sym.getNum());
+            result = ast != null ? node(Ast.NUM, sym.getNum(), Ast.NONE, Ast.NONE)
+                    : intermediater.constant(sym.getNum());
             nextsym();
         }
 
@@ -408,10 +700,11 @@ public class Parser {
             if (sym.getSymtype() == Symbol.rparen) {
                 nextsym();
             } else {
-                Err.handleError("Error in factor: right-paren expected.", lex.getCurrentLineNumber());
+                error("Error in factor: right-paren expected.");
             }
         } else {
-            Err.handleError("Error in factor.", lex.getCurrentLineNumber());
+            error("Error in factor.");
+            skipTo(factor_follow);
         }
         return result;
     }
@@ -420,22 +713,24 @@ public class Parser {
      * 分析<条件语句>
      * Condition_statement -> IF Condition THEN (M1) Statement (M2)
      */
-    public void ifStatement(ArrayList<Integer> nextList) {
+    public int ifStatement(int nextList) {
         int M1, M2;
-        ArrayList<Integer> trueList = intermediater.makeList();
-        ArrayList<Integer> falseList = intermediater.makeList();
+        int trueList, falseList;
         // 为产生式右部的语句statement创建一个s_nextList
-        ArrayList<Integer> s_nextList = intermediater.makeList();
+        int s_nextList = intermediater.makeList();
 
         // P(if)
         if (sym.getSymtype() == Symbol.ifsym) {
             nextsym();
         } else {
-            Err.handleError("Error in ifStatement: 'IF' keyword expected.", lex.getCurrentLineNumber());
+            error("Error in ifStatement: 'IF' keyword expected.");
         }
 
         // P(condition)
-        condition(trueList, falseList);
+        condition();
+        int cond = condNode;
+        trueList = condTrueList;
+        falseList = condFalseList;
         M1 = intermediater.nextStat;
         intermediater.BackPatch(trueList, M1); // 回填trueList地址:此时nextStat一定为M1.quard
 
@@ -443,94 +738,112 @@ public class Parser {
         if (sym.getSymtype() == Symbol.thensym) {
             nextsym();
         } else {
-            Err.handleError("Error in ifStatement: 'THEN' keyword expected.", lex.getCurrentLineNumber());
+            error("Error in ifStatement: 'THEN' keyword expected.");
         }
 
         // P(statement)
-        statement(s_nextList);
+        int body = statement(s_nextList);
+        if (ast != null)
+            return node(Ast.IF, 0, cond, body);
         M2 = intermediater.nextStat;
         intermediater.BackPatch(falseList, M2); // 回填E.falseList地址:此时nextStat一定为M2.quard
 
         nextList = intermediater.merge(falseList, s_nextList); // 合并链
+        return Ast.NONE;
     }
 
     /**
      * 分析<条件>
+     * 生成一条条件跳转（真出口）和一条无条件跳转（假出口），真链和假链分别记录在condTrueList和condFalseList中；
+     * 建立抽象语法树时只把条件结点记录在condNode中
      */
-    public void condition(ArrayList<Integer> trueList, ArrayList<Integer> falseList) {
-        String code, left = "", op = "", right = "";
+    public void condition() {
+        int left = Intermediater.NONE, op = OpCode.jeq, right = Intermediater.NONE;
 
         // P(expression)
-        if (sym.getSymtype() == Symbol.plus || sym.getSymtype() == Symbol.minus || sym.getSymtype() == Symbol.ident
-                || sym.getSymtype() == Symbol.number
-                || sym.getSymtype() == Symbol.lparen) {
+        if (expression_first.get(sym.getSymtype())) {
             left = expression();
         } else {
-            Err.handleError("Error in condition: expression expected.", lex.getCurrentLineNumber());
+            error("Error in condition: expression expected.");
+            skipTo(expression_follow);
         }
 
         // P(operator)
         if (sym.getSymtype() >= 8 && sym.getSymtype() <= 13) {
-            op = sym.getValue();// 获取关系运算符具体的符号
+            op = OpCode.fromRelation(sym.getSymtype());// 获取关系运算符对应的条件跳转
             nextsym();
+            // P(expression)
+            right = expression();
         } else {
-            Err.handleError("Error in condition: relational operator expected.", lex.getCurrentLineNumber());
+            error("Error in condition: relational operator expected.");
+            if (expression_first.get(sym.getSymtype()))
+                right = expression();
         }
 
-        // P(expression)
-        right = expression();
-
-        trueList.add(intermediater.nextStat); // 写死，真链一定在nextStat+2
-        falseList.add(intermediater.nextStat + 1);
-
-        code = Integer.toString(intermediater.nextStat) + ":    if " + left + op + right + " goto "; // 待回填：true
-        intermediater.emit(code);
-        intermediater.nextStat++;
-        intermediater.emit(Integer.toString(intermediater.nextStat) + ":    goto "); // 待回填：false
-        intermediater.nextStat++;
+        if (ast != null) {
+            condNode = node(Ast.COND, op, left, right);
+            condTrueList = condFalseList = Intermediater.EMPTY;
+            return;
+        }
+        int known = intermediater.foldCondition(op, left, right);
+        if (known < 0) {
+            // 写死，真链一定在nextStat，假链一定在nextStat+1
+            condTrueList = intermediater.makeList(intermediater.emit(op, left, right, Intermediater.EMPTY)); // 待回填：true
+            condFalseList = intermediater.makeList(
+                    intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY)); // 待回填：false
+        } else {
+            // 条件在编译期即可确定：只生成一条无条件跳转，另一个出口的链为空
+            int exit = intermediater.makeList(
+                    intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+            condTrueList = known == 1 ? exit : intermediater.makeList();
+            condFalseList = known == 1 ? intermediater.makeList() : exit;
+        }
     }
 
     /**
      * 分析<循环语句>
      * Loop_statement -> WHILE (M1)Condition DO (M2)Statement (M3)
      */
-    public void whileStatement(ArrayList<Integer> nextList) {
+    public int whileStatement(int nextList) {
         int M1 = 0, M2 = 0, M3;
-        ArrayList<Integer> trueList = intermediater.makeList();
-        ArrayList<Integer> falseList = intermediater.makeList();
+        int trueList, falseList;
         // 为产生式右部的语句statement创建一个s_nextList
-        ArrayList<Integer> s_nextList = intermediater.makeList();
+        int s_nextList = intermediater.makeList();
 
         // P(while)
         if (sym.getSymtype() == Symbol.whilesym) {
             nextsym();
         } else {
-            Err.handleError("Error in whileStatement: 'WHILE' keyword expected.", lex.getCurrentLineNumber());
+            error("Error in whileStatement: 'WHILE' keyword expected.");
         }
 
         // P(condition)
         M1 = intermediater.nextStat;
-        condition(trueList, falseList);
+        condition();
+        int cond = condNode;
+        trueList = condTrueList;
+        falseList = condFalseList;
 
         // P(do)
         if (sym.getSymtype() == Symbol.dosym) {
             nextsym();
         } else {
-            Err.handleError("Error in whileStatement: 'DO' keyword expected.", lex.getCurrentLineNumber());
+            error("Error in whileStatement: 'DO' keyword expected.");
         }
 
         // P(statement)
+        if (ast != null)
+            return node(Ast.WHILE, 0, cond, statement(s_nextList));
         M2 = intermediater.nextStat;
+        intermediater.BackPatch(trueList, M2); // 真出口在分析循环体之前即可回填，流式输出时不必保留整个循环体
         statement(s_nextList);
 
         M3 = intermediater.nextStat + 1;
         intermediater.BackPatch(nextList, M1);
-        intermediater.BackPatch(trueList, M2);
         intermediater.BackPatch(falseList, M3); // 回填E.falseList地址:此时nextStat一定为M3.quard
         nextList = falseList;
 
-        String code = Integer.toString(intermediater.nextStat) + ":    goto " + Integer.toString(M1);
-        intermediater.emit(code);
-        intermediater.nextStat++;
+        intermediater.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, M1);
+        return Ast.NONE;
     }
 }
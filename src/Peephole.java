@@ -0,0 +1,457 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 【窥孔优化】
+ * 在基本块内用滑动窗口匹配RULES中的改写规则，反复扫描直到没有规则可用，再删除不再被使用的临时变量；
+ * 同一个窗口按书写的次序尝试各条规则，第一条匹配的规则生效。
+ * 规则写作"模式 => 替换"，两边都是以;分隔的代码，记号之间以空格分隔：
+ * r := a、r := - a、r := a * b，运算符可以是 + - * / <<，@匹配任意一元或二元运算，替换中为匹配到的运算；
+ * 名字匹配任意操作数，同一个名字匹配同一个操作数；整数只匹配该常数；$t匹配只在窗口中使用的临时变量；
+ * p2:c匹配不小于4的2的幂，替换中log2:c为它的指数。
+ * 窗口中前面的代码写入的操作数不能同时是其他名字匹配的操作数；替换的条数不多于模式，多出的代码被删除
+ */
+public class Peephole {
+    private static final String[] RULES = {
+            // 代数恒等式
+            "r := + x => r := x",
+            "r := - 0 => r := 0",
+            "r := - 1 => r := -1", // 语法分析把-1生成为对1取反
+            "r := x + 0 => r := x",
+            "r := 0 + x => r := x",
+            "r := x - 0 => r := x",
+            "r := x - x => r := 0",
+            "r := 0 - x => r := - x",
+            "r := x * 1 => r := x",
+            "r := 1 * x => r := x",
+            "r := x * 0 => r := 0",
+            "r := 0 * x => r := 0",
+            "r := x * -1 => r := - x",
+            "r := -1 * x => r := - x",
+            "r := x / 1 => r := x",
+            "r := x / -1 => r := - x", // 最小值除以-1仍为最小值，与取反相同
+            "r := x << 0 => r := x",
+            "t := - x ; r := - t => t := - x ; r := x",
+            // 强度削弱：乘以2的幂改为加法或移位
+            "r := x * 2 => r := x + x",
+            "r := 2 * x => r := x + x",
+            "r := x * p2:c => r := x << log2:c",
+            "r := p2:c * x => r := x << log2:c",
+            // 多余的传送
+            "r := r =>",
+            "x := y ; y := x => x := y",
+            "$t := x @ y ; r := $t => r := x @ y",
+            "$t := @ x ; r := $t => r := @ x",
+            "$t := x ; r := $t => r := x",
+            "$t := y ; r := x @ $t => r := x @ y",
+            "$t := y ; r := $t @ x => r := y @ x",
+            "$t := y ; r := @ $t => r := @ y",
+    };
+
+    private static final Rule[][] RULES_BY_OP = new Rule[OpCode.opnum][]; // 按模式第一条代码的操作码分组
+    private static int window = 1; // 最长的模式的条数
+
+    static {
+        List<Rule> rules = new ArrayList<>();
+        for (String text : RULES) {
+            Rule rule = new Rule(text);
+            rules.add(rule);
+            window = Math.max(window, rule.pattern.length);
+        }
+        for (int op = 0; op < OpCode.opnum; op++) {
+            List<Rule> group = new ArrayList<>();
+            for (Rule rule : rules) {
+                if (OpCode.isCompute(op) && rule.pattern[0].accepts(op))
+                    group.add(rule);
+            }
+            RULES_BY_OP[op] = group.toArray(new Rule[0]);
+        }
+    }
+
+    private final Intermediater ir;
+    private boolean[] removed;
+    private int[] uses; // 各临时变量被使用的次数
+    private int[] leaderCount; // [0, i]中基本块入口的个数
+    private final HashMap<Integer, Integer> constOperand = new HashMap<>();
+
+    // 匹配的状态
+    private final int[] bound = new int[Rule.MAX_NAMES];
+    private final boolean[] isBound = new boolean[Rule.MAX_NAMES];
+    private int boundOp;
+    private final int[] at = new int[window]; // 窗口中各条代码的下标
+
+    private int before, after;
+    private int rewrites;
+    private CompileStats stats; // 统计，为null时不统计
+
+    public Peephole(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void optimize() {
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        int n = ir.size();
+        before = n;
+        removed = new boolean[n];
+        countTempUses();
+        boolean[] leader = ir.leaders();
+        leaderCount = new int[n];
+        for (int i = 0, count = 0; i < n; i++)
+            leaderCount[i] = count += leader[i] ? 1 : 0;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < n; i++) {
+                if (removed[i])
+                    continue;
+                int length = fill(i);
+                for (Rule rule : RULES_BY_OP[ir.op[i]]) {
+                    if (rule.pattern.length <= length && apply(rule)) {
+                        rewrites++;
+                        changed = true;
+                        // 改写后从同一基本块中的前一条代码重新开始，以它开始的窗口可能因此匹配
+                        i = previous(i) - 1;
+                        break;
+                    }
+                }
+            }
+            changed |= removeDeadTemps();
+        }
+        ir.compact(removed);
+        after = ir.size();
+        if (CompileEvents.end(event)) {
+            event.pass = "peephole";
+            event.before = before;
+            event.after = after;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end("peephole (" + rewrites + " rewrites)", before, "instructions");
+    }
+
+    private void countTempUses() {
+        uses = new int[ir.tempVarCounter];
+        for (int i = 0; i < ir.size(); i++)
+            countUses(i, 1);
+    }
+
+    // 第i条代码读取的临时变量的使用次数加上delta
+    private void countUses(int i, int delta) {
+        int op = ir.op[i];
+        if (op == OpCode.call || op == OpCode.ret || op == OpCode.jmp)
+            return;
+        if (Intermediater.kind(ir.arg1[i]) == Intermediater.TEMP)
+            uses[Intermediater.index(ir.arg1[i])] += delta;
+        if (Intermediater.kind(ir.arg2[i]) == Intermediater.TEMP)
+            uses[Intermediater.index(ir.arg2[i])] += delta;
+    }
+
+    // 同一基本块中i之前最近的未被删除的运算，没有时为i
+    private int previous(int i) {
+        for (int j = i - 1; j >= 0 && leaderCount[j] == leaderCount[i]; j--) {
+            if (!removed[j])
+                return OpCode.isCompute(ir.op[j]) ? j : i;
+        }
+        return i;
+    }
+
+    // 从i开始的窗口：之后的代码是同一个基本块中接下来未被删除的运算，返回窗口的条数
+    private int fill(int i) {
+        at[0] = i;
+        int k = 1;
+        for (int j = i + 1; k < window && j < ir.size(); j++) {
+            if (removed[j])
+                continue;
+            if (leaderCount[j] != leaderCount[at[k - 1]] || !OpCode.isCompute(ir.op[j]))
+                break;
+            at[k++] = j;
+        }
+        return k;
+    }
+
+    // 用rule改写窗口中的前几条代码，不匹配时返回false
+    private boolean apply(Rule rule) {
+        Insn[] pattern = rule.pattern;
+        for (int k = 0; k < rule.names; k++)
+            isBound[k] = false;
+        boundOp = -1;
+        for (int k = 0; k < pattern.length; k++) {
+            if (!match(rule, pattern[k], at[k]))
+                return false;
+        }
+        // 前面的代码写入的操作数不能是其他名字匹配的操作数
+        for (int k = 0; k + 1 < pattern.length; k++) {
+            int written = pattern[k].result.name;
+            for (int other = 0; other < rule.names; other++) {
+                if (other != written && isBound[other] && bound[other] == bound[written])
+                    return false;
+            }
+        }
+
+        for (int k = 0; k < pattern.length; k++)
+            countUses(at[k], -1);
+        for (int k = 0; k < pattern.length; k++) {
+            int j = at[k];
+            if (k >= rule.replacement.length) {
+                removed[j] = true;
+                continue;
+            }
+            Insn insn = rule.replacement[k];
+            ir.op[j] = insn.op == Insn.ANY ? boundOp : insn.op;
+            ir.result[j] = operand(insn.result);
+            ir.arg1[j] = operand(insn.arg1);
+            ir.arg2[j] = insn.arg2 == null ? Intermediater.NONE : operand(insn.arg2);
+            countUses(j, 1);
+        }
+        return true;
+    }
+
+    private boolean match(Rule rule, Insn insn, int i) {
+        int op = ir.op[i];
+        if (!insn.accepts(op))
+            return false;
+        if (insn.op == Insn.ANY) {
+            if (boundOp >= 0 && boundOp != op)
+                return false;
+            boundOp = op;
+        }
+        return match(rule, insn.result, ir.result[i]) && match(rule, insn.arg1, ir.arg1[i])
+                && (insn.arg2 == null || match(rule, insn.arg2, ir.arg2[i]));
+    }
+
+    private boolean match(Rule rule, Term term, int operand) {
+        switch (term.kind) {
+            case Term.LITERAL:
+                return isConst(operand) && constValue(operand) == term.value;
+            case Term.POW2:
+                if (!isConst(operand))
+                    return false;
+                int value = constValue(operand);
+                if (value < 4 || (value & (value - 1)) != 0)
+                    return false;
+                break;
+            case Term.ONCE:
+                if (Intermediater.kind(operand) != Intermediater.TEMP
+                        || uses[Intermediater.index(operand)] != rule.once[term.name])
+                    return false;
+                break;
+            default:
+                break;
+        }
+        if (isBound[term.name])
+            return bound[term.name] == operand;
+        isBound[term.name] = true;
+        bound[term.name] = operand;
+        return true;
+    }
+
+    private int operand(Term term) {
+        switch (term.kind) {
+            case Term.LITERAL:
+                return constOperand(term.value);
+            case Term.LOG2:
+                return constOperand(Integer.numberOfTrailingZeros(constValue(bound[term.name])));
+            default:
+                return bound[term.name];
+        }
+    }
+
+    private static boolean isConst(int operand) {
+        return Intermediater.kind(operand) == Intermediater.CONST;
+    }
+
+    private int constValue(int operand) {
+        return ir.constPool[Intermediater.index(operand)];
+    }
+
+    // 常数c对应的操作数，同一个常数只加入常数池一次
+    private int constOperand(int c) {
+        Integer operand = constOperand.get(c);
+        if (operand == null) {
+            operand = ir.constant(c);
+            constOperand.put(c, operand);
+        }
+        return operand;
+    }
+
+    /*
+     * 删除结果不再被使用的临时变量的定值；除数可能为0的除法保留，运行时错误不变；
+     * 从后向前扫描，删除一条定值后它读取的临时变量随即可能不再被使用
+     */
+    private boolean removeDeadTemps() {
+        boolean changed = false;
+        for (int i = ir.size() - 1; i >= 0; i--) {
+            int op = ir.op[i];
+            if (removed[i] || !OpCode.isCompute(op) || Intermediater.kind(ir.result[i]) != Intermediater.TEMP)
+                continue;
+            if (uses[Intermediater.index(ir.result[i])] > 0)
+                continue;
+            if (op == OpCode.div && !(isConst(ir.arg2[i]) && constValue(ir.arg2[i]) != 0))
+                continue;
+            removed[i] = true;
+            countUses(i, -1);
+            changed = true;
+        }
+        return changed;
+    }
+
+    public int getBefore() {
+        return before;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    // 规则中的操作数
+    private static class Term {
+        static final int NAME = 0, ONCE = 1, LITERAL = 2, POW2 = 3, LOG2 = 4;
+
+        final int kind;
+        final int name; // 名字的编号，常数为-1
+        final int value; // 常数的值
+
+        Term(int kind, int name, int value) {
+            this.kind = kind;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    // 规则中的一条代码
+    private static class Insn {
+        static final int ANY = -1; // @
+
+        final int op;
+        final Term result, arg1, arg2; // 一元运算与赋值的arg2为null
+
+        Insn(int op, Term result, Term arg1, Term arg2) {
+            this.op = op;
+            this.result = result;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+        // 操作码是否符合：@在一元的位置匹配+与-，在二元的位置匹配任意二元运算
+        boolean accepts(int code) {
+            if (op != ANY)
+                return op == code;
+            return arg2 != null ? OpCode.isBinary(code) : code == OpCode.pos || code == OpCode.neg;
+        }
+    }
+
+    private static class Rule {
+        static final int MAX_NAMES = 8;
+
+        final Insn[] pattern;
+        final Insn[] replacement;
+        int names; // 名字的个数
+        final int[] once = new int[MAX_NAMES]; // $名字在模式中被读取的次数，其他名字为0
+        private final HashMap<String, Integer> nameIds = new HashMap<>();
+
+        Rule(String text) {
+            String[] sides = text.split("=>", -1);
+            if (sides.length != 2)
+                throw new IllegalArgumentException("Bad peephole rule: " + text);
+            pattern = parse(sides[0], true, text);
+            replacement = sides[1].trim().isEmpty() ? new Insn[0] : parse(sides[1], false, text);
+            if (pattern.length == 0 || replacement.length > pattern.length)
+                throw new IllegalArgumentException("Bad peephole rule: " + text);
+        }
+
+        private Insn[] parse(String side, boolean isPattern, String text) {
+            String[] parts = side.split(";");
+            Insn[] code = new Insn[parts.length];
+            for (int k = 0; k < parts.length; k++) {
+                String[] tokens = parts[k].trim().split("\\s+");
+                if (tokens.length < 3 || tokens.length > 5 || !tokens[1].equals(":="))
+                    throw new IllegalArgumentException("Bad peephole rule: " + text);
+                Term result = term(tokens[0], isPattern, false, text);
+                if (result.kind != Term.NAME && result.kind != Term.ONCE)
+                    throw new IllegalArgumentException("Bad peephole rule: " + text);
+                switch (tokens.length) {
+                    case 3:
+                        code[k] = new Insn(OpCode.assign, result, term(tokens[2], isPattern, isPattern, text), null);
+                        break;
+                    case 4:
+                        code[k] = new Insn(operator(tokens[2], false, text), result,
+                                term(tokens[3], isPattern, isPattern, text), null);
+                        break;
+                    default:
+                        code[k] = new Insn(operator(tokens[3], true, text), result,
+                                term(tokens[2], isPattern, isPattern, text),
+                                term(tokens[4], isPattern, isPattern, text));
+                        break;
+                }
+            }
+            return code;
+        }
+
+        private static int operator(String token, boolean binary, String text) {
+            switch (token) {
+                case "@":
+                    return Insn.ANY;
+                case "+":
+                    return binary ? OpCode.add : OpCode.pos;
+                case "-":
+                    return binary ? OpCode.sub : OpCode.neg;
+                case "*":
+                    if (binary)
+                        return OpCode.mul;
+                    break;
+                case "/":
+                    if (binary)
+                        return OpCode.div;
+                    break;
+                case "<<":
+                    if (binary)
+                        return OpCode.shl;
+                    break;
+                default:
+                    break;
+            }
+            throw new IllegalArgumentException("Bad peephole rule: " + text);
+        }
+
+        // read：该操作数在模式中被读取
+        private Term term(String token, boolean isPattern, boolean read, String text) {
+            if (token.matches("-?\\d+"))
+                return new Term(Term.LITERAL, -1, Integer.parseInt(token));
+            int kind = Term.NAME;
+            if (token.startsWith("p2:") && isPattern) {
+                kind = Term.POW2;
+                token = token.substring(3);
+            } else if (token.startsWith("log2:") && !isPattern) {
+                kind = Term.LOG2;
+                token = token.substring(5);
+            } else if (token.startsWith("$")) {
+                kind = Term.ONCE;
+                token = token.substring(1);
+            }
+            if (!token.matches("[a-z]\\w*"))
+                throw new IllegalArgumentException("Bad peephole rule: " + text);
+            Integer id = nameIds.get(token);
+            if (id == null) {
+                if (!isPattern || names == MAX_NAMES)
+                    throw new IllegalArgumentException("Unbound name " + token + " in peephole rule: " + text);
+                id = names++;
+                nameIds.put(token, id);
+            }
+            if (kind == Term.ONCE && read)
+                once[id]++;
+            return new Term(kind, id, 0);
+        }
+    }
+}
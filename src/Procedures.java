@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * 【过程说明与过程调用的代码生成】
+ * 由Parser与LLParser共用，维护正在分析的过程（说明部分或过程体尚未结束）构成的栈：
+ * 分程序中的过程代码放在一条跳过它们的无条件跳转之后，过程体之后生成return；
+ * 过程中的变量都有自己的槽位（不做活动记录），一个过程及其内层过程的槽位是连续分配的，
+ * 因此递归调用（调用一个尚未结束的过程）时只需在调用前保存该过程的全部槽位、返回后恢复，
+ * 调用已经结束的过程不需要保存任何槽位
+ */
+public class Procedures {
+    private final Table table;
+    private final Intermediater ir;
+
+    // 正在分析的过程，栈顶为最内层
+    private int[] entries = new int[8]; // 入口地址
+    private int[] firstSlots = new int[8]; // 第一个槽位
+    private int[] lastSlots = new int[8]; // 说明部分结束时的槽位个数，说明部分尚未结束时为-1
+    private int[] saveSets = new int[8]; // 递归调用时保存的槽位集合的编号，0表示还没有递归调用
+    private int depth = 0;
+
+    public Procedures(Table table, Intermediater ir) {
+        this.table = table;
+        this.ir = ir;
+    }
+
+    /*
+     * 在当前作用域中登记过程名，入口地址为下一条代码；过程名重复时返回false
+     */
+    public boolean declare(int id) {
+        if (!table.addItem(id, Table.Kind.PROCEDURE))
+            return false;
+        table.setValue(id, ir.nextStat);
+        return true;
+    }
+
+    /*
+     * 分析分程序中的第一个过程说明之前生成跳过过程代码的跳转，返回待回填的链；之后的过程说明沿用该链
+     */
+    public int skip(int skipList) {
+        if (skipList != Intermediater.EMPTY)
+            return skipList;
+        return ir.makeList(ir.emit(OpCode.jmp, Intermediater.NONE, Intermediater.NONE, Intermediater.EMPTY));
+    }
+
+    /*
+     * 进入过程id（过程名有误时为-1）的分程序
+     */
+    public void enter(int id) {
+        if (depth == entries.length) {
+            entries = Arrays.copyOf(entries, depth * 2);
+            firstSlots = Arrays.copyOf(firstSlots, depth * 2);
+            lastSlots = Arrays.copyOf(lastSlots, depth * 2);
+            saveSets = Arrays.copyOf(saveSets, depth * 2);
+        }
+        entries[depth] = ir.nextStat;
+        firstSlots[depth] = table.slotCount();
+        lastSlots[depth] = -1;
+        saveSets[depth++] = 0;
+        table.enterScope(id);
+    }
+
+    /*
+     * 分程序的说明部分结束、语句开始：回填跳过过程代码的跳转；
+     * 过程的槽位已经分配完毕，之前在内层过程中对它的递归调用的保存集合在这里填写
+     */
+    public void body(int skipList) {
+        if (depth > 0) {
+            int k = depth - 1;
+            lastSlots[k] = table.slotCount();
+            if (saveSets[k] != 0)
+                fill(k);
+        }
+        if (skipList != Intermediater.EMPTY)
+            ir.BackPatch(skipList, ir.nextStat);
+    }
+
+    /*
+     * 退出过程：生成return，过程中的说明不再可见
+     */
+    public void exit() {
+        ir.emit(OpCode.ret, Intermediater.NONE, Intermediater.NONE, Intermediater.NONE);
+        table.exitScope();
+        depth--;
+    }
+
+    /*
+     * 生成对过程id的调用，调用者已检查id是过程名
+     */
+    public void call(int id) {
+        int entry = table.getValue(id);
+        int set = 0;
+        for (int k = depth - 1; k >= 0; k--) {
+            if (entries[k] == entry) {
+                // 递归调用：保存该过程及其内层过程的全部槽位
+                if (saveSets[k] == 0) {
+                    saveSets[k] = ir.newSaveSet();
+                    if (lastSlots[k] >= 0)
+                        fill(k);
+                }
+                set = saveSets[k];
+                break;
+            }
+        }
+        ir.emit(OpCode.call, set, Intermediater.NONE, entry);
+    }
+
+    private void fill(int k) {
+        int[] slots = new int[lastSlots[k] - firstSlots[k]];
+        for (int j = 0; j < slots.length; j++)
+            slots[j] = firstSlots[k] + j;
+        ir.setSaveSet(saveSets[k], slots);
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 【PL0程序生成器】
+ * 按随机种子生成语法与语义都正确的PL0源程序，用于基准测试和大规模输入的测试；
+ * 程序的大小、WHILE/IF/BEGIN的嵌套深度、表达式的复杂度以及标识符个数都可以调节，
+ * 参数与种子相同时生成的程序完全相同。
+ * 生成的程序保证能通过编译，但不保证执行时循环会终止（虚拟机有循环次数的上限）
+ */
+public class ProgramGenerator {
+    private final Random random;
+    private int maxDepth = 3; // 语句的最大嵌套层数
+    private int expressionDepth = 3; // 表达式中括号的最大嵌套层数
+    private int identifiers = 50; // 变量个数
+    private int constants = 10; // 常量个数
+
+    private Appendable out;
+    private long written; // 已输出的字符数
+
+    public ProgramGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(0, maxDepth);
+    }
+
+    public void setExpressionDepth(int expressionDepth) {
+        this.expressionDepth = Math.max(0, expressionDepth);
+    }
+
+    public void setIdentifiers(int identifiers) {
+        this.identifiers = Math.max(1, identifiers);
+    }
+
+    public void setConstants(int constants) {
+        this.constants = Math.max(0, constants);
+    }
+
+    /**
+     * 生成约size个字符的程序并写入out（最后一条语句可能使程序略长于size）
+     *
+     * @return 实际输出的字符数
+     */
+    public long generate(long size, Appendable out) throws IOException {
+        this.out = out;
+        written = 0;
+        print("PROGRAM generated\n");
+        if (constants > 0) {
+            print("CONST ");
+            for (int i = 0; i < constants; i++) {
+                print(i == 0 ? "c" : ", c");
+                print(Integer.toString(i));
+                print(":=");
+                print(Integer.toString(random.nextInt(1000)));
+            }
+            print(";\n");
+        }
+        print("VAR ");
+        for (int i = 0; i < identifiers; i++) {
+            print(i == 0 ? "v" : ",v");
+            print(Integer.toString(i));
+        }
+        print(";\nBEGIN\n");
+        // 主程序的语句逐条生成，直到达到指定的大小
+        boolean first = true;
+        while (first || written + 5 < size) {
+            if (!first)
+                print(";\n");
+            first = false;
+            indent(1);
+            statement(1);
+        }
+        print("\nEND\n");
+        return written;
+    }
+
+    /**
+     * 生成约size个字符的程序
+     */
+    public String generate(int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        try {
+            generate(size, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder不会抛出IOException
+        }
+        return sb.toString();
+    }
+
+    // 语句：赋值语句占多数，未达到最大嵌套层数时还会生成条件语句、循环语句和复合语句
+    private void statement(int depth) throws IOException {
+        int choice = depth > maxDepth ? 0 : random.nextInt(10);
+        if (choice < 5) {
+            variable();
+            print(":=");
+            expression(0);
+        } else if (choice < 7) {
+            print("IF ");
+            condition();
+            print(" THEN ");
+            body(depth);
+        } else if (choice < 9) {
+            // 以循环变量递减作为循环体的最后一条语句，多数循环会终止
+            int v = random.nextInt(identifiers);
+            print("WHILE v" + v + ">" + random.nextInt(100) + " DO\n");
+            indent(depth + 1);
+            print("BEGIN\n");
+            statements(depth + 1);
+            print(";\n");
+            indent(depth + 2);
+            print("v" + v + ":=v" + v + "-1\n");
+            indent(depth + 1);
+            print("END");
+        } else {
+            print("BEGIN\n");
+            statements(depth);
+            print("\n");
+            indent(depth);
+            print("END");
+        }
+    }
+
+    // IF的语句体：一条语句或复合语句
+    private void body(int depth) throws IOException {
+        if (random.nextBoolean()) {
+            statement(depth + 1);
+            return;
+        }
+        print("\n");
+        indent(depth + 1);
+        print("BEGIN\n");
+        statements(depth + 1);
+        print("\n");
+        indent(depth + 1);
+        print("END");
+    }
+
+    // 复合语句中以分号分隔的1~4条语句，每条语句缩进到depth+1层
+    private void statements(int depth) throws IOException {
+        int count = 1 + random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                print(";\n");
+            indent(depth + 1);
+            statement(depth + 1);
+        }
+    }
+
+    private void condition() throws IOException {
+        expression(1);
+        print(RELATIONS[random.nextInt(RELATIONS.length)]);
+        expression(1);
+    }
+
+    private static final String[] RELATIONS = {"=", "<>", "<", "<=", ">", ">="};
+
+    // 表达式：[+|-]项{(+|-)项}
+    private void expression(int depth) throws IOException {
+        if (random.nextInt(8) == 0)
+            print(random.nextBoolean() ? "+" : "-");
+        int terms = depth >= expressionDepth ? 1 : 1 + random.nextInt(3);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0)
+                print(random.nextBoolean() ? "+" : "-");
+            term(depth);
+        }
+    }
+
+    // 项：因子{(*|/)因子}，除数只用非零的数字，执行时不会除以零
+    private void term(int depth) throws IOException {
+        factor(depth);
+        int factors = depth >= expressionDepth ? 0 : random.nextInt(3);
+        for (int i = 0; i < factors; i++) {
+            if (random.nextInt(4) == 0) {
+                print("/");
+                print(Integer.toString(1 + random.nextInt(99)));
+            } else {
+                print("*");
+                factor(depth);
+            }
+        }
+    }
+
+    // 因子：变量、常量、数字或者括号中的表达式
+    private void factor(int depth) throws IOException {
+        int choice = random.nextInt(depth < expressionDepth ? 10 : 8);
+        if (choice < 4) {
+            variable();
+        } else if (choice < 6 && constants > 0) {
+            print("c" + random.nextInt(constants));
+        } else if (choice < 8) {
+            print(Integer.toString(random.nextInt(1000)));
+        } else {
+            print("(");
+            expression(depth + 1);
+            print(")");
+        }
+    }
+
+    private void variable() throws IOException {
+        print("v" + random.nextInt(identifiers));
+    }
+
+    private void indent(int depth) throws IOException {
+        for (int i = 0; i < depth; i++)
+            print("  ");
+    }
+
+    private void print(String s) throws IOException {
+        out.append(s);
+        written += s.length();
+    }
+}
@@ -0,0 +1,915 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 【基于SSA的全局优化】
+ * 在ControlFlowGraph上把中间代码转换为SSA形式：在迭代支配边界上为跨基本块使用的名字放置φ（semi-pruned SSA），
+ * 沿支配树重命名；然后
+ * 1. 稀疏条件常量传播（SCCP）：只沿可执行的边传播常量，条件确定的跳转改为无条件跳转或删除，不可达的基本块删除
+ * 2. 全局值编号（GVN）：沿支配树查找已经计算过的相同表达式，把重复的计算改为复写
+ * 3. 死代码删除：结果不会被观察到的定值删除
+ * 变量在过程调用、return、程序结束、可能除零的除法以及向后跳转（循环次数用尽时停止）处都可被观察到，
+ * 因此这些位置上所有变量的当前值都是活跃的，优化前后任何时刻停止时变量的值都相同；
+ * 过程调用视为读取并重新定值所有变量；
+ * 转换回三地址代码时不插入φ对应的复写：代码仍然读写原来的名字，SSA只用来决定每条代码可以怎样改写，
+ * 重复的计算复写自当前仍保存该值的名字，没有这样的名字时让原来的计算先存入一个新的临时变量
+ */
+public class SsaOptimizer {
+    // 值的种类，除以下几种外就是定义该值的代码的操作码（assign~div）
+    private static final int PHI = OpCode.opnum;
+    private static final int ENTRY = OpCode.opnum + 1; // 区域入口时变量的值：主程序中为0，过程中未知
+    private static final int CLOBBER = OpCode.opnum + 2; // 过程调用之后变量的值
+    private static final int UNDEF = OpCode.opnum + 3; // 临时变量定值之前的值
+
+    // SCCP的格：未确定 < 常数 < 不是常数
+    private static final int TOP = 0;
+    private static final int CONST = 1;
+    private static final int BOTTOM = 2;
+
+    private final Intermediater ir;
+    private CompileStats stats; // 统计，为null时不统计
+    private ControlFlowGraph cfg;
+    private int n;
+    private int varCount;
+    private int names; // 名字：变量为槽位，临时变量Tn为varCount+n
+
+    // 值，编号从1开始（0为Intermediater.NONE）；操作数为值的编号或常数操作数
+    private int[] kind = new int[64];
+    private int[] arg1 = new int[64]; // φ：参数在phiArgs中的起点
+    private int[] arg2 = new int[64];
+    private int[] block = new int[64];
+    private int[] name = new int[64];
+    private int[] instr = new int[64]; // 定义该值的代码，没有时为-1
+    private int[] phiNext = new int[64]; // 同一基本块中的下一个φ
+    private int valueCount = 1;
+    private int[] phiArgs = new int[64]; // φ的参数，与所在基本块的前驱一一对应
+    private int phiArgCount = 0;
+    private int[] phiHead; // 基本块的第一个φ
+    private int undef;
+    private int[] entryBase; // 区域入口时各变量的值：entryBase[r]+槽位
+
+    // 每条代码使用的值与定义的值（过程调用为第一个CLOBBER值）
+    private int[] use1, use2, def;
+
+    // 重命名：每个名字的当前值，恢复用的日志
+    private int[] current;
+    private int[] logName = new int[64], logValue = new int[64];
+    private int logTop = 0;
+
+    // SCCP
+    private int[] lattice, constant;
+    private boolean[] reached; // 基本块是否可达
+    private boolean[] executable; // 前驱表中的边是否可执行
+
+    // GVN：值编号，常数的值编号从valueCount开始
+    private int[] number;
+    private final HashMap<Integer, Integer> constNumber = new HashMap<>();
+    private final HashMap<Long, Integer> available = new HashMap<>();
+    private long[] availKey = new long[64];
+    private int[] availOld = new int[64];
+    private int availTop = 0;
+    private final HashMap<Integer, Integer> constOperand = new HashMap<>();
+
+    // 改写
+    private boolean[] removed;
+    private int[] split; // 重复使用的计算先存入的临时变量，0表示没有
+    private boolean[] live;
+    private int[] worklist = new int[64];
+    private int worklistSize = 0;
+
+    private int before, after;
+    private int folded, redundant, dead, unreachable; // 各项优化改写或删除的代码条数
+
+    public SsaOptimizer(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void optimize() {
+        n = ir.size();
+        before = after = n;
+        CompileEvents.Optimize event = beginStep();
+        cfg = new ControlFlowGraph(ir);
+        if (n == 0 || !cfg.isWellFormed()) {
+            endStep(event, "ssa construction", n, n);
+            return; // 区域相交的代码（不会由语法分析产生）不做全局优化
+        }
+        varCount = ir.varCount();
+        names = varCount + ir.tempVarCounter;
+        construct();
+        endStep(event, "ssa construction", n, n);
+
+        event = beginStep();
+        propagate();
+        removed = new boolean[n];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (reached[b])
+                continue;
+            for (int i = cfg.start(b); i < cfg.end(b); i++)
+                removed[i] = true;
+            unreachable += cfg.end(b) - cfg.start(b);
+        }
+        endStep(event, "sparse conditional constant propagation", n, n - unreachable);
+
+        event = beginStep();
+        split = new int[n];
+        live = new boolean[valueCount];
+        number = new int[valueCount];
+        for (int v = 0; v < valueCount; v++)
+            number[v] = v;
+        walk(true);
+        endStep(event, "global value numbering", n - unreachable, n - unreachable);
+
+        event = beginStep();
+        eliminateDeadCode();
+        rewrite();
+        after = ir.size();
+        endStep(event, "dead code elimination", n - unreachable, after);
+    }
+
+    public int getBefore() {
+        return before;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    // 改为常数的代码与确定方向的条件跳转的条数
+    public int getFolded() {
+        return folded;
+    }
+
+    // 改为复写的重复计算的条数
+    public int getRedundant() {
+        return redundant;
+    }
+
+    // 删除的死代码与不可达代码的条数
+    public int getRemoved() {
+        return dead + unreachable;
+    }
+
+    private CompileEvents.Optimize beginStep() {
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        return event;
+    }
+
+    private void endStep(CompileEvents.Optimize event, String pass, int count, int remaining) {
+        if (CompileEvents.end(event)) {
+            event.pass = pass;
+            event.before = count;
+            event.after = remaining;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end(pass + " (" + count + " -> " + remaining + ")", count, "instructions");
+    }
+
+    // 操作数对应的名字，不是变量或临时变量时返回-1
+    private int nameOf(int operand) {
+        switch (Intermediater.kind(operand)) {
+            case Intermediater.VAR:
+                return Intermediater.index(operand);
+            case Intermediater.TEMP:
+                return varCount + Intermediater.index(operand);
+            default:
+                return -1;
+        }
+    }
+
+    // 名字对应的操作数
+    private int operandOf(int nm) {
+        return nm < varCount ? ir.var(nm) : Intermediater.operand(Intermediater.TEMP, nm - varCount);
+    }
+
+    // 第i条代码是否定义一个值（result为变量或临时变量）
+    private static boolean defines(int op) {
+        return OpCode.isCompute(op);
+    }
+
+    private int newValue(int k, int a, int b, int blk, int nm, int i) {
+        if (valueCount == kind.length) {
+            int size = valueCount * 2;
+            kind = Arrays.copyOf(kind, size);
+            arg1 = Arrays.copyOf(arg1, size);
+            arg2 = Arrays.copyOf(arg2, size);
+            block = Arrays.copyOf(block, size);
+            name = Arrays.copyOf(name, size);
+            instr = Arrays.copyOf(instr, size);
+            phiNext = Arrays.copyOf(phiNext, size);
+        }
+        kind[valueCount] = k;
+        arg1[valueCount] = a;
+        arg2[valueCount] = b;
+        block[valueCount] = blk;
+        name[valueCount] = nm;
+        instr[valueCount] = i;
+        phiNext[valueCount] = 0;
+        return valueCount++;
+    }
+
+    /*
+     * 构造SSA：确定跨基本块使用的名字，在其定值所在基本块的迭代支配边界上放置φ，再沿支配树重命名
+     */
+    private void construct() {
+        int blocks = cfg.blockCount();
+        // 在某个基本块中定值之前就被使用的名字需要φ；变量在区域入口、过程调用处都有定值，总是需要
+        boolean[] global = new boolean[names];
+        Arrays.fill(global, 0, varCount, true);
+        int[] lastDef = new int[names];
+        Arrays.fill(lastDef, -1);
+        for (int b = 0; b < blocks; b++) {
+            if (cfg.regionOf(b) < 0)
+                continue;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = ir.op[i];
+                if (op == OpCode.call || op == OpCode.jmp || op == OpCode.ret)
+                    continue;
+                int a = nameOf(ir.arg1[i]), c = nameOf(ir.arg2[i]);
+                if (a >= varCount && lastDef[a] != b)
+                    global[a] = true;
+                if (c >= varCount && lastDef[c] != b)
+                    global[c] = true;
+                if (defines(op) && nameOf(ir.result[i]) >= 0)
+                    lastDef[nameOf(ir.result[i])] = b;
+            }
+        }
+
+        // 需要φ的名字的定值所在的基本块（按名字分组）
+        int[] defStart = new int[names + 1];
+        int pairs = 0;
+        int[] pairName = new int[64], pairBlock = new int[64];
+        for (int b = 0; b < blocks; b++) {
+            if (cfg.regionOf(b) < 0)
+                continue;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = ir.op[i];
+                int first = -1, last = -1;
+                if (op == OpCode.call) {
+                    first = 0;
+                    last = varCount;
+                } else if (defines(op)) {
+                    first = nameOf(ir.result[i]);
+                    last = first + 1;
+                }
+                for (int nm = first; nm < last; nm++) {
+                    if (nm < 0 || !global[nm])
+                        continue;
+                    if (pairs == pairName.length) {
+                        pairName = Arrays.copyOf(pairName, pairs * 2);
+                        pairBlock = Arrays.copyOf(pairBlock, pairs * 2);
+                    }
+                    pairName[pairs] = nm;
+                    pairBlock[pairs++] = b;
+                    defStart[nm + 1]++;
+                }
+            }
+        }
+        for (int nm = 0; nm < names; nm++)
+            defStart[nm + 1] += defStart[nm];
+        int[] defBlocks = new int[pairs];
+        int[] fill = Arrays.copyOf(defStart, names);
+        for (int k = 0; k < pairs; k++)
+            defBlocks[fill[pairName[k]]++] = pairBlock[k];
+
+        // 在迭代支配边界上放置φ
+        phiHead = new int[blocks];
+        int[] hasPhi = new int[blocks], inWork = new int[blocks];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(inWork, -1);
+        int[] work = new int[blocks];
+        for (int nm = 0; nm < names; nm++) {
+            int size = 0;
+            for (int k = defStart[nm]; k < defStart[nm + 1]; k++) {
+                int b = defBlocks[k];
+                if (inWork[b] != nm) {
+                    inWork[b] = nm;
+                    work[size++] = b;
+                }
+            }
+            while (size > 0) {
+                int b = work[--size];
+                for (int k = cfg.frontierStart(b); k < cfg.frontierEnd(b); k++) {
+                    int d = cfg.frontier(k);
+                    if (hasPhi[d] == nm)
+                        continue;
+                    hasPhi[d] = nm;
+                    int count = cfg.predEnd(d) - cfg.predStart(d);
+                    if (phiArgCount + count > phiArgs.length)
+                        phiArgs = Arrays.copyOf(phiArgs, Math.max(phiArgs.length * 2, phiArgCount + count));
+                    int phi = newValue(PHI, phiArgCount, count, d, nm, -1);
+                    phiArgCount += count;
+                    phiNext[phi] = phiHead[d];
+                    phiHead[d] = phi;
+                    if (inWork[d] != nm) {
+                        inWork[d] = nm;
+                        work[size++] = d;
+                    }
+                }
+            }
+        }
+
+        // 区域入口的值与未定值的临时变量
+        undef = newValue(UNDEF, 0, 0, -1, -1, -1);
+        entryBase = new int[cfg.regionCount()];
+        for (int r = 0; r < cfg.regionCount(); r++) {
+            entryBase[r] = valueCount;
+            for (int v = 0; v < varCount; v++)
+                newValue(ENTRY, 0, 0, cfg.regionEntry(r), v, -1);
+        }
+
+        use1 = new int[n];
+        use2 = new int[n];
+        def = new int[n];
+        current = new int[names];
+        walk(false);
+    }
+
+    /*
+     * 沿各区域的支配树做深度优先遍历，按代码顺序维护每个名字的当前值：
+     * rewriting为false时为重命名（生成值并填写φ的参数），为true时为值编号与改写
+     */
+    private void walk(boolean rewriting) {
+        int blocks = cfg.blockCount();
+        int[] stack = new int[Math.max(blocks, 1)];
+        int[] next = new int[Math.max(blocks, 1)];
+        int[] mark = new int[Math.max(blocks, 1)];
+        int[] availMark = new int[Math.max(blocks, 1)];
+        for (int r = 0; r < cfg.regionCount(); r++) {
+            for (int v = 0; v < varCount; v++)
+                current[v] = entryBase[r] + v;
+            Arrays.fill(current, varCount, names, undef);
+            int entry = cfg.regionEntry(r);
+            if (!rewriting)
+                fillPhiArgs(cfg.predStart(entry)); // 来自区域之外的虚拟边
+            int sp = 0;
+            stack[sp++] = entry;
+            next[entry] = -1;
+            while (sp > 0) {
+                int b = stack[sp - 1];
+                if (next[b] < 0) {
+                    mark[b] = logTop;
+                    availMark[b] = availTop;
+                    next[b] = cfg.childStart(b);
+                    if (rewriting && !reached[b]) {
+                        next[b] = cfg.childEnd(b); // 不可达的基本块支配的基本块也不可达
+                        continue;
+                    }
+                    if (rewriting)
+                        rewriteBlock(b);
+                    else
+                        renameBlock(b);
+                }
+                if (next[b] < cfg.childEnd(b)) {
+                    int c = cfg.child(next[b]++);
+                    next[c] = -1;
+                    stack[sp++] = c;
+                } else {
+                    while (logTop > mark[b]) {
+                        logTop--;
+                        current[logName[logTop]] = logValue[logTop];
+                    }
+                    while (availTop > availMark[b]) {
+                        availTop--;
+                        if (availOld[availTop] == 0)
+                            available.remove(availKey[availTop]);
+                        else
+                            available.put(availKey[availTop], availOld[availTop]);
+                    }
+                    sp--;
+                }
+            }
+        }
+    }
+
+    // 名字nm的当前值改为value，离开基本块时恢复
+    private void push(int nm, int value) {
+        if (logTop == logName.length) {
+            logName = Arrays.copyOf(logName, logTop * 2);
+            logValue = Arrays.copyOf(logValue, logTop * 2);
+        }
+        logName[logTop] = nm;
+        logValue[logTop++] = current[nm];
+        current[nm] = value;
+    }
+
+    // 读取操作数：名字读取其当前值，常数不变
+    private int read(int operand) {
+        int nm = nameOf(operand);
+        return nm < 0 ? (Intermediater.kind(operand) == Intermediater.CONST ? operand : Intermediater.NONE)
+                : current[nm];
+    }
+
+    // 用各名字的当前值填写前驱表中第e条边所指基本块的φ在这条边上的参数
+    private void fillPhiArgs(int e) {
+        int target = cfg.edgeTarget(e);
+        int k = e - cfg.predStart(target);
+        for (int phi = phiHead[target]; phi != 0; phi = phiNext[phi])
+            phiArgs[arg1[phi] + k] = current[name[phi]];
+    }
+
+    private void renameBlock(int b) {
+        for (int phi = phiHead[b]; phi != 0; phi = phiNext[phi])
+            push(name[phi], phi);
+        for (int i = cfg.start(b); i < cfg.end(b); i++) {
+            int op = ir.op[i];
+            if (op == OpCode.call) {
+                def[i] = valueCount;
+                for (int v = 0; v < varCount; v++)
+                    push(v, newValue(CLOBBER, 0, 0, b, v, i));
+                continue;
+            }
+            if (op == OpCode.jmp || op == OpCode.ret)
+                continue;
+            use1[i] = read(ir.arg1[i]);
+            use2[i] = read(ir.arg2[i]);
+            if (defines(op)) {
+                int nm = nameOf(ir.result[i]);
+                def[i] = newValue(op, use1[i], use2[i], b, nm, i);
+                if (nm >= 0)
+                    push(nm, def[i]);
+            }
+        }
+        for (int k = 0; k < 2; k++)
+            if (cfg.succEdge(b, k) >= 0)
+                fillPhiArgs(cfg.succEdge(b, k));
+    }
+
+    // ---------------- 稀疏条件常量传播 ----------------
+
+    private void propagate() {
+        lattice = new int[valueCount];
+        constant = new int[valueCount];
+        reached = new boolean[cfg.blockCount()];
+        executable = new boolean[cfg.edgeCount()];
+        lattice[undef] = BOTTOM;
+        for (int v = 1; v < valueCount; v++) {
+            if (kind[v] == CLOBBER)
+                lattice[v] = BOTTOM;
+            else if (kind[v] == ENTRY)
+                lattice[v] = cfg.regionOf(block[v]) == 0 ? CONST : BOTTOM; // 主程序开始时变量都为0
+        }
+
+        // 值的使用者：值的编号，或者-(条件跳转的下标+1)
+        int[] userStart = new int[valueCount + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            int[] fill = pass == 0 ? null : Arrays.copyOf(userStart, valueCount);
+            int[] users = pass == 0 ? null : new int[userStart[valueCount]];
+            for (int i = 0; i < n; i++) {
+                int op = ir.op[i];
+                if (cfg.regionOf(cfg.blockOf(i)) < 0 || !(defines(op) || OpCode.isCondJump(op)))
+                    continue;
+                int user = defines(op) ? def[i] : -(i + 1);
+                addUser(use1[i], user, userStart, fill, users);
+                addUser(use2[i], user, userStart, fill, users);
+            }
+            for (int phi = 1; phi < valueCount; phi++) {
+                if (kind[phi] != PHI)
+                    continue;
+                for (int k = 0; k < arg2[phi]; k++)
+                    addUser(phiArgs[arg1[phi] + k], phi, userStart, fill, users);
+            }
+            if (pass == 0) {
+                for (int v = 0; v < valueCount; v++)
+                    userStart[v + 1] += userStart[v];
+            } else {
+                sccp(userStart, users);
+            }
+        }
+    }
+
+    private static void addUser(int value, int user, int[] userStart, int[] fill, int[] users) {
+        if (value <= 0 || Intermediater.kind(value) != 0)
+            return; // 不是值（常数或没有操作数）
+        if (fill == null)
+            userStart[value + 1]++;
+        else
+            users[fill[value]++] = user;
+    }
+
+    private void sccp(int[] userStart, int[] users) {
+        int[] edges = new int[Math.max(cfg.edgeCount(), 1)];
+        int edgeTop = 0;
+        boolean[] queued = new boolean[edges.length];
+        for (int r = 0; r < cfg.regionCount(); r++) {
+            int e = cfg.predStart(cfg.regionEntry(r)); // 区域入口的虚拟边总是可执行
+            edges[edgeTop++] = e;
+            queued[e] = true;
+        }
+        while (edgeTop > 0 || worklistSize > 0) {
+            while (edgeTop > 0) {
+                int e = edges[--edgeTop];
+                if (executable[e])
+                    continue;
+                executable[e] = true;
+                int b = cfg.edgeTarget(e);
+                for (int phi = phiHead[b]; phi != 0; phi = phiNext[phi])
+                    evaluate(phi);
+                if (reached[b])
+                    continue;
+                reached[b] = true;
+                for (int i = cfg.start(b); i < cfg.end(b); i++)
+                    if (defines(ir.op[i]))
+                        evaluate(def[i]);
+                edgeTop = branch(b, edges, edgeTop, queued);
+            }
+            while (worklistSize > 0) {
+                int v = worklist[--worklistSize];
+                for (int k = userStart[v]; k < userStart[v + 1]; k++) {
+                    int u = users[k];
+                    if (u > 0) {
+                        if (reached[block[u]])
+                            evaluate(u);
+                    } else {
+                        int b = cfg.blockOf(-u - 1);
+                        if (reached[b])
+                            edgeTop = branch(b, edges, edgeTop, queued);
+                    }
+                }
+            }
+        }
+    }
+
+    // 基本块b的结尾决定哪些出边可执行，新的可执行边加入edges，返回新的栈顶
+    private int branch(int b, int[] edges, int top, boolean[] queued) {
+        int last = cfg.end(b) - 1;
+        int op = ir.op[last];
+        boolean fall = op != OpCode.ret, taken = false;
+        if (OpCode.isCondJump(op)) {
+            int a = latticeOf(use1[last]), c = latticeOf(use2[last]);
+            if (a == BOTTOM || c == BOTTOM) {
+                taken = true;
+            } else if (a == TOP || c == TOP) {
+                fall = false;
+            } else {
+                taken = Intermediater.evaluate(op, constOf(use1[last]), constOf(use2[last]));
+                fall = !taken;
+            }
+        }
+        for (int k = 0; k < 2; k++) {
+            int e = cfg.succEdge(b, k);
+            if (e >= 0 && !queued[e] && (k == 0 ? fall : taken)) {
+                queued[e] = true;
+                edges[top++] = e;
+            }
+        }
+        return top;
+    }
+
+    private int latticeOf(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.CONST)
+            return CONST;
+        return operand == Intermediater.NONE ? CONST : lattice[operand];
+    }
+
+    private int constOf(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.CONST)
+            return ir.constPool[Intermediater.index(operand)];
+        return operand == Intermediater.NONE ? 0 : constant[operand];
+    }
+
+    // 重新计算值v在格中的位置，下降时把v加入工作表
+    private void evaluate(int v) {
+        int l, c = 0;
+        int k = kind[v];
+        if (k == PHI) {
+            l = TOP;
+            int first = cfg.predStart(block[v]);
+            for (int j = 0; j < arg2[v] && l != BOTTOM; j++) {
+                if (!executable[first + j])
+                    continue;
+                int a = phiArgs[arg1[v] + j];
+                int la = latticeOf(a);
+                if (la == TOP)
+                    continue;
+                if (la == BOTTOM || l == CONST && constOf(a) != c) {
+                    l = BOTTOM;
+                } else {
+                    l = CONST;
+                    c = constOf(a);
+                }
+            }
+        } else {
+            int la = latticeOf(arg1[v]);
+            int lb = OpCode.isBinary(k) ? latticeOf(arg2[v]) : CONST;
+            if (la == BOTTOM || lb == BOTTOM) {
+                l = BOTTOM;
+            } else if (la == TOP || lb == TOP) {
+                l = TOP;
+            } else {
+                int x = constOf(arg1[v]), y = OpCode.isBinary(k) ? constOf(arg2[v]) : 0;
+                l = CONST;
+                switch (k) {
+                    case OpCode.neg:
+                        c = -x;
+                        break;
+                    case OpCode.add:
+                        c = x + y;
+                        break;
+                    case OpCode.sub:
+                        c = x - y;
+                        break;
+                    case OpCode.mul:
+                        c = x * y;
+                        break;
+                    case OpCode.div:
+                        if (y == 0)
+                            l = BOTTOM; // 除零留到运行时报错
+                        else
+                            c = x / y;
+                        break;
+                    case OpCode.shl:
+                        c = x << y;
+                        break;
+                    default:
+                        c = x;
+                        break;
+                }
+            }
+        }
+        if (l == CONST && lattice[v] == CONST && c != constant[v])
+            l = BOTTOM;
+        if (l > lattice[v]) {
+            lattice[v] = l;
+            constant[v] = c;
+            if (worklistSize == worklist.length)
+                worklist = Arrays.copyOf(worklist, worklistSize * 2);
+            worklist[worklistSize++] = v;
+        }
+    }
+
+    // ---------------- 全局值编号与改写 ----------------
+
+    // 常数c对应的操作数，同一个常数只加入常数池一次
+    private int constOperand(int c) {
+        Integer operand = constOperand.get(c);
+        if (operand == null) {
+            operand = ir.constant(c);
+            constOperand.put(c, operand);
+        }
+        return operand;
+    }
+
+    private int constValueNumber(int c) {
+        Integer vn = constNumber.get(c);
+        if (vn == null) {
+            vn = valueCount + constNumber.size();
+            constNumber.put(c, vn);
+        }
+        return vn;
+    }
+
+    // 操作数（值或常数）的值编号
+    private int numberOf(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.CONST)
+            return constValueNumber(ir.constPool[Intermediater.index(operand)]);
+        if (operand == Intermediater.NONE)
+            return 0;
+        if (lattice[operand] == CONST)
+            return constValueNumber(constant[operand]);
+        return number[operand];
+    }
+
+    // 已知为常数的值改为常数操作数
+    private int fold(int use) {
+        if (use > 0 && Intermediater.kind(use) == 0 && lattice[use] == CONST)
+            return constOperand(constant[use]);
+        return use;
+    }
+
+    /*
+     * 在基本块b中按代码顺序改写：常数值改为常数赋值，重复的计算改为复写，确定方向的条件跳转改为无条件跳转或删除；
+     * 同时标记观察点上活跃的值
+     */
+    private void rewriteBlock(int b) {
+        for (int phi = phiHead[b]; phi != 0; phi = phiNext[phi]) {
+            int vn = -1;
+            int first = cfg.predStart(b);
+            for (int j = 0; j < arg2[phi] && vn != -2; j++) {
+                if (!executable[first + j])
+                    continue;
+                int a = numberOf(phiArgs[arg1[phi] + j]);
+                vn = vn == -1 || vn == a ? a : -2;
+            }
+            if (lattice[phi] == CONST)
+                number[phi] = constValueNumber(constant[phi]);
+            else if (vn >= 0)
+                number[phi] = vn; // 各参数的值相同
+            push(name[phi], phi);
+        }
+        for (int i = cfg.start(b); i < cfg.end(b); i++) {
+            int op = ir.op[i];
+            if (op == OpCode.call) {
+                observe();
+                for (int v = 0; v < varCount; v++)
+                    push(v, def[i] + v);
+                continue;
+            }
+            if (op == OpCode.ret) {
+                observe();
+                continue;
+            }
+            if (op == OpCode.jmp) {
+                if (ir.targetIndex(i) <= i)
+                    observe(); // 向后跳转：循环次数用尽时在这里停止
+                continue;
+            }
+            if (OpCode.isCondJump(op)) {
+                rewriteJump(i);
+                continue;
+            }
+            rewriteValue(i);
+            if (mayTrap(i)) {
+                observe(); // 除零时在这里停止
+                markLive(use1[i]);
+                markLive(use2[i]);
+            }
+            int nm = nameOf(ir.result[i]);
+            if (nm >= 0)
+                push(nm, def[i]);
+        }
+        for (int k = 0; k < 2; k++) {
+            if (cfg.succ(b, k) == ControlFlowGraph.EXIT) {
+                observe(); // 程序结束
+                break;
+            }
+        }
+    }
+
+    private void rewriteValue(int i) {
+        int v = def[i];
+        int op = ir.op[i];
+        if (lattice[v] == CONST) {
+            int c = constOperand(constant[v]);
+            if (op != OpCode.assign || ir.arg1[i] != c) {
+                ir.op[i] = OpCode.assign;
+                ir.arg1[i] = c;
+                ir.arg2[i] = Intermediater.NONE;
+                folded++;
+            }
+            use1[i] = c;
+            use2[i] = Intermediater.NONE;
+            number[v] = constValueNumber(constant[v]);
+            return;
+        }
+        use1[i] = fold(use1[i]);
+        if (Intermediater.kind(use1[i]) == Intermediater.CONST)
+            ir.arg1[i] = use1[i];
+        if (OpCode.isBinary(op)) {
+            use2[i] = fold(use2[i]);
+            if (Intermediater.kind(use2[i]) == Intermediater.CONST)
+                ir.arg2[i] = use2[i];
+        }
+        if (op == OpCode.assign || op == OpCode.pos) {
+            number[v] = numberOf(use1[i]); // 复写的值与其来源相同
+            return;
+        }
+        int a = numberOf(use1[i]), c = OpCode.isBinary(op) ? numberOf(use2[i]) : 0;
+        if ((op == OpCode.add || op == OpCode.mul) && a > c) {
+            int t = a;
+            a = c;
+            c = t;
+        }
+        long key = (long) op << 58 | (long) a << 29 | c;
+        Integer w = available.get(key);
+        if (w == null) {
+            if (availTop == availKey.length) {
+                availKey = Arrays.copyOf(availKey, availTop * 2);
+                availOld = Arrays.copyOf(availOld, availTop * 2);
+            }
+            availKey[availTop] = key;
+            availOld[availTop++] = 0;
+            available.put(key, v);
+            return;
+        }
+        // 重复的计算：复写自保存该值的名字
+        ir.op[i] = OpCode.assign;
+        ir.arg1[i] = holder(w);
+        ir.arg2[i] = Intermediater.NONE;
+        use1[i] = w;
+        use2[i] = Intermediater.NONE;
+        number[v] = number[w];
+        redundant++;
+    }
+
+    // 当前保存值w的操作数：w的名字仍为w时就是该名字，否则让w的计算先存入一个新的临时变量
+    private int holder(int w) {
+        if (current[name[w]] == w)
+            return operandOf(name[w]);
+        int h = instr[w];
+        if (split[h] == 0)
+            split[h] = ir.newTempVar();
+        return split[h];
+    }
+
+    private void rewriteJump(int i) {
+        use1[i] = fold(use1[i]);
+        use2[i] = fold(use2[i]);
+        if (Intermediater.kind(use1[i]) == Intermediater.CONST)
+            ir.arg1[i] = use1[i];
+        if (Intermediater.kind(use2[i]) == Intermediater.CONST)
+            ir.arg2[i] = use2[i];
+        if (latticeOf(use1[i]) != CONST || latticeOf(use2[i]) != CONST) {
+            markLive(use1[i]);
+            markLive(use2[i]);
+            if (ir.targetIndex(i) <= i)
+                observe();
+            return;
+        }
+        // 与SCCP中的判断相同：两个操作数都是常数时只有一个出口可执行
+        folded++;
+        if (Intermediater.evaluate(ir.op[i], constOf(use1[i]), constOf(use2[i]))) {
+            ir.op[i] = OpCode.jmp;
+            ir.arg1[i] = ir.arg2[i] = Intermediater.NONE;
+            if (ir.targetIndex(i) <= i)
+                observe();
+        } else {
+            removed[i] = true;
+        }
+    }
+
+    // 可能除零的除法
+    private boolean mayTrap(int i) {
+        if (ir.op[i] != OpCode.div)
+            return false;
+        int d = ir.arg2[i];
+        return Intermediater.kind(d) != Intermediater.CONST || ir.constPool[Intermediater.index(d)] == 0;
+    }
+
+    // 观察点：所有变量的当前值都活跃
+    private void observe() {
+        for (int v = 0; v < varCount; v++)
+            markLive(current[v]);
+    }
+
+    private void markLive(int value) {
+        if (value <= 0 || Intermediater.kind(value) != 0 || live[value])
+            return;
+        live[value] = true;
+        if (worklistSize == worklist.length)
+            worklist = Arrays.copyOf(worklist, worklistSize * 2);
+        worklist[worklistSize++] = value;
+    }
+
+    // ---------------- 死代码删除与输出 ----------------
+
+    /*
+     * 活跃的值使用的值也活跃（φ的各参数，代码改写后的操作数）；之后删除定义不活跃的值的代码
+     */
+    private void eliminateDeadCode() {
+        while (worklistSize > 0) {
+            int v = worklist[--worklistSize];
+            if (kind[v] == PHI) {
+                for (int j = 0; j < arg2[v]; j++)
+                    markLive(phiArgs[arg1[v] + j]);
+            } else if (instr[v] >= 0 && defines(ir.op[instr[v]])) {
+                markLive(use1[instr[v]]);
+                markLive(use2[instr[v]]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (removed[i] || !defines(ir.op[i]) || live[def[i]] || mayTrap(i))
+                continue;
+            removed[i] = true;
+            dead++;
+        }
+    }
+
+    // 生成新的代码：删除标记的代码，被拆分的计算先存入临时变量再复写给原来的名字，跳转目标重新计算
+    private void rewrite() {
+        int[] newAddr = new int[n + 1];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            newAddr[i] = ir.initStat + k;
+            if (!removed[i])
+                k += split[i] != 0 ? 2 : 1;
+        }
+        newAddr[n] = ir.initStat + k;
+        int[] op = new int[Math.max(k, 1)], a1 = new int[op.length], a2 = new int[op.length], res = new int[op.length];
+        k = 0;
+        for (int i = 0; i < n; i++) {
+            if (removed[i])
+                continue;
+            op[k] = ir.op[i];
+            a1[k] = ir.arg1[i];
+            a2[k] = ir.arg2[i];
+            int r = ir.result[i];
+            if (OpCode.isJump(op[k]) && r != Intermediater.EMPTY)
+                r = newAddr[r - ir.initStat];
+            if (split[i] != 0) {
+                res[k++] = split[i];
+                op[k] = OpCode.assign;
+                a1[k] = split[i];
+                a2[k] = Intermediater.NONE;
+            }
+            res[k++] = r;
+        }
+        ir.setCode(op, a1, a2, res, k);
+    }
+}
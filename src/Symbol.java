@@ -34,10 +34,12 @@ public class Symbol {
     public static final int dosym = 24;
     public static final int constsym = 25;
     public static final int varsym = 26;
-    public static final int eof = 27;// 井号 作为源程序结束符
+    public static final int procsym = 27;
+    public static final int callsym = 28;
+    public static final int eof = 29;// 井号 作为源程序结束符
 
     // 符号的个数
-    public static final int symnum = 28;
+    public static final int symnum = 30;
 
     // 符号的类型
     private int symtype;
@@ -45,6 +47,12 @@ public class Symbol {
     private String value;
     // 数值大小（如果这个符号是数字的话）
     private int num;
+    // 标识符的驻留编号（如果这个符号是标识符的话）
+    private int id;
+    // 符号在源程序字符缓冲中的起止位置[start, end)（由BufferLexer设置，此时value为空）
+    private char[] source;
+    private int start;
+    private int end;
 
     public Symbol() {
     }
@@ -54,20 +62,57 @@ public class Symbol {
         this.value = value;
     }
 
+    public Symbol(int symtype, String value, int id) {
+        this.symtype = symtype;
+        this.value = value;
+        this.id = id;
+    }
+
     public Symbol(int symtype, int num) {
         this.symtype = symtype;
         this.num = num;
     }
 
+    /**
+     * 复用同一个Symbol对象：只记录符号在缓冲区中的位置，不创建字符串
+     */
+    void reset(int symtype, int num, char[] source, int start, int end) {
+        this.symtype = symtype;
+        this.value = null;
+        this.num = num;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     public int getSymtype() {
         return symtype;
     }
 
+    // 符号的字符串形式，对于复用的Symbol仅在调用时才从缓冲区中取出
     public String getValue() {
+        if (value == null && source != null)
+            return new String(source, start, end - start);
         return value;
     }
 
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
     public int getNum() {
         return num;
     }
+
+    public int getId() {
+        return id;
+    }
 }
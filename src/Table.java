@@ -1,39 +1,263 @@
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * 【PL/0编译器的符号表】
- * 由于老师给出的PL0较为简单，符号表中只存储了变量名和常量名
+ * 符号表中存储常量名、变量名和过程名，过程说明的部分构成一层新的作用域，内层的说明遮盖外层的同名说明
+ * 表项按加入顺序编号存放在基本类型数组中，记录标识符编号、种类、运行时槽位、常量的值（过程为入口地址）以及所属的过程；
+ * 以词法分析器驻留得到的标识符编号为键的开放地址散列表指向当前可见的表项，
+ * 进入作用域时记下撤销日志的位置，说明遮盖外层表项时把原来的可见表项记入日志，退出作用域时按日志恢复
  */
 public class Table {
 
-    // 标识符map: <key=标识符的名称, value=标识符的类型>
-    private final HashMap<String, String> tokenTable = new HashMap<>();
+    // 标识符的种类
+    public enum Kind {
+        CONSTANT("Constant"), VARIABLE("Variable"), PROCEDURE("Procedure");
 
-    // lookup函数：检查标识符是否存在
-    public boolean lookup(String id) {
-        return tokenTable.containsKey(id);
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
     }
 
-    // addItem函数: 向符号表中添加表项
-    public boolean addItem(String id, String type) {
-        if (!tokenTable.containsKey(id)) {
-            tokenTable.put(id, type);
-            return true;
-        } else
+    private static final Kind[] KINDS = Kind.values();
+
+    private final IdentifierPool names; // 标识符编号与名称的对应
+
+    // 散列表：keys存放标识符编号+1（0表示空位），visible存放当前可见的表项编号+1（0表示在当前作用域中不可见）
+    private int[] keys = new int[32];
+    private int[] visible = new int[32];
+    private int used = 0; // keys中已占用的位置个数
+    private int shift = 32 - 5; // 32减去log2(keys.length)：乘法散列取乘积的高位作为位置
+
+    // 表项，下标为表项编号（加入顺序）
+    private int[] ids = new int[16];
+    private byte[] kinds = new byte[16];
+    private int[] slots = new int[16];
+    private int[] values = new int[16];
+    private int[] levels = new int[16]; // 所在作用域的层数，主程序为0
+    private int[] owners = new int[16]; // 所属过程的表项编号，主程序中为-1
+    private String[] qualified = new String[16]; // 限定名，如p.x，用到时才计算
+    private int size = 0;
+
+    // 撤销日志：被遮盖的标识符编号及其原来的visible值
+    private int[] undoIds = new int[16];
+    private int[] undoVisible = new int[16];
+    private int undoCount = 0;
+    // 各层作用域开始时的日志位置与所属过程
+    private int[] marks = new int[8];
+    private int[] scopeOwners = new int[8];
+    private int level = 0;
+
+    // 槽位 -> 表项编号
+    private int[] slotEntries = new int[16];
+    private int slotCount = 0;
+
+    public Table(IdentifierPool names) {
+        this.names = names;
+    }
+
+    // 查找标识符所在的位置，不存在时返回应插入的空位
+    private int find(int id) {
+        int mask = keys.length - 1;
+        int i = id * 0x9E3779B9 >>> shift;
+        while (keys[i] != 0 && keys[i] != id + 1)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    // 标识符当前可见的表项编号，不存在时返回-1
+    private int entry(int id) {
+        int i = find(id);
+        return keys[i] == 0 ? -1 : visible[i] - 1;
+    }
+
+    // lookup函数：检查标识符是否存在（在当前作用域或外层作用域中说明过）
+    public boolean lookup(int id) {
+        return entry(id) >= 0;
+    }
+
+    // addItem函数: 向当前作用域添加表项，变量同时分配运行时槽位；同一层中已有同名说明时返回false
+    public boolean addItem(int id, Kind kind) {
+        int i = find(id);
+        int old = keys[i] == 0 ? -1 : visible[i] - 1;
+        if (old >= 0 && levels[old] == level)
             return false;
+        if (keys[i] == 0) {
+            keys[i] = id + 1;
+            used++;
+        }
+        if (level > 0) {
+            if (undoCount == undoIds.length) {
+                undoIds = Arrays.copyOf(undoIds, undoCount * 2);
+                undoVisible = Arrays.copyOf(undoVisible, undoCount * 2);
+            }
+            undoIds[undoCount] = id;
+            undoVisible[undoCount++] = visible[i];
+        }
+        if (size == ids.length)
+            growEntries();
+        ids[size] = id;
+        kinds[size] = (byte) kind.ordinal();
+        slots[size] = -1;
+        values[size] = 0;
+        levels[size] = level;
+        owners[size] = level == 0 ? -1 : scopeOwners[level - 1];
+        visible[i] = ++size;
+        if (kind == Kind.VARIABLE)
+            allocateSlot(id);
+        if (used * 2 > keys.length)
+            rehash();
+        return true;
+    }
+
+    private void growEntries() {
+        int capacity = size * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        values = Arrays.copyOf(values, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        qualified = Arrays.copyOf(qualified, capacity);
+    }
+
+    /*
+     * 进入过程id的说明部分；之后加入的表项属于该过程，id不是过程名（如过程名重复）时属于一个无名的过程
+     */
+    public void enterScope(int id) {
+        if (level == marks.length) {
+            marks = Arrays.copyOf(marks, level * 2);
+            scopeOwners = Arrays.copyOf(scopeOwners, level * 2);
+        }
+        int owner = id < 0 ? -1 : entry(id);
+        marks[level] = undoCount;
+        scopeOwners[level++] = owner >= 0 && kinds[owner] == Kind.PROCEDURE.ordinal() ? owner : -1;
+    }
+
+    /*
+     * 退出当前作用域：其中的说明不再可见，被遮盖的外层说明重新可见；表项与槽位保留，供输出与运行时使用
+     */
+    public void exitScope() {
+        int mark = marks[--level];
+        while (undoCount > mark) {
+            undoCount--;
+            visible[find(undoIds[undoCount])] = undoVisible[undoCount];
+        }
+    }
+
+    // 当前作用域的层数，主程序为0
+    public int level() {
+        return level;
+    }
+
+    // getKind函数: 返回标识符种类，不存在时返回null
+    public Kind getKind(int id) {
+        int e = entry(id);
+        return e < 0 ? null : KINDS[kinds[e]];
+    }
+
+    // setValue函数: 记录常量的值或过程的入口地址
+    public void setValue(int id, int value) {
+        values[entry(id)] = value;
+    }
+
+    // getValue函数: 返回常量的值或过程的入口地址
+    public int getValue(int id) {
+        int e = entry(id);
+        return e < 0 ? 0 : values[e];
     }
 
-    // getType函数:返回标识符类型
-    public String getType(String id) {
-        return tokenTable.get(id);
+    // allocateSlot函数: 为标识符分配运行时槽位（常量只在不做常量折叠时需要）
+    public int allocateSlot(int id) {
+        int e = entry(id);
+        if (slots[e] < 0) {
+            if (slotCount == slotEntries.length)
+                slotEntries = Arrays.copyOf(slotEntries, slotCount * 2);
+            slotEntries[slotCount] = e;
+            slots[e] = slotCount++;
+        }
+        return slots[e];
+    }
+
+    // getSlot函数: 返回标识符的槽位
+    public int getSlot(int id) {
+        int e = entry(id);
+        return e < 0 ? 0 : slots[e];
+    }
+
+    // 表项个数（包括已退出的作用域中的表项）
+    public int size() {
+        return size;
+    }
+
+    // 第k个表项的种类、槽位（没有时为-1）与值
+    public Kind kindAt(int k) {
+        return KINDS[kinds[k]];
+    }
+
+    public int slotAt(int k) {
+        return slots[k];
+    }
+
+    public int valueAt(int k) {
+        return values[k];
+    }
+
+    // 第k个表项的限定名：过程中的说明前面加上所属过程的限定名，如p.q.x，主程序中的说明就是标识符本身
+    public String nameAt(int k) {
+        if (owners[k] < 0)
+            return names.name(ids[k]);
+        if (qualified[k] == null)
+            qualified[k] = nameAt(owners[k]) + "." + names.name(ids[k]);
+        return qualified[k];
+    }
+
+    // 已分配的槽位个数
+    public int slotCount() {
+        return slotCount;
+    }
+
+    // 槽位对应的（限定）名称
+    public String slotName(int slot) {
+        return nameAt(slotEntries[slot]);
+    }
+
+    public String name(int id) {
+        return names.name(id);
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldVisible = visible;
+        int capacity = oldKeys.length * 2;
+        keys = new int[capacity];
+        visible = new int[capacity];
+        shift--;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0)
+                continue;
+            int i = find(oldKeys[j] - 1);
+            keys[i] = oldKeys[j];
+            visible[i] = oldVisible[j];
+        }
     }
 
     // printTable函数: 打印符号表内容
     public void printTable() {
-        for (HashMap.Entry<String, String> entry : tokenTable.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            System.out.println("name: " + key + ", type: " + value);
+        for (int k = 0; k < size; k++) {
+            Kind kind = kindAt(k);
+            if (kind == Kind.CONSTANT)
+                System.out.println("name: " + nameAt(k) + ", type: " + kind + ", value: " + values[k]);
+            else if (kind == Kind.PROCEDURE)
+                System.out.println("name: " + nameAt(k) + ", type: " + kind + ", address: " + values[k]);
+            else
+                System.out.println("name: " + nameAt(k) + ", type: " + kind);
         }
     }
 }
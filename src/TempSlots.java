@@ -0,0 +1,71 @@
+/**
+ * 【临时变量的槽位复用】
+ * newTempVar为每个中间结果分配新的Tn，tempVarCounter只增不减；
+ * 本步骤由LinearScan（寄存器个数不限、只分配临时变量）计算各临时变量的活跃区间，
+ * 按区间划分把活跃区间不相交的临时变量编为同一个Tn，tempVarCounter降为同时活跃的临时变量所需的槽位数；
+ * 先使用后定义的临时变量（初值0）的区间从程序开始，因此不会与其他临时变量共用槽位，执行结果不变
+ */
+public class TempSlots {
+    private final Intermediater ir;
+    private int before, after;
+    private int peak; // 同时活跃的临时变量的最大个数
+    private CompileStats stats; // 统计，为null时不统计
+
+    public TempSlots(Intermediater ir) {
+        this.ir = ir;
+    }
+
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    public void renumber() {
+        CompileEvents.Optimize event = CompileEvents.beginOptimize();
+        if (stats != null)
+            stats.begin();
+        int n = ir.size();
+        int varCount = ir.varCount();
+        before = ir.tempVarCounter;
+        LinearScan scan = new LinearScan(ir, LinearScan.UNBOUNDED, true);
+        scan.allocate();
+        for (int i = 0; i < n; i++) {
+            int op = ir.op[i];
+            if (op != OpCode.call)
+                ir.arg1[i] = slot(scan, varCount, ir.arg1[i]);
+            ir.arg2[i] = slot(scan, varCount, ir.arg2[i]);
+            if (!OpCode.isJump(op))
+                ir.result[i] = slot(scan, varCount, ir.result[i]);
+        }
+        ir.tempVarCounter = after = scan.getRegisterCount();
+        peak = scan.getMaxPressure();
+        if (CompileEvents.end(event)) {
+            event.pass = "temp slot reuse";
+            event.before = n;
+            event.after = n;
+            event.commit();
+        }
+        if (stats != null)
+            stats.end("temp slot reuse (" + before + " -> " + after + " temps)", n, "instructions");
+    }
+
+    private static int slot(LinearScan scan, int varCount, int operand) {
+        if (Intermediater.kind(operand) != Intermediater.TEMP)
+            return operand;
+        return Intermediater.operand(Intermediater.TEMP,
+                scan.register(varCount + Intermediater.index(operand)));
+    }
+
+    // 原先的临时变量个数
+    public int getBefore() {
+        return before;
+    }
+
+    // 复用后的槽位数
+    public int getAfter() {
+        return after;
+    }
+
+    public int getPeak() {
+        return peak;
+    }
+}
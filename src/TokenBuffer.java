@@ -0,0 +1,71 @@
+import java.util.Arrays;
+
+/**
+ * 【符号缓冲区】
+ * 按结构体数组（struct of arrays）存放已识别的符号：类型、值（数字的数值或标识符的编号）、行号与起始位置，
+ * 每个符号占13个字节，不为符号创建对象；由ParallelLexer的各段分别填写后按顺序拼接
+ */
+public class TokenBuffer {
+    private byte[] types;
+    private int[] values;
+    private int[] lines;
+    private int[] starts;
+    private int size = 0;
+
+    public TokenBuffer(int capacity) {
+        capacity = Math.max(16, capacity);
+        types = new byte[capacity];
+        values = new int[capacity];
+        lines = new int[capacity];
+        starts = new int[capacity];
+    }
+
+    public void add(int type, int value, int line, int start) {
+        if (size == types.length)
+            grow();
+        types[size] = (byte) type;
+        values[size] = value;
+        lines[size] = line;
+        starts[size] = start;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = size + (size >> 1);
+        types = Arrays.copyOf(types, capacity);
+        values = Arrays.copyOf(values, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public int value(int i) {
+        return values[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * 拼接时修正：标识符的编号由段内编号换成全局编号，行号加上之前各段的行数
+     */
+    public void relocate(int[] idMap, int lineOffset) {
+        for (int i = 0; i < size; i++) {
+            if (types[i] == Symbol.ident)
+                values[i] = idMap[values[i]];
+            lines[i] += lineOffset;
+        }
+    }
+}
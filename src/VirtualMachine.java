@@ -0,0 +1,258 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * 【三地址代码的寄存器式虚拟机】
+ * 把Intermediater生成的四元式预先译码为紧凑的int数组，
+ * 变量、临时变量和常数统一存放在一个int[]帧中，操作数直接是帧下标；
+ * 过程调用把返回地址压入调用栈，递归调用时把保存集合中的槽位压入另一个栈，返回时恢复
+ */
+public class VirtualMachine {
+    // 默认允许的向后跳转次数（即循环迭代次数），防止死循环的程序无法结束
+    public static final long DEFAULT_MAX_ITERATIONS = 10_000_000L;
+    // 调用栈的最大深度，超过时视为运行时错误（无穷递归）
+    public static final int MAX_CALL_DEPTH = 100_000;
+
+    private final Intermediater intermediater;
+
+    // 译码后的指令，每条指令占4个int：操作码、源操作数1、源操作数2、目的操作数/跳转下标
+    private final int[] code;
+    // 指令条数
+    private final int length;
+    // 帧：[变量 | 临时变量 | 常数]
+    private final int[] frame;
+    private final int varCount;
+    // 保存集合，下标为编号（0为空集合）
+    private final int[][] saveSets;
+
+    // 运行统计
+    private long executed = 0; // 执行的指令条数
+    private long jumps = 0; // 执行的条件跳转与无条件跳转条数
+    private long elapsedNanos = 0; // 执行耗时
+    private boolean exhausted = false; // 是否因循环次数用尽而停止
+    private int errorAddr = -1; // 运行时错误所在地址
+    private boolean overflow = false; // 运行时错误是否为调用栈溢出
+
+    public VirtualMachine(Intermediater ir) {
+        intermediater = ir;
+        length = ir.size();
+        varCount = ir.varCount();
+        int tempBase = varCount;
+        int constBase = tempBase + ir.tempVarCounter;
+        frame = new int[constBase + ir.constCount];
+        System.arraycopy(ir.constPool, 0, frame, constBase, ir.constCount);
+        saveSets = new int[ir.saveSetCount() + 1][];
+        for (int k = 0; k < saveSets.length; k++)
+            saveSets[k] = ir.saveSet(k);
+
+        code = new int[length * 4];
+        for (int i = 0; i < length; i++) {
+            int op = ir.op[i];
+            code[i * 4] = op;
+            // call的arg1为保存集合的编号
+            code[i * 4 + 1] = op == OpCode.call ? ir.arg1[i] : slot(ir.arg1[i], tempBase, constBase);
+            code[i * 4 + 2] = slot(ir.arg2[i], tempBase, constBase);
+            if (OpCode.isJump(op)) {
+                // 跳转目标译为指令下标，未回填的跳转视为跳到程序末尾
+                int target = ir.result[i];
+                code[i * 4 + 3] = target == Intermediater.EMPTY ? length : target - ir.initStat;
+            } else {
+                code[i * 4 + 3] = slot(ir.result[i], tempBase, constBase);
+            }
+        }
+    }
+
+    // 把操作数编码译为帧下标
+    private static int slot(int operand, int tempBase, int constBase) {
+        switch (Intermediater.kind(operand)) {
+            case Intermediater.VAR:
+                return Intermediater.index(operand);
+            case Intermediater.TEMP:
+                return tempBase + Intermediater.index(operand);
+            case Intermediater.CONST:
+                return constBase + Intermediater.index(operand);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 执行程序，直到执行完最后一条指令、发生运行时错误或向后跳转次数达到maxIterations
+     *
+     * @return 正常结束返回true
+     */
+    public boolean run(long maxIterations) {
+        final int[] code = this.code;
+        final int[] f = this.frame;
+        final int end = length;
+        long fuel = maxIterations;
+        long count = 0;
+        long jumps = 0;
+        int pc = 0;
+        // 调用栈：返回地址与保存集合的编号；saved为递归调用时保存的槽位的值
+        int[] returns = new int[16];
+        int[] sets = new int[16];
+        int depth = 0;
+        int[] saved = new int[64];
+        int savedTop = 0;
+        long start = System.nanoTime();
+        try {
+            while (pc < end) {
+                int i = pc << 2;
+                count++;
+                switch (code[i]) {
+                    case OpCode.assign:
+                        f[code[i + 3]] = f[code[i + 1]];
+                        pc++;
+                        break;
+                    case OpCode.pos:
+                        f[code[i + 3]] = f[code[i + 1]];
+                        pc++;
+                        break;
+                    case OpCode.neg:
+                        f[code[i + 3]] = -f[code[i + 1]];
+                        pc++;
+                        break;
+                    case OpCode.add:
+                        f[code[i + 3]] = f[code[i + 1]] + f[code[i + 2]];
+                        pc++;
+                        break;
+                    case OpCode.sub:
+                        f[code[i + 3]] = f[code[i + 1]] - f[code[i + 2]];
+                        pc++;
+                        break;
+                    case OpCode.mul:
+                        f[code[i + 3]] = f[code[i + 1]] * f[code[i + 2]];
+                        pc++;
+                        break;
+                    case OpCode.div:
+                        f[code[i + 3]] = f[code[i + 1]] / f[code[i + 2]];
+                        pc++;
+                        break;
+                    case OpCode.shl:
+                        f[code[i + 3]] = f[code[i + 1]] << f[code[i + 2]];
+                        pc++;
+                        break;
+                    case OpCode.jeq:
+                        jumps++;
+                        pc = f[code[i + 1]] == f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jne:
+                        jumps++;
+                        pc = f[code[i + 1]] != f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jlt:
+                        jumps++;
+                        pc = f[code[i + 1]] < f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jle:
+                        jumps++;
+                        pc = f[code[i + 1]] <= f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jgt:
+                        jumps++;
+                        pc = f[code[i + 1]] > f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jge:
+                        jumps++;
+                        pc = f[code[i + 1]] >= f[code[i + 2]] ? code[i + 3] : pc + 1;
+                        break;
+                    case OpCode.jmp:
+                        jumps++;
+                        pc = code[i + 3];
+                        break;
+                    case OpCode.call: {
+                        if (depth == MAX_CALL_DEPTH) {
+                            // 调用栈溢出：记录地址后结束程序，不与除零共用异常
+                            overflow = true;
+                            errorAddr = pc + intermediater.initStat;
+                            pc = end;
+                            break;
+                        }
+                        if (depth == returns.length) {
+                            returns = Arrays.copyOf(returns, depth * 2);
+                            sets = Arrays.copyOf(sets, depth * 2);
+                        }
+                        int[] set = saveSets[code[i + 1]];
+                        if (savedTop + set.length > saved.length)
+                            saved = Arrays.copyOf(saved, Math.max(saved.length * 2, savedTop + set.length));
+                        for (int slot : set)
+                            saved[savedTop++] = f[slot];
+                        returns[depth] = pc + 1;
+                        sets[depth++] = code[i + 1];
+                        pc = code[i + 3];
+                        break;
+                    }
+                    case OpCode.ret: {
+                        if (depth == 0) {
+                            pc = end; // 主程序中的return结束程序
+                            break;
+                        }
+                        int[] set = saveSets[sets[--depth]];
+                        for (int k = set.length - 1; k >= 0; k--)
+                            f[set[k]] = saved[--savedTop];
+                        pc = returns[depth];
+                        break;
+                    }
+                    default:
+                        pc++;
+                        break;
+                }
+                // 只在向后跳转（循环）时检查剩余次数
+                if (pc <= (i >> 2) && --fuel < 0) {
+                    exhausted = true;
+                    break;
+                }
+            }
+        } catch (ArithmeticException e) { // 只有除零
+            errorAddr = pc + intermediater.initStat;
+        }
+        elapsedNanos = System.nanoTime() - start;
+        executed = count;
+        this.jumps = jumps;
+        return !exhausted && errorAddr < 0;
+    }
+
+    /**
+     * 输出运行结果：变量的最终值与执行统计
+     */
+    public void printState() {
+        printState(System.out);
+    }
+
+    /**
+     * 运行时错误的提示，各个后端使用同一格式
+     */
+    public static String runtimeError(int addr, boolean overflow) {
+        return "Runtime error at " + addr + (overflow ? ": call stack overflow." : ": division by zero.");
+    }
+
+    public void printState(PrintStream out) {
+        if (errorAddr >= 0)
+            out.println(runtimeError(errorAddr, overflow));
+        else if (exhausted)
+            out.println("Stopped: loop iteration limit reached.");
+        for (int i = 0; i < varCount; i++) {
+            out.println(intermediater.varName(i) + " = " + frame[i]);
+        }
+        double seconds = elapsedNanos / 1e9;
+        out.printf("executed %d instructions in %.3f ms (%.1f M instructions/s)%n",
+                executed, elapsedNanos / 1e6, seconds > 0 ? executed / seconds / 1e6 : 0.0);
+    }
+
+    public int getValue(int slot) {
+        return frame[slot];
+    }
+
+    public long getExecuted() {
+        return executed;
+    }
+
+    public long getJumps() {
+        return jumps;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 【x86-64汇编后端】
+ * 把Intermediater生成的四元式翻译为Linux x86-64的GNU汇编（AT&T语法），由as汇编、ld链接为不依赖C库的静态可执行文件；
+ * 变量和临时变量由LinearScan分配到寄存器，溢出的值放在栈帧中（以%rbp为基址），所有值开始时都为0；
+ * 关系运算的条件跳转为cmp加条件转移指令；运算按int32回绕，除数为0时报告运行时错误，最小值除以-1的结果为最小值，与虚拟机一致；
+ * 过程调用使用call/ret，调用深度超过VirtualMachine.MAX_CALL_DEPTH时报告调用栈溢出，递归调用保存的槽位放在单独的保存栈中；
+ * 向后跳转（包括返回到更前面的代码）扣减循环次数，用尽时停止；
+ * 结束（包括运行时错误与循环次数用尽）时由_start之后的小运行时按虚拟机的格式输出变量的最终值，
+ * 退出状态：0正常结束，1运行时错误，2循环次数用尽
+ */
+public class X86Backend {
+    // 可以分配的寄存器；%eax、%edx用于除法和中转，%r11为保存栈指针和除数，%rbp为栈帧基址
+    private static final String[] REG32 = {
+            "%ebx", "%ecx", "%esi", "%edi", "%r8d", "%r9d", "%r10d", "%r12d", "%r13d", "%r14d", "%r15d"
+    };
+    // 条件转移指令的后缀，顺序与OpCode中jeq~jge一致；INVERTED为相反的条件
+    private static final String[] CONDITION = {"e", "ne", "l", "le", "g", "ge"};
+    private static final String[] INVERTED = {"ne", "e", "ge", "g", "le", "l"};
+
+    // 结束状态，与退出状态不同：区分两种运行时错误
+    private static final int STATUS_DIVISION = 1;
+    private static final int STATUS_OVERFLOW = 2;
+    private static final int STATUS_STOPPED = 3;
+
+    private final Intermediater ir;
+    private final int length;
+    private final int varCount;
+    private final LinearScan allocation;
+    private final long maxIterations;
+
+    private final StringBuilder out = new StringBuilder();
+    private final List<String> stubs = new ArrayList<>(); // 放在代码之后的运行时错误处理
+    private boolean[] labeled;
+    private int lastRet = -1; // 最后一条return的下标
+
+    public X86Backend(Intermediater ir, long maxIterations) {
+        this.ir = ir;
+        this.length = ir.size();
+        this.varCount = ir.varCount();
+        this.maxIterations = maxIterations;
+        allocation = new LinearScan(ir, REG32.length);
+    }
+
+    /**
+     * 生成汇编源程序
+     */
+    public String generate() {
+        allocation.allocate();
+        labeled = ir.leaders();
+        for (int i = 0; i < length; i++) {
+            if (ir.op[i] == OpCode.ret) {
+                labeled[i] = true; // 返回时与返回地址比较，判断是否为向后跳转
+                lastRet = i;
+            }
+        }
+        int frame = (allocation.getSpillCount() * 4 + 15) & ~15;
+
+        line("# PL/0 program: " + length + " instructions, " + varCount + " variables, "
+                + allocation.getSpillCount() + " spilled values");
+        line("\t.text");
+        line("\t.globl _start");
+        line("_start:");
+        line("\tmovq %rsp, %rbp");
+        if (frame > 0) {
+            line("\tsubq $" + frame + ", %rsp");
+            line("\tmovq %rsp, %rdi");
+            line("\tmovl $" + frame / 8 + ", %ecx");
+            line("\txorl %eax, %eax");
+            line("\trep stosq");
+        }
+        boolean[] used = new boolean[REG32.length];
+        for (int v = 0; v < allocation.valueCount(); v++)
+            if (allocation.register(v) >= 0)
+                used[allocation.register(v)] = true;
+        for (int r = 0; r < REG32.length; r++)
+            if (used[r])
+                line("\txorl " + REG32[r] + ", " + REG32[r]);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (labeled[i])
+                line(label(i) + ":");
+            text.setLength(0);
+            ir.render(i, text);
+            line("\t# " + text.toString().replace('\t', ' '));
+            generate(i);
+        }
+        line(label(length) + ":");
+        line("pl0_end:");
+        line("\tmovl $0, pl0_status(%rip)");
+        line("pl0_finish:");
+        // 把变量写回pl0_vars，再由运行时输出
+        for (int v = 0; v < varCount; v++) {
+            if (allocation.isUsed(v))
+                move(location(v), "pl0_vars+" + 4 * v + "(%rip)");
+        }
+        line("\tjmp pl0_report");
+        for (String stub : stubs)
+            out.append(stub);
+        line("pl0_stop:");
+        line("\tmovl $" + STATUS_STOPPED + ", pl0_status(%rip)");
+        line("\tjmp pl0_finish");
+        runtime();
+        data();
+        return out.toString();
+    }
+
+    /**
+     * 生成汇编源程序并写入文件
+     */
+    public void write(Path target) throws IOException {
+        String text = generate();
+        try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * 用as与ld把汇编源程序asm汇编、链接为可执行文件executable
+     */
+    public static void link(Path asm, Path executable) throws IOException {
+        Path object = executable.resolveSibling(executable.getFileName() + ".o");
+        try {
+            exec("as", "-o", object.toString(), asm.toString());
+            exec("ld", "-o", executable.toString(), object.toString());
+        } finally {
+            Files.deleteIfExists(object);
+        }
+    }
+
+    // 执行外部命令，失败时抛出带有其输出的IOException
+    static void exec(String... command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            if (process.waitFor() != 0)
+                throw new IOException(String.join(" ", command) + " failed:\n" + output);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(command[0] + " interrupted");
+        }
+    }
+
+    private void line(String s) {
+        out.append(s).append('\n');
+    }
+
+    private static String label(int index) {
+        return ".L" + index;
+    }
+
+    // 跳转目标的标号，程序末尾为pl0_end之前的标号
+    private String target(int i) {
+        return label(ir.targetIndex(i));
+    }
+
+    // 值所在的位置：寄存器或者栈帧中的溢出槽
+    private String location(int v) {
+        int register = allocation.register(v);
+        if (register >= 0)
+            return REG32[register];
+        return -4 * (allocation.spillSlot(v) + 1) + "(%rbp)";
+    }
+
+    // 操作数的汇编形式：常数为立即数，空操作数为空串
+    private String operand(int operand) {
+        if (Intermediater.kind(operand) == Intermediater.NONE)
+            return "";
+        if (Intermediater.kind(operand) == Intermediater.CONST)
+            return "$" + ir.constPool[Intermediater.index(operand)];
+        return location(allocation.valueOf(operand));
+    }
+
+    private static boolean isRegister(String location) {
+        return location.startsWith("%");
+    }
+
+    private static boolean isMemory(String location) {
+        return location.endsWith(")");
+    }
+
+    // 在两个位置之间传送，内存之间经过%eax
+    private void move(String from, String to) {
+        if (from.equals(to))
+            return;
+        if (isMemory(from) && isMemory(to)) {
+            line("\tmovl " + from + ", %eax");
+            from = "%eax";
+        }
+        line("\tmovl " + from + ", " + to);
+    }
+
+    // 向后跳转扣减循环次数
+    private void fuel() {
+        line("\tdecq pl0_fuel(%rip)");
+        line("\tjs pl0_stop");
+    }
+
+    // 运行时错误的处理代码：记录地址与状态后结束
+    private String error(int i, int status) {
+        String stub = ".Lerr" + i;
+        stubs.add(stub + ":\n\tmovl $" + (i + ir.initStat) + ", pl0_error_addr(%rip)\n\tmovl $" + status
+                + ", pl0_status(%rip)\n\tjmp pl0_finish\n");
+        return stub;
+    }
+
+    private void generate(int i) {
+        int op = ir.op[i];
+        String a = op == OpCode.call ? "" : operand(ir.arg1[i]);
+        switch (op) {
+            case OpCode.assign:
+            case OpCode.pos:
+                move(a, operand(ir.result[i]));
+                break;
+            case OpCode.neg: {
+                String r = operand(ir.result[i]);
+                if (isRegister(r) || a.equals(r)) {
+                    move(a, r);
+                    line("\tnegl " + r);
+                } else {
+                    move(a, "%eax");
+                    line("\tnegl %eax");
+                    move("%eax", r);
+                }
+                break;
+            }
+            case OpCode.add:
+            case OpCode.sub:
+            case OpCode.mul:
+                arithmetic(op, a, operand(ir.arg2[i]), operand(ir.result[i]));
+                break;
+            case OpCode.div:
+                divide(i, a, operand(ir.arg2[i]), operand(ir.result[i]));
+                break;
+            case OpCode.shl:
+                shift(a, operand(ir.arg2[i]), operand(ir.result[i]));
+                break;
+            case OpCode.jmp:
+                if (ir.targetIndex(i) <= i)
+                    fuel();
+                line("\tjmp " + target(i));
+                break;
+            case OpCode.call:
+                call(i);
+                break;
+            case OpCode.ret:
+                line("\tcmpq $0, pl0_depth(%rip)");
+                line("\tje pl0_end");
+                line("\tdecq pl0_depth(%rip)");
+                // %edx为1表示返回地址在本条代码之前，调用者恢复保存的槽位后扣减循环次数
+                line("\txorl %edx, %edx");
+                line("\tleaq " + label(i) + "(%rip), %rax");
+                line("\tcmpq %rax, (%rsp)");
+                line("\tsetb %dl");
+                line("\tret");
+                break;
+            default: // 条件跳转
+                compare(a, operand(ir.arg2[i]));
+                int rel = op - OpCode.jeq;
+                if (ir.targetIndex(i) > i) {
+                    line("\tj" + CONDITION[rel] + " " + target(i));
+                } else {
+                    String skip = ".Lskip" + i;
+                    line("\tj" + INVERTED[rel] + " " + skip);
+                    fuel();
+                    line("\tjmp " + target(i));
+                    line(skip + ":");
+                }
+                break;
+        }
+    }
+
+    // r := a op b（加、减、乘）；imul的目的操作数必须是寄存器
+    private void arithmetic(int op, String a, String b, String r) {
+        String insn = op == OpCode.add ? "addl " : op == OpCode.sub ? "subl " : "imull ";
+        if (isRegister(r) && !r.equals(b)) {
+            move(a, r);
+            line("\t" + insn + b + ", " + r);
+        } else if (isRegister(r) && op != OpCode.sub) {
+            // r与b相同，交换可交换运算的操作数
+            line("\t" + insn + a + ", " + r);
+        } else {
+            move(a, "%eax");
+            line("\t" + insn + b + ", %eax");
+            move("%eax", r);
+        }
+    }
+
+    // r := a << b：位数为常数时直接移位，否则经由%cl（%rcx暂存在%r11中），shll只取低5位，与虚拟机一致
+    private void shift(String a, String b, String r) {
+        if (b.startsWith("$")) {
+            b = "$" + (Integer.parseInt(b.substring(1)) & 31);
+            if (isRegister(r)) {
+                move(a, r);
+                line("\tshll " + b + ", " + r);
+            } else {
+                move(a, "%eax");
+                line("\tshll " + b + ", %eax");
+                move("%eax", r);
+            }
+            return;
+        }
+        move(a, "%eax");
+        line("\tmovq %rcx, %r11");
+        line("\tmovl " + b + ", %ecx");
+        line("\tshll %cl, %eax");
+        line("\tmovq %r11, %rcx");
+        move("%eax", r);
+    }
+
+    // r := a / b：除数为0时报告运行时错误，除数为-1时取反（避免idiv在最小值除以-1时溢出）
+    private void divide(int i, String a, String b, String r) {
+        if (b.startsWith("$")) {
+            int divisor = Integer.parseInt(b.substring(1));
+            if (divisor == 0) {
+                line("\tjmp " + error(i, STATUS_DIVISION));
+                return;
+            }
+            move(a, "%eax");
+            if (divisor == -1) {
+                line("\tnegl %eax");
+            } else {
+                line("\tmovl " + b + ", %r11d");
+                line("\tcltd");
+                line("\tidivl %r11d");
+            }
+        } else {
+            line("\tmovl " + b + ", %r11d");
+            line("\ttestl %r11d, %r11d");
+            line("\tje " + error(i, STATUS_DIVISION));
+            move(a, "%eax");
+            line("\tcmpl $-1, %r11d");
+            line("\tje .Lneg" + i);
+            line("\tcltd");
+            line("\tidivl %r11d");
+            line("\tjmp .Ldiv" + i);
+            line(".Lneg" + i + ":");
+            line("\tnegl %eax");
+            line(".Ldiv" + i + ":");
+        }
+        move("%eax", r);
+    }
+
+    // cmp的第二个操作数（AT&T语法中的目的操作数）不能是立即数，两个操作数不能都在内存中
+    private void compare(String a, String b) {
+        if (a.startsWith("$") || isMemory(a) && isMemory(b)) {
+            move(a, "%eax");
+            a = "%eax";
+        }
+        line("\tcmpl " + b + ", " + a);
+    }
+
+    /*
+     * 过程调用：检查调用深度，把保存集合中的槽位压入保存栈，向后调用时扣减循环次数；
+     * 返回后恢复保存的槽位，被调用者的return是向后跳转时再扣减循环次数
+     */
+    private void call(int i) {
+        int[] slots = ir.saveSet(ir.arg1[i]);
+        line("\tcmpq $" + VirtualMachine.MAX_CALL_DEPTH + ", pl0_depth(%rip)");
+        line("\tje " + error(i, STATUS_OVERFLOW));
+        if (slots.length > 0) {
+            line("\tmovq pl0_save_top(%rip), %r11");
+            for (int k = 0; k < slots.length; k++)
+                move(location(slots[k]), 4 * k + "(%r11)");
+            line("\taddq $" + 4 * slots.length + ", pl0_save_top(%rip)");
+        }
+        line("\tincq pl0_depth(%rip)");
+        if (ir.targetIndex(i) <= i)
+            fuel();
+        line("\tcall " + target(i));
+        if (slots.length > 0) {
+            line("\tsubq $" + 4 * slots.length + ", pl0_save_top(%rip)");
+            line("\tmovq pl0_save_top(%rip), %r11");
+            for (int k = 0; k < slots.length; k++)
+                move(4 * k + "(%r11)", location(slots[k]));
+        }
+        if (lastRet > i) {
+            String skip = ".Lskip" + i;
+            line("\ttestl %edx, %edx");
+            line("\tje " + skip);
+            fuel();
+            line(skip + ":");
+        }
+    }
+
+    // 输出变量的最终值的运行时，格式与VirtualMachine.printState一致
+    private void runtime() {
+        String[] code = {
+                "pl0_report:",
+                "\tmovl pl0_status(%rip), %eax",
+                "\tcmpl $" + STATUS_STOPPED + ", %eax",
+                "\tje 2f",
+                "\ttestl %eax, %eax",
+                "\tje 3f",
+                "\tleaq pl0_msg_error(%rip), %rsi",
+                "\tmovl $17, %edx",
+                "\tcall pl0_puts",
+                "\tmovl pl0_error_addr(%rip), %edi",
+                "\tcall pl0_putint",
+                "\tleaq pl0_msg_division(%rip), %rsi",
+                "\tmovl $20, %edx",
+                "\tcmpl $" + STATUS_DIVISION + ", pl0_status(%rip)",
+                "\tje 1f",
+                "\tleaq pl0_msg_overflow(%rip), %rsi",
+                "\tmovl $23, %edx",
+                "1:\tcall pl0_puts",
+                "\tjmp 3f",
+                "2:\tleaq pl0_msg_stopped(%rip), %rsi",
+                "\tmovl $39, %edx",
+                "\tcall pl0_puts",
+                // 逐个输出变量：名字（已包含\" = \"）、值与换行
+                "3:\txorl %r12d, %r12d",
+                "4:\tcmpq pl0_var_count(%rip), %r12",
+                "\tjae 5f",
+                "\tleaq pl0_names(%rip), %rax",
+                "\tmovq %r12, %rcx",
+                "\tshlq $4, %rcx",
+                "\tmovq (%rax,%rcx), %rsi",
+                "\tmovq 8(%rax,%rcx), %rdx",
+                "\tcall pl0_puts",
+                "\tleaq pl0_vars(%rip), %rax",
+                "\tmovl (%rax,%r12,4), %edi",
+                "\tcall pl0_putint",
+                "\tleaq pl0_newline(%rip), %rsi",
+                "\tmovl $1, %edx",
+                "\tcall pl0_puts",
+                "\tincq %r12",
+                "\tjmp 4b",
+                "5:\tcall pl0_flush",
+                // 退出状态：0正常结束，1运行时错误，2循环次数用尽
+                "\tmovl pl0_status(%rip), %edi",
+                "\tcmpl $" + STATUS_STOPPED + ", %edi",
+                "\tjne 6f",
+                "\tmovl $2, %edi",
+                "\tjmp 7f",
+                "6:\ttestl %edi, %edi",
+                "\tsetne %dil",
+                "\tmovzbl %dil, %edi",
+                "7:\tmovl $60, %eax",
+                "\tsyscall",
+                "",
+                // pl0_puts：把%rsi开始的%rdx个字节追加到输出缓冲区
+                "pl0_puts:",
+                "\tmovq pl0_out_length(%rip), %rax",
+                "\tleaq (%rax,%rdx), %rcx",
+                "\tcmpq $4096, %rcx",
+                "\tjbe 1f",
+                "\tpushq %rsi",
+                "\tpushq %rdx",
+                "\tcall pl0_flush",
+                "\tpopq %rdx",
+                "\tpopq %rsi",
+                "\txorl %eax, %eax",
+                "\tcmpq $4096, %rdx",
+                "\tjbe 1f",
+                // 超过缓冲区大小的内容直接写出
+                "\tmovl $1, %eax",
+                "\tmovl $1, %edi",
+                "\tsyscall",
+                "\tret",
+                "1:\tleaq pl0_out(%rip), %rdi",
+                "\taddq %rax, %rdi",
+                "\taddq %rdx, %rax",
+                "\tmovq %rax, pl0_out_length(%rip)",
+                "\tmovq %rdx, %rcx",
+                "\trep movsb",
+                "\tret",
+                "",
+                // pl0_flush：写出输出缓冲区
+                "pl0_flush:",
+                "\tmovl $1, %eax",
+                "\tmovl $1, %edi",
+                "\tleaq pl0_out(%rip), %rsi",
+                "\tmovq pl0_out_length(%rip), %rdx",
+                "\tsyscall",
+                "\tmovq $0, pl0_out_length(%rip)",
+                "\tret",
+                "",
+                // pl0_putint：以十进制输出%edi中的有符号整数
+                "pl0_putint:",
+                "\tsubq $24, %rsp",
+                "\tmovslq %edi, %rax",
+                "\tmovq %rax, %r8",
+                "\tleaq 24(%rsp), %rsi",
+                "\ttestq %rax, %rax",
+                "\tjns 1f",
+                "\tnegq %rax",
+                "1:\tmovl $10, %ecx",
+                "2:\txorl %edx, %edx",
+                "\tdivq %rcx",
+                "\taddb $48, %dl",
+                "\tdecq %rsi",
+                "\tmovb %dl, (%rsi)",
+                "\ttestq %rax, %rax",
+                "\tjnz 2b",
+                "\ttestq %r8, %r8",
+                "\tjns 3f",
+                "\tdecq %rsi",
+                "\tmovb $45, (%rsi)",
+                "3:\tleaq 24(%rsp), %rdx",
+                "\tsubq %rsi, %rdx",
+                "\tcall pl0_puts",
+                "\taddq $24, %rsp",
+                "\tret",
+        };
+        line("");
+        for (String s : code)
+            line(s);
+    }
+
+    private void data() {
+        int saveStack = 0; // 保存栈的字节数：每层调用最多保存最大的保存集合
+        for (int s = 1; s <= ir.saveSetCount(); s++)
+            saveStack = Math.max(saveStack, ir.saveSet(s).length * 4);
+        saveStack = Math.max(8, saveStack * VirtualMachine.MAX_CALL_DEPTH);
+
+        line("");
+        line("\t.data");
+        line("\t.align 8");
+        line("pl0_fuel:\t.quad " + maxIterations);
+        line("pl0_depth:\t.quad 0");
+        line("pl0_save_top:\t.quad pl0_saves");
+        line("pl0_out_length:\t.quad 0");
+        line("pl0_status:\t.long 0");
+        line("pl0_error_addr:\t.long 0");
+        line("pl0_var_count:\t.quad " + varCount);
+        line("pl0_names:");
+        for (int v = 0; v < varCount; v++)
+            line("\t.quad pl0_name" + v + ", " + (ir.varName(v).length() + 3));
+
+        line("");
+        line("\t.section .rodata");
+        line("pl0_msg_error:\t.ascii \"Runtime error at \"");
+        line("pl0_msg_division:\t.ascii \": division by zero.\\n\"");
+        line("pl0_msg_overflow:\t.ascii \": call stack overflow.\\n\"");
+        line("pl0_msg_stopped:\t.ascii \"Stopped: loop iteration limit reached.\\n\"");
+        line("pl0_newline:\t.ascii \"\\n\"");
+        for (int v = 0; v < varCount; v++)
+            line("pl0_name" + v + ":\t.ascii \"" + ir.varName(v) + " = \"");
+
+        line("");
+        line("\t.bss");
+        line("\t.align 8");
+        line("pl0_vars:\t.skip " + Math.max(4, varCount * 4));
+        line("pl0_out:\t.skip 4096");
+        line("pl0_saves:\t.skip " + saveStack);
+    }
+}